@@ -14,4 +14,16 @@ abstract public class AggregHelper implements Serializable {
         this.count = 0;
         this.first = true;
     }
+
+    /**
+     * Merge the values added to another helper of the same class into this
+     * one, as if they had been added to this helper.
+     */
+    public void merge(AggregHelper other) {
+        if (other.first) {
+            return;
+        }
+        this.count += other.count;
+        this.first = false;
+    }
 }
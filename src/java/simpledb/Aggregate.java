@@ -1,22 +1,104 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). Any number of aggregates, over any columns, can be computed at once,
+ * grouped by any number of columns; all of them are computed in a single pass
+ * over the child with a {@link GroupAggregator}. A single aggregate grouped by
+ * at most one column uses the specialized {@link IntGroupAggregator} (INT
+ * aggregate and group-by fields), {@link IntegerAggregator} or
+ * {@link StringAggregator}.
+ * <p>
+ * If there is one group-by field and the child is known to be sorted on it (see
+ * {@link JoinOptimizer#isSortedOn}), the groups are aggregated one at a time
+ * while the child is streamed, and nothing is kept in memory.
+ * <p>
+ * Otherwise the groups are aggregated in the hash table of the aggregator
+ * with a memory budget.
+ * Once the table holds as many groups as the budget allows, the tuples of
+ * the groups already in the table are still aggregated, but the tuples of
+ * new groups are hashed into {@link #NUM_PARTITIONS} partitions and spilled
+ * to {@link SpillFile}s. After the groups of the table are returned, every
+ * spilled partition is aggregated by a nested Aggregate that partitions with
+ * a different hash function; after {@link #MAX_RECURSION_DEPTH} levels,
+ * which only happens if the budget is tiny, a partition is aggregated in
+ * memory regardless of the budget.
+ * <p>
+ * If the child is an {@link Exchange}, or a scan of a {@link HeapFile}
+ * possibly under {@link Filter}s, up to {@link #setParallelism parallelism}
+ * worker threads take morsels of the pages of the table from a
+ * {@link ParallelScan} and aggregate them into a partial aggregator of their
+ * own. The partial aggregators are then
+ * merged into the final one with {@link Aggregator#merge}. Every worker gets
+ * an equal share of the memory budget; if the groups of a worker don't fit
+ * in its share, the partial results are dropped and the child is aggregated
+ * on one thread, spilling as described above.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchDbIterator {
 
     private static final long serialVersionUID = 1L;
 
-    private final DbIterator child;
+    /** The default number of bytes of groups kept in memory (16 MB). */
+    public static final int DEFAULT_MEMORY_BUDGET = 16 * 1024 * 1024;
+
+    /** The number of partitions the tuples of spilled groups are hashed into. */
+    public static final int NUM_PARTITIONS = 16;
+
+    /** The number of times spilled partitions are partitioned again. */
+    public static final int MAX_RECURSION_DEPTH = 3;
+
+    // the estimated size of a group in the hash table besides its key: the
+    // aggregate helper, the boxed key and the HashMap entry.
+    private static final int GROUP_OVERHEAD = 96;
+    // the estimated size of the helper of every additional aggregate.
+    private static final int HELPER_SIZE = 32;
+
+    /** The default number of worker threads, the number of processors. */
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /** The least number of pages of the child a worker thread is used for. */
+    public static final int MIN_PAGES_PER_WORKER = 16;
+
+    private DbIterator child;
+    private final int[] aFields, gFields;
+    private Type[] aFieldTypes, gFieldTypes;
+    private final Aggregator.Op[] ops;
+    // the first aggregate and group-by field, or NO_GROUPING if there is none.
     private final int aField, gField;
-    private final Type aFieldType, gFieldType;
+    private Type aFieldType, gFieldType;
     private final Aggregator.Op op;
-    private final TupleDesc mergedTp;
+    private TupleDesc mergedTp;
+    private final int memoryBudget;
+    // the recursion depth of this aggregate; spilled partitions are
+    // aggregated at level + 1.
+    private final int level;
     private DbIterator aggrIter = null;
+    private transient BatchDbIterator resultBatches = null;
+
+    // true if the child is sorted on the group-by field.
+    private transient boolean sortedInput = false;
+    // the first tuple of the next group of a sorted child, and the values of
+    // the current group.
+    private transient Tuple peek = null;
+    private transient AggregHelper[] sortedHelpers = null;
+    private transient TupleDesc sortedTD = null;
+    private transient TupleBatch outBatch = null;
+
+    // spills[i] holds the tuples of the spilled groups of partition i, or is
+    // null if no tuple has been spilled to it.
+    private transient SpillFile[] spills = null;
+    private transient int nextSpilled = 0;
+    private transient Aggregate subAggregate = null;
+    private int spilledPartitions = 0;
+    private long spilledBytes = 0;
+    // the aggregator and group capacity of the tuples pushed by a PushPlan.
+    private transient Aggregator pushAggregator = null;
+    private transient int pushCapacity = 0;
+    private int parallelism = DEFAULT_PARALLELISM;
+    private int workers = 1;
 
     /**
      * Constructor.
@@ -37,40 +119,128 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
-        this.child = child;
-        this.aField = afield;
-        this.gField = gfield;
-        TupleDesc tmpChildTD = this.child.getTupleDesc();
-        this.aFieldType = tmpChildTD.getFieldType(this.aField);
+        this(child, afield, gfield, aop, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aop
+     *            The aggregation operator to use
+     * @param memoryBudget
+     *            the number of bytes of groups to keep in memory.
+     */
+    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop, int memoryBudget) {
+        this(child, gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield },
+                new int[] { afield }, new Aggregator.Op[] { aop }, memoryBudget, 0);
+    }
 
-        // appLabel is used in the precalc-ed merged Tuple Desc.
-        String aggLabel = String.format("%s(%s)", aop.toString(),
-                tmpChildTD.getFieldName(this.aField));
+    /**
+     * Constructor for several aggregates, computed in a single pass over the
+     * child.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param aops
+     *            The aggregation operators, aops[i] is computed over
+     *            afields[i]
+     */
+    public Aggregate(DbIterator child, int[] gfields, int[] afields, Aggregator.Op[] aops) {
+        this(child, gfields, afields, aops, DEFAULT_MEMORY_BUDGET);
+    }
 
-        // tpType and tpLabel is used to generate merged tp.
-        Type [] tpType;
-        String [] tpLabel;
+    /**
+     * Constructor for several aggregates, computed in a single pass over the
+     * child.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param aops
+     *            The aggregation operators, aops[i] is computed over
+     *            afields[i]
+     * @param memoryBudget
+     *            the number of bytes of groups to keep in memory.
+     */
+    public Aggregate(DbIterator child, int[] gfields, int[] afields, Aggregator.Op[] aops, int memoryBudget) {
+        this(child, gfields, afields, aops, memoryBudget, 0);
+    }
 
-        if (this.gField != Aggregator.NO_GROUPING) {
-            this.gFieldType = tmpChildTD.getFieldType(this.gField);
-            tpType = new Type[2];
-            tpType[0] = this.gFieldType;
-            tpType[1] = this.aFieldType;
-            tpLabel = new String[2];
-            tpLabel[0] = tmpChildTD.getFieldName(this.gField);
-            tpLabel[1] = aggLabel;
-        } else {
-            this.gFieldType = null;
-            tpType = new Type[1];
-            tpType[0] = this.aFieldType;
-            tpLabel = new String[1];
-            tpLabel[0] = aggLabel;
+    private Aggregate(DbIterator child, int[] gfields, int[] afields, Aggregator.Op[] aops, int memoryBudget,
+                      int level) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("memoryBudget must be positive.");
+        }
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("Aggregate: the aggregate fields and operators don't match.");
         }
+        this.memoryBudget = memoryBudget;
+        this.level = level;
+        this.child = child;
+        this.gFields = gfields.clone();
+        this.aFields = afields.clone();
+        this.ops = aops.clone();
+        this.aField = this.aFields[0];
+        this.op = this.ops[0];
+        this.gField = this.gFields.length == 0 ? Aggregator.NO_GROUPING : this.gFields[0];
+        this.setupTupleDesc();
+    }
+
+    /**
+     * Derives the field types and the output TupleDesc from the child.
+     */
+    private void setupTupleDesc() {
+        TupleDesc tmpChildTD = this.child.getTupleDesc();
+        this.gFieldTypes = new Type[this.gFields.length];
+        this.aFieldTypes = new Type[this.aFields.length];
 
-        this.op = aop;
+        // tpType and tpLabel is used to generate merged tp: the group-by
+        // fields come first, then the aggregates.
+        Type [] tpType = new Type[this.gFields.length + this.aFields.length];
+        String [] tpLabel = new String[tpType.length];
+        for (int i = 0; i < this.gFields.length; ++i) {
+            this.gFieldTypes[i] = tmpChildTD.getFieldType(this.gFields[i]);
+            tpType[i] = this.gFieldTypes[i];
+            tpLabel[i] = tmpChildTD.getFieldName(this.gFields[i]);
+        }
+        boolean single = this.isSingleAggregate();
+        for (int i = 0; i < this.aFields.length; ++i) {
+            this.aFieldTypes[i] = tmpChildTD.getFieldType(this.aFields[i]);
+            // a single aggregate keeps the type of its field, as it always did.
+            tpType[this.gFields.length + i] = single ? this.aFieldTypes[i] : Type.INT_TYPE;
+            tpLabel[this.gFields.length + i] = String.format("%s(%s)", this.ops[i].toString(),
+                    tmpChildTD.getFieldName(this.aFields[i]));
+        }
+
+        this.aFieldType = this.aFieldTypes[0];
+        this.gFieldType = this.gFields.length == 0 ? null : this.gFieldTypes[0];
         this.mergedTp = new TupleDesc(tpType, tpLabel);
     }
 
+    /**
+     * @return true if this Aggregate computes one aggregate grouped by at
+     *         most one field.
+     */
+    private boolean isSingleAggregate() {
+        return this.aFields.length == 1 && this.gFields.length <= 1;
+    }
+
     /**
      * @return If this aggregate is accompanied by a groupby, return the groupby
      *         field index in the <b>INPUT</b> tuples. If not, return
@@ -80,6 +250,14 @@ public class Aggregate extends Operator {
         return this.gField;
     }
 
+    /**
+     * @return the group-by field indices in the <b>INPUT</b> tuples; empty if
+     *         there is no grouping.
+     */
+    public int[] groupFields() {
+        return this.gFields.clone();
+    }
+
     /**
      * @return If this aggregate is accompanied by a group by, return the name
      *         of the groupby field in the <b>OUTPUT</b> tuples If not, return
@@ -100,6 +278,20 @@ public class Aggregate extends Operator {
         return this.aField;
     }
 
+    /**
+     * @return the aggregate fields, one for each aggregate.
+     */
+    public int[] aggregateFields() {
+        return this.aFields.clone();
+    }
+
+    /**
+     * @return the aggregate operators, one for each aggregate.
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return this.ops.clone();
+    }
+
     /**
      * @return return the name of the aggregate field in the <b>OUTPUT</b>
      *         tuples
@@ -122,39 +314,461 @@ public class Aggregate extends Operator {
 	return aop.toString();
     }
 
+    /**
+     * @return the number of groups of the given type that fit in the given
+     *         memory budget; at least 1.
+     */
+    public static int groupCapacity(int memoryBudget, Type gFieldType) {
+        return groupCapacity(memoryBudget, gFieldType == null ? new Type[0] : new Type[] { gFieldType }, 1);
+    }
+
+    /**
+     * @return the number of groups with the given group-by field types and
+     *         number of aggregates that fit in the given memory budget; at
+     *         least 1.
+     */
+    public static int groupCapacity(int memoryBudget, Type[] gFieldTypes, int numAggregates) {
+        int groupSize = GROUP_OVERHEAD + (numAggregates - 1) * HELPER_SIZE;
+        for (Type type : gFieldTypes) {
+            groupSize += type.getLen();
+        }
+        return Math.max(1, memoryBudget / groupSize);
+    }
+
+    /**
+     * @return true if the last open aggregated the groups of a sorted child
+     *         one at a time.
+     */
+    public boolean isSortedAggregation() {
+        return this.sortedInput;
+    }
+
+    /**
+     * Set the largest number of worker threads that aggregate the child in
+     * parallel; 1 aggregates it on the calling thread only.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive.");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the number of worker threads that aggregated the child in the
+     *         last open; 1 if it was aggregated on the calling thread.
+     */
+    public int getWorkers() {
+        return this.workers;
+    }
+
+    /**
+     * @return the number of partitions spilled to disk since the last open,
+     *         including those of the aggregates of spilled partitions.
+     */
+    public int getSpilledPartitions() {
+        return this.spilledPartitions;
+    }
+
+    /**
+     * @return the number of bytes spilled to disk since the last open,
+     *         including those of the aggregates of spilled partitions.
+     */
+    public long getSpilledBytes() {
+        return this.spilledBytes;
+    }
+
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
-        this.child.open();
-        Aggregator agg;
-        if (this.aFieldType == Type.INT_TYPE) {
-            agg = new IntegerAggregator(this.gField, this.gFieldType, this.aField, this.op);
-        } else {
-            agg = new StringAggregator(this.gField, this.gFieldType, this.aField, this.op);
+        this.spilledPartitions = 0;
+        this.spilledBytes = 0;
+        this.workers = 1;
+        this.sortedInput = this.gFields.length == 1 && JoinOptimizer.isSortedOn(this.child, this.gField);
+        if (this.sortedInput) {
+            Type[] types = new Type[1 + this.aFields.length];
+            types[0] = this.gFieldType;
+            this.sortedHelpers = new AggregHelper[this.aFields.length];
+            for (int i = 0; i < this.aFields.length; ++i) {
+                types[1 + i] = Type.INT_TYPE;
+                this.sortedHelpers[i] = this.aFieldTypes[i] == Type.INT_TYPE ? new IntegerAggregHelper()
+                        : new StringAggregHelper();
+            }
+            this.sortedTD = new TupleDesc(types);
+            this.child.open();
+            this.peek = this.child.hasNext() ? this.child.next() : null;
+            super.open();
+            return;
+        }
+        int capacity = groupCapacity(this.memoryBudget, this.gFieldTypes, this.aFields.length);
+        Aggregator agg = this.parallelAggregate(capacity);
+        if (agg == null) {
+            // the workers read the table themselves, so the child is only
+            // opened if it is aggregated on this thread.
+            this.child.open();
+            agg = this.newAggregator();
+            // the child is always consumed a batch at a time.
+            BatchDbIterator input = BatchAdapter.of(this.child);
+            TupleBatch batch;
+            while ((batch = input.nextBatch()) != null) {
+                this.aggregate(batch, agg, capacity);
+            }
+        }
+        this.finishInput(agg);
+    }
+
+    /**
+     * @return true if {@link PushPlan} can push the tuples of the child into
+     *         this aggregate; false if it aggregates a sorted child a group at
+     *         a time or splits the child among worker threads, which it
+     *         does while pulling it.
+     */
+    boolean canPush() {
+        if (this.gFields.length == 1 && JoinOptimizer.isSortedOn(this.child, this.gField)) {
+            return false;
         }
-        while (this.child.hasNext()) {
-            agg.mergeTupleIntoGroup(this.child.next());
+        return this.parallelism < 2 || this.level > 0
+                || !(this.child instanceof Exchange || Exchange.of(this.child, this.parallelism) != null);
+    }
+
+    /**
+     * Starts aggregating tuples pushed by {@link PushPlan} instead of those
+     * of the child; the aggregate is a pipeline breaker, which is open once
+     * {@link #finishPush} is called.
+     */
+    void startPush() throws DbException {
+        this.spilledPartitions = 0;
+        this.spilledBytes = 0;
+        this.workers = 1;
+        this.sortedInput = false;
+        this.pushCapacity = groupCapacity(this.memoryBudget, this.gFieldTypes, this.aFields.length);
+        this.pushAggregator = this.newAggregator();
+    }
+
+    /**
+     * Aggregates a batch of tuples pushed after {@link #startPush}.
+     */
+    void push(TupleBatch batch) throws DbException {
+        this.aggregate(batch, this.pushAggregator, this.pushCapacity);
+    }
+
+    /**
+     * Ends the input of the tuples pushed after {@link #startPush}, and opens
+     * this aggregate.
+     */
+    void finishPush() throws DbException, TransactionAbortedException {
+        Aggregator agg = this.pushAggregator;
+        this.pushAggregator = null;
+        this.finishInput(agg);
+    }
+
+    /**
+     * Opens this aggregate on the groups aggregated into agg and the
+     * spilled partitions.
+     */
+    private void finishInput(Aggregator agg) throws DbException, TransactionAbortedException {
+        if (this.spills != null) {
+            for (SpillFile spill : this.spills) {
+                if (spill != null) {
+                    spill.finish();
+                }
+            }
         }
+        this.nextSpilled = 0;
         this.aggrIter = agg.iterator();
         this.aggrIter.open();
+        this.resultBatches = this.spills == null ? BatchAdapter.of(this.aggrIter) : null;
 	    super.open();
     }
 
+    private Aggregator newAggregator() throws DbException {
+        if (!this.isSingleAggregate()) {
+            return new GroupAggregator(this.gFields, this.gFieldTypes, this.aFields, this.aFieldTypes, this.ops);
+        } else if (this.aFieldType == Type.INT_TYPE && this.gFieldType == Type.INT_TYPE) {
+            return new IntGroupAggregator(this.gField, this.aField, this.op);
+        } else if (this.aFieldType == Type.INT_TYPE) {
+            return new IntegerAggregator(this.gField, this.gFieldType, this.aField, this.op);
+        } else {
+            return new StringAggregator(this.gField, this.gFieldType, this.aField, this.op);
+        }
+    }
+
+    /**
+     * Aggregates a batch of tuples into agg, spilling the tuples of the
+     * groups beyond the first capacity ones.
+     */
+    private void aggregate(TupleBatch batch, Aggregator agg, int capacity) throws DbException {
+        if (agg.numGroups() < capacity) {
+            agg.mergeBatch(batch);
+            return;
+        }
+        // the table is full: only the groups already in it stay in memory.
+        for (int k = 0; k < batch.size(); ++k) {
+            Tuple t = batch.getTuple(batch.selected(k));
+            if (agg.hasGroup(t)) {
+                agg.mergeTupleIntoGroup(t);
+            } else {
+                this.spill(t);
+            }
+        }
+    }
+
+    /**
+     * Aggregates the child with worker threads that take morsels of the
+     * pages of the scanned table from a {@link ParallelScan}, and merges the
+     * partial aggregators of the workers.
+     *
+     * @return the merged aggregator, or null if the child can't be split
+     *         among workers or the groups of a worker didn't fit in its share
+     *         of the memory budget.
+     */
+    private Aggregator parallelAggregate(int capacity) throws DbException, TransactionAbortedException {
+        if (this.parallelism < 2 || this.level > 0) {
+            return null;
+        }
+        Exchange exchange = this.child instanceof Exchange ? (Exchange) this.child
+                : Exchange.of(this.child, this.parallelism);
+        if (exchange == null) {
+            return null;
+        }
+        ParallelScan source = exchange.getSource();
+        source.reset();
+        int numWorkers = Math.min(Math.min(this.parallelism, exchange.getParallelism()),
+                source.numPages() / MIN_PAGES_PER_WORKER);
+        if (numWorkers < 2) {
+            return null;
+        }
+
+        final int share = Math.max(1, capacity / numWorkers);
+        Aggregator[] partials = new Aggregator[numWorkers];
+        ArrayList<Future<Boolean>> results = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(numWorkers);
+        try {
+            for (int w = 0; w < numWorkers; ++w) {
+                final BatchDbIterator batches = BatchAdapter.of(exchange.newPipeline());
+                final Aggregator partial = this.newAggregator();
+                partials[w] = partial;
+                results.add(pool.submit(() -> aggregatePartition(batches, partial, share)));
+            }
+            for (Future<Boolean> result : results) {
+                if (!result.get()) {
+                    return null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("Aggregate: interrupted while waiting for the workers.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException) {
+                throw (DbException) cause;
+            }
+            if (cause instanceof TransactionAbortedException) {
+                throw (TransactionAbortedException) cause;
+            }
+            throw new DbException("Aggregate: a worker failed: " + cause);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // the final merge step.
+        Aggregator agg = partials[0];
+        for (int w = 1; w < numWorkers; ++w) {
+            agg.merge(partials[w]);
+        }
+        this.workers = numWorkers;
+        return agg;
+    }
+
+    /**
+     * Aggregates the tuples of a partition of the child into a partial
+     * aggregator; runs on a worker thread.
+     *
+     * @return false if the partition has more than maxGroups groups, in
+     *         which case it hasn't been aggregated completely.
+     */
+    private static boolean aggregatePartition(BatchDbIterator input, Aggregator agg, int maxGroups)
+            throws DbException, TransactionAbortedException {
+        input.open();
+        try {
+            TupleBatch batch;
+            while ((batch = input.nextBatch()) != null) {
+                agg.mergeBatch(batch);
+                if (agg.numGroups() > maxGroups) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * @return the partition of t. The hash function depends on the recursion
+     *         level, so that a spilled partition is split up when it is
+     *         aggregated at the next level.
+     */
+    private int partitionOf(Tuple t) {
+        int hash = 0;
+        for (int i = 0; i < this.gFields.length; ++i) {
+            int fieldHash = this.gFieldTypes[i] == Type.INT_TYPE ? t.getInt(this.gFields[i])
+                    : t.getString(this.gFields[i]).hashCode();
+            hash = 31 * hash + fieldHash;
+        }
+        int h = (hash ^ (this.level * 0x85EBCA6B)) * 0x9E3779B9;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % NUM_PARTITIONS;
+    }
+
+    /**
+     * Writes a tuple of a group that doesn't fit in memory to the spill file
+     * of its partition.
+     */
+    private void spill(Tuple t) throws DbException {
+        if (this.spills == null) {
+            this.spills = new SpillFile[NUM_PARTITIONS];
+        }
+        int part = this.partitionOf(t);
+        if (this.spills[part] == null) {
+            this.spills[part] = new SpillFile(this.child.getTupleDesc());
+            this.spilledPartitions += 1;
+        }
+        this.spills[part].add(t);
+        this.spilledBytes += this.child.getTupleDesc().getSize();
+    }
+
     /**
      * Returns the next tuple. If there is a group by field, then the first
      * field is the field by which we are grouping, and the second field is the
      * result of computing the aggregate, If there is no group by field, then
      * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * aggregate. With several group-by fields or aggregates, the tuple holds
+     * all the group-by fields followed by all the aggregates. Should return
+     * null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (this.sortedInput) {
+            return this.nextSortedGroup();
+        }
         if (this.aggrIter != null && this.aggrIter.hasNext()) {
             return this.aggrIter.next();
         }
-	    return null;
+        return this.nextSpilledGroup();
+    }
+
+    /**
+     * Aggregates the next group of a sorted child.
+     *
+     * @return the aggregate of the group, or null if the child is exhausted.
+     */
+    private Tuple nextSortedGroup() throws TransactionAbortedException, DbException {
+        if (this.peek == null) {
+            return null;
+        }
+        Tuple first = this.peek;
+        for (AggregHelper helper : this.sortedHelpers) {
+            helper.reset();
+        }
+        Tuple t = first;
+        while (true) {
+            for (int i = 0; i < this.aFields.length; ++i) {
+                if (this.aFieldTypes[i] == Type.INT_TYPE) {
+                    ((IntegerAggregHelper) this.sortedHelpers[i]).addKey(t.getInt(this.aFields[i]));
+                } else {
+                    ((StringAggregHelper) this.sortedHelpers[i]).addKey();
+                }
+            }
+            if (!this.child.hasNext()) {
+                this.peek = null;
+                break;
+            }
+            t = this.child.next();
+            if (!this.sameGroup(first, t)) {
+                this.peek = t;
+                break;
+            }
+        }
+        Tuple result = new Tuple(this.sortedTD);
+        result.copyField(0, first, this.gField);
+        for (int i = 0; i < this.aFields.length; ++i) {
+            AggregHelper helper = this.sortedHelpers[i];
+            result.setInt(1 + i, helper instanceof IntegerAggregHelper
+                    ? IntegerAggregIterator.valueOf((IntegerAggregHelper) helper, this.ops[i]) : helper.getCount());
+        }
+        return result;
+    }
+
+    private boolean sameGroup(Tuple t1, Tuple t2) {
+        if (this.gFieldType == Type.INT_TYPE) {
+            return t1.getInt(this.gField) == t2.getInt(this.gField);
+        }
+        return t1.getString(this.gField).equals(t2.getString(this.gField));
+    }
+
+    /**
+     * Returns the next group of the aggregates of the spilled partitions,
+     * which are aggregated one at a time.
+     *
+     * @return the next aggregate, or null if all spilled partitions have
+     *         been aggregated.
+     */
+    private Tuple nextSpilledGroup() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (this.subAggregate != null) {
+                if (this.subAggregate.hasNext()) {
+                    return this.subAggregate.next();
+                }
+                this.spilledPartitions += this.subAggregate.getSpilledPartitions();
+                this.spilledBytes += this.subAggregate.getSpilledBytes();
+                this.subAggregate.close();
+                this.subAggregate = null;
+                this.deleteSpill(this.nextSpilled - 1);
+            }
+            if (this.spills == null || this.nextSpilled == NUM_PARTITIONS) {
+                return null;
+            }
+            int part = this.nextSpilled++;
+            if (this.spills[part] == null) {
+                continue;
+            }
+            // the last level aggregates its partitions without a budget.
+            int budget = this.level + 1 < MAX_RECURSION_DEPTH ? this.memoryBudget : Integer.MAX_VALUE;
+            this.subAggregate = new Aggregate(this.spills[part].iterator(), this.gFields, this.aFields, this.ops,
+                    budget, this.level + 1);
+            this.subAggregate.open();
+        }
+    }
+
+    private void deleteSpill(int part) {
+        if (this.spills[part] != null) {
+            this.spills[part].delete();
+            this.spills[part] = null;
+        }
+    }
+
+    /**
+     * Returns the next batch of aggregate results, in the same format as
+     * {@link #fetchNext}.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        this.checkOpen();
+        if (this.resultBatches != null) {
+            return this.resultBatches.nextBatch();
+        }
+        // the groups come from more than one source, one at a time.
+        if (this.outBatch == null) {
+            this.outBatch = new TupleBatch(this.sortedInput ? this.sortedTD : this.aggrIter.getTupleDesc());
+        }
+        this.outBatch.clear();
+        Tuple t;
+        while (!this.outBatch.isFull() && (t = this.fetchNext()) != null) {
+            this.outBatch.addTuple(t);
+        }
+        return this.outBatch.size() == 0 ? null : this.outBatch;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        if (this.aggrIter != null) {
+        if (this.aggrIter != null && this.spills == null) {
             this.aggrIter.rewind();
         } else {
             this.close();
@@ -166,7 +780,8 @@ public class Aggregate extends Operator {
      * Returns the TupleDesc of this Aggregate. If there is no group by field,
      * this will have one field - the aggregate column. If there is a group by
      * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * the aggregate value column. With several group-by fields or aggregates,
+     * all the group-by fields come first, followed by all the aggregates.
      * 
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -180,18 +795,34 @@ public class Aggregate extends Operator {
     public void close() {
         this.child.close();
         this.aggrIter = null;
+        this.resultBatches = null;
+        this.outBatch = null;
+        this.peek = null;
+        if (this.subAggregate != null) {
+            this.subAggregate.close();
+            this.subAggregate = null;
+        }
+        if (this.spills != null) {
+            if (this.level == 0) {
+                Debug.log("Aggregate: spilled %d partitions, %d bytes", this.spilledPartitions, this.spilledBytes);
+            }
+            for (int i = 0; i < NUM_PARTITIONS; ++i) {
+                this.deleteSpill(i);
+            }
+            this.spills = null;
+        }
         super.close();
     }
 
     @Override
     public DbIterator[] getChildren() {
-	// some code goes here
-	return null;
+        return new DbIterator[] { this.child };
     }
 
     @Override
     public void setChildren(DbIterator[] children) {
-	// some code goes here
+        this.child = children[0];
+        this.setupTupleDesc();
     }
     
 }
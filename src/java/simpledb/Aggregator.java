@@ -76,10 +76,39 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge all the selected rows of a batch into the aggregate. The default
+     * implementation materializes every row and calls mergeTupleIntoGroup.
+     *
+     * @param batch the batch containing the aggregate and group-by fields
+     */
+    default void mergeBatch(TupleBatch batch) {
+        for (int k = 0; k < batch.size(); ++k) {
+            this.mergeTupleIntoGroup(batch.getTuple(batch.selected(k)));
+        }
+    }
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
      */
+    /**
+     * @return the number of groups aggregated so far.
+     */
+    public int numGroups();
+
+    /**
+     * @return true if the group of tup has been aggregated already.
+     */
+    public boolean hasGroup(Tuple tup);
+
+    /**
+     * Merge the groups of another aggregator, built with the same arguments,
+     * into this one, as if its tuples had been merged into this aggregator.
+     * This is how the partial aggregates of parallel workers are combined.
+     */
+    public void merge(Aggregator other);
+
     public DbIterator iterator();
     
 }
@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.util.*;
+
+import simpledb.Predicate.Op;
+
+/**
+ * Helper class that implements the DbFileIterator for search tuples on a
+ * B+ Tree File
+ */
+class BTreeSearchIterator extends AbstractDbFileIterator {
+
+	Iterator<Tuple> it = null;
+	BTreeLeafPage curp = null;
+	// the leaf page the current search started at
+	BTreePageId startp = null;
+
+	TransactionId tid;
+	BTreeFile f;
+	IndexPredicate ipred;
+
+	/**
+	 * Constructor for this iterator
+	 * @param f - the BTreeFile containing the tuples
+	 * @param tid - the transaction id
+	 * @param ipred - the predicate to filter on
+	 */
+	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+		this.f = f;
+		this.tid = tid;
+		this.ipred = ipred;
+	}
+
+	/**
+	 * Open this iterator by getting an iterator on the first leaf page applicable
+	 * for the given predicate operation
+	 */
+	public void open() throws DbException, TransactionAbortedException {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
+		BTreePageId root = rootPtr.getRootId();
+		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
+				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
+			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
+		}
+		else {
+			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+		}
+		startp = curp.getId();
+		it = curp.iterator();
+	}
+
+	/**
+	 * Restart this iterator with a new predicate. If both the previous and the
+	 * new predicate are EQUALS predicates and the new key is not smaller than
+	 * the previous one, the search starts at the leaf page the previous search
+	 * started or stopped at when that page may hold the new key, instead of
+	 * descending from the root again. Probing keys in ascending order thus
+	 * skips the internal pages whenever consecutive keys share a leaf page.
+	 * 
+	 * @param ipred - the new predicate to filter on
+	 * @return true if the search reused a leaf page of the previous search
+	 */
+	public boolean seek(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+		super.close();
+		BTreePageId reuse = null;
+		if (curp != null && ipred.getOp() == Op.EQUALS && this.ipred.getOp() == Op.EQUALS) {
+			Field prev = this.ipred.getField();
+			Field key = ipred.getField();
+			if (key.compare(Op.EQUALS, prev)) {
+				reuse = startp;
+			}
+			else if (key.compare(Op.GREATER_THAN, prev)) {
+				// every tuple before the stopping point of the previous search is
+				// <= prev, so the first tuple matching key is on curp or after it.
+				BTreeLeafPage last = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+						curp.getId(), Permissions.READ_ONLY);
+				Iterator<Tuple> rit = last.reverseIterator();
+				if (rit.hasNext() && rit.next().getField(f.keyField()).compare(Op.GREATER_THAN_OR_EQ, key)) {
+					reuse = last.getId();
+				}
+			}
+		}
+		this.ipred = ipred;
+		if (reuse == null) {
+			open();
+			return false;
+		}
+		curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid, reuse, Permissions.READ_ONLY);
+		startp = reuse;
+		it = curp.iterator();
+		return true;
+	}
+
+	/**
+	 * Read the next tuple either from the current page if it has more tuples matching
+	 * the predicate or from the next page by following the right sibling pointer.
+	 * 
+	 * @return the next tuple matching the predicate, or null if none exists
+	 */
+	@Override
+	protected Tuple readNext() throws TransactionAbortedException, DbException,
+	NoSuchElementException {
+		while (it != null) {
+
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
+					return t;
+				}
+				else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
+					// if the predicate was not satisfied and the operation is less than, we have
+					// hit the end
+					return null;
+				}
+				else if(ipred.getOp() == Op.EQUALS && 
+						t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
+					// if the tuple is now greater than the field passed in and the operation
+					// is equals, we have reached the end
+					return null;
+				}
+			}
+
+			BTreePageId nextp = curp.getRightSiblingId();
+			// if there are no more pages to the right, end the iteration
+			if(nextp == null) {
+				return null;
+			}
+			else {
+				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+						nextp, Permissions.READ_ONLY);
+				it = curp.iterator();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * rewind this iterator back to the beginning of the tuples
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	/**
+	 * close the iterator
+	 */
+	public void close() {
+		super.close();
+		it = null;
+	}
+}
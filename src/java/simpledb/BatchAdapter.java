@@ -0,0 +1,71 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchAdapter lets a tuple-at-a-time DbIterator feed batch operators: it
+ * passes every DbIterator call through to the wrapped iterator and implements
+ * {@link #nextBatch} by collecting its tuples into a reused TupleBatch.
+ */
+public class BatchAdapter implements BatchDbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbIterator child;
+    private transient TupleBatch batch = null;
+
+    /**
+     * @param child
+     *            the iterator to read tuples from.
+     */
+    public BatchAdapter(DbIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return it itself if it already produces batches, or a BatchAdapter
+     *         wrapping it otherwise.
+     */
+    public static BatchDbIterator of(DbIterator it) {
+        if (it instanceof BatchDbIterator) {
+            return (BatchDbIterator) it;
+        }
+        return new BatchAdapter(it);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (this.batch == null) {
+            this.batch = new TupleBatch(this.child.getTupleDesc());
+        }
+        this.batch.clear();
+        while (!this.batch.isFull() && this.child.hasNext()) {
+            this.batch.addTuple(this.child.next());
+        }
+        return this.batch.size() > 0 ? this.batch : null;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.child.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return this.child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        return this.child.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    public void close() {
+        this.child.close();
+    }
+}
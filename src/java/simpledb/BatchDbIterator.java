@@ -0,0 +1,28 @@
+package simpledb;
+
+/**
+ * BatchDbIterator is a DbIterator that can also return its tuples a batch at
+ * a time. Moving {@link TupleBatch#DEFAULT_CAPACITY} rows per call saves the
+ * per-tuple virtual hasNext()/next() calls and the lookahead bookkeeping of
+ * {@link Operator}, and lets operators work on column vectors in tight
+ * loops.
+ * <p>
+ * A consumer should use either nextBatch() or hasNext()/next() between an
+ * open (or rewind) and the following close, not both. Operators that only
+ * implement DbIterator can be fed to batch operators through
+ * {@link BatchAdapter}.
+ */
+public interface BatchDbIterator extends DbIterator {
+
+  /**
+   * Returns the next batch of tuples. The returned batch, including any view
+   * of it, is owned by this iterator and may be overwritten by the next call
+   * to nextBatch(), so the caller must be done with it by then.
+   *
+   * @return a batch with at least one selected row, or null if there are no
+   *   more tuples.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+}
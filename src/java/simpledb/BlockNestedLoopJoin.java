@@ -0,0 +1,302 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin implements the relational join operation as a block
+ * nested loops join. Instead of rescanning the inner relation once per outer
+ * tuple like {@link Join}, it buffers as many outer tuples as its memory
+ * budget allows and scans the inner relation once per such block, so the
+ * inner relation is read ceil(|outer| / blockCapacity) times.
+ * <p>
+ * When both join fields are INT fields, the join keys of the block are kept
+ * in an <code>int[]</code> and every inner tuple is compared against them in
+ * a single loop per predicate operator.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The default number of bytes of outer tuples buffered in one block (128 KB). */
+    public static final int DEFAULT_MEMORY_BUDGET = 128 * 1024;
+
+    private final JoinPredicate joinPred;
+    private DbIterator child1, child2;
+    private TupleDesc mergedTD;
+    private final int memoryBudget;
+
+    // the arrays of the block grow up to blockCapacity as tuples are read,
+    // so that a large budget costs nothing on small inputs.
+    private transient int blockCapacity = 0;
+    private transient Tuple[] block = null;
+    // blockKeys[i] is the join key of block[i], only if intKeys is true.
+    private transient int[] blockKeys = null;
+    private transient boolean intKeys = false;
+    // the predicate on non-INT keys, compiled once COMPILE_THRESHOLD pairs
+    // were compared.
+    private transient QueryCompiler.JoinFilter compiled = null;
+    private transient int interpreted = 0;
+    private transient int blockSize = 0;
+    private transient boolean outerDone = false;
+    // indices into block of the tuples matching innerTuple.
+    private transient int[] matches = null;
+    private transient int numMatches = 0, matchPos = 0;
+    private transient Tuple innerTuple = null;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on, using the default memory budget.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param memoryBudget
+     *            the number of bytes of outer tuples to buffer in one block
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("memoryBudget must be positive.");
+        }
+        this.joinPred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryBudget = memoryBudget;
+        this.mergedTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the number of tuples of the given size that fit in one block
+     *         of the given memory budget; at least 1.
+     */
+    public static int blockCapacity(int memoryBudget, int tupleSize) {
+        return Math.max(1, memoryBudget / Math.max(1, tupleSize));
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.joinPred;
+    }
+
+    /**
+     * @return the number of outer tuples buffered in one block.
+     */
+    public int getBlockCapacity() {
+        return blockCapacity(this.memoryBudget, this.child1.getTupleDesc().getSize());
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.joinPred.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.joinPred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.mergedTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.child1.open();
+        this.child2.open();
+        this.blockCapacity = this.getBlockCapacity();
+        int capacity = Math.min(this.blockCapacity, TupleBatch.DEFAULT_CAPACITY);
+        this.block = new Tuple[capacity];
+        this.matches = new int[capacity];
+        this.intKeys = this.child1.getTupleDesc().getFieldType(this.joinPred.getField1()) == Type.INT_TYPE
+                && this.child2.getTupleDesc().getFieldType(this.joinPred.getField2()) == Type.INT_TYPE;
+        this.blockKeys = this.intKeys ? new int[capacity] : null;
+        this.compiled = null;
+        this.interpreted = 0;
+        this.blockSize = 0;
+        this.outerDone = false;
+        this.numMatches = this.matchPos = 0;
+        this.innerTuple = null;
+        super.open();
+    }
+
+    public void close() {
+        this.child1.close();
+        this.child2.close();
+        this.block = null;
+        this.blockKeys = null;
+        this.matches = null;
+        this.innerTuple = null;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.close();
+        this.open();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The result tuples are the concatenation of joining tuples
+     * from the left and right relation, as in {@link Join}; they are
+     * produced block by block, and within a block, inner tuple by inner
+     * tuple.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (this.matchPos < this.numMatches) {
+                return Tuple.merge(this.mergedTD, this.block[this.matches[this.matchPos++]], this.innerTuple);
+            }
+            if (this.blockSize > 0 && this.child2.hasNext()) {
+                this.innerTuple = this.child2.next();
+                this.matchBlock();
+                continue;
+            }
+            // the inner relation is exhausted for this block, load the next one.
+            if (this.outerDone || !this.loadBlock()) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Reads the next block of outer tuples and rewinds the inner relation.
+     *
+     * @return false if the outer relation is exhausted.
+     */
+    private boolean loadBlock() throws TransactionAbortedException, DbException {
+        boolean first = this.blockSize == 0;
+        int field1 = this.joinPred.getField1();
+        this.blockSize = 0;
+        while (this.blockSize < this.blockCapacity && this.child1.hasNext()) {
+            if (this.blockSize == this.block.length) {
+                this.growBlock();
+            }
+            Tuple t = this.child1.next();
+            if (this.intKeys) {
+                this.blockKeys[this.blockSize] = t.getInt(field1);
+            }
+            this.block[this.blockSize++] = t;
+        }
+        if (this.blockSize < this.blockCapacity) {
+            this.outerDone = true;
+        }
+        if (this.blockSize == 0) {
+            return false;
+        }
+        if (!first) {
+            this.child2.rewind();
+        }
+        return true;
+    }
+
+    private void growBlock() {
+        int capacity = (int) Math.min(this.blockCapacity, 2L * this.block.length);
+        this.block = Arrays.copyOf(this.block, capacity);
+        this.matches = new int[capacity];
+        if (this.intKeys) {
+            this.blockKeys = Arrays.copyOf(this.blockKeys, capacity);
+        }
+    }
+
+    /**
+     * Collects the indices of the block tuples that join with innerTuple
+     * into matches.
+     */
+    private void matchBlock() {
+        int n = 0;
+        this.matchPos = 0;
+        if (!this.intKeys) {
+            if (this.compiled != null) {
+                for (int i = 0; i < this.blockSize; ++i) {
+                    if (this.compiled.filter(this.block[i], this.innerTuple)) {
+                        this.matches[n++] = i;
+                    }
+                }
+            } else {
+                for (int i = 0; i < this.blockSize; ++i) {
+                    if (this.joinPred.filter(this.block[i], this.innerTuple)) {
+                        this.matches[n++] = i;
+                    }
+                }
+                this.interpreted += this.blockSize;
+                if (this.interpreted >= QueryCompiler.COMPILE_THRESHOLD) {
+                    this.interpreted = Integer.MIN_VALUE;
+                    this.compiled = QueryCompiler.compileJoin(this.child1.getTupleDesc(),
+                            this.child2.getTupleDesc(), this.joinPred);
+                }
+            }
+            this.numMatches = n;
+            return;
+        }
+        int key = this.innerTuple.getInt(this.joinPred.getField2());
+        int[] keys = this.blockKeys;
+        int size = this.blockSize;
+        switch (this.joinPred.getOperator()) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < size; ++i)
+                    if (keys[i] == key) this.matches[n++] = i;
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < size; ++i)
+                    if (keys[i] != key) this.matches[n++] = i;
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < size; ++i)
+                    if (keys[i] > key) this.matches[n++] = i;
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < size; ++i)
+                    if (keys[i] >= key) this.matches[n++] = i;
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < size; ++i)
+                    if (keys[i] < key) this.matches[n++] = i;
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < size; ++i)
+                    if (keys[i] <= key) this.matches[n++] = i;
+                break;
+        }
+        this.numMatches = n;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.mergedTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+}
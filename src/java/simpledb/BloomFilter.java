@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BloomFilter is a set of int hash values that can answer "definitely not
+ * present" or "maybe present". It is a blocked Bloom filter: all the bits of
+ * a value are in the same 64-bit word, so a lookup touches a single word.
+ * With {@link #BITS_PER_KEY} bits per expected key, about 2% of the values
+ * that were never added are reported as maybe present.
+ */
+public class BloomFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of bits allocated per expected key. */
+    public static final int BITS_PER_KEY = 10;
+
+    /** The number of bits set per value. */
+    public static final int NUM_HASHES = 4;
+
+    // the filter never grows beyond 2^24 words (128 MB).
+    private static final int MAX_WORDS = 1 << 24;
+
+    private final long[] words;
+    private final int mask;
+
+    /**
+     * Create an empty filter.
+     *
+     * @param expectedKeys
+     *            the number of values that will be added.
+     */
+    public BloomFilter(int expectedKeys) {
+        long wanted = ((long) Math.max(1, expectedKeys) * BITS_PER_KEY + 63) / 64;
+        int numWords = 1;
+        while (numWords < wanted && numWords < MAX_WORDS) {
+            numWords <<= 1;
+        }
+        this.words = new long[numWords];
+        this.mask = numWords - 1;
+    }
+
+    /**
+     * Add a value to this filter.
+     */
+    public void add(int hash) {
+        int h = TupleHashTable.mix(hash);
+        this.words[h & this.mask] |= bitsOf(h);
+    }
+
+    /**
+     * @return false if the value was never added to this filter; true if it
+     *         probably was.
+     */
+    public boolean mightContain(int hash) {
+        int h = TupleHashTable.mix(hash);
+        long bits = bitsOf(h);
+        return (this.words[h & this.mask] & bits) == bits;
+    }
+
+    /**
+     * @return the size of this filter in bytes.
+     */
+    public long numBytes() {
+        return (long) this.words.length * 8;
+    }
+
+    /**
+     * The bits of a value within its word, taken from a second hash so that
+     * they are independent of the word index.
+     */
+    private static long bitsOf(int h) {
+        int g = TupleHashTable.mix(h ^ 0x5bd1e995);
+        long bits = 0;
+        for (int i = 0; i < NUM_HASHES; ++i) {
+            bits |= 1L << (g & 63);
+            g >>>= 6;
+        }
+        return bits;
+    }
+}
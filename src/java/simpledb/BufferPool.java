@@ -125,32 +125,42 @@ public class BufferPool {
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
      */
-    public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+    // parallel workers look up pages concurrently: the page is read outside
+    // the pool's monitor, so that misses on different pages overlap, and
+    // only the use counts and evictions are updated under it.
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        Page retPage = null;
         boolean to_dirty = (perm == Permissions.READ_WRITE);
-        if (this.evManPoolMap.containsKey(pid)) {
-            // we get the old key of PageId. So we must update it's use count!
-            EVNode pageEvData = this.evManPoolMap.get(pid);
-            this.evManSet.remove(pageEvData);
-            // count + 1
-            pageEvData.makeUse();
-            this.evManSet.add(pageEvData);
-            retPage = pageEvData.getPage();
-        } else {
+        EVNode pageEvData = this.evManPoolMap.get(pid);
+        boolean added = false;
+        if (pageEvData == null) {
             // we didn't find, so we call Table's File to read the page.
             int tableId = pid.getTableId();
             DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
             Page readPage = dbFile.readPage(pid);
-            if (this.evManPoolMap.size() >= this.pool_max_size) {
+            EVNode readEvData = new EVNode(0, new Date(), pid, readPage);
+            // another worker may have read the same page meanwhile.
+            pageEvData = this.evManPoolMap.putIfAbsent(pid, readEvData);
+            if (pageEvData == null) {
+                pageEvData = readEvData;
+                added = true;
+            }
+        }
+        synchronized (this) {
+            if (added) {
                 // exceed max size. So we must evict a page.
-                this.evictPage();
+                while (this.evManPoolMap.size() > this.pool_max_size && !this.evManSet.isEmpty()) {
+                    this.evictPage();
+                }
+            }
+            // update the use count, unless the page was evicted meanwhile.
+            if (this.evManPoolMap.get(pid) == pageEvData) {
+                this.evManSet.remove(pageEvData);
+                pageEvData.makeUse();
+                this.evManSet.add(pageEvData);
             }
-            EVNode pageEvData = new EVNode(1, new Date(), pid, readPage);
-            this.evManPoolMap.put(pid, pageEvData);
-            this.evManSet.add(pageEvData);
-            retPage = readPage;
         }
+        Page retPage = pageEvData.getPage();
         if (to_dirty) {
             retPage.markDirty(true, tid);
         }
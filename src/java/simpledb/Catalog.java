@@ -186,7 +186,13 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                // a compressed image of the table (see CompressedHeapFile) is preferred if present.
+                File compressedFile = new File(baseFolder+"/"+name + ".cdat");
+                HeapFile tabHf;
+                if (compressedFile.exists())
+                    tabHf = new CompressedHeapFile(compressedFile, t);
+                else
+                    tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
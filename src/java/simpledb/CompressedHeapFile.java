@@ -0,0 +1,275 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are stored deflated on disk.
+ * <p>
+ * The buffer pool never sees the compressed form: {@link #readPage} inflates a
+ * page into a regular, full-size {@link HeapPage}, and {@link #writePage}
+ * deflates the page image before it goes to disk. Because fixed-width
+ * IntFields and zero-padded StringFields compress very well, cold tables
+ * take a fraction of their original space and far fewer bytes of I/O.
+ * <p>
+ * Compressed pages have variable sizes, so they are packed into extents in
+ * the data file. Each extent is rounded up to {@link #EXTENT_ALIGNMENT} bytes
+ * so that a page which grows a little can usually be rewritten in place; a
+ * page that outgrows its extent is appended at the end of the file. The
+ * location of every page is kept in a page offset index stored next to the
+ * data file (the data file name with {@link #INDEX_SUFFIX} appended):
+ * <pre>
+ *     int numPages
+ *     numPages * { long offset, int length, int capacity }
+ * </pre>
+ *
+ * @see HeapFile
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    /** Suffix of the page offset index file. */
+    public static final String INDEX_SUFFIX = ".idx";
+
+    /** Extents are allocated in multiples of this many bytes. */
+    public static final int EXTENT_ALIGNMENT = 256;
+
+    private static final int INDEX_HEADER_SIZE = 4;
+    private static final int INDEX_ENTRY_SIZE = 16;
+
+    /**
+     * Location of one compressed page inside the data file.
+     */
+    private static class Extent {
+        long offset;
+        int length;
+        int capacity;
+
+        Extent(long offset, int length, int capacity) {
+            this.offset = offset;
+            this.length = length;
+            this.capacity = capacity;
+        }
+    }
+
+    private final File indexFile;
+    private final ArrayList<Extent> extents = new ArrayList<>();
+    // the first byte after the last allocated extent.
+    private long dataEnd = 0;
+
+    /**
+     * Constructs a compressed heap file backed by the specified data file.
+     * The page offset index is loaded from (or created next to) it.
+     *
+     * @param f
+     *            the file that stores the compressed pages of this heap file.
+     * @param td
+     *            the schema of the tuples stored in this file.
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+        this.indexFile = new File(f.getPath() + INDEX_SUFFIX);
+        try {
+            this.loadIndex();
+        } catch (IOException e) {
+            throw new RuntimeException("CompressedHeapFile: cannot read page index " + this.indexFile, e);
+        }
+    }
+
+    /**
+     * @return the file holding the page offset index.
+     */
+    public File getIndexFile() {
+        return this.indexFile;
+    }
+
+    /**
+     * Compresses an existing heap file into a new compressed heap file. The
+     * raw page images are copied one at a time, so the source table doesn't
+     * need to be registered in the catalog. Compressing a CompressedHeapFile
+     * again packs its extents tightly and drops abandoned ones.
+     *
+     * @param source
+     *            the heap file to compress.
+     * @param dest
+     *            the data file of the compressed copy; it is overwritten.
+     * @return the compressed heap file, with the same schema as source.
+     */
+    public static CompressedHeapFile compress(HeapFile source, File dest) throws IOException {
+        File index = new File(dest.getPath() + INDEX_SUFFIX);
+        if (dest.exists() && !dest.delete())
+            throw new IOException("CompressedHeapFile: cannot overwrite " + dest);
+        if (index.exists() && !index.delete())
+            throw new IOException("CompressedHeapFile: cannot overwrite " + index);
+
+        CompressedHeapFile target = new CompressedHeapFile(dest, source.getTupleDesc());
+        if (source instanceof CompressedHeapFile) {
+            CompressedHeapFile compressedSource = (CompressedHeapFile) source;
+            synchronized (compressedSource) {
+                for (int i = 0; i < compressedSource.numPages(); ++i) {
+                    try {
+                        target.writeRawPage(i, compressedSource.readRawPage(i));
+                    } catch (DataFormatException e) {
+                        throw new IOException("CompressedHeapFile: page " + i + " is corrupted", e);
+                    }
+                }
+            }
+            return target;
+        }
+        int pageSize = BufferPool.getPageSize();
+        byte[] pageData = new byte[pageSize];
+        try (RandomAccessFile in = new RandomAccessFile(source.getFile(), "r")) {
+            for (int i = 0; i < source.numPages(); ++i) {
+                in.seek((long) i * pageSize);
+                in.readFully(pageData);
+                target.writeRawPage(i, pageData);
+            }
+        }
+        return target;
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public synchronized Page readPage(PageId pid) {
+        int pgNo = pid.pageNumber();
+        if (pgNo < 0 || pgNo >= this.extents.size()) {
+            throw new IllegalArgumentException("CompressedHeapFile: page " + pgNo + " does not exist.");
+        }
+        try {
+            return new HeapPage((HeapPageId) pid, this.readRawPage(pgNo));
+        } catch (IOException | DataFormatException ex) {
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public synchronized void writePage(Page page) throws IOException {
+        this.writeRawPage(page.getId().pageNumber(), page.getPageData());
+    }
+
+    /**
+     * Returns the number of pages in this CompressedHeapFile, which is the
+     * number of entries in the page offset index.
+     */
+    @Override
+    public synchronized int numPages() {
+        return this.extents.size();
+    }
+
+    /**
+     * @return the number of bytes the compressed pages occupy in the data
+     *         file, including the slack at the end of every extent.
+     */
+    public synchronized long compressedSize() {
+        return this.dataEnd;
+    }
+
+    /**
+     * Deflates a page image and stores it as page pgNo. The page is written
+     * in place if it still fits in its extent, otherwise a new extent is
+     * appended to the data file.
+     */
+    private void writeRawPage(int pgNo, byte[] pageData) throws IOException {
+        if (pgNo < 0 || pgNo > this.extents.size()) {
+            throw new IOException("CompressedHeapFile: cannot write page " + pgNo
+                    + ", the file only has " + this.extents.size() + " pages.");
+        }
+        byte[] compressed = deflate(pageData);
+        Extent extent = pgNo < this.extents.size() ? this.extents.get(pgNo) : null;
+        if (extent == null || extent.capacity < compressed.length) {
+            int capacity = (compressed.length + EXTENT_ALIGNMENT - 1) / EXTENT_ALIGNMENT * EXTENT_ALIGNMENT;
+            extent = new Extent(this.dataEnd, compressed.length, capacity);
+            this.dataEnd += capacity;
+            if (pgNo < this.extents.size()) {
+                // the old extent is abandoned; it will be reclaimed by compress().
+                this.extents.set(pgNo, extent);
+            } else {
+                this.extents.add(extent);
+            }
+        } else {
+            extent.length = compressed.length;
+        }
+        try (RandomAccessFile ranFile = new RandomAccessFile(this.getFile(), "rw")) {
+            ranFile.seek(extent.offset);
+            ranFile.write(compressed);
+        }
+        this.writeIndexEntry(pgNo, extent);
+    }
+
+    /**
+     * Reads and inflates the image of page pgNo.
+     */
+    private byte[] readRawPage(int pgNo) throws IOException, DataFormatException {
+        Extent extent = this.extents.get(pgNo);
+        byte[] compressed = new byte[extent.length];
+        try (RandomAccessFile ranFile = new RandomAccessFile(this.getFile(), "r")) {
+            ranFile.seek(extent.offset);
+            ranFile.readFully(compressed);
+        }
+        return inflate(compressed);
+    }
+
+    private void loadIndex() throws IOException {
+        this.extents.clear();
+        this.dataEnd = 0;
+        if (!this.indexFile.exists()) {
+            return;
+        }
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(this.indexFile)))) {
+            int numPages = dis.readInt();
+            for (int i = 0; i < numPages; ++i) {
+                Extent extent = new Extent(dis.readLong(), dis.readInt(), dis.readInt());
+                this.extents.add(extent);
+                this.dataEnd = Math.max(this.dataEnd, extent.offset + extent.capacity);
+            }
+        }
+    }
+
+    private void writeIndexEntry(int pgNo, Extent extent) throws IOException {
+        try (RandomAccessFile idx = new RandomAccessFile(this.indexFile, "rw")) {
+            idx.seek(0);
+            idx.writeInt(this.extents.size());
+            idx.seek(INDEX_HEADER_SIZE + (long) pgNo * INDEX_ENTRY_SIZE);
+            idx.writeLong(extent.offset);
+            idx.writeInt(extent.length);
+            idx.writeInt(extent.capacity);
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length / 4);
+        byte[] buf = new byte[1024];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buf);
+            baos.write(buf, 0, n);
+        }
+        deflater.end();
+        return baos.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] compressed) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        byte[] pageData = new byte[BufferPool.getPageSize()];
+        int read = 0;
+        while (read < pageData.length && !inflater.finished()) {
+            int n = inflater.inflate(pageData, read, pageData.length - read);
+            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                break;
+            }
+            read += n;
+        }
+        inflater.end();
+        if (read != pageData.length) {
+            throw new DataFormatException("truncated page: " + read + " bytes");
+        }
+        return pageData;
+    }
+}
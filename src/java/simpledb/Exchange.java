@@ -0,0 +1,293 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exchange runs a pipeline of operators over a {@link ParallelScan} on
+ * several worker threads and gathers their output into one iterator. Every
+ * worker builds its own copy of the pipeline over its own worker scan, so
+ * that the {@link Filter}s and {@link Project}s of the pipeline run in
+ * parallel, each on the morsels its scan takes.
+ * <p>
+ * The workers copy their batches (see {@link TupleBatch#copy}) into a
+ * bounded queue, which the consumer drains; a worker blocks while the queue
+ * is full. The order of the output tuples is not defined. An error of a
+ * worker is rethrown to the consumer, and closing the Exchange interrupts
+ * the workers and waits for them to stop.
+ */
+public class Exchange extends Operator implements BatchDbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Builds the pipeline of a worker on top of its scan.
+     */
+    public interface Pipeline extends Serializable {
+        DbIterator build(DbIterator scan);
+    }
+
+    /** The default number of worker threads, the number of processors. */
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    // the number of batches queued per worker before it blocks.
+    private static final int QUEUED_BATCHES_PER_WORKER = 4;
+
+    // queued by every worker after its last batch.
+    private static final TupleBatch DONE = new TupleBatch(Utility.getTupleDesc(1), 1);
+
+    private final ParallelScan source;
+    private final Pipeline pipeline;
+    private final int parallelism;
+    // a copy of the pipeline of a worker, which stands for the plan the
+    // workers run; the workers build copies of their own.
+    private DbIterator child;
+    private TupleDesc td;
+
+    private transient ExecutorService pool;
+    private transient BlockingQueue<TupleBatch> queue;
+    private transient volatile boolean cancelled;
+    private transient volatile Throwable error;
+    private transient int running;
+    private transient TupleBatch current;
+    private transient int currentPos;
+
+    /**
+     * Constructor.
+     *
+     * @param source
+     *            the scan the workers share
+     * @param pipeline
+     *            builds the pipeline of a worker over its scan
+     * @param parallelism
+     *            the number of worker threads
+     */
+    public Exchange(ParallelScan source, Pipeline pipeline, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive.");
+        }
+        this.source = source;
+        this.pipeline = pipeline;
+        this.parallelism = parallelism;
+        this.child = this.newPipeline();
+        this.td = this.child.getTupleDesc();
+    }
+
+    /**
+     * Constructor for a parallel scan without operators above it.
+     */
+    public Exchange(ParallelScan source, int parallelism) {
+        this(source, scan -> scan, parallelism);
+    }
+
+    /**
+     * Splits a plan made of {@link Filter}s over a {@link SeqScan} of a
+     * HeapFile into an Exchange that runs the filters on every worker.
+     *
+     * @return the Exchange, or null if plan has another shape, scans another
+     *         kind of file, has runtime filters, or if the table is too
+     *         small for a morsel per worker.
+     */
+    public static Exchange of(DbIterator plan, int parallelism) {
+        // the predicates of the filters above the scan, outermost first.
+        final ArrayList<PredicateTree> preds = new ArrayList<>();
+        DbIterator it = plan;
+        while (it instanceof Filter) {
+            preds.add(((Filter) it).getPredicateTree());
+            it = ((Filter) it).getChildren()[0];
+        }
+        if (!(it instanceof SeqScan) || ((SeqScan) it).hasRuntimeFilters()) {
+            return null;
+        }
+        SeqScan scan = (SeqScan) it;
+        DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (!(file instanceof HeapFile)) {
+            return null;
+        }
+        int numPages = ((HeapFile) file).numPages();
+        parallelism = Math.min(parallelism, numPages / ParallelScan.DEFAULT_MORSEL_PAGES);
+        if (parallelism < 2) {
+            return null;
+        }
+        ParallelScan source = new ParallelScan(scan.getTransactionId(), scan.getTableId(), scan.getAlias(),
+                scan.getFields(), ParallelScan.DEFAULT_MORSEL_PAGES);
+        for (Predicate p : scan.getPredicates()) {
+            source.addPredicate(p);
+        }
+        return new Exchange(source, input -> {
+            // every worker adapts the order of its own copy of the trees.
+            for (int i = preds.size() - 1; i >= 0; --i) {
+                input = new Filter(preds.get(i).copy(), input);
+            }
+            return input;
+        }, parallelism);
+    }
+
+    /**
+     * @return the scan the workers share.
+     */
+    public ParallelScan getSource() {
+        return this.source;
+    }
+
+    /**
+     * @return the builder of the pipeline of a worker, so that an operator
+     *         can run its own work on top of it in another Exchange.
+     */
+    public Pipeline getPipeline() {
+        return this.pipeline;
+    }
+
+    /**
+     * @return the number of worker threads.
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * @return a new copy of the pipeline of a worker over a new worker scan
+     *         of the source. Operators that consume the Exchange in parallel
+     *         themselves, like {@link Aggregate}, run these directly after
+     *         resetting the source.
+     */
+    public DbIterator newPipeline() {
+        return this.pipeline.build(this.source.newWorkerScan());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.source.reset();
+        this.queue = new ArrayBlockingQueue<>(this.parallelism * QUEUED_BATCHES_PER_WORKER);
+        this.cancelled = false;
+        this.error = null;
+        this.current = null;
+        this.running = this.parallelism;
+        this.pool = Executors.newFixedThreadPool(this.parallelism);
+        for (int w = 0; w < this.parallelism; ++w) {
+            this.pool.execute(this::work);
+        }
+        super.open();
+    }
+
+    /**
+     * Runs the pipeline of a worker until it is exhausted or the Exchange is
+     * closed; runs on a worker thread.
+     */
+    private void work() {
+        try {
+            BatchDbIterator input = BatchAdapter.of(this.newPipeline());
+            input.open();
+            try {
+                TupleBatch batch;
+                while (!this.cancelled && (batch = input.nextBatch()) != null) {
+                    this.queue.put(batch.copy());
+                }
+            } finally {
+                input.close();
+            }
+        } catch (InterruptedException e) {
+            // closed by the consumer.
+            return;
+        } catch (Throwable t) {
+            if (this.error == null) {
+                this.error = t;
+            }
+        }
+        try {
+            if (!this.cancelled) {
+                this.queue.put(DONE);
+            }
+        } catch (InterruptedException e) {
+            // closed by the consumer.
+        }
+    }
+
+    private void rethrow() throws DbException, TransactionAbortedException {
+        Throwable t = this.error;
+        if (t instanceof DbException) {
+            throw (DbException) t;
+        }
+        if (t instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) t;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        throw new DbException("Exchange: a worker failed: " + t);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        this.checkOpen();
+        while (this.running > 0) {
+            TupleBatch batch;
+            try {
+                batch = this.queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("Exchange: interrupted while waiting for the workers.");
+            }
+            if (this.error != null) {
+                this.rethrow();
+            }
+            if (batch != DONE) {
+                return batch;
+            }
+            this.running--;
+        }
+        return null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (this.current == null || this.currentPos == this.current.size()) {
+            this.current = this.nextBatch();
+            if (this.current == null) {
+                return null;
+            }
+            this.currentPos = 0;
+        }
+        return this.current.getTuple(this.current.selected(this.currentPos++));
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.close();
+        this.open();
+    }
+
+    public void close() {
+        super.close();
+        this.cancelled = true;
+        if (this.pool != null) {
+            this.pool.shutdownNow();
+            // the workers must be gone before the source is reset by the
+            // next open, or they would take its morsels.
+            try {
+                this.pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.pool = null;
+        }
+        this.queue = null;
+        this.current = null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+        this.td = this.child.getTupleDesc();
+    }
+}
@@ -0,0 +1,418 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ExternalSorter sorts a stream of tuples that may not fit in memory. It
+ * keeps at most as many tuples in memory as its memory budget allows:
+ * <ul>
+ * <li>If the input fits, it is sorted in memory.</li>
+ * <li>Otherwise, replacement selection writes sorted runs to
+ * {@link SpillFile}s. A heap of tuples is kept full; its smallest tuple is
+ * appended to the current run, and an input tuple smaller than the last one
+ * written is held back for the next run. On random input, runs are about
+ * twice as long as the heap.</li>
+ * <li>Runs are merged with a tournament (loser) tree, {@link #fanIn()} runs
+ * at a time, until one merge is left; the last merge is streamed to the
+ * consumer instead of being written.</li>
+ * </ul>
+ * With a {@link SortKey}, every tuple is encoded into a normalized key when it
+ * enters memory, and comparisons only look at the keys.
+ * <p>
+ * The number of runs, merge passes and bytes spilled are reported by
+ * {@link #getNumRuns}, {@link #getNumMergePasses} and
+ * {@link #getSpilledBytes}.
+ */
+public class ExternalSorter {
+
+    // the read buffer of every run being merged, see SpillFile.
+    private static final int RUN_BUFFER_SIZE = 8192;
+
+    private final TupleDesc td;
+    // exactly one of comparator and sortKey is set.
+    private final Comparator<Tuple> comparator;
+    private final SortKey sortKey;
+    private final long memoryBudget;
+
+    // the sorted input if it fit in memory, or null.
+    private Entry[] inMemory = null;
+    private int inMemorySize = 0, inMemoryPos = 0;
+    // the runs of the final merge, which is streamed through mergeTree.
+    private ArrayList<SpillFile> runs = null;
+    private LoserTree mergeTree = null;
+
+    private int numRuns = 0;
+    private int numMergePasses = 0;
+    private long spilledBytes = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param td
+     *            the schema of the tuples to sort.
+     * @param comparator
+     *            the order to sort the tuples in.
+     * @param memoryBudget
+     *            the number of bytes of tuples to keep in memory.
+     */
+    public ExternalSorter(TupleDesc td, Comparator<Tuple> comparator, long memoryBudget) {
+        this(td, comparator, null, memoryBudget);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param td
+     *            the schema of the tuples to sort.
+     * @param sortKey
+     *            the encoder of the keys to sort the tuples by.
+     * @param memoryBudget
+     *            the number of bytes of tuples and keys to keep in memory.
+     */
+    public ExternalSorter(TupleDesc td, SortKey sortKey, long memoryBudget) {
+        this(td, null, sortKey, memoryBudget);
+    }
+
+    private ExternalSorter(TupleDesc td, Comparator<Tuple> comparator, SortKey sortKey, long memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("memoryBudget must be positive.");
+        }
+        this.td = td;
+        this.comparator = comparator;
+        this.sortKey = sortKey;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return the number of tuples kept in memory; at least 2.
+     */
+    public int capacity() {
+        long entrySize = this.td.getSize() + (this.sortKey == null ? 0 : 8 + this.sortKey.maxKeySize());
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(2, this.memoryBudget / Math.max(1, entrySize)));
+    }
+
+    /**
+     * @return the number of runs merged at once; at least 2.
+     */
+    public int fanIn() {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(2, this.memoryBudget / RUN_BUFFER_SIZE));
+    }
+
+    /**
+     * @return the number of sorted runs written by replacement selection; 0
+     *         if the input fit in memory.
+     */
+    public int getNumRuns() {
+        return this.numRuns;
+    }
+
+    /**
+     * @return the number of merge passes, including the final streamed one.
+     */
+    public int getNumMergePasses() {
+        return this.numMergePasses;
+    }
+
+    /**
+     * @return the number of bytes written to runs, over all passes.
+     */
+    public long getSpilledBytes() {
+        return this.spilledBytes;
+    }
+
+    /**
+     * Read all the tuples of input, which must be open, and prepare to
+     * return them in sorted order.
+     */
+    public void sort(DbIterator input) throws DbException, TransactionAbortedException {
+        this.close();
+        this.numRuns = this.numMergePasses = 0;
+        this.spilledBytes = 0;
+
+        int capacity = this.capacity();
+        Entry[] heap = new Entry[Math.min(capacity, 1024)];
+        int size = 0;
+        while (size < capacity && input.hasNext()) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, (int) Math.min(capacity, 2L * heap.length));
+            }
+            heap[size++] = this.entry(input.next());
+        }
+        if (!input.hasNext()) {
+            Arrays.sort(heap, 0, size, this::compare);
+            this.inMemory = heap;
+            this.inMemorySize = size;
+            this.inMemoryPos = 0;
+            return;
+        }
+
+        ArrayList<SpillFile> written = this.replacementSelection(input, heap, size);
+        this.numRuns = written.size();
+        int fanIn = this.fanIn();
+        while (written.size() > fanIn) {
+            ArrayList<SpillFile> merged = new ArrayList<>();
+            for (int i = 0; i < written.size(); i += fanIn) {
+                List<SpillFile> group = written.subList(i, Math.min(written.size(), i + fanIn));
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                SpillFile out = new SpillFile(this.td);
+                LoserTree tree = new LoserTree(group);
+                Entry e;
+                while ((e = tree.next()) != null) {
+                    out.add(e.tuple);
+                }
+                tree.close();
+                out.finish();
+                this.spilledBytes += out.numBytes();
+                for (SpillFile run : group) {
+                    run.delete();
+                }
+                merged.add(out);
+            }
+            written = merged;
+            ++this.numMergePasses;
+        }
+        this.runs = written;
+        this.mergeTree = new LoserTree(this.runs);
+        ++this.numMergePasses;
+    }
+
+    /**
+     * Write the input, whose first size tuples are in heap, as sorted runs.
+     */
+    private ArrayList<SpillFile> replacementSelection(DbIterator input, Entry[] heap, int size)
+            throws DbException, TransactionAbortedException {
+        ArrayList<SpillFile> written = new ArrayList<>();
+        int[] runOf = new int[size];
+        for (int i = size / 2 - 1; i >= 0; --i) {
+            this.siftDown(heap, runOf, size, i);
+        }
+        int curRun = 0;
+        SpillFile out = new SpillFile(this.td);
+        while (size > 0) {
+            if (runOf[0] != curRun) {
+                this.finishRun(out, written);
+                curRun = runOf[0];
+                out = new SpillFile(this.td);
+            }
+            Entry min = heap[0];
+            out.add(min.tuple);
+            if (input.hasNext()) {
+                Entry e = this.entry(input.next());
+                heap[0] = e;
+                runOf[0] = this.compare(e, min) >= 0 ? curRun : curRun + 1;
+            } else {
+                --size;
+                heap[0] = heap[size];
+                runOf[0] = runOf[size];
+                heap[size] = null;
+            }
+            this.siftDown(heap, runOf, size, 0);
+        }
+        this.finishRun(out, written);
+        return written;
+    }
+
+    private void finishRun(SpillFile run, ArrayList<SpillFile> written) throws DbException {
+        run.finish();
+        this.spilledBytes += run.numBytes();
+        written.add(run);
+    }
+
+    /**
+     * Restore the heap order below position i; tuples are ordered by run,
+     * then by the comparator.
+     */
+    private void siftDown(Entry[] heap, int[] runOf, int size, int i) {
+        Entry t = heap[i];
+        int run = runOf[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && this.heapLess(heap[child + 1], runOf[child + 1], heap[child], runOf[child])) {
+                ++child;
+            }
+            if (!this.heapLess(heap[child], runOf[child], t, run)) {
+                break;
+            }
+            heap[i] = heap[child];
+            runOf[i] = runOf[child];
+            i = child;
+        }
+        heap[i] = t;
+        runOf[i] = run;
+    }
+
+    private boolean heapLess(Entry a, int runA, Entry b, int runB) {
+        if (runA != runB) {
+            return runA < runB;
+        }
+        return this.compare(a, b) < 0;
+    }
+
+    /**
+     * A tuple in memory, with its normalized key if there is a SortKey.
+     */
+    private static final class Entry {
+        final Tuple tuple;
+        // the first 8 bytes of the key, and the whole key if it is longer.
+        final long prefix;
+        final byte[] key;
+
+        Entry(Tuple tuple, long prefix, byte[] key) {
+            this.tuple = tuple;
+            this.prefix = prefix;
+            this.key = key;
+        }
+    }
+
+    private Entry entry(Tuple t) {
+        if (this.sortKey == null) {
+            return new Entry(t, 0, null);
+        }
+        byte[] key = this.sortKey.encode(t);
+        return new Entry(t, SortKey.prefix(key), key.length > 8 ? key : null);
+    }
+
+    private int compare(Entry a, Entry b) {
+        if (this.sortKey == null) {
+            return this.comparator.compare(a.tuple, b.tuple);
+        }
+        int cmp = Long.compareUnsigned(a.prefix, b.prefix);
+        if (cmp != 0 || (a.key == null && b.key == null)) {
+            return cmp;
+        }
+        // the keys are prefix-free, so a key of up to 8 bytes whose prefix
+        // equals the prefix of a longer key sorts first.
+        if (a.key == null) {
+            return -1;
+        }
+        if (b.key == null) {
+            return 1;
+        }
+        return SortKey.compare(a.key, b.key, 8);
+    }
+
+    /**
+     * @return the next tuple in sorted order, or null if there are no more.
+     */
+    public Tuple next() throws DbException, TransactionAbortedException {
+        if (this.inMemory != null) {
+            return this.inMemoryPos < this.inMemorySize ? this.inMemory[this.inMemoryPos++].tuple : null;
+        }
+        if (this.mergeTree == null) {
+            throw new IllegalStateException("ExternalSorter: nothing has been sorted.");
+        }
+        Entry e = this.mergeTree.next();
+        return e == null ? null : e.tuple;
+    }
+
+    /**
+     * Start returning the sorted tuples from the beginning again.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (this.inMemory != null) {
+            this.inMemoryPos = 0;
+        } else if (this.runs != null) {
+            this.mergeTree.close();
+            this.mergeTree = new LoserTree(this.runs);
+        }
+    }
+
+    /**
+     * Release the sorted tuples and delete the runs.
+     */
+    public void close() {
+        this.inMemory = null;
+        if (this.mergeTree != null) {
+            this.mergeTree.close();
+            this.mergeTree = null;
+        }
+        if (this.runs != null) {
+            for (SpillFile run : this.runs) {
+                run.delete();
+            }
+            this.runs = null;
+        }
+    }
+
+    /**
+     * A tournament tree of losers over sorted runs: tree[0] is the run with
+     * the smallest head, and each inner node holds the run that lost the
+     * match there. Replacing the winner's head replays only the matches on
+     * its path to the root, log2(k) comparisons.
+     */
+    private class LoserTree {
+        private final DbIterator[] inputs;
+        private final Entry[] heads;
+        private final int[] tree;
+        private final int k;
+
+        LoserTree(List<SpillFile> runs) throws DbException, TransactionAbortedException {
+            this.k = runs.size();
+            this.inputs = new DbIterator[k];
+            this.heads = new Entry[k];
+            this.tree = new int[k];
+            for (int i = 0; i < k; ++i) {
+                this.inputs[i] = runs.get(i).iterator();
+                this.inputs[i].open();
+                this.heads[i] = this.inputs[i].hasNext() ? entry(this.inputs[i].next()) : null;
+            }
+            // -1 beats every run, so that the first k matches fill the tree.
+            Arrays.fill(this.tree, -1);
+            for (int i = k - 1; i >= 0; --i) {
+                this.adjust(i);
+            }
+        }
+
+        /**
+         * @return true if run a's head comes before run b's; exhausted runs
+         *         come last, and -1 comes before every run.
+         */
+        private boolean beats(int a, int b) {
+            if (a == -1 || b == -1) {
+                return a == -1;
+            }
+            if (this.heads[a] == null) {
+                return false;
+            }
+            if (this.heads[b] == null) {
+                return true;
+            }
+            int cmp = compare(this.heads[a], this.heads[b]);
+            return cmp < 0 || (cmp == 0 && a < b);
+        }
+
+        private void adjust(int s) {
+            for (int t = (s + this.k) >> 1; t > 0; t >>= 1) {
+                if (this.beats(this.tree[t], s)) {
+                    int loser = s;
+                    s = this.tree[t];
+                    this.tree[t] = loser;
+                }
+            }
+            this.tree[0] = s;
+        }
+
+        Entry next() throws DbException, TransactionAbortedException {
+            int w = this.tree[0];
+            Entry e = this.heads[w];
+            if (e == null) {
+                return null;
+            }
+            this.heads[w] = this.inputs[w].hasNext() ? entry(this.inputs[w].next()) : null;
+            this.adjust(w);
+            return e;
+        }
+
+        void close() {
+            for (DbIterator input : this.inputs) {
+                input.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Fetch implements late materialization: it appends to every tuple of its
+ * child some fields of a tuple of a heap file, which it reads from the
+ * buffer pool by the row id in a field of the child's tuple. A scan below
+ * the child then only returns the row id instead of those fields (see
+ * {@link SeqScan#SeqScan(TransactionId, int, String, int[])}), so that wide
+ * fields are only decoded for the tuples that survive the filters and joins
+ * between the scan and the Fetch.
+ */
+public class Fetch extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private DbIterator child;
+    private final int rowIdField;
+    private final int tableId;
+    private final int[] fields;
+    private final TupleDesc td;
+
+    private transient HeapFile file = null;
+    // the page of the last tuple fetched, which the next one is often on.
+    private transient HeapPage page = null;
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            The transaction this operator is running as a part of.
+     * @param child
+     *            The child operator
+     * @param rowIdField
+     *            the field of the child's tuples with the row id of the
+     *            tuple to read.
+     * @param tableId
+     *            the table to read, which must be stored in a HeapFile.
+     * @param tableAlias
+     *            the alias of the table, which prefixes the names of the
+     *            fields appended.
+     * @param fields
+     *            the fields of the table to append.
+     */
+    public Fetch(TransactionId tid, DbIterator child, int rowIdField, int tableId, String tableAlias,
+            int[] fields) {
+        if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile)) {
+            throw new IllegalArgumentException("Fetch: only tuples of heap files can be fetched.");
+        }
+        if (child.getTupleDesc().getFieldType(rowIdField) != Type.INT_TYPE) {
+            throw new IllegalArgumentException("Fetch: the row id field must be an INT.");
+        }
+        this.tid = tid;
+        this.child = child;
+        this.rowIdField = rowIdField;
+        this.tableId = tableId;
+        this.fields = fields.clone();
+        this.td = TupleDesc.merge(child.getTupleDesc(),
+                new SeqScan(tid, tableId, tableAlias, this.fields).getTupleDesc());
+    }
+
+    /**
+     * @return the fields of the table appended to the child's tuples.
+     */
+    public int[] getFields() {
+        return this.fields.clone();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.file = (HeapFile) Database.getCatalog().getDatabaseFile(this.tableId);
+        this.page = null;
+        this.child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        this.child.close();
+        this.page = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the next tuple of the
+     * child with the fields of the tuple its row id refers to appended.
+     *
+     * @return The next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!this.child.hasNext()) {
+            return null;
+        }
+        Tuple t = this.child.next();
+        RecordId rid = this.file.recordId(t.getInt(this.rowIdField));
+        if (this.page == null || !this.page.getId().equals(rid.getPageId())) {
+            this.page = (HeapPage) Database.getBufferPool().getPage(this.tid, rid.getPageId(),
+                    Permissions.READ_ONLY);
+        }
+        int n = this.td.numFields() - this.fields.length;
+        Tuple out = new Tuple(this.td);
+        for (int i = 0; i < n; ++i) {
+            out.copyField(i, t, i);
+        }
+        this.page.copyFields(rid.tupleno(), this.fields, out, n);
+        out.setRecordId(t.getRecordId());
+        return out;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -3,14 +3,21 @@ package simpledb;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. It evaluates a
+ * {@link PredicateTree}, which reorders its conjuncts and disjuncts at
+ * runtime by their observed selectivity and cost.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchDbIterator {
 
     private static final long serialVersionUID = 1L;
 
-    private final Predicate predicate;
-    private final DbIterator chdIter;
+    private final PredicateTree tree;
+    private DbIterator chdIter;
+    private transient BatchDbIterator chdBatches = null;
+    // a conjunction compiled, in the order the tree settled on, once
+    // COMPILE_THRESHOLD rows were interpreted.
+    private transient QueryCompiler.BatchFilter compiled = null;
+    private transient int interpreted = 0;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -22,12 +29,33 @@ public class Filter extends Operator {
      *            The child operator
      */
     public Filter(Predicate p, DbIterator child) {
-        this.predicate = p;
+        this(PredicateTree.of(p), child);
+    }
+
+    /**
+     * Constructor accepts an AND/OR tree of predicates to apply and a child
+     * operator to read tuples to filter from.
+     *
+     * @param tree
+     *            The predicates to filter tuples with
+     * @param child
+     *            The child operator
+     */
+    public Filter(PredicateTree tree, DbIterator child) {
+        this.tree = tree;
         this.chdIter = child;
     }
 
+    /**
+     * @return the predicate of a filter of one predicate, null if the filter
+     *         evaluates a tree of predicates.
+     */
     public Predicate getPredicate() {
-        return this.predicate;
+        return this.tree.getPredicate();
+    }
+
+    public PredicateTree getPredicateTree() {
+        return this.tree;
     }
 
     public TupleDesc getTupleDesc() {
@@ -38,6 +66,7 @@ public class Filter extends Operator {
             TransactionAbortedException {
         // first rewind the child iterator, so that we can fetch the full data.
         this.chdIter.rewind();
+        this.interpreted = 0;
         super.open();
     }
 
@@ -45,26 +74,75 @@ public class Filter extends Operator {
         super.close();
     }
 
+    /**
+     * Counts rows interpreted by the tree, and compiles it once there were
+     * {@link QueryCompiler#COMPILE_THRESHOLD} of them if it is a
+     * conjunction. Trees with disjunctions stay interpreted, so that they
+     * keep adapting their order.
+     */
+    private void interpreted(int rows) {
+        this.interpreted += rows;
+        if (this.interpreted >= QueryCompiler.COMPILE_THRESHOLD) {
+            this.interpreted = Integer.MIN_VALUE;
+            if (this.tree.isConjunction()) {
+                this.compiled = QueryCompiler.compileFilter(this.getTupleDesc(), this.tree.getConjuncts());
+            }
+        }
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
         this.open();
     }
 
     /**
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
-     * child operator, applying the predicate to them and returning those that
-     * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * child operator, applying the predicates to them and returning those that
+     * pass the tree (i.e. for which the PredicateTree.filter() returns true.)
      * 
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
-     * @see Predicate#filter
+     * @see PredicateTree#filter
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         Tuple tup;
         while (this.chdIter.hasNext()) {
             tup = this.chdIter.next();
-            if (this.predicate.filter(tup)) {
-                return tup;
+            if (this.compiled != null) {
+                if (this.compiled.filter(tup)) {
+                    return tup;
+                }
+            } else {
+                this.interpreted(1);
+                if (this.tree.filter(tup)) {
+                    return tup;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the next batch of the child in which at least one tuple passes
+     * the tree, with its selection narrowed to those tuples.
+     *
+     * @see PredicateTree#filter(TupleBatch)
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        this.checkOpen();
+        if (this.chdBatches == null) {
+            this.chdBatches = BatchAdapter.of(this.chdIter);
+        }
+        TupleBatch batch;
+        while ((batch = this.chdBatches.nextBatch()) != null) {
+            if (this.compiled != null) {
+                this.compiled.filter(batch);
+            } else {
+                this.interpreted(batch.size());
+                this.tree.filter(batch);
+            }
+            if (batch.size() > 0) {
+                return batch;
             }
         }
         return null;
@@ -72,13 +150,13 @@ public class Filter extends Operator {
 
     @Override
     public DbIterator[] getChildren() {
-        // some code goes here
-        return null;
+        return new DbIterator[] { this.chdIter };
     }
 
     @Override
     public void setChildren(DbIterator[] children) {
-        // some code goes here
+        this.chdIter = children[0];
+        this.chdBatches = null;
     }
 
 }
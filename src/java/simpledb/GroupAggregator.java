@@ -0,0 +1,282 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Knows how to compute several aggregates at once over groups defined by any
+ * number of group-by fields. Every group is a single entry of one hash table
+ * holding the helpers of all its aggregates, so the input is read once no
+ * matter how many aggregates are computed. Aggregates over the same field
+ * share one helper.
+ * <p>
+ * Aggregates over INT fields support every operator; aggregates over STRING
+ * fields only support COUNT, as in {@link StringAggregator}.
+ */
+public class GroupAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] gbfields, afields;
+    private final Type[] gbfieldTypes;
+    private final Op[] whats;
+    // helperFields[j] is the field aggregated by helper j of a group, and
+    // helperOf[i] the helper of aggregate i.
+    private final int[] helperFields, helperOf;
+    private final boolean[] intHelpers;
+    private final TupleDesc resultTD;
+    // the key of a group is the value of its group-by field if there is only
+    // one, and the list of the values of its group-by fields otherwise.
+    private final HashMap<Object, AggregHelper[]> aggMap;
+    private boolean invalid;
+
+    private TupleIterator outputIter;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfields
+     *            the 0-based indices of the group-by fields in the tuple; empty
+     *            if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group-by fields
+     * @param afields
+     *            the 0-based indices of the aggregate fields in the tuple
+     * @param afieldtypes
+     *            the types of the aggregate fields
+     * @param whats
+     *            the aggregation operators, whats[i] is applied to afields[i]
+     * @throws IllegalArgumentException
+     *             if the arrays don't match, or an operator other than COUNT
+     *             is applied to a STRING field
+     */
+    public GroupAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Type[] afieldtypes, Op[] whats)
+            throws IllegalArgumentException {
+        if (gbfields.length != gbfieldtypes.length || afields.length != afieldtypes.length
+                || afields.length != whats.length) {
+            throw new IllegalArgumentException("GroupAggregator: the fields, types and operators don't match.");
+        }
+        if (afields.length == 0) {
+            throw new IllegalArgumentException("GroupAggregator: no aggregates.");
+        }
+        this.gbfields = gbfields.clone();
+        this.gbfieldTypes = gbfieldtypes.clone();
+        this.afields = afields.clone();
+        this.whats = whats.clone();
+
+        ArrayList<Integer> fields = new ArrayList<>();
+        ArrayList<Boolean> intFields = new ArrayList<>();
+        this.helperOf = new int[afields.length];
+        for (int i = 0; i < afields.length; ++i) {
+            if (whats[i] == Op.SUM_COUNT || whats[i] == Op.SC_AVG) {
+                throw new IllegalArgumentException("GroupAggregator: " + whats[i] + " is not supported.");
+            }
+            if (afieldtypes[i] != Type.INT_TYPE && whats[i] != Op.COUNT) {
+                throw new IllegalArgumentException("GroupAggregator: only support COUNT over STRING fields.");
+            }
+            int j = fields.indexOf(afields[i]);
+            if (j < 0) {
+                j = fields.size();
+                fields.add(afields[i]);
+                intFields.add(afieldtypes[i] == Type.INT_TYPE);
+            }
+            this.helperOf[i] = j;
+        }
+        this.helperFields = new int[fields.size()];
+        this.intHelpers = new boolean[fields.size()];
+        for (int j = 0; j < this.helperFields.length; ++j) {
+            this.helperFields[j] = fields.get(j);
+            this.intHelpers[j] = intFields.get(j);
+        }
+
+        Type[] types = new Type[gbfields.length + afields.length];
+        for (int i = 0; i < types.length; ++i) {
+            types[i] = i < gbfields.length ? gbfieldtypes[i] : Type.INT_TYPE;
+        }
+        this.resultTD = new TupleDesc(types);
+        this.aggMap = new HashMap<>();
+        if (gbfields.length == 0) {
+            // only the default value
+            this.aggMap.put(0, this.newHelpers());
+        }
+        this.invalidOutput();
+    }
+
+    private void invalidOutput() {
+        this.invalid = true;
+    }
+
+    private AggregHelper[] newHelpers() {
+        AggregHelper[] helpers = new AggregHelper[this.helperFields.length];
+        for (int j = 0; j < helpers.length; ++j) {
+            helpers[j] = this.intHelpers[j] ? new IntegerAggregHelper() : new StringAggregHelper();
+        }
+        return helpers;
+    }
+
+    private Object keyOf(Tuple tup) {
+        if (this.gbfields.length == 0) {
+            return 0;
+        }
+        if (this.gbfields.length == 1) {
+            return this.valueOf(tup, 0);
+        }
+        Object[] values = new Object[this.gbfields.length];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = this.valueOf(tup, i);
+        }
+        return Arrays.asList(values);
+    }
+
+    private Object valueOf(Tuple tup, int i) {
+        if (this.gbfieldTypes[i] == Type.INT_TYPE) {
+            return tup.getInt(this.gbfields[i]);
+        }
+        return tup.getString(this.gbfields[i]);
+    }
+
+    private Object keyOf(TupleBatch batch, int row) {
+        if (this.gbfields.length == 0) {
+            return 0;
+        }
+        if (this.gbfields.length == 1) {
+            return this.valueOf(batch, row, 0);
+        }
+        Object[] values = new Object[this.gbfields.length];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = this.valueOf(batch, row, i);
+        }
+        return Arrays.asList(values);
+    }
+
+    private Object valueOf(TupleBatch batch, int row, int i) {
+        if (this.gbfieldTypes[i] == Type.INT_TYPE) {
+            return batch.getInt(this.gbfields[i], row);
+        }
+        return batch.getString(this.gbfields[i], row);
+    }
+
+    /**
+     * Merge a new tuple into the aggregates, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing the aggregate and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        AggregHelper[] helpers = this.aggMap.computeIfAbsent(this.keyOf(tup), key -> this.newHelpers());
+        for (int j = 0; j < helpers.length; ++j) {
+            if (this.intHelpers[j]) {
+                ((IntegerAggregHelper) helpers[j]).addKey(tup.getInt(this.helperFields[j]));
+            } else {
+                ((StringAggregHelper) helpers[j]).addKey();
+            }
+        }
+        this.invalidOutput();
+    }
+
+    /**
+     * Merge all the selected rows of a batch into the aggregates, reading the
+     * aggregate values straight from the column vectors.
+     *
+     * @param batch
+     *            the batch containing the aggregate and group-by fields
+     */
+    @Override
+    public void mergeBatch(TupleBatch batch) {
+        int[][] cols = new int[this.helperFields.length][];
+        for (int j = 0; j < cols.length; ++j) {
+            if (this.intHelpers[j]) {
+                cols[j] = batch.intColumn(this.helperFields[j]);
+            }
+        }
+        int n = batch.size();
+        for (int k = 0; k < n; ++k) {
+            int row = batch.selected(k);
+            AggregHelper[] helpers = this.aggMap.computeIfAbsent(this.keyOf(batch, row), key -> this.newHelpers());
+            for (int j = 0; j < helpers.length; ++j) {
+                if (cols[j] != null) {
+                    ((IntegerAggregHelper) helpers[j]).addKey(cols[j][row]);
+                } else {
+                    ((StringAggregHelper) helpers[j]).addKey();
+                }
+            }
+        }
+        this.invalidOutput();
+    }
+
+    /**
+     * @return the number of groups aggregated so far.
+     */
+    public int numGroups() {
+        return this.aggMap.size();
+    }
+
+    /**
+     * Merge the groups of another GroupAggregator into this one.
+     */
+    public void merge(Aggregator other) {
+        for (Map.Entry<Object, AggregHelper[]> e : ((GroupAggregator) other).aggMap.entrySet()) {
+            AggregHelper[] helpers = this.aggMap.computeIfAbsent(e.getKey(), key -> this.newHelpers());
+            for (int j = 0; j < helpers.length; ++j) {
+                helpers[j].merge(e.getValue()[j]);
+            }
+        }
+        this.invalidOutput();
+    }
+
+    /**
+     * @return true if the group of tup has been aggregated already.
+     */
+    public boolean hasGroup(Tuple tup) {
+        return this.aggMap.containsKey(this.keyOf(tup));
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples hold the values of the group-by
+     *         fields followed by the values of the aggregates, in the order
+     *         given in the constructor.
+     */
+    public DbIterator iterator() {
+        if (!this.invalid) {
+            return this.outputIter;
+        }
+        ArrayList<Tuple> tuples = new ArrayList<>(this.aggMap.size());
+        try {
+            for (Map.Entry<Object, AggregHelper[]> e : this.aggMap.entrySet()) {
+                Tuple t = new Tuple(this.resultTD);
+                if (this.gbfields.length == 1) {
+                    this.setGroupValue(t, 0, e.getKey());
+                } else if (this.gbfields.length > 1) {
+                    List<?> values = (List<?>) e.getKey();
+                    for (int i = 0; i < values.size(); ++i) {
+                        this.setGroupValue(t, i, values.get(i));
+                    }
+                }
+                for (int i = 0; i < this.afields.length; ++i) {
+                    AggregHelper helper = e.getValue()[this.helperOf[i]];
+                    t.setInt(this.gbfields.length + i, helper instanceof IntegerAggregHelper
+                            ? IntegerAggregIterator.valueOf((IntegerAggregHelper) helper, this.whats[i])
+                            : helper.getCount());
+                }
+                tuples.add(t);
+            }
+        } catch (DbException e) {
+            // the operators have been checked by the constructor.
+            throw new IllegalStateException(e);
+        }
+        this.outputIter = new TupleIterator(this.resultTD, tuples);
+        this.invalid = false;
+        return this.outputIter;
+    }
+
+    private void setGroupValue(Tuple t, int i, Object value) {
+        if (this.gbfieldTypes[i] == Type.INT_TYPE) {
+            t.setInt(i, (Integer) value);
+        } else {
+            t.setString(i, (String) value);
+        }
+    }
+
+}
@@ -1,23 +1,84 @@
 package simpledb;
 
-import java.lang.reflect.Array;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join with a memory budget. The tuples of
+ * child1 (the build side) are hashed into {@link #NUM_PARTITIONS} partitions.
+ * As long as the build side fits in the memory budget, every partition stays
+ * in memory and the join is an ordinary in-memory hash join. Whenever it
+ * doesn't, the largest in-memory partition is spilled to a {@link SpillFile},
+ * and so are the build and probe tuples that hash to it later on. Once child2
+ * (the probe side) is exhausted, each pair of spilled partitions is joined
+ * by a nested HashEquiJoin that partitions with a different hash function;
+ * after {@link #MAX_RECURSION_DEPTH} levels, which only happens with heavily
+ * duplicated keys, a {@link BlockNestedLoopJoin} is used instead.
+ * <p>
+ * When child2 is a {@link SeqScan}, possibly under {@link Filter}s, the keys
+ * of the build side are also put in a {@link BloomFilter} that is installed
+ * on that scan as a {@link RuntimeFilter} once the build phase is over, so
+ * that probe tuples without a join partner are mostly dropped by the scan.
+ * The filter is sized up front for {@link #setExpectedBuildTuples} keys and
+ * its bytes count against the memory budget.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchDbIterator {
 
     private static final long serialVersionUID = 1L;
 
+    /** The default number of bytes of build tuples kept in memory (16 MB). */
+    public static final int DEFAULT_MEMORY_BUDGET = 16 * 1024 * 1024;
+
+    /** The number of partitions the build and probe sides are hashed into. */
+    public static final int NUM_PARTITIONS = 16;
+
+    /** The number of times spilled partitions are partitioned again. */
+    public static final int MAX_RECURSION_DEPTH = 3;
+
     private final JoinPredicate joinPred;
-    private final DbIterator child1, child2;
-    private final int tup1Size, tup2Size;
-    private final TupleDesc mergedTupleDesc;
+    private DbIterator child1, child2;
+    private TupleDesc mergedTupleDesc;
     private Tuple tup2;
-    private final Type keyType;
-    private HashMap<Integer, ArrayList<Tuple>> IntMap = null;
-    private HashMap<String, ArrayList<Tuple>> StrMap = null;
+    private Type keyType;
+    private final int memoryBudget;
+    // the recursion depth of this join; spilled partitions are joined at level + 1.
+    private final int level;
+    // the hash table on the in-memory build tuples; buildTable is whichever
+    // of intTable and strTable matches the key type.
+    private transient IntHashTable intTable = null;
+    private transient StringHashTable strTable = null;
+    private transient TupleHashTable buildTable = null;
+
+    // spilled[i] is true if partition i has been spilled, in which case its
+    // tuples are in buildSpills[i] and probeSpills[i].
+    private transient boolean[] spilled = null;
+    private transient SpillFile[] buildSpills = null, probeSpills = null;
+    private transient int nextSpilled = 0;
+    // state of the build phase: the in-memory build tuples of every
+    // partition, their number of bytes, and the filter holding the keys of
+    // all build tuples for the runtime filter.
+    private transient ArrayList<ArrayList<Tuple>> partitions = null;
+    private transient long inMemory = 0;
+    private transient BloomFilter bloom = null;
+    // the number of build tuples the Bloom filter is sized for, 0 if unknown.
+    private int expectedBuildTuples = 0;
+    private transient DbIterator subJoin = null;
+    private int spilledPartitions = 0;
+    private long spilledBytes = 0;
+
+    // the runtime filter installed on probeScan, if any.
+    private transient SeqScan probeScan = null;
+    private transient RuntimeFilter runtimeFilter = null;
+
+    // state of nextBatch(): the current batch of child2, the position of the
+    // probing row in its selection, and the build tuples matching that row.
+    private transient BatchDbIterator child2Batches = null;
+    private transient TupleBatch outBatch = null;
+    private transient TupleBatch probeBatch = null;
+    private transient int probePos = 0, probeRow = 0;
+    private transient int batchMatchRow = TupleHashTable.NONE;
+    private transient boolean probeDone = false;
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -30,13 +91,58 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join, which is the
+     *            side the hash table is built on
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param memoryBudget
+     *            the number of bytes of child1 tuples to keep in memory
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int memoryBudget) {
+        this(p, child1, child2, memoryBudget, 0);
+    }
+
+    private HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int memoryBudget, int level) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("memoryBudget must be positive.");
+        }
         this.joinPred = p;
         this.child1 = child1;
         this.child2 = child2;
-        this.tup1Size = child1.getTupleDesc().numFields();
-        this.tup2Size = child2.getTupleDesc().numFields();
         this.mergedTupleDesc = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
         this.keyType = child1.getTupleDesc().getFieldType(p.getField1());
+        this.memoryBudget = memoryBudget;
+        this.level = level;
+    }
+
+    /**
+     * Sets the number of tuples child1 is expected to return, which sizes
+     * the Bloom filter of the runtime filter. By default, it is sized for
+     * the number of child1 tuples that fit in the memory budget.
+     */
+    public void setExpectedBuildTuples(int expectedBuildTuples) {
+        this.expectedBuildTuples = expectedBuildTuples;
+    }
+
+    /**
+     * @return the number of keys the Bloom filter of the runtime filter is
+     *         sized for; it takes at most about a quarter of the memory
+     *         budget, as BloomFilter rounds its size up to a power of two.
+     */
+    private int bloomKeys() {
+        long keys = this.expectedBuildTuples > 0 ? this.expectedBuildTuples
+                : this.memoryBudget / Math.max(1, this.child1.getTupleDesc().getSize());
+        long maxKeys = this.memoryBudget / BloomFilter.BITS_PER_KEY;
+        return (int) Math.max(1, Math.min(keys, maxKeys));
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -57,50 +163,195 @@ public class HashEquiJoin extends Operator {
         return this.child2.getTupleDesc().getFieldName(this.joinPred.getField2());
     }
 
+    /**
+     * @return the number of partitions spilled to disk since the last open,
+     *         including those of the joins of spilled partitions.
+     */
+    public int getSpilledPartitions() {
+        return this.spilledPartitions;
+    }
+
+    /**
+     * @return the number of bytes of build and probe tuples spilled to disk
+     *         since the last open, including those of the joins of spilled
+     *         partitions.
+     */
+    public long getSpilledBytes() {
+        return this.spilledBytes;
+    }
+
+    /**
+     * @return the runtime filter installed on the probe side at the last
+     *         open, or null if none was.
+     */
+    public RuntimeFilter getRuntimeFilter() {
+        return this.runtimeFilter;
+    }
+
+    /**
+     * @return the SeqScan that child2 reads from if child2 is a SeqScan,
+     *         possibly under Filters, or null otherwise.
+     */
+    private static SeqScan probeScan(DbIterator child) {
+        while (child instanceof Filter) {
+            child = ((Filter) child).getChildren()[0];
+        }
+        return child instanceof SeqScan ? (SeqScan) child : null;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         this.child1.open();
         this.child2.open();
+        this.startBuild();
+        while (this.child1.hasNext()) {
+            this.addBuildTuple(this.child1.next());
+        }
+        this.finishBuild();
+        super.open();
+    }
+
+    /**
+     * Starts the build phase. {@link #open} feeds it the tuples of child1;
+     * {@link PushPlan} pushes them instead, as the build side is a pipeline
+     * of its own that ends in this join.
+     */
+    void startBuild() throws DbException {
+        if (this.keyType != Type.INT_TYPE && this.keyType != Type.STRING_TYPE) {
+            throw new DbException("HashEquiJoin: Invalid Hashjoin Key type.");
+        }
+        this.spilled = new boolean[NUM_PARTITIONS];
+        this.buildSpills = new SpillFile[NUM_PARTITIONS];
+        this.probeSpills = new SpillFile[NUM_PARTITIONS];
+        this.nextSpilled = 0;
+        this.spilledPartitions = 0;
+        this.spilledBytes = 0;
+
+        this.partitions = new ArrayList<>(NUM_PARTITIONS);
+        for (int i = 0; i < NUM_PARTITIONS; ++i) {
+            this.partitions.add(new ArrayList<Tuple>());
+        }
+        this.inMemory = 0;
+        // the keys of all build tuples, for the runtime filter.
+        this.probeScan = this.level == 0 ? probeScan(this.child2) : null;
+        this.bloom = this.probeScan != null ? new BloomFilter(this.bloomKeys()) : null;
+    }
+
+    /**
+     * Partitions a tuple of the build side, spilling partitions while the
+     * build side doesn't fit.
+     */
+    void addBuildTuple(Tuple c1ReadTuple) throws DbException {
+        int keyField = this.joinPred.getField1();
+        int tupleSize = this.child1.getTupleDesc().getSize();
+        if (this.bloom != null) {
+            this.bloom.add(RuntimeFilter.keyHash(c1ReadTuple, keyField));
+        }
+        int part = this.partitionOf(c1ReadTuple, keyField);
+        if (this.spilled[part]) {
+            this.buildSpills[part].add(c1ReadTuple);
+            this.spilledBytes += tupleSize;
+            return;
+        }
+        this.partitions.get(part).add(c1ReadTuple);
+        this.inMemory += tupleSize;
+        if (this.inMemory > this.memoryBudget - (this.bloom == null ? 0 : this.bloom.numBytes())) {
+            this.inMemory -= this.spillLargest(this.partitions);
+        }
+    }
+
+    /**
+     * Ends the build phase: builds the hash table on the partitions that
+     * stayed in memory and installs the runtime filter.
+     */
+    void finishBuild() {
+        int keyField = this.joinPred.getField1();
+        int tupleSize = this.child1.getTupleDesc().getSize();
+        int numInMemory = (int) (this.inMemory / Math.max(1, tupleSize));
         if (this.keyType == Type.INT_TYPE) {
-            this.IntMap = new HashMap<>();
-        } else if (this.keyType == Type.STRING_TYPE) {
-            this.StrMap = new HashMap<>();
+            this.intTable = new IntHashTable(numInMemory);
+            this.buildTable = this.intTable;
         } else {
-            throw new DbException("HashEquiJoin: Invalid Hashjoin Key type.");
+            this.strTable = new StringHashTable(numInMemory);
+            this.buildTable = this.strTable;
         }
-        Tuple c1ReadTuple;
-        ArrayList<Tuple> the_list;
-        while (this.child1.hasNext()) {
-            c1ReadTuple = this.child1.next();
-            Field f = c1ReadTuple.getField(this.joinPred.getField1());
-            if (this.keyType == Type.INT_TYPE) {
-                IntField key = (IntField)f;
-                if (this.IntMap.containsKey(key.getValue())) {
-                    the_list = this.IntMap.get(key.getValue());
-                } else {
-                    the_list = new ArrayList<>();
-                    this.IntMap.put(key.getValue(), the_list);
-                }
-                the_list.add(c1ReadTuple);
-            } else {
-                StringField key = (StringField)f;
-                if (this.StrMap.containsKey(key.getValue())) {
-                    the_list = this.StrMap.get(key.getValue());
+        for (int part = 0; part < NUM_PARTITIONS; ++part) {
+            for (Tuple c1ReadTuple : this.partitions.get(part)) {
+                if (this.keyType == Type.INT_TYPE) {
+                    this.intTable.add(c1ReadTuple.getInt(keyField), c1ReadTuple);
                 } else {
-                    the_list = new ArrayList<>();
-                    this.StrMap.put(key.getValue(), the_list);
+                    this.strTable.add(c1ReadTuple.getString(keyField), c1ReadTuple);
                 }
-                the_list.add(c1ReadTuple);
             }
+            this.partitions.set(part, null);
         }
-        super.open();
+        this.partitions = null;
+
+        // let the probe-side scan drop the tuples that cannot join.
+        this.runtimeFilter = null;
+        if (this.probeScan != null) {
+            this.runtimeFilter = new RuntimeFilter(this.joinPred.getField2(), this.bloom);
+            this.probeScan.addRuntimeFilter(this.runtimeFilter);
+        }
+        this.bloom = null;
+        this.matchRow = TupleHashTable.NONE;
+        this.batchMatchRow = TupleHashTable.NONE;
+    }
+
+    /**
+     * @return the hash table on the in-memory build tuples, once the build
+     *         phase is over.
+     */
+    TupleHashTable buildTable() {
+        return this.buildTable;
+    }
+
+    /**
+     * Probes the hash table with a row of a batch of the probe side. If the
+     * partition of the row has been spilled, the row is spilled too.
+     *
+     * @return the first build row joining with the row, or NONE.
+     */
+    int probe(TupleBatch batch, int row) throws DbException {
+        if (this.spilledPartitions > 0 && this.spillProbe(batch.getTuple(row))) {
+            return TupleHashTable.NONE;
+        }
+        int keyField = this.joinPred.getField2();
+        if (this.keyType == Type.INT_TYPE) {
+            return this.intTable.find(batch.getInt(keyField, row));
+        }
+        return this.strTable.find(batch.getString(keyField, row));
     }
 
     public void close() {
         this.child1.close();
         this.child2.close();
-        this.IntMap = null;
-        this.StrMap = null;
+        if (this.subJoin != null) {
+            this.subJoin.close();
+            this.subJoin = null;
+        }
+        if (this.spilled != null) {
+            for (int i = 0; i < NUM_PARTITIONS; ++i) {
+                this.deleteSpills(i);
+            }
+            this.spilled = null;
+        }
+        if (this.spilledPartitions > 0) {
+            Debug.log("HashEquiJoin: spilled %d partitions, %d bytes", this.spilledPartitions, this.spilledBytes);
+        }
+        if (this.probeScan != null) {
+            if (this.runtimeFilter != null) {
+                this.probeScan.removeRuntimeFilter(this.runtimeFilter);
+                Debug.log("HashEquiJoin: runtime filter dropped %d of %d probe tuples",
+                        this.runtimeFilter.getNumDropped(), this.runtimeFilter.getNumTested());
+            }
+            this.probeScan = null;
+        }
+        this.intTable = null;
+        this.strTable = null;
+        this.buildTable = null;
+        this.probeBatch = null;
+        this.probeDone = false;
         super.close();
     }
 
@@ -109,7 +360,8 @@ public class HashEquiJoin extends Operator {
         this.open();
     }
 
-    transient Iterator<Tuple> listIt = null;
+    // the next build row joining with tup2, or NONE.
+    private transient int matchRow = TupleHashTable.NONE;
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -130,62 +382,198 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (this.listIt != null && this.listIt.hasNext()) {
+        if (this.matchRow != TupleHashTable.NONE) {
             return this.makeJoin();
-        } else {
-            // if we don't have the current processing lists of Child1
-            while (this.child2.hasNext()) {
-                // find the next tup2
-                this.tup2 = this.child2.next();
-                Field f = this.tup2.getField(this.joinPred.getField2());
-                if (this.keyType == Type.INT_TYPE) {
-                    IntField key = (IntField)f;
-                    // if already in hashMap, then we will join
-                    if (this.IntMap.containsKey(key.getValue())) {
-                        this.listIt = this.IntMap.get(key.getValue()).iterator();
-                    } else {
-                        // if not, then skip
-                        continue;
-                    }
-                } else {
-                    StringField key = (StringField)f;
-                    if (this.StrMap.containsKey(key.getValue())) {
-                        this.listIt = this.StrMap.get(key.getValue()).iterator();
-                    } else {
-                        continue;
-                    }
-                }
-                // it's likely the listIt is empty;
-                if (!this.listIt.hasNext()) {
-                    continue;
-                }
+        }
+        int keyField = this.joinPred.getField2();
+        while (this.child2.hasNext()) {
+            // find the next tup2
+            this.tup2 = this.child2.next();
+            if (this.spillProbe(this.tup2)) {
+                continue;
+            }
+            if (this.keyType == Type.INT_TYPE) {
+                this.matchRow = this.intTable.find(this.tup2.getInt(keyField));
+            } else {
+                this.matchRow = this.strTable.find(this.tup2.getString(keyField));
+            }
+            // if not in the hash table, then skip
+            if (this.matchRow != TupleHashTable.NONE) {
                 return this.makeJoin();
             }
         }
-        return null;
+        // the probe side is exhausted, join the spilled partitions.
+        return this.nextSpilledJoin();
     }
 
     private Tuple makeJoin() throws DbException {
-        Tuple tup1 = this.listIt.next();
-        Tuple mergedTuple = new Tuple(this.mergedTupleDesc);
-        for (int i = 0; i < this.tup1Size; ++i) {
-            mergedTuple.setField(i, tup1.getField(i));
+        Tuple tup1 = this.buildTable.get(this.matchRow);
+        this.matchRow = this.buildTable.next(this.matchRow);
+        return Tuple.merge(this.mergedTupleDesc, tup1, this.tup2);
+    }
+
+    /**
+     * Returns the next batch of joined tuples. child2 is probed a batch at a
+     * time, reading the join keys straight from its column vectors.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        this.checkOpen();
+        if (this.child2Batches == null) {
+            this.child2Batches = BatchAdapter.of(this.child2);
+            this.outBatch = new TupleBatch(this.mergedTupleDesc);
+        }
+        this.outBatch.clear();
+        while (!this.outBatch.isFull()) {
+            if (this.batchMatchRow != TupleHashTable.NONE) {
+                this.outBatch.addJoined(this.buildTable.get(this.batchMatchRow), this.probeBatch, this.probeRow);
+                this.batchMatchRow = this.buildTable.next(this.batchMatchRow);
+                continue;
+            }
+            if (this.probeBatch == null || this.probePos == this.probeBatch.size()) {
+                if (this.probeDone) {
+                    break;
+                }
+                this.probeBatch = this.child2Batches.nextBatch();
+                this.probePos = 0;
+                if (this.probeBatch == null) {
+                    this.probeDone = true;
+                    break;
+                }
+            }
+            this.probeRow = this.probeBatch.selected(this.probePos++);
+            this.batchMatchRow = this.probe(this.probeBatch, this.probeRow);
+        }
+        if (this.probeDone) {
+            Tuple t;
+            while (!this.outBatch.isFull() && (t = this.nextSpilledJoin()) != null) {
+                this.outBatch.addTuple(t);
+            }
+        }
+        return this.outBatch.size() > 0 ? this.outBatch : null;
+    }
+
+    /**
+     * @return the partition of t, whose join key is field keyField. The hash
+     *         function depends on the recursion level, so that a spilled
+     *         partition is split up when it is joined at the next level.
+     */
+    private int partitionOf(Tuple t, int keyField) {
+        int hash = this.keyType == Type.INT_TYPE ? t.getInt(keyField) : t.getString(keyField).hashCode();
+        int h = (hash ^ (this.level * 0x85EBCA6B)) * 0x9E3779B9;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % NUM_PARTITIONS;
+    }
+
+    /**
+     * Spills the largest in-memory build partition.
+     *
+     * @return the number of bytes freed.
+     */
+    private long spillLargest(ArrayList<ArrayList<Tuple>> partitions) throws DbException {
+        int victim = -1;
+        for (int i = 0; i < NUM_PARTITIONS; ++i) {
+            if (!this.spilled[i] && (victim < 0 || partitions.get(i).size() > partitions.get(victim).size())) {
+                victim = i;
+            }
+        }
+        SpillFile spill = new SpillFile(this.child1.getTupleDesc());
+        for (Tuple t : partitions.get(victim)) {
+            spill.add(t);
+        }
+        this.buildSpills[victim] = spill;
+        this.spilled[victim] = true;
+        this.spilledPartitions += 1;
+        this.spilledBytes += spill.numBytes();
+        partitions.get(victim).clear();
+        return spill.numBytes();
+    }
+
+    /**
+     * Writes a probe tuple to the spill file of its partition if that
+     * partition has been spilled.
+     *
+     * @return true if the tuple has been spilled.
+     */
+    private boolean spillProbe(Tuple t) throws DbException {
+        if (this.spilledPartitions == 0) {
+            return false;
         }
-        for (int i = 0; i < this.tup2Size; ++i) {
-            mergedTuple.setField(i + this.tup1Size, this.tup2.getField(i));
+        int part = this.partitionOf(t, this.joinPred.getField2());
+        if (!this.spilled[part]) {
+            return false;
+        }
+        if (this.probeSpills[part] == null) {
+            this.probeSpills[part] = new SpillFile(this.child2.getTupleDesc());
+        }
+        this.probeSpills[part].add(t);
+        this.spilledBytes += this.child2.getTupleDesc().getSize();
+        return true;
+    }
+
+    /**
+     * Returns the next tuple of the joins of the spilled partitions, which
+     * are joined one pair at a time.
+     *
+     * @return the next joined tuple, or null if all spilled partitions have
+     *         been joined.
+     */
+    Tuple nextSpilledJoin() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (this.subJoin != null) {
+                if (this.subJoin.hasNext()) {
+                    return this.subJoin.next();
+                }
+                if (this.subJoin instanceof HashEquiJoin) {
+                    HashEquiJoin sub = (HashEquiJoin) this.subJoin;
+                    this.spilledPartitions += sub.getSpilledPartitions();
+                    this.spilledBytes += sub.getSpilledBytes();
+                }
+                this.subJoin.close();
+                this.subJoin = null;
+                this.deleteSpills(this.nextSpilled - 1);
+            }
+            if (this.spilledPartitions == 0 || this.nextSpilled == NUM_PARTITIONS) {
+                return null;
+            }
+            int part = this.nextSpilled++;
+            if (!this.spilled[part] || this.probeSpills[part] == null) {
+                // no probe tuple hashed to this partition, so nothing joins.
+                this.deleteSpills(part);
+                continue;
+            }
+            DbIterator build = this.buildSpills[part].iterator();
+            DbIterator probe = this.probeSpills[part].iterator();
+            if (this.level + 1 < MAX_RECURSION_DEPTH) {
+                this.subJoin = new HashEquiJoin(this.joinPred, build, probe, this.memoryBudget, this.level + 1);
+            } else {
+                this.subJoin = new BlockNestedLoopJoin(this.joinPred, build, probe, this.memoryBudget);
+            }
+            this.subJoin.open();
+        }
+    }
+
+    private void deleteSpills(int part) {
+        if (this.buildSpills[part] != null) {
+            this.buildSpills[part].delete();
+            this.buildSpills[part] = null;
+        }
+        if (this.probeSpills[part] != null) {
+            this.probeSpills[part].delete();
+            this.probeSpills[part] = null;
         }
-        return mergedTuple;
     }
 
     @Override
     public DbIterator[] getChildren() {
-        // some code goes here
-        return null;
+        return new DbIterator[] { this.child1, this.child2 };
     }
 
     @Override
     public void setChildren(DbIterator[] children) {
-        // some code goes here
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.mergedTupleDesc = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.keyType = child1.getTupleDesc().getFieldType(this.joinPred.getField1());
     }
 
 }
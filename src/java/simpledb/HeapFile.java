@@ -17,6 +17,13 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    /**
+     * The index that stands for the row id of a tuple in the fields a scan
+     * returns, see {@link SeqScan#SeqScan(TransactionId, int, String, int[])}.
+     * The row id of a tuple is an INT that identifies its slot in the file.
+     */
+    public static final int ROWID_FIELD = -1;
+
     private final File f;
     private final TupleDesc td;
     /**
@@ -158,10 +165,34 @@ public class HeapFile implements DbFile {
         throw new DbException("HeapFile: Failed to Delete Tuple, due to tuple not found.");
     }
 
+    /**
+     * @return the row id of the tuple in the given slot of the given page.
+     */
+    public int rowId(int pageNo, int slot) {
+        return pageNo * HeapPage.numSlots(this.td) + slot;
+    }
+
+    /**
+     * @return the RecordId of the tuple with the given row id.
+     * @see #rowId
+     */
+    public RecordId recordId(int rowId) {
+        int slots = HeapPage.numSlots(this.td);
+        return new RecordId(new HeapPageId(this.getId(), rowId / slots), rowId % slots);
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         return new HeapFileIterator(tid, this);
     }
 
+    /**
+     * @return an iterator over the tuples of the pages startPage (inclusive)
+     *         to endPage (exclusive) of this file.
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage) {
+        return new HeapFileIterator(tid, this, startPage, endPage);
+    }
+
 }
 
@@ -1,84 +1,167 @@
-package simpledb;
-
-import java.util.*;
-
-import java.util.NoSuchElementException;
-
-public class HeapFileIterator implements DbFileIterator {
-    private final HeapFile f;
-    private Iterator<Tuple> it;
-    private final TransactionId tid;
-    private int pageNum;
-
-    public HeapFileIterator(TransactionId tid, HeapFile f) {
-        this.tid = tid;
-        this.f = f;
-    }
-
-    @Override
-    public void open() throws DbException, TransactionAbortedException {
-        this.pageNum = 0;
-        this.it = this.getTupleListFromPage(this.pageNum).iterator();
-    }
-
-    @Override
-    public boolean hasNext() throws DbException, TransactionAbortedException {
-        if (this.it == null) {
-            return false;
-        }
-        if (this.it.hasNext()) {
-            return true;
-        } else if (this.pageNum < this.f.numPages() - 1) {
-            return this.getTupleListFromPage(this.pageNum + 1).size() > 0;
-        } else {
-            return false;
-        }
-    }
-
-    @Override
-    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-        if (this.it == null) {
-            throw new NoSuchElementException();
-        }
-        if (this.it.hasNext()) {
-            return this.it.next();
-        } else if (this.pageNum < this.f.numPages() - 1) {
-            // we can continue access the next page
-            this.pageNum++;
-            it = this.getTupleListFromPage(this.pageNum).iterator();
-            if (it.hasNext())
-                return it.next();
-            else {
-                throw new NoSuchElementException();
-            }
-
-        } else {
-            // no more tuples on current page and no more pages in file
-            throw new NoSuchElementException();
-        }
-    }
-
-    private List<Tuple> getTupleListFromPage(int pageNum) throws TransactionAbortedException, DbException {
-        PageId pageId = new HeapPageId(this.f.getId(), pageNum);
-        Page page = Database.getBufferPool().getPage(this.tid, pageId, Permissions.READ_ONLY);
-
-        ArrayList<Tuple> list = new ArrayList<>();
-        HeapPage heapPage = (HeapPage)page;
-        Iterator<Tuple> itr = heapPage.iterator();
-        while(itr.hasNext()){
-            list.add(itr.next());
-        }
-        return list;
-    }
-
-    @Override
-    public void rewind() throws DbException, TransactionAbortedException {
-        this.close();
-        this.open();
-    }
-
-    @Override
-    public void close() {
-        it = null;
-    }
-}
+package simpledb;
+
+import java.util.*;
+
+import java.util.NoSuchElementException;
+
+public class HeapFileIterator implements DbFileIterator {
+    private final HeapFile f;
+    private Iterator<Tuple> it;
+    private final TransactionId tid;
+    private int pageNum;
+    // the slot of page pageNum to read from next, once it is exhausted; -1
+    // once that page has been read entirely.
+    private int resumeSlot = -1;
+    // the range of pages to read; endPage is -1 to read up to the last page
+    // of the file.
+    private final int startPage, endPage;
+    // the predicates pushed down into the pages, or null.
+    private Predicate[] predicates = null;
+    // the fields to return and their TupleDesc, or null for whole tuples.
+    private int[] fields = null;
+    private TupleDesc fieldsTd = null;
+
+    public HeapFileIterator(TransactionId tid, HeapFile f) {
+        this(tid, f, 0, -1);
+    }
+
+    /**
+     * Create an iterator over the tuples of a range of pages of a file.
+     *
+     * @param startPage
+     *            the first page to read.
+     * @param endPage
+     *            the page after the last page to read.
+     */
+    public HeapFileIterator(TransactionId tid, HeapFile f, int startPage, int endPage) {
+        this.tid = tid;
+        this.f = f;
+        this.startPage = startPage;
+        this.endPage = endPage;
+    }
+
+    /**
+     * Only return the tuples that pass all the given predicates, which are
+     * evaluated on the bytes of every page before its tuples are decoded.
+     *
+     * @see HeapPage#iterator(Predicate[])
+     */
+    public void setPredicates(Predicate[] predicates) {
+        this.predicates = predicates;
+    }
+
+    /**
+     * Only return the given fields of every tuple, which are the only ones
+     * decoded.
+     *
+     * @param td
+     *            the TupleDesc of the returned tuples.
+     * @see HeapPage#iterator(Predicate[], int[], TupleDesc)
+     */
+    public void setFields(int[] fields, TupleDesc td) {
+        this.fields = fields;
+        this.fieldsTd = td;
+    }
+
+    private int endPage() {
+        return this.endPage < 0 ? this.f.numPages() : Math.min(this.endPage, this.f.numPages());
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        this.pageNum = this.startPage;
+        this.it = Collections.emptyIterator();
+        // the first page is read on the first call to hasNext or nextBatch.
+        this.resumeSlot = this.pageNum < this.endPage() ? 0 : -1;
+    }
+
+    @Override
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (this.it == null) {
+            return false;
+        }
+        // skip the pages without (matching) tuples.
+        while (!this.it.hasNext()) {
+            if (this.resumeSlot >= 0) {
+                this.it = this.getTuplesFromPage(this.pageNum, this.resumeSlot);
+                this.resumeSlot = -1;
+                continue;
+            }
+            if (this.pageNum >= this.endPage() - 1) {
+                return false;
+            }
+            this.pageNum++;
+            this.it = this.getTuplesFromPage(this.pageNum, 0);
+        }
+        return true;
+    }
+
+    /**
+     * Appends the next tuples to a batch until it is full or the pages are
+     * exhausted. The tuples are read from the bytes of the pages straight
+     * into the column vectors of the batch (see
+     * {@link HeapPage#fillBatch}); calls may be mixed with calls to next.
+     *
+     * @param batch
+     *            the batch to append to, whose TupleDesc is the one of the
+     *            returned tuples.
+     * @return false if the pages were exhausted before anything was
+     *         appended.
+     */
+    public boolean nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+        if (this.it == null) {
+            return false;
+        }
+        int before = batch.numRows();
+        // the tuples of the current page already decoded for next.
+        while (!batch.isFull() && this.it.hasNext()) {
+            batch.addTuple(this.it.next());
+        }
+        while (!batch.isFull()) {
+            if (this.resumeSlot < 0) {
+                if (this.pageNum >= this.endPage() - 1) {
+                    break;
+                }
+                this.pageNum++;
+                this.resumeSlot = 0;
+            }
+            HeapPage page = this.getPage(this.pageNum);
+            this.resumeSlot = page.fillBatch(this.resumeSlot, this.predicates, this.fields, batch);
+            if (this.resumeSlot >= page.numSlots) {
+                this.resumeSlot = -1;
+            }
+        }
+        return batch.numRows() > before;
+    }
+
+    @Override
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!this.hasNext()) {
+            // no more tuples on current page and no more pages in file
+            throw new NoSuchElementException();
+        }
+        return this.it.next();
+    }
+
+    private HeapPage getPage(int pageNum) throws TransactionAbortedException, DbException {
+        PageId pageId = new HeapPageId(this.f.getId(), pageNum);
+        return (HeapPage) Database.getBufferPool().getPage(this.tid, pageId, Permissions.READ_ONLY);
+    }
+
+    private Iterator<Tuple> getTuplesFromPage(int pageNum, int startSlot)
+            throws TransactionAbortedException, DbException {
+        return this.getPage(pageNum).iterator(this.predicates, this.fields, this.fieldsTd, startSlot);
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.close();
+        this.open();
+    }
+
+    @Override
+    public void close() {
+        it = null;
+        resumeSlot = -1;
+    }
+}
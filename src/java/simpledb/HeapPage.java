@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.io.*;
 
 /**
@@ -16,7 +17,11 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
-    final Tuple[] tuples;
+    // the bytes the page was read from; the tuples in them are decoded on
+    // first access. A slot whose tuple has not been decoded (null in tuples)
+    // is described by these bytes.
+    final byte[] data;
+    final AtomicReferenceArray<Tuple> tuples;
     final int numSlots;
     private int usedSlots;
 
@@ -47,33 +52,33 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data;
 
         // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
+        header = Arrays.copyOf(data, getHeaderSize());
         this.usedSlots = this.preCalcUsedSlots();
 
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        // the records are decoded when they are read.
+        tuples = new AtomicReferenceArray<>(numSlots);
 
-        setBeforeImage();
+        // data is never written to, so it is the before image as it is; the
+        // page isn't shared yet, so oldDataLock isn't needed.
+        oldData = data;
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {
+        return numSlots(this.td);
+    }
+
+    /**
+     * @return the number of tuple slots on a page of tuples of td.
+     */
+    static int numSlots(TupleDesc td) {
         double page_size = BufferPool.getPageSize();
-        double tuple_size = this.td.getSize();
+        double tuple_size = td.getSize();
         return (int)Math.floor((page_size * 8) / (tuple_size * 8 + 1));
     }
 
@@ -148,37 +153,103 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset of the record in slot slotId in data.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
+    private int slotOffset(int slotId) {
+        return this.header.length + slotId * this.td.getSize();
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8)
+                | (b[off + 3] & 0xFF);
+    }
+
+    private static String readString(byte[] b, int off) {
+        return new String(b, off + 4, readInt(b, off));
+    }
+
+    /**
+     * @return the tuple in the used slot slotId, which is decoded from data
+     *         if it hasn't been yet.
+     */
+    private Tuple getTuple(int slotId) {
+        Tuple t = this.tuples.get(slotId);
+        if (t != null) {
+            return t;
+        }
+        t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int off = this.slotOffset(slotId);
+        for (int j=0; j<td.numFields(); j++) {
+            int fieldOff = off + td.getFieldOffset(j);
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                t.setInt(j, readInt(data, fieldOff));
+            } else {
+                t.setString(j, readString(data, fieldOff));
             }
-            return null;
         }
+        // another reader may have decoded it meanwhile; either copy will do.
+        this.tuples.compareAndSet(slotId, null, t);
+        return this.tuples.get(slotId);
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+    /**
+     * Copies fields of the tuple in the used slot slotId into out, decoding
+     * only those fields if the tuple hasn't been decoded.
+     *
+     * @param fields
+     *            the fields to copy; {@link HeapFile#ROWID_FIELD} stands for
+     *            the row id of the tuple.
+     * @param offset
+     *            the index in out of the first field copied.
+     */
+    void copyFields(int slotId, int[] fields, Tuple out, int offset) {
+        Tuple t = this.tuples.get(slotId);
+        int off = this.slotOffset(slotId);
+        for (int j = 0; j < fields.length; ++j) {
+            int f = fields[j];
+            if (f == HeapFile.ROWID_FIELD) {
+                out.setInt(offset + j, pid.pageNumber() * numSlots + slotId);
+            } else if (t != null) {
+                out.copyField(offset + j, t, f);
+            } else if (td.getFieldType(f) == Type.INT_TYPE) {
+                out.setInt(offset + j, readInt(data, off + td.getFieldOffset(f)));
+            } else {
+                out.setString(offset + j, readString(data, off + td.getFieldOffset(f)));
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
+    }
 
-        return t;
+    /**
+     * @return true if the tuple in the used slot slotId passes all of preds.
+     *         Tuples that haven't been decoded are tested on the bytes of
+     *         their fields, without decoding them.
+     */
+    private boolean matches(int slotId, Predicate[] preds) {
+        Tuple t = this.tuples.get(slotId);
+        int off = this.slotOffset(slotId);
+        for (Predicate p : preds) {
+            if (t != null) {
+                if (!p.filter(t)) {
+                    return false;
+                }
+                continue;
+            }
+            int fieldOff = off + td.getFieldOffset(p.getField());
+            Field operand = p.getOperand();
+            boolean pass;
+            if (td.getFieldType(p.getField()) == Type.INT_TYPE && operand instanceof IntField) {
+                pass = IntField.compare(p.getOp(), readInt(data, fieldOff), ((IntField) operand).getValue());
+            } else if (td.getFieldType(p.getField()) == Type.STRING_TYPE && operand instanceof StringField) {
+                pass = StringField.compare(p.getOp(), readString(data, fieldOff), ((StringField) operand).getValue());
+            } else {
+                pass = p.filter(this.getTuple(slotId));
+            }
+            if (!pass) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -208,7 +279,7 @@ public class HeapPage implements Page {
         }
 
         // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        for (int i=0; i<numSlots; i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
@@ -223,11 +294,19 @@ public class HeapPage implements Page {
                 continue;
             }
 
-            // non-empty slot
+            // non-empty slot, copied as it was read if it wasn't decoded
+            Tuple t = tuples.get(i);
+            if (t == null) {
+                try {
+                    dos.write(data, this.slotOffset(i), td.getSize());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
+                    td.getFieldType(j).serialize(t, j, dos);
 
                 } catch (IOException e) {
                     e.printStackTrace();
@@ -236,7 +315,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * numSlots); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -278,8 +357,8 @@ public class HeapPage implements Page {
         // here we need to first find the Tuple's place
         for (int i = 0; i < this.numSlots; ++i) {
             if (this.isSlotUsed(i)) {
-                if (t.equals(this.tuples[i])) {
-                    this.tuples[i] = null;
+                if (t.equals(this.getTuple(i))) {
+                    this.tuples.set(i, null);
                     this.markSlotUsed(i, false);
                     t.setRecordId(null);
                     return;
@@ -309,7 +388,7 @@ public class HeapPage implements Page {
                 // register RecordId inside the tuple.
                 t.setRecordId(new RecordId(this.getId(), i));
                 // "copy" the tuple
-                this.tuples[i] = t;
+                this.tuples.set(i, t);
                 // mark used.
                 this.markSlotUsed(i, true);
                 // after insert, we jump out the loop
@@ -390,11 +469,117 @@ public class HeapPage implements Page {
         ArrayList<Tuple> tmpList = new ArrayList<>();
         for (int i = 0; i < this.numSlots; ++i) {
             if (isSlotUsed((i))) {
-                tmpList.add(this.tuples[i]);
+                tmpList.add(this.getTuple(i));
             }
         }
         return tmpList.iterator();
     }
 
-}
+    /**
+     * Returns an iterator over the tuples on this page that pass all the
+     * given predicates. The predicates are evaluated on the bytes of the
+     * page at the offsets of their fields, and only the tuples that pass
+     * them are decoded.
+     *
+     * @param preds
+     *            the predicates, or null to return all the tuples.
+     */
+    public Iterator<Tuple> iterator(Predicate[] preds) {
+        return this.iterator(preds, null, null);
+    }
+
+    /**
+     * Returns an iterator over some fields of the tuples on this page that
+     * pass all the given predicates, as {@link #iterator(Predicate[])}
+     * does. Only those fields of those tuples are decoded, and the returned
+     * tuples keep their RecordIds.
+     *
+     * @param preds
+     *            the predicates, or null to return all the tuples.
+     * @param fields
+     *            the fields to return (see {@link #copyFields}), or null to
+     *            return whole tuples.
+     * @param outTd
+     *            the TupleDesc of the returned tuples, if fields isn't null.
+     */
+    public Iterator<Tuple> iterator(Predicate[] preds, int[] fields, TupleDesc outTd) {
+        return this.iterator(preds, fields, outTd, 0);
+    }
+
+    /**
+     * Returns the iterator of {@link #iterator(Predicate[], int[], TupleDesc)}
+     * over the slots from startSlot on.
+     */
+    Iterator<Tuple> iterator(Predicate[] preds, int[] fields, TupleDesc outTd, int startSlot) {
+        if (preds == null && fields == null && startSlot == 0) {
+            return this.iterator();
+        }
+        ArrayList<Tuple> tmpList = new ArrayList<>();
+        for (int i = startSlot; i < this.numSlots; ++i) {
+            if (isSlotUsed((i)) && (preds == null || this.matches(i, preds))) {
+                if (fields == null) {
+                    tmpList.add(this.getTuple(i));
+                } else {
+                    Tuple t = new Tuple(outTd);
+                    this.copyFields(i, fields, t, 0);
+                    t.setRecordId(new RecordId(pid, i));
+                    tmpList.add(t);
+                }
+            }
+        }
+        return tmpList.iterator();
+    }
+
+    /**
+     * Appends some fields of the tuples on this page that pass all the given
+     * predicates to a batch, from slot startSlot on, until the batch is
+     * full. The fields are read from the bytes of the page straight into the
+     * column vectors of the batch, without decoding the tuples, and every
+     * row keeps the RecordId of its tuple.
+     *
+     * @param preds
+     *            the predicates, or null to append all the tuples.
+     * @param fields
+     *            the fields to append (see {@link #copyFields}), or null to
+     *            append whole tuples.
+     * @param batch
+     *            the batch to append to; its schema must match fields.
+     * @return the slot after the last slot appended, or the number of
+     *         slots if the end of the page was reached.
+     */
+    int fillBatch(int startSlot, Predicate[] preds, int[] fields, TupleBatch batch) {
+        int n = fields == null ? td.numFields() : fields.length;
+        int[][] intCols = new int[n][];
+        String[][] strCols = new String[n][];
+        for (int j = 0; j < n; ++j) {
+            int f = fields == null ? j : fields[j];
+            if (f == HeapFile.ROWID_FIELD || td.getFieldType(f) == Type.INT_TYPE) {
+                intCols[j] = batch.intColumn(j);
+            } else {
+                strCols[j] = batch.stringColumn(j);
+            }
+        }
+        int slot = startSlot;
+        for (; slot < this.numSlots && !batch.isFull(); ++slot) {
+            if (!isSlotUsed(slot) || (preds != null && !this.matches(slot, preds))) {
+                continue;
+            }
+            int row = batch.addRow(new RecordId(pid, slot));
+            // tuples inserted since the page was read are only in tuples.
+            Tuple t = this.tuples.get(slot);
+            int off = this.slotOffset(slot);
+            for (int j = 0; j < n; ++j) {
+                int f = fields == null ? j : fields[j];
+                if (f == HeapFile.ROWID_FIELD) {
+                    intCols[j][row] = pid.pageNumber() * numSlots + slot;
+                } else if (intCols[j] != null) {
+                    intCols[j][row] = t != null ? t.getInt(f) : readInt(data, off + td.getFieldOffset(f));
+                } else {
+                    strCols[j][row] = t != null ? t.getString(f) : readString(data, off + td.getFieldOffset(f));
+                }
+            }
+        }
+        return slot;
+    }
 
+}
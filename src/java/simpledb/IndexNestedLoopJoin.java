@@ -0,0 +1,188 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin implements an equi-join whose inner relation is a
+ * BTreeFile keyed on the inner join field. Instead of scanning the inner
+ * relation for every outer tuple, it looks up the matching inner tuples with
+ * an EQUALS {@link IndexPredicate} on the key of the outer tuple.
+ * <p>
+ * All the probes go through a single search iterator, which starts a probe
+ * at the leaf page of the previous probe when the new key can be found there
+ * (see {@link BTreeSearchIterator#seek}). When the outer relation is sorted
+ * on its join field, most probes therefore skip the internal pages.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate joinPred;
+    private DbIterator child1, child2;
+    private TupleDesc mergedTD;
+
+    private transient BTreeSearchIterator probe = null;
+    private transient Tuple outerTuple = null;
+    private transient int numProbes = 0, numLeafReuses = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator must
+     *            be EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            A SeqScan of the right(inner) relation, which must be a
+     *            BTreeFile keyed on the join field of p. Only its schema,
+     *            table and transaction are used; its tuples are read through
+     *            the index.
+     * @throws IllegalArgumentException
+     *             if p is not an EQUALS predicate or child2 has no index on
+     *             the join field.
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("IndexNestedLoopJoin: unsupported operator " + p.getOperator());
+        }
+        if (indexOn(child2, p.getField2()) == null) {
+            throw new IllegalArgumentException("IndexNestedLoopJoin: the inner relation has no index on field "
+                    + p.getField2());
+        }
+        if (child1.getTupleDesc().getFieldType(p.getField1()) != child2.getTupleDesc().getFieldType(p.getField2())) {
+            throw new IllegalArgumentException("IndexNestedLoopJoin: the join fields have different types.");
+        }
+        this.joinPred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.mergedTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the BTreeFile scanned by plan if plan is a SeqScan of a
+     *         BTreeFile keyed on the given field, null otherwise. A scan
+     *         with predicates or a projection doesn't qualify, as the probes
+     *         return whole tuples of the file.
+     */
+    public static BTreeFile indexOn(DbIterator plan, int field) {
+        if (!(plan instanceof SeqScan)) {
+            return null;
+        }
+        SeqScan scan = (SeqScan) plan;
+        if (!scan.getPredicates().isEmpty() || scan.getFields() != null) {
+            return null;
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (file instanceof BTreeFile && ((BTreeFile) file).keyField() == field) {
+            return (BTreeFile) file;
+        }
+        return null;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.joinPred;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.joinPred.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.joinPred.getField2());
+    }
+
+    /**
+     * @return the number of index probes since the last open.
+     */
+    public int getNumProbes() {
+        return this.numProbes;
+    }
+
+    /**
+     * @return the number of index probes since the last open that started at
+     *         the leaf page of the previous probe.
+     */
+    public int getNumLeafReuses() {
+        return this.numLeafReuses;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.mergedTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.child1.open();
+        BTreeFile file = indexOn(this.child2, this.joinPred.getField2());
+        this.probe = new BTreeSearchIterator(file, ((SeqScan) this.child2).getTransactionId(), null);
+        this.outerTuple = null;
+        this.numProbes = this.numLeafReuses = 0;
+        super.open();
+    }
+
+    public void close() {
+        this.child1.close();
+        if (this.probe != null) {
+            this.probe.close();
+            this.probe = null;
+        }
+        if (this.numProbes > 0) {
+            Debug.log("IndexNestedLoopJoin: %d probes, %d reused a leaf page", this.numProbes, this.numLeafReuses);
+        }
+        this.outerTuple = null;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.close();
+        this.open();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The result tuples are the concatenation of joining tuples
+     * from the left and right relation, as in {@link Join}.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (this.outerTuple != null && this.probe.hasNext()) {
+                return Tuple.merge(this.mergedTD, this.outerTuple, this.probe.next());
+            }
+            if (!this.child1.hasNext()) {
+                return null;
+            }
+            this.outerTuple = this.child1.next();
+            Field key = this.outerTuple.getField(this.joinPred.getField1());
+            if (this.probe.seek(new IndexPredicate(Predicate.Op.EQUALS, key))) {
+                ++this.numLeafReuses;
+            }
+            ++this.numProbes;
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.mergedTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+}
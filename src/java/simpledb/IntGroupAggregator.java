@@ -0,0 +1,286 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Knows how to compute some aggregate over a set of IntFields grouped by an
+ * INT field, without boxing. It is what {@link Aggregate} uses instead of
+ * {@link IntegerAggregator} when both fields are INT fields.
+ * <p>
+ * Every group is numbered in the order it is first seen. The group keys are
+ * kept in an open-addressing table with linear probing whose slot i takes
+ * two adjacent entries of one <code>int[]</code>, the key at 2i and the
+ * group number at 2i+1 (NONE if the slot is empty), like
+ * {@link IntHashTable}. The values of group g are at index g of parallel
+ * <code>long[]</code> arrays for sum, count, min and max, so a tuple is
+ * merged with a single lookup, and sums of INT values cannot overflow.
+ */
+public class IntGroupAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int NONE = TupleHashTable.NONE;
+
+    private final int gbfield, afield;
+    private final Op what;
+
+    private int[] slots;
+    private int mask;
+    private int numGroups = 0;
+    // keys[g] is the key of group g.
+    private int[] keys;
+    private long[] sums, counts, mins, maxs;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, which
+     *            must be an INT field
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple, which
+     *            must be an INT field
+     * @param what
+     *            the aggregation operator
+     * @throws IllegalArgumentException
+     *             if what is not MIN, MAX, SUM, AVG or COUNT
+     */
+    public IntGroupAggregator(int gbfield, int afield, Op what) throws IllegalArgumentException {
+        if (what == Op.SUM_COUNT || what == Op.SC_AVG) {
+            throw new IllegalArgumentException("IntGroupAggregator: " + what + " is not supported.");
+        }
+        this.gbfield = gbfield;
+        this.afield = afield;
+        this.what = what;
+        this.allocate(TupleHashTable.slotsFor(16));
+        this.keys = new int[16];
+        this.sums = new long[16];
+        this.counts = new long[16];
+        this.mins = new long[16];
+        this.maxs = new long[16];
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        this.add(this.groupOf(tup.getInt(this.gbfield)), tup.getInt(this.afield));
+    }
+
+    /**
+     * Merge all the selected rows of a batch into the aggregate, reading the
+     * aggregate and group-by values straight from the column vectors.
+     *
+     * @param batch
+     *            the batch containing an aggregate field and a group-by field
+     */
+    @Override
+    public void mergeBatch(TupleBatch batch) {
+        int[] gbCol = batch.intColumn(this.gbfield);
+        int[] aggCol = batch.intColumn(this.afield);
+        int n = batch.size();
+        for (int k = 0; k < n; ++k) {
+            int row = batch.selected(k);
+            this.add(this.groupOf(gbCol[row]), aggCol[row]);
+        }
+    }
+
+    private void add(int group, int value) {
+        long count = this.counts[group];
+        if (count == 0) {
+            this.mins[group] = this.maxs[group] = value;
+        } else if (value < this.mins[group]) {
+            this.mins[group] = value;
+        } else if (value > this.maxs[group]) {
+            this.maxs[group] = value;
+        }
+        this.sums[group] += value;
+        this.counts[group] = count + 1;
+    }
+
+    /**
+     * @return the number of the group of key, which is created if needed.
+     */
+    private int groupOf(int key) {
+        int slot = this.slotOf(key);
+        int group = this.slots[slot + 1];
+        if (group != NONE) {
+            return group;
+        }
+        group = this.numGroups++;
+        if (group == this.keys.length) {
+            this.growGroups();
+        }
+        this.keys[group] = key;
+        this.slots[slot] = key;
+        this.slots[slot + 1] = group;
+        if (this.numGroups * 4 > this.slots.length) {
+            this.growSlots();
+        }
+        return group;
+    }
+
+    /**
+     * @return the index in slots of the key entry of the slot holding key,
+     *         or of the empty slot where it would go.
+     */
+    private int slotOf(int key) {
+        int slot = (TupleHashTable.mix(key) & this.mask) << 1;
+        while (this.slots[slot + 1] != NONE && this.slots[slot] != key) {
+            slot = (slot + 2) & (this.mask << 1 | 1);
+        }
+        return slot;
+    }
+
+    private void allocate(int numSlots) {
+        this.slots = new int[numSlots * 2];
+        Arrays.fill(this.slots, NONE);
+        this.mask = numSlots - 1;
+    }
+
+    private void growSlots() {
+        int[] oldSlots = this.slots;
+        this.allocate(oldSlots.length);
+        for (int i = 0; i < oldSlots.length; i += 2) {
+            if (oldSlots[i + 1] != NONE) {
+                int slot = this.slotOf(oldSlots[i]);
+                this.slots[slot] = oldSlots[i];
+                this.slots[slot + 1] = oldSlots[i + 1];
+            }
+        }
+    }
+
+    private void growGroups() {
+        int capacity = 2 * this.keys.length;
+        this.keys = Arrays.copyOf(this.keys, capacity);
+        this.sums = Arrays.copyOf(this.sums, capacity);
+        this.counts = Arrays.copyOf(this.counts, capacity);
+        this.mins = Arrays.copyOf(this.mins, capacity);
+        this.maxs = Arrays.copyOf(this.maxs, capacity);
+    }
+
+    /**
+     * @return the number of groups aggregated so far.
+     */
+    public int numGroups() {
+        return this.numGroups;
+    }
+
+    /**
+     * Merge the groups of another IntGroupAggregator into this one.
+     */
+    public void merge(Aggregator other) {
+        IntGroupAggregator o = (IntGroupAggregator) other;
+        for (int g = 0; g < o.numGroups; ++g) {
+            int group = this.groupOf(o.keys[g]);
+            if (this.counts[group] == 0) {
+                this.mins[group] = o.mins[g];
+                this.maxs[group] = o.maxs[g];
+            } else {
+                this.mins[group] = Math.min(this.mins[group], o.mins[g]);
+                this.maxs[group] = Math.max(this.maxs[group], o.maxs[g]);
+            }
+            this.sums[group] += o.sums[g];
+            this.counts[group] += o.counts[g];
+        }
+    }
+
+    /**
+     * @return true if the group of tup has been aggregated already.
+     */
+    public boolean hasGroup(Tuple tup) {
+        return this.slots[this.slotOf(tup.getInt(this.gbfield)) + 1] != NONE;
+    }
+
+    /**
+     * @return the value of the aggregate of group g.
+     * @throws DbException
+     *             if the value doesn't fit in an INT field.
+     */
+    private int valueOf(int g) throws DbException {
+        long value;
+        switch (this.what) {
+            case COUNT:
+                value = this.counts[g];
+                break;
+            case MIN:
+                value = this.mins[g];
+                break;
+            case MAX:
+                value = this.maxs[g];
+                break;
+            case AVG:
+                value = this.sums[g] / this.counts[g];
+                break;
+            default:
+                value = this.sums[g];
+                break;
+        }
+        if (value != (int) value) {
+            throw new DbException("IntGroupAggregator: " + this.what + " of group " + this.keys[g]
+                    + " overflows an INT field: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal),
+     *         in the order in which the groups were first merged.
+     */
+    public DbIterator iterator() {
+        return new IntGroupIterator();
+    }
+
+    private class IntGroupIterator extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TupleDesc resultTD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE });
+        private int next = 0;
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            this.next = 0;
+            super.open();
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            this.close();
+            this.open();
+        }
+
+        @Override
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (this.next == numGroups) {
+                return null;
+            }
+            Tuple tuple = new Tuple(this.resultTD);
+            tuple.setInt(0, keys[this.next]);
+            tuple.setInt(1, valueOf(this.next));
+            this.next++;
+            return tuple;
+        }
+
+        @Override
+        public TupleDesc getTupleDesc() {
+            return this.resultTD;
+        }
+
+        @Override
+        public DbIterator[] getChildren() {
+            return new DbIterator[0];
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * IntHashTable is a hash table from INT keys to tuples. The keys are kept
+ * unboxed in an open-addressing table with linear probing. Slot i takes two
+ * adjacent entries of one <code>int[]</code>, the key at 2i and the first row
+ * of its chain at 2i+1 (NONE if the slot is empty), so a lookup usually
+ * costs a single cache miss.
+ *
+ * @see TupleHashTable
+ */
+public class IntHashTable extends TupleHashTable {
+
+    private int[] slots;
+    private int mask;
+    private int numKeys = 0;
+
+    public IntHashTable() {
+        this(16);
+    }
+
+    /**
+     * @param expectedRows
+     *            the number of tuples the table is sized for; it grows as
+     *            needed.
+     */
+    public IntHashTable(int expectedRows) {
+        super(expectedRows);
+        this.allocate(slotsFor(expectedRows));
+    }
+
+    /**
+     * Adds a tuple with the given key.
+     */
+    public void add(int key, Tuple t) {
+        int slot = this.slotOf(key);
+        int head = this.slots[slot + 1];
+        if (head == NONE) {
+            this.slots[slot] = key;
+            this.slots[slot + 1] = this.appendRow(t, NONE);
+            if (++this.numKeys * 4 > this.slots.length) {
+                this.grow();
+            }
+        } else {
+            this.slots[slot + 1] = this.appendRow(t, head);
+        }
+    }
+
+    /**
+     * @return the first row with the given key, or NONE.
+     */
+    public int find(int key) {
+        return this.slots[this.slotOf(key) + 1];
+    }
+
+    /**
+     * @return the number of distinct keys in this table.
+     */
+    public int numKeys() {
+        return this.numKeys;
+    }
+
+    /**
+     * @return the index in slots of the key entry of the slot holding key,
+     *         or of the empty slot where it would go.
+     */
+    private int slotOf(int key) {
+        int slot = (mix(key) & this.mask) << 1;
+        while (this.slots[slot + 1] != NONE && this.slots[slot] != key) {
+            slot = (slot + 2) & (this.mask << 1 | 1);
+        }
+        return slot;
+    }
+
+    private void allocate(int numSlots) {
+        this.slots = new int[numSlots * 2];
+        Arrays.fill(this.slots, NONE);
+        this.mask = numSlots - 1;
+    }
+
+    private void grow() {
+        int[] oldSlots = this.slots;
+        this.allocate(oldSlots.length);
+        for (int i = 0; i < oldSlots.length; i += 2) {
+            if (oldSlots[i + 1] != NONE) {
+                int slot = this.slotOf(oldSlots[i]);
+                this.slots[slot] = oldSlots[i];
+                this.slots[slot + 1] = oldSlots[i + 1];
+            }
+        }
+    }
+}
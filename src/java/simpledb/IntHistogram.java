@@ -4,6 +4,13 @@ package simpledb;
  */
 public class IntHistogram {
 
+    private final int min, max;
+    // every bucket but the last one covers width values; the last one
+    // covers the rest.
+    private final int width;
+    private final int[] counts;
+    private int numValues = 0;
+
     /**
      * Create a new IntHistogram.
      * 
@@ -21,7 +28,26 @@ public class IntHistogram {
      * @param max The maximum integer value that will ever be passed to this class for histogramming
      */
     public IntHistogram(int buckets, int min, int max) {
-    	// some code goes here
+        if (buckets <= 0 || min > max) {
+            throw new IllegalArgumentException("invalid histogram range or bucket count.");
+        }
+        this.min = min;
+        this.max = max;
+        long range = (long) max - min + 1;
+        this.width = (int) Math.max(1, (range + buckets - 1) / buckets);
+        this.counts = new int[(int) ((range + this.width - 1) / this.width)];
+    }
+
+    private int bucketOf(int v) {
+        return (int) (((long) v - this.min) / this.width);
+    }
+
+    private long bucketLeft(int b) {
+        return (long) this.min + (long) b * this.width;
+    }
+
+    private long bucketWidth(int b) {
+        return Math.min(this.width, (long) this.max - this.bucketLeft(b) + 1);
     }
 
     /**
@@ -29,7 +55,11 @@ public class IntHistogram {
      * @param v Value to add to the histogram
      */
     public void addValue(int v) {
-    	// some code goes here
+        if (v < this.min || v > this.max) {
+            throw new IllegalArgumentException("value " + v + " is out of the histogram range.");
+        }
+        ++this.counts[this.bucketOf(v)];
+        ++this.numValues;
     }
 
     /**
@@ -43,9 +73,52 @@ public class IntHistogram {
      * @return Predicted selectivity of this particular operator and value
      */
     public double estimateSelectivity(Predicate.Op op, int v) {
+        if (this.numValues == 0) {
+            return 0.0;
+        }
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                if (v < this.min || v > this.max) {
+                    return 0.0;
+                }
+                int b = this.bucketOf(v);
+                return (double) this.counts[b] / this.bucketWidth(b) / this.numValues;
+            case NOT_EQUALS:
+                return 1.0 - this.estimateSelectivity(Predicate.Op.EQUALS, v);
+            case GREATER_THAN:
+                return this.fractionGreater((long) v);
+            case GREATER_THAN_OR_EQ:
+                return this.fractionGreater((long) v - 1);
+            case LESS_THAN:
+                return 1.0 - this.fractionGreater((long) v - 1);
+            case LESS_THAN_OR_EQ:
+                return 1.0 - this.fractionGreater((long) v);
+            default:
+                // an operator the histogram can't estimate; as in
+                // TableStats.avgSelectivity, assume it passes half the values.
+                return 0.5;
+        }
+    }
 
-    	// some code goes here
-        return -1.0;
+    /**
+     * @return the estimated fraction of the values that are greater than v,
+     *         assuming the values of a bucket are spread evenly over it.
+     */
+    private double fractionGreater(long v) {
+        if (v < this.min) {
+            return 1.0;
+        }
+        if (v >= this.max) {
+            return 0.0;
+        }
+        int b = this.bucketOf((int) v);
+        long right = this.bucketLeft(b) + this.bucketWidth(b) - 1;
+        double count = (double) this.counts[b] * (right - v) / this.bucketWidth(b);
+        for (int i = b + 1; i < this.counts.length; ++i) {
+            count += this.counts[i];
+        }
+        return count / this.numValues;
     }
     
     /**
@@ -58,15 +131,26 @@ public class IntHistogram {
      * */
     public double avgSelectivity()
     {
-        // some code goes here
-        return 1.0;
+        if (this.numValues == 0) {
+            return 1.0;
+        }
+        // the selectivity of an equality with a value drawn from the data.
+        double sel = 0.0;
+        for (int b = 0; b < this.counts.length; ++b) {
+            double fraction = (double) this.counts[b] / this.numValues;
+            sel += fraction * fraction / this.bucketWidth(b);
+        }
+        return sel;
     }
     
     /**
      * @return A string describing this histogram, for debugging purposes
      */
     public String toString() {
-        // some code goes here
-        return null;
+        StringBuilder sb = new StringBuilder("IntHistogram[" + this.min + ", " + this.max + "]:");
+        for (int b = 0; b < this.counts.length; ++b) {
+            sb.append(' ').append(this.counts[b]);
+        }
+        return sb.toString();
     }
 }
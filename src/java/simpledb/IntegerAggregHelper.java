@@ -22,6 +22,24 @@ public class IntegerAggregHelper extends AggregHelper {
         super.reset();
     }
 
+    @Override
+    public void merge(AggregHelper other) {
+        IntegerAggregHelper o = (IntegerAggregHelper) other;
+        if (o.first) {
+            return;
+        }
+        if (this.first) {
+            this.sum = o.sum;
+            this.min = o.min;
+            this.max = o.max;
+        } else {
+            this.sum += o.sum;
+            this.min = Math.min(o.min, this.min);
+            this.max = Math.max(o.max, this.max);
+        }
+        super.merge(other);
+    }
+
     public void addKey(int key) {
         if (this.first) {
             this.sum = this.min = this.max = key;
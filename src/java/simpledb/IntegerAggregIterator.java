@@ -51,42 +51,46 @@ public class IntegerAggregIterator extends Operator {
             return null;
         } else {
             Map.Entry<Object, IntegerAggregHelper> next = this.aggMapIter.next();
-            IntegerAggregHelper helper = next.getValue();
-            int retField;
-            switch (this.what) {
-                case COUNT:
-                    retField = helper.getCount(); break;
-                case MIN:
-                    retField = helper.getMin(); break;
-                case MAX:
-                    retField = helper.getMax(); break;
-                case AVG:
-                    if (helper.getCount() == 0) {
-                        retField = 0;
-                    } else {
-                        retField = helper.getSum() / helper.getCount();
-                    }
-                    break;
-                case SUM:
-                    retField = helper.getSum(); break;
-                default:
-                    throw new DbException("IntegerAggregIterator: " + this.what.toString() + " is not implemented yet.");
-            }
+            int retField = valueOf(next.getValue(), this.what);
             Tuple tuple = new Tuple(this.resultTD);
             if (this.gbType == null) {
                 // no group by
-                tuple.setField(0, new IntField(retField));
+                tuple.setInt(0, retField);
             } else {
                 if (this.gbType == Type.INT_TYPE)
-                    tuple.setField(0, new IntField((Integer)next.getKey()));
+                    tuple.setInt(0, (Integer)next.getKey());
                 else
-                    tuple.setField(0, new StringField((String)next.getKey(), Type.STRING_LEN));
-                tuple.setField(1, new IntField(retField));
+                    tuple.setString(0, (String)next.getKey());
+                tuple.setInt(1, retField);
             }
             return tuple;
         }
     }
 
+    /**
+     * @return the value of the aggregate what over the values added to
+     *         helper.
+     */
+    public static int valueOf(IntegerAggregHelper helper, Aggregator.Op what) throws DbException {
+        switch (what) {
+            case COUNT:
+                return helper.getCount();
+            case MIN:
+                return helper.getMin();
+            case MAX:
+                return helper.getMax();
+            case AVG:
+                if (helper.getCount() == 0) {
+                    return 0;
+                }
+                return helper.getSum() / helper.getCount();
+            case SUM:
+                return helper.getSum();
+            default:
+                throw new DbException("IntegerAggregIterator: " + what.toString() + " is not implemented yet.");
+        }
+    }
+
     @Override
     public TupleDesc getTupleDesc() {
         return this.resultTD;
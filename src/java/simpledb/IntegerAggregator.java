@@ -57,32 +57,91 @@ public class IntegerAggregator implements Aggregator {
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        IntField aggField = (IntField)tup.getField(this.afield);
+        int aggValue = tup.getInt(this.afield);
         if (this.gbfield == NO_GROUPING) {
-            this.aggMap.get(0).addKey(aggField.getValue());
+            this.aggMap.get(0).addKey(aggValue);
         } else {
-            Field field = tup.getField(this.gbfield);
             IntegerAggregHelper aggHelper;
             if (this.gbfieldType == Type.INT_TYPE) {
-                IntField intField = (IntField)field;
-                int intKey = intField.getValue();
+                int intKey = tup.getInt(this.gbfield);
                 if (!this.aggMap.containsKey(intKey)) {
                     this.aggMap.put(intKey, new IntegerAggregHelper());
                 }
                 aggHelper = this.aggMap.get(intKey);
             } else {
-                StringField strField = (StringField)field;
-                String strKey = strField.getValue();
+                String strKey = tup.getString(this.gbfield);
                 if (!this.aggMap.containsKey(strKey)) {
                     this.aggMap.put(strKey, new IntegerAggregHelper());
                 }
                 aggHelper = this.aggMap.get(strKey);
             }
-            aggHelper.addKey(aggField.getValue());
+            aggHelper.addKey(aggValue);
         }
         this.invalidOutput();
     }
 
+    /**
+     * Merge all the selected rows of a batch into the aggregate, reading the
+     * aggregate and group-by values straight from the column vectors.
+     *
+     * @param batch
+     *            the batch containing an aggregate field and a group-by field
+     */
+    @Override
+    public void mergeBatch(TupleBatch batch) {
+        int[] aggCol = batch.intColumn(this.afield);
+        int n = batch.size();
+        if (this.gbfield == NO_GROUPING) {
+            IntegerAggregHelper aggHelper = this.aggMap.get(0);
+            for (int k = 0; k < n; ++k) {
+                aggHelper.addKey(aggCol[batch.selected(k)]);
+            }
+        } else if (this.gbfieldType == Type.INT_TYPE) {
+            int[] gbCol = batch.intColumn(this.gbfield);
+            for (int k = 0; k < n; ++k) {
+                int row = batch.selected(k);
+                this.aggMap.computeIfAbsent(gbCol[row], key -> new IntegerAggregHelper()).addKey(aggCol[row]);
+            }
+        } else {
+            String[] gbCol = batch.stringColumn(this.gbfield);
+            for (int k = 0; k < n; ++k) {
+                int row = batch.selected(k);
+                this.aggMap.computeIfAbsent(gbCol[row], key -> new IntegerAggregHelper()).addKey(aggCol[row]);
+            }
+        }
+        this.invalidOutput();
+    }
+
+    /**
+     * @return the number of groups aggregated so far.
+     */
+    public int numGroups() {
+        return this.aggMap.size();
+    }
+
+    /**
+     * Merge the groups of another IntegerAggregator into this one.
+     */
+    public void merge(Aggregator other) {
+        for (Map.Entry<Object, IntegerAggregHelper> e : ((IntegerAggregator) other).aggMap.entrySet()) {
+            this.aggMap.computeIfAbsent(e.getKey(), key -> new IntegerAggregHelper()).merge(e.getValue());
+        }
+        this.invalidOutput();
+    }
+
+    /**
+     * @return true if the group of tup has been aggregated already.
+     */
+    public boolean hasGroup(Tuple tup) {
+        if (this.gbfield == NO_GROUPING) {
+            return true;
+        }
+        if (this.gbfieldType == Type.INT_TYPE) {
+            return this.aggMap.containsKey(tup.getInt(this.gbfield));
+        }
+        return this.aggMap.containsKey(tup.getString(this.gbfield));
+    }
+
     /**
      * Create a DbIterator over group aggregate results.
      * 
@@ -12,13 +12,15 @@ public class Join extends Operator {
     private static final long serialVersionUID = 1L;
 
     private final JoinPredicate joinPred;
-    private final DbIterator child1, child2;
+    private DbIterator child1, child2;
     // mergedTD stores the TupleDesc of merged data type.
     private final TupleDesc mergedTD;
-    private final int outerTupleSize, innerTupleSize;
     private Tuple outerTuple;
     private Status c1status = Status.NOT_STARTED,
             c2status = Status.NOT_STARTED;
+    // the predicate compiled once COMPILE_THRESHOLD pairs were compared.
+    private transient QueryCompiler.JoinFilter compiled = null;
+    private transient int interpreted = 0;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -35,8 +37,6 @@ public class Join extends Operator {
         this.joinPred = p;
         this.child1 = child1;
         this.child2 = child2;
-        this.outerTupleSize = child1.getTupleDesc().numFields();
-        this.innerTupleSize = child2.getTupleDesc().numFields();
         this.mergedTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -164,28 +164,35 @@ public class Join extends Operator {
                 case EOF:
                     continue;
             }
-            if (this.joinPred.filter(this.outerTuple, innerTuple)) {
-                Tuple mergedTuple = new Tuple(this.mergedTD);
-                for (int i = 0; i < this.outerTupleSize; ++i) {
-                    mergedTuple.setField(i, outerTuple.getField(i));
-                }
-                for (int i = 0; i < this.innerTupleSize; ++i) {
-                    mergedTuple.setField(i + this.outerTupleSize, innerTuple.getField(i));
-                }
-                return mergedTuple;
+            if (this.compiled != null ? this.compiled.filter(this.outerTuple, innerTuple)
+                    : this.interpretedFilter(innerTuple)) {
+                return Tuple.merge(this.mergedTD, this.outerTuple, innerTuple);
             }
         }
     }
 
+    /**
+     * Compares outerTuple and innerTuple with the join predicate, which is
+     * compiled once {@link QueryCompiler#COMPILE_THRESHOLD} pairs were
+     * compared.
+     */
+    private boolean interpretedFilter(Tuple innerTuple) {
+        if (++this.interpreted == QueryCompiler.COMPILE_THRESHOLD) {
+            this.compiled = QueryCompiler.compileJoin(this.child1.getTupleDesc(), this.child2.getTupleDesc(),
+                    this.joinPred);
+        }
+        return this.joinPred.filter(this.outerTuple, innerTuple);
+    }
+
     @Override
     public DbIterator[] getChildren() {
-        // some code goes here
-        return null;
+        return new DbIterator[] { this.child1, this.child2 };
     }
 
     @Override
     public void setChildren(DbIterator[] children) {
-        // some code goes here
+        this.child1 = children[0];
+        this.child2 = children[1];
     }
 
 }
@@ -14,6 +14,45 @@ public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
+    /** The physical join operators instantiateJoin chooses from. */
+    public enum JoinAlgorithm {
+        NESTED_LOOP, BLOCK_NESTED_LOOP, HASH, SORT_MERGE, INDEX_NESTED_LOOP;
+
+        public String toString() {
+            switch (this) {
+                case NESTED_LOOP: return "Join";
+                case BLOCK_NESTED_LOOP: return "BlockNestedLoopJoin";
+                case HASH: return "HashEquiJoin";
+                case SORT_MERGE: return "SortMergeJoin";
+                default: return "IndexNestedLoopJoin";
+            }
+        }
+    }
+
+    /** The cardinality assumed for a plan nothing is known about. */
+    static final int DEFAULT_CARDINALITY = 1000;
+
+    // the number of bytes a join operator may use to buffer tuples.
+    private static int joinMemoryBudget = HashEquiJoin.DEFAULT_MEMORY_BUDGET;
+
+    /**
+     * Set the number of bytes a join operator may use to buffer tuples. It is
+     * used both to instantiate joins and to estimate their cost.
+     */
+    public static void setJoinMemoryBudget(int bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("the join memory budget must be positive.");
+        }
+        joinMemoryBudget = bytes;
+    }
+
+    /**
+     * @return the number of bytes a join operator may use to buffer tuples.
+     */
+    public static int getJoinMemoryBudget() {
+        return joinMemoryBudget;
+    }
+
     /**
      * Constructor
      * 
@@ -34,6 +73,9 @@ public class JoinOptimizer {
      * inner/outer here -- because DbIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * The cardinalities of the subplans are estimated with
+     * {@link #estimatePlanCardinality}; see the other overload.
      * 
      * @param lj
      *            The join being considered
@@ -44,9 +86,44 @@ public class JoinOptimizer {
      */
     public static DbIterator instantiateJoin(LogicalJoinNode lj,
             DbIterator plan1, DbIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, estimatePlanCardinality(plan1),
+                estimatePlanCardinality(plan2));
+    }
+
+    /**
+     * Return the cheapest physical join operator for a given logical join.
+     * The candidates are the ones that can evaluate the predicate: a nested
+     * loops and a block nested loops join always, a hash join for equality,
+     * a sort-merge join when both subplans are sorted on their join fields
+     * (see {@link #isSortedOn}) and an index nested loops join for equality
+     * when plan2 is a scan of a BTreeFile keyed on its join field. Their costs
+     * are estimated from the given cardinalities, the scan costs of the
+     * subplans and the join memory budget, see
+     * {@link #estimateJoinCost(JoinAlgorithm, int, int, double, double, double, int, BTreeFile)}.
+     * <p>
+     * Rewinding plan2 runs its operators again, unless it is a scan of a
+     * base table. The nested loops joins are then also costed with a
+     * {@link Materialize} over plan2, which replays its first run, and get
+     * one if that is cheaper.
+     * <p>
+     * The chosen algorithm, its estimated cost and whether plan2 is
+     * materialized are recorded in lj.
+     * 
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     * @param card1
+     *            The estimated cardinality of plan1
+     * @param card2
+     *            The estimated cardinality of plan2
+     */
+    public static DbIterator instantiateJoin(LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2, int card1, int card2) throws ParsingException {
 
         int t1id = 0, t2id = 0;
-        DbIterator j;
 
         try {
             t1id = plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
@@ -67,11 +144,350 @@ public class JoinOptimizer {
         }
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
+        Type type1 = plan1.getTupleDesc().getFieldType(t1id);
+        boolean sameType = type1 == plan2.getTupleDesc().getFieldType(t2id);
+        double cost1 = estimatePlanScanCost(plan1, card1);
+        double cost2 = estimatePlanScanCost(plan2, card2);
+        // a run of plan2 costs what its operators do, and a Materialize
+        // over it replays its first run at replay2.
+        double replay2 = cost2;
+        if (rerunsOperators(plan2)) {
+            cost2 = estimatePlanCost(plan2);
+            replay2 = estimateReplayCost(card2, plan2.getTupleDesc().getSize());
+        }
+        int tupleSize1 = plan1.getTupleDesc().getSize();
+        BTreeFile index = IndexNestedLoopJoin.indexOn(plan2, t2id);
+
+        JoinAlgorithm best = null;
+        double bestCost = Double.MAX_VALUE;
+        boolean materialize = false;
+        for (JoinAlgorithm a : JoinAlgorithm.values()) {
+            boolean applies;
+            switch (a) {
+                case HASH:
+                    applies = lj.p == Predicate.Op.EQUALS && sameType;
+                    break;
+                case SORT_MERGE:
+                    applies = SortMergeJoin.isSupported(lj.p) && sameType
+                            && isSortedOn(plan1, t1id) && isSortedOn(plan2, t2id);
+                    break;
+                case INDEX_NESTED_LOOP:
+                    applies = lj.p == Predicate.Op.EQUALS && sameType && index != null;
+                    break;
+                default:
+                    applies = true;
+            }
+            if (!applies) {
+                continue;
+            }
+            double cost = estimateJoinCost(a, card1, card2, cost1, cost2, tupleSize1, index);
+            boolean spool = false;
+            if (replay2 < cost2 && (a == JoinAlgorithm.NESTED_LOOP || a == JoinAlgorithm.BLOCK_NESTED_LOOP)) {
+                // the first run also writes the cache, at the cost of a replay.
+                double spooled = estimateJoinCost(a, card1, card2, cost1, cost2 + replay2, replay2, tupleSize1,
+                        index);
+                if (spooled < cost) {
+                    cost = spooled;
+                    spool = true;
+                }
+            }
+            if (cost < bestCost) {
+                best = a;
+                bestCost = cost;
+                materialize = spool;
+            }
+        }
+        lj.algorithm = best;
+        lj.algorithmCost = bestCost;
+        lj.materialized = materialize;
+        if (materialize) {
+            plan2 = new Materialize(plan2);
+        }
 
-        j = new Join(p,plan1,plan2);
+        switch (best) {
+            case NESTED_LOOP:
+                return new Join(p, plan1, plan2);
+            case HASH:
+                // a probe side that splits into morsels is joined on all processors.
+                if (Exchange.DEFAULT_PARALLELISM > 1 && Exchange.of(plan2, Exchange.DEFAULT_PARALLELISM) != null) {
+                    return new ParallelHashJoin(p, plan1, plan2, joinMemoryBudget, Exchange.DEFAULT_PARALLELISM);
+                }
+                HashEquiJoin join = new HashEquiJoin(p, plan1, plan2, joinMemoryBudget);
+                join.setExpectedBuildTuples(card1);
+                return join;
+            case SORT_MERGE:
+                return new SortMergeJoin(p, plan1, plan2);
+            case INDEX_NESTED_LOOP:
+                return new IndexNestedLoopJoin(p, plan1, plan2);
+            default:
+                return new BlockNestedLoopJoin(p, plan1, plan2, joinMemoryBudget);
+        }
+    }
 
-        return j;
+    /**
+     * Estimate the cost of a join executed by the given algorithm, in the
+     * units of TableStats.estimateScanCost, where applying a predicate to or
+     * hashing a tuple costs 1. The cost of producing the output tuples is
+     * the same for every algorithm and not included.
+     * 
+     * @param a
+     *            the join algorithm
+     * @param card1
+     *            the cardinality of the left-hand side
+     * @param card2
+     *            the cardinality of the right-hand side
+     * @param cost1
+     *            the cost of one scan of the left-hand side
+     * @param cost2
+     *            the cost of one scan of the right-hand side
+     * @param tupleSize1
+     *            the size in bytes of the left-hand tuples
+     * @param index
+     *            the BTreeFile of the right-hand side keyed on its join
+     *            field; only used for INDEX_NESTED_LOOP
+     */
+    public static double estimateJoinCost(JoinAlgorithm a, int card1, int card2,
+            double cost1, double cost2, int tupleSize1, BTreeFile index) {
+        return estimateJoinCost(a, card1, card2, cost1, cost2, cost2, tupleSize1, index);
+    }
 
+    /**
+     * Estimate the cost of a join executed by the given algorithm, when
+     * scanning the right-hand side again costs rescan2 instead of cost2.
+     * Only the nested loops joins scan it more than once.
+     *
+     * @see #estimateJoinCost(JoinAlgorithm, int, int, double, double, int, BTreeFile)
+     */
+    public static double estimateJoinCost(JoinAlgorithm a, int card1, int card2,
+            double cost1, double cost2, double rescan2, int tupleSize1, BTreeFile index) {
+        switch (a) {
+            case NESTED_LOOP:
+                // the right-hand side is scanned once per left-hand tuple.
+                return cost1 + scansCost(card1, cost2, rescan2) + (double) card1 * card2;
+            case BLOCK_NESTED_LOOP: {
+                // the right-hand side is scanned once per block of left-hand
+                // tuples that fits in the join memory budget.
+                int blockCapacity = BlockNestedLoopJoin.blockCapacity(joinMemoryBudget, tupleSize1);
+                double numBlocks = Math.ceil((double) card1 / blockCapacity);
+                return cost1 + scansCost(numBlocks, cost2, rescan2) + (double) card1 * card2;
+            }
+            case HASH: {
+                // both sides are read once; the part of the left-hand side
+                // that doesn't fit in the memory budget is spilled, along
+                // with the matching part of the right-hand side, and read
+                // back once. A build tuple is hashed and inserted, a probe
+                // tuple is hashed and looked up.
+                double buildBytes = (double) card1 * tupleSize1;
+                double spilled = buildBytes <= joinMemoryBudget ? 0.0 : 1.0 - joinMemoryBudget / buildBytes;
+                return (cost1 + cost2) * (1 + 2 * spilled) + 2.0 * card1 + card2;
+            }
+            case SORT_MERGE:
+                // both sorted sides are read once and merged.
+                return cost1 + cost2 + card1 + card2;
+            default: {
+                // index nested loops: every left-hand tuple descends the
+                // B+ tree of the right-hand side and reads the leaf page
+                // holding its matches.
+                int numPages = Math.max(1, index.numPages());
+                int keySize = index.getTupleDesc().getFieldType(index.keyField()).getLen();
+                double fanout = Math.max(2, BufferPool.getPageSize() / (keySize + BTreeInternalPage.INDEX_SIZE));
+                double height = Math.max(1, Math.ceil(Math.log(numPages) / Math.log(fanout)));
+                double pageCost = cost2 / numPages;
+                return cost1 + card1 * ((height + 1) * pageCost + Math.log(Math.max(2, card2)) / Math.log(2));
+            }
+        }
+    }
+
+    /**
+     * @return the cost of n scans of a plan whose first scan costs first and
+     *         every other one rescan.
+     */
+    private static double scansCost(double n, double first, double rescan) {
+        return n == 0 ? 0.0 : first + (n - 1) * rescan;
+    }
+
+    /**
+     * @return true if rewinding plan runs operators again, rather than
+     *         scanning a base table or replaying a Materialize.
+     */
+    private static boolean rerunsOperators(DbIterator plan) {
+        return plan instanceof Operator && !(plan instanceof Materialize) && baseTableStats(plan) == null;
+    }
+
+    /**
+     * Estimate the cost of writing card tuples of tupleSize bytes to a
+     * {@link Materialize}, or of replaying them: one per tuple, plus the
+     * pages spilled if they don't fit in its memory budget.
+     */
+    static double estimateReplayCost(int card, int tupleSize) {
+        double cost = card;
+        if (card > Materialize.memoryCapacity(Materialize.DEFAULT_MEMORY_BUDGET, tupleSize)) {
+            cost += Math.ceil((double) card * tupleSize / BufferPool.getPageSize()) * TableStats.IOCOSTPERPAGE;
+        }
+        return cost;
+    }
+
+    /**
+     * Estimate the cost of one run of a plan. A scan of a base table or
+     * another leaf costs what {@link #estimatePlanScanCost} says, a join what
+     * {@link #estimateJoinCost(JoinAlgorithm, int, int, double, double, int, BTreeFile)}
+     * says for its algorithm, and another operator the cost of its children
+     * plus one per tuple it reads from them. The cardinalities of the
+     * children are estimated with {@link #estimatePlanCardinality}.
+     */
+    static double estimatePlanCost(DbIterator plan) {
+        DbIterator[] children = plan instanceof Operator ? ((Operator) plan).getChildren() : null;
+        if (baseTableStats(plan) != null || children == null || children.length == 0) {
+            return estimatePlanScanCost(plan, estimatePlanCardinality(plan));
+        }
+        JoinAlgorithm a = null;
+        if (plan instanceof Join) {
+            a = JoinAlgorithm.NESTED_LOOP;
+        } else if (plan instanceof BlockNestedLoopJoin) {
+            a = JoinAlgorithm.BLOCK_NESTED_LOOP;
+        } else if (plan instanceof HashEquiJoin || plan instanceof ParallelHashJoin) {
+            a = JoinAlgorithm.HASH;
+        } else if (plan instanceof SortMergeJoin) {
+            a = JoinAlgorithm.SORT_MERGE;
+        }
+        if (a != null) {
+            int card1 = estimatePlanCardinality(children[0]);
+            int card2 = estimatePlanCardinality(children[1]);
+            double cost2 = estimatePlanCost(children[1]);
+            double rescan2 = children[1] instanceof Materialize
+                    ? estimateReplayCost(card2, children[1].getTupleDesc().getSize()) : cost2;
+            return estimateJoinCost(a, card1, card2, estimatePlanCost(children[0]), cost2, rescan2,
+                    children[0].getTupleDesc().getSize(), null);
+        }
+        double cost = 0.0;
+        for (DbIterator child : children) {
+            cost += estimatePlanCost(child) + estimatePlanCardinality(child);
+        }
+        return cost;
+    }
+
+    /**
+     * @return the TableStats of the table plan scans, if plan is a scan of a
+     *         base table possibly under Filters and the table has stats.
+     */
+    private static TableStats baseTableStats(DbIterator plan) {
+        while (plan instanceof Filter) {
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        if (plan instanceof SeqScan) {
+            return TableStats.getTableStats(((SeqScan) plan).getTableName());
+        }
+        if (plan instanceof BTreeScan) {
+            return TableStats.getTableStats(((BTreeScan) plan).getTableName());
+        }
+        return null;
+    }
+
+    /**
+     * Estimate the cardinality of a plan: the number of tuples of the
+     * scanned table, times the selectivities of the Filters over the scan
+     * and of the predicates pushed into it.
+     * 
+     * @return the estimate, or DEFAULT_CARDINALITY if plan is not a scan of
+     *         a base table with stats, possibly under Filters.
+     */
+    public static int estimatePlanCardinality(DbIterator plan) {
+        TableStats stats = baseTableStats(plan);
+        if (stats == null) {
+            return DEFAULT_CARDINALITY;
+        }
+        ArrayList<PredicateTree> trees = new ArrayList<PredicateTree>();
+        while (plan instanceof Filter) {
+            trees.add(((Filter) plan).getPredicateTree());
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        // a scan may return some fields of the table only.
+        SeqScan scan = plan instanceof SeqScan ? (SeqScan) plan : null;
+        if (scan != null) {
+            for (Predicate pred : scan.getPredicates()) {
+                trees.add(PredicateTree.of(pred));
+            }
+        }
+        double selectivity = 1.0;
+        for (PredicateTree tree : trees) {
+            selectivity *= estimateSelectivity(stats, tree, scan);
+        }
+        return stats.estimateTableCardinality(selectivity);
+    }
+
+    /**
+     * Estimate the selectivity of a tree of predicates over a scan, assuming
+     * that its predicates are independent.
+     *
+     * @param stats
+     *            the stats of the scanned table.
+     * @param tree
+     *            the predicates, over the fields the scan returns.
+     * @param scan
+     *            the scan, or null if the fields are those of the table.
+     */
+    public static double estimateSelectivity(TableStats stats, PredicateTree tree, SeqScan scan) {
+        if (tree.getKind() == PredicateTree.Kind.LEAF) {
+            Predicate pred = tree.getPredicate();
+            int field = scan == null ? pred.getField() : scan.getTableField(pred.getField());
+            return stats.estimateSelectivity(field, pred.getOp(), pred.getOperand());
+        }
+        double selectivity = 1.0;
+        for (PredicateTree child : tree.getChildren()) {
+            double s = estimateSelectivity(stats, child, scan);
+            // an OR fails only if all its children fail.
+            selectivity *= tree.getKind() == PredicateTree.Kind.AND ? s : 1.0 - s;
+        }
+        return tree.getKind() == PredicateTree.Kind.AND ? selectivity : 1.0 - selectivity;
+    }
+
+    /**
+     * Estimate the cost of one scan of a plan: the scan cost of the table if
+     * plan reads a base table with stats, the cost of reading card tuples
+     * from disk otherwise.
+     */
+    private static double estimatePlanScanCost(DbIterator plan, int card) {
+        TableStats stats = baseTableStats(plan);
+        if (stats != null) {
+            return stats.estimateScanCost();
+        }
+        double bytes = (double) card * plan.getTupleDesc().getSize();
+        return Math.ceil(bytes / BufferPool.getPageSize()) * TableStats.IOCOSTPERPAGE;
+    }
+
+    /**
+     * Return true if the tuples of the given plan are known to come out in
+     * ascending order of the given field: a scan of a BTreeFile keyed on the
+     * field, an ascending OrderBy or TopN on the field, or a Filter or Limit
+     * over such a plan.
+     *
+     * @param plan
+     *            the plan to check
+     * @param field
+     *            the index of the field in the plan's TupleDesc
+     */
+    public static boolean isSortedOn(DbIterator plan, int field) {
+        if (plan instanceof Filter || plan instanceof Limit) {
+            return isSortedOn(((Operator) plan).getChildren()[0], field);
+        }
+        if (plan instanceof OrderBy) {
+            OrderBy ob = (OrderBy) plan;
+            return ob.isASC() && ob.getOrderByField() == field;
+        }
+        if (plan instanceof TopN) {
+            TopN top = (TopN) plan;
+            return top.isASC() && top.getOrderByField() == field;
+        }
+        int tableId;
+        if (plan instanceof SeqScan) {
+            tableId = ((SeqScan) plan).getTableId();
+        } else if (plan instanceof BTreeScan) {
+            tableId = ((BTreeScan) plan).getTableId();
+        } else {
+            return false;
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        return file instanceof BTreeFile && ((BTreeFile) file).keyField() == field;
     }
 
     /**
@@ -106,13 +522,50 @@ public class JoinOptimizer {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 5.
             return card1 + cost1 + cost2;
-        } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
         }
+        // the cheapest algorithm that applies to any inputs; whether they are
+        // sorted is only known once they are instantiated.
+        BTreeFile index = j.p == Predicate.Op.EQUALS ? this.innerIndex(j) : null;
+        int tupleSize1 = this.tupleSize(j.t1Alias);
+        double cost = estimateJoinCost(JoinAlgorithm.BLOCK_NESTED_LOOP, card1, card2, cost1, cost2, tupleSize1, null);
+        if (j.p == Predicate.Op.EQUALS) {
+            cost = Math.min(cost, estimateJoinCost(JoinAlgorithm.HASH, card1, card2, cost1, cost2, tupleSize1, null));
+        }
+        if (index != null) {
+            cost = Math.min(cost, estimateJoinCost(JoinAlgorithm.INDEX_NESTED_LOOP, card1, card2, cost1, cost2,
+                    tupleSize1, index));
+        }
+        return cost;
+    }
+
+    /**
+     * @return the BTreeFile of the right-hand table of j if it is keyed on
+     *         the right-hand join field, null otherwise.
+     */
+    private BTreeFile innerIndex(LogicalJoinNode j) {
+        Integer tableId = this.p.getTableAliasToIdMapping().get(j.t2Alias);
+        if (tableId == null) {
+            return null;
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof BTreeFile)) {
+            return null;
+        }
+        BTreeFile index = (BTreeFile) file;
+        String keyName = index.getTupleDesc().getFieldName(index.keyField());
+        return j.f2PureName.equals(keyName) ? index : null;
+    }
+
+    /**
+     * @return the size in bytes of the tuples of the table with the given
+     *         alias, or 0 if the alias is unknown.
+     */
+    private int tupleSize(String tableAlias) {
+        Integer tableId = this.p.getTableAliasToIdMapping().get(tableAlias);
+        if (tableId == null) {
+            return 0;
+        }
+        return Database.getCatalog().getTupleDesc(tableId).getSize();
     }
 
     /**
@@ -155,9 +608,30 @@ public class JoinOptimizer {
             String field2PureName, int card1, int card2, boolean t1pkey,
             boolean t2pkey, Map<String, TableStats> stats,
             Map<String, Integer> tableAliasToId) {
-        int card = 1;
-        // some code goes here
-        return card <= 0 ? 1 : card;
+        long card;
+        switch (joinOp) {
+            case EQUALS:
+            case LIKE:
+                // a primary key matches at most one tuple of the other side.
+                if (t1pkey && t2pkey) {
+                    card = Math.min(card1, card2);
+                } else if (t1pkey) {
+                    card = card2;
+                } else if (t2pkey) {
+                    card = card1;
+                } else {
+                    card = Math.max(card1, card2);
+                }
+                break;
+            case NOT_EQUALS:
+                card = (long) card1 * card2 - Math.max(card1, card2);
+                break;
+            default:
+                // range joins are assumed to keep 30% of the cross product.
+                card = (long) (0.3 * card1 * card2);
+        }
+        card = Math.min(card, Integer.MAX_VALUE);
+        return card <= 0 ? 1 : (int) card;
     }
 
     /**
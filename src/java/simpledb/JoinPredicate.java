@@ -39,8 +39,12 @@ public class JoinPredicate implements Serializable {
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
+        Type typ1 = t1.getTupleDesc().getFieldType(this.field1);
+        if (typ1 == Type.INT_TYPE && t2.getTupleDesc().getFieldType(this.field2) == Type.INT_TYPE) {
+            return IntField.compare(this.op, t1.getInt(this.field1), t2.getInt(this.field2));
+        }
         Field f1 = t1.getField(this.field1), f2 = t2.getField(this.field2);
-        Type typ1 = f1.getType(), typ2 = f2.getType();
+        Type typ2 = f2.getType();
         if (typ1 == typ2) {
             return f1.compare(this.op, f2);
         } else {
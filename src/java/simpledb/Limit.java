@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit is an operator that implements LIMIT and OFFSET: it skips the first
+ * offset tuples of its child and returns at most limit of the following
+ * ones. Once the limit is reached, it stops pulling from its child and
+ * closes it, so the scans below the child end early and release their
+ * resources.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final int limit;
+    private final int offset;
+
+    private transient int numSkipped = 0, numReturned = 0;
+    private transient boolean childOpen = false;
+
+    /**
+     * Constructor.
+     *
+     * @param limit
+     *            the maximum number of tuples to return.
+     * @param offset
+     *            the number of tuples of the child to skip first.
+     * @param child
+     *            The child operator
+     */
+    public Limit(int limit, int offset, DbIterator child) {
+        if (limit < 0 || offset < 0) {
+            throw new IllegalArgumentException("LIMIT and OFFSET must not be negative.");
+        }
+        this.limit = limit;
+        this.offset = offset;
+        this.child = child;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public int getOffset() {
+        return this.offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.child.open();
+        this.childOpen = true;
+        this.numSkipped = this.numReturned = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        this.closeChild();
+    }
+
+    private void closeChild() {
+        if (this.childOpen) {
+            this.child.close();
+            this.childOpen = false;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (this.childOpen) {
+            this.child.rewind();
+        } else {
+            this.child.open();
+            this.childOpen = true;
+        }
+        this.numSkipped = this.numReturned = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the next tuple of the child
+     * within the window of OFFSET and LIMIT.
+     *
+     * @return The next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (this.numReturned >= this.limit) {
+            this.closeChild();
+            return null;
+        }
+        while (this.numSkipped < this.offset && this.child.hasNext()) {
+            this.child.next();
+            ++this.numSkipped;
+        }
+        if (!this.child.hasNext()) {
+            return null;
+        }
+        ++this.numReturned;
+        Tuple t = this.child.next();
+        if (this.numReturned == this.limit) {
+            this.closeChild();
+        }
+        return t;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -0,0 +1,38 @@
+package simpledb;
+
+import java.util.Vector;
+
+/** A LogicalFilterTree represents an AND/OR expression of filters in the
+    WHERE clause of a query, such as
+    <p>
+    t.a = 1 OR (t.b &gt; 2 AND t.c &lt; 3)
+    <p>
+    All its filters range over the same table.
+*/
+public class LogicalFilterTree {
+    /** The alias of the table over which the filters range, set when the
+        tree is added to a {@link LogicalPlan} */
+    public String tableAlias;
+
+    /** True if this node is an OR of its children, false for an AND */
+    public boolean isOr;
+
+    /** The filters that are children of this node */
+    public Vector<LogicalFilterNode> filters = new Vector<LogicalFilterNode>();
+
+    /** The subexpressions that are children of this node */
+    public Vector<LogicalFilterTree> subtrees = new Vector<LogicalFilterTree>();
+
+    public LogicalFilterTree(boolean isOr) {
+        this.isOr = isOr;
+    }
+
+    /** @return all the filters of this tree and of its subtrees */
+    public Vector<LogicalFilterNode> allFilters() {
+        Vector<LogicalFilterNode> all = new Vector<LogicalFilterNode>(filters);
+        for (LogicalFilterTree t : subtrees) {
+            all.addAll(t.allFilters());
+        }
+        return all;
+    }
+}
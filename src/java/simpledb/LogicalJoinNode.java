@@ -23,6 +23,15 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The physical join operator chosen by JoinOptimizer.instantiateJoin (null until then). */
+    public JoinOptimizer.JoinAlgorithm algorithm;
+
+    /** The estimated cost of the chosen physical join operator. */
+    public double algorithmCost;
+
+    /** True if JoinOptimizer.instantiateJoin put a {@link Materialize} over the right-hand side. */
+    public boolean materialized;
+
     public LogicalJoinNode() {
     }
 
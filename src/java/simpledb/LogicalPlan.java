@@ -6,6 +6,7 @@ import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
+import java.util.TreeSet;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
@@ -25,23 +26,40 @@ public class LogicalPlan {
     private Vector<LogicalJoinNode> joins;
     private Vector<LogicalScanNode> tables;
     private Vector<LogicalFilterNode> filters;
+    private Vector<LogicalFilterTree> filterTrees;
     private HashMap<String,DbIterator> subplanMap;
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields = new Vector<String>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    // aggOps[i] is computed over aggFields[i].
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
+    private boolean hasOrderBy = false;
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAscs = new Vector<Boolean>();
+    // -1 if the query has no LIMIT.
+    private int limit = -1, offset = 0;
+    private Engine engine = Engine.PULL;
+    // the number of workers a query over one table is scanned with.
+    private int parallelism = 1;
     private String query;
 //    private Query owner;
 
+    /** The execution engines a physical plan can target. */
+    public enum Engine {
+        /** Every operator pulls the tuples of its children. */
+        PULL,
+        /** Fused pipelines push batches into their consumers, see {@link PushPlan}. */
+        PUSH
+    }
+
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
         joins = new Vector<LogicalJoinNode>();
         filters = new Vector<LogicalFilterNode>();
+        filterTrees = new Vector<LogicalFilterTree>();
         tables = new Vector<LogicalScanNode>();
         subplanMap = new HashMap<String,DbIterator>();
         tableMap = new HashMap<String,Integer>();
@@ -76,6 +94,15 @@ public class LogicalPlan {
         return tableMap.get(alias);
     }
     
+    /**
+     * @return true if field is the primary key of the table with the given
+     *         alias.
+     */
+    private boolean isPkey(String alias, String field) {
+        Integer tableId = this.getTableId(alias);
+        return tableId != null && field.equals(Database.getCatalog().getPrimaryKey(tableId));
+    }
+
     public HashMap<String,Integer> getTableAliasToIdMapping()
     {
         return this.tableMap;
@@ -98,11 +125,39 @@ public class LogicalPlan {
     public void addFilter(String field, Predicate.Op p, String
         constantValue) throws ParsingException{ 
 
-        field = disambiguateName(field); 
+        filters.addElement(newFilter(field, p, constantValue));
+    }
+
+    /** Create a filter without adding it to the logical plan, to add it
+     *   to a {@link LogicalFilterTree} instead. The parameters are those
+     *   of {@link #addFilter}.
+     *   @throws ParsingException if field is not in one of the tables
+     *   added via {@link #addScan} or if field is ambiguous
+     */
+    public LogicalFilterNode newFilter(String field, Predicate.Op p, String
+        constantValue) throws ParsingException{
+
+        field = disambiguateName(field);
         String table = field.split("[.]")[0];
-        
-        LogicalFilterNode lf = new LogicalFilterNode(table, field.split("[.]")[1], p, constantValue);
-        filters.addElement(lf);
+
+        return new LogicalFilterNode(table, field.split("[.]")[1], p, constantValue);
+    }
+
+    /** Add an AND/OR expression of filters to the logical plan. The
+     *   filters are created with {@link #newFilter}.
+     *   @param tree The expression
+     *   @throws ParsingException if the filters of the expression range
+     *   over several tables
+     */
+    public void addFilterTree(LogicalFilterTree tree) throws ParsingException {
+        for (LogicalFilterNode lf : tree.allFilters()) {
+            if (tree.tableAlias == null) {
+                tree.tableAlias = lf.tableAlias;
+            } else if (!tree.tableAlias.equals(lf.tableAlias)) {
+                throw new ParsingException("OR expressions over several tables are currently unsupported.");
+            }
+        }
+        filterTrees.addElement(tree);
     }
 
     /** Add a join between two fields of two different tables.  
@@ -186,36 +241,120 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
-        afield=disambiguateName(afield);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupByField(gfield);
+        addAggregate(op, afield);
+    }
+
+    /** Add an aggregate over the field to the query.  All the aggregates
+        of a query are computed in a single pass, grouped by all the fields
+        added with {@link #addGroupByField}.
+        @param op the aggregation operator
+        @param afield the field to aggregate over
+     * @throws ParsingException 
+    */
+    public void addAggregate(String op, String afield) throws ParsingException {
+        afield=disambiguateName(afield);
         hasAgg = true;
+        if (aggIndex(op, afield) >= 0)
+            return;
+        aggOps.addElement(op);
+        aggFields.addElement(afield);
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add a GROUP BY field to the query.  The groups are defined by all
+        the fields added, in the order in which they are added.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupByField(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
+    /** @return the index of the aggregate op over afield among the
+        aggregates of the query, or -1 if the query doesn't compute it. */
+    private int aggIndex(String op, String afield) {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.elementAt(i).equalsIgnoreCase(op) && aggFields.elementAt(i).equals(afield))
+                return i;
+        }
+        return -1;
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  The tuples are
+        ordered by the fields in the order in which they are added.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.add(field);
+        oByAscs.add(asc);
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT and OFFSET clause: only limit tuples of the result are returned, after skipping
+        the first offset ones.
+        @param limit the maximum number of tuples to return, or -1 for no limit
+        @param offset the number of tuples to skip
+     * @throws ParsingException 
+    */
+    public void setLimit(int limit, int offset) throws ParsingException {
+        if (limit < -1 || offset < 0) {
+            throw new ParsingException("Invalid LIMIT " + limit + " OFFSET " + offset);
+        }
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    /** @return the LIMIT of the query, or -1 if it has none. */
+    public int getLimit() {
+        return limit;
+    }
+
+    /** @return the OFFSET of the query; 0 if it has none. */
+    public int getOffset() {
+        return offset;
+    }
+
+    /** Set the execution engine the physical plan targets; PULL by default. */
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    /** @return the execution engine the physical plan targets. */
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Set the number of worker threads a query without joins scans and
+     * filters its table with; 1, the default, scans it serially. The table
+     * is only split if it has a morsel for every worker, see
+     * {@link Exchange#of}.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive.");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /** @return the number of worker threads a query without joins is scanned with. */
+    public int getParallelism() {
+        return parallelism;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -271,6 +410,172 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Adds the index of the field named by the qualified name to the fields
+     * of its table alias in fields.
+     *
+     * @return false if the name doesn't name a field of a table of the plan.
+     */
+    private boolean addFieldRef(HashMap<String,TreeSet<Integer>> fields, String name) {
+        String[] parts = name.split("[.]");
+        Integer tableId = parts.length == 2 ? tableMap.get(parts[0]) : null;
+        if (tableId == null) {
+            return false;
+        }
+        try {
+            int field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(parts[1]);
+            if (!fields.containsKey(parts[0])) {
+                fields.put(parts[0], new TreeSet<Integer>());
+            }
+            fields.get(parts[0]).add(field);
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Computes the fields of every heap file the plan needs. The fields
+     * used by filters, joins, grouping, aggregates and ordering are
+     * returned by the scan. The STRING fields only in the select list of a
+     * query with filters or joins are fetched late by row id, so that they
+     * are only decoded for the tuples in the result.
+     *
+     * @param scanFields
+     *            receives the fields each scan returns, for the scans that
+     *            don't return all the fields of their table.
+     * @param lateFields
+     *            receives the fields fetched late, for the aliases that have
+     *            some.
+     */
+    private void planScanFields(HashMap<String,int[]> scanFields, HashMap<String,int[]> lateFields) {
+        HashMap<String,TreeSet<Integer>> early = new HashMap<String,TreeSet<Integer>>();
+        HashMap<String,TreeSet<Integer>> selected = new HashMap<String,TreeSet<Integer>>();
+        boolean known = true;
+        for (LogicalFilterNode lf : filters) {
+            known &= addFieldRef(early, lf.fieldQuantifiedName);
+        }
+        for (LogicalFilterTree lt : filterTrees) {
+            for (LogicalFilterNode lf : lt.allFilters()) {
+                known &= addFieldRef(early, lf.fieldQuantifiedName);
+            }
+        }
+        for (LogicalJoinNode lj : joins) {
+            known &= addFieldRef(early, lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode)) {
+                known &= addFieldRef(early, lj.f2QuantifiedName);
+            }
+        }
+        for (String name : groupByFields) {
+            known &= addFieldRef(early, name);
+        }
+        for (String name : aggFields) {
+            known &= addFieldRef(early, name);
+        }
+        for (String name : oByFields) {
+            known &= addFieldRef(early, name);
+        }
+        for (LogicalSelectListNode si : selectList) {
+            known &= addFieldRef(si.aggOp == null ? selected : early, si.fname);
+        }
+        // SELECT * and unknown references keep all the fields.
+        if (!known) {
+            return;
+        }
+        boolean late = !hasAgg && (!filters.isEmpty() || !filterTrees.isEmpty() || !joins.isEmpty());
+        for (LogicalScanNode table : tables) {
+            if (!(Database.getCatalog().getDatabaseFile(table.t) instanceof HeapFile)) {
+                continue;
+            }
+            TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+            TreeSet<Integer> scan = new TreeSet<Integer>();
+            TreeSet<Integer> fetch = new TreeSet<Integer>();
+            if (early.containsKey(table.alias)) {
+                scan.addAll(early.get(table.alias));
+            }
+            if (selected.containsKey(table.alias)) {
+                for (int f : selected.get(table.alias)) {
+                    if (late && !scan.contains(f) && td.getFieldType(f) == Type.STRING_TYPE) {
+                        fetch.add(f);
+                    } else {
+                        scan.add(f);
+                    }
+                }
+            }
+            if (fetch.isEmpty() && scan.size() == td.numFields()) {
+                continue;
+            }
+            if (scan.isEmpty() && fetch.isEmpty()) {
+                // a scan returns at least one field.
+                scan.add(0);
+            }
+            int[] fields = new int[scan.size() + (fetch.isEmpty() ? 0 : 1)];
+            int i = 0;
+            for (int f : scan) {
+                fields[i++] = f;
+            }
+            if (!fetch.isEmpty()) {
+                fields[i] = HeapFile.ROWID_FIELD;
+                int[] fetched = new int[fetch.size()];
+                i = 0;
+                for (int f : fetch) {
+                    fetched[i++] = f;
+                }
+                lateFields.put(table.alias, fetched);
+            }
+            scanFields.put(table.alias, fields);
+        }
+    }
+
+    /**
+     * Appends a conjunct of the WHERE clause over a table to conjuncts.
+     */
+    private static void addConjunct(HashMap<String,ArrayList<PredicateTree>> conjuncts, String alias,
+            PredicateTree tree) {
+        if (!conjuncts.containsKey(alias)) {
+            conjuncts.put(alias, new ArrayList<PredicateTree>());
+        }
+        conjuncts.get(alias).add(tree);
+    }
+
+    /**
+     * @return the predicate of a filter, over the fields of td.
+     * @throws ParsingException if the field of the filter is not in td
+     */
+    private static Predicate makePredicate(LogicalFilterNode lf, TupleDesc td) throws ParsingException {
+        Field f;
+        Type ftyp;
+        int field;
+        try {
+            field = td.fieldNameToIndex(lf.fieldQuantifiedName);
+            ftyp = td.getFieldType(field);
+        } catch (java.util.NoSuchElementException e) {
+            throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+        }
+        if (ftyp == Type.INT_TYPE)
+            f = new IntField(new Integer(lf.c).intValue());
+        else
+            f = new StringField(lf.c, Type.STRING_LEN);
+        return new Predicate(field, lf.p, f);
+    }
+
+    /**
+     * @return the tree of predicates of an AND/OR expression of filters,
+     *         over the fields of td.
+     * @throws ParsingException if a field of the filters is not in td
+     */
+    private static PredicateTree makePredicateTree(LogicalFilterTree lt, TupleDesc td) throws ParsingException {
+        ArrayList<PredicateTree> children = new ArrayList<PredicateTree>();
+        for (LogicalFilterNode lf : lt.filters) {
+            children.add(PredicateTree.of(makePredicate(lf, td)));
+        }
+        for (LogicalFilterTree sub : lt.subtrees) {
+            children.add(makePredicateTree(sub, td));
+        }
+        PredicateTree[] array = children.toArray(new PredicateTree[0]);
+        return lt.isOr ? PredicateTree.or(array) : PredicateTree.and(array);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -281,6 +586,7 @@ public class LogicalPlan {
      *    t2 would have just one entry with key 't' in this HashMap).
      *  @param explain flag indicating whether output visualizing the physical
      *    query plan should be given.
+     *  The plan runs on the engine set with {@link #setEngine}.
      *  @throws ParsingException if the logical plan is not valid
      *  @return A DbIterator representing this plan.
      */ 
@@ -289,12 +595,17 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        // the fields every scan returns, and those fetched late by row id.
+        HashMap<String,int[]> scanFields = new HashMap<String,int[]>();
+        HashMap<String,int[]> lateFields = new HashMap<String,int[]>();
+        planScanFields(scanFields, lateFields);
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias,
+                         scanFields.get(table.alias));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -306,6 +617,8 @@ public class LogicalPlan {
 
         }
 
+        // the conjuncts of the WHERE clause over every table.
+        HashMap<String,ArrayList<PredicateTree>> conjuncts = new HashMap<String,ArrayList<PredicateTree>>();
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -313,37 +626,59 @@ public class LogicalPlan {
             if (subplan == null) {
                 throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
             }
-
-            Field f;
-            Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
-            
-            try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
-            } catch (java.util.NoSuchElementException e) {
-                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+            addConjunct(conjuncts, lf.tableAlias, PredicateTree.of(makePredicate(lf, subplan.getTupleDesc())));
+        }
+        for (LogicalFilterTree lt : filterTrees) {
+            DbIterator subplan = subplanMap.get(lt.tableAlias);
+            if (subplan == null) {
+                throw new ParsingException("Unknown table in WHERE clause " + lt.tableAlias);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            addConjunct(conjuncts, lt.tableAlias, makePredicateTree(lt, subplan.getTupleDesc()));
+        }
 
-            Predicate p = null;
-            try {
-                p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p,f);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
+        for (LogicalScanNode table : tables) {
+            ArrayList<PredicateTree> trees = conjuncts.get(table.alias);
+            if (trees == null) {
+                continue;
+            }
+            SeqScan scan = (SeqScan) subplanMap.get(table.alias);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            final HashMap<PredicateTree,Double> sels = new HashMap<PredicateTree,Double>();
+            for (PredicateTree tree : trees) {
+                double sel = JoinOptimizer.estimateSelectivity(s, tree, scan);
+                sels.put(tree, sel);
+                filterSelectivities.put(table.alias, filterSelectivities.get(table.alias) * sel);
+            }
+            // the most selective conjuncts are evaluated first; a Filter
+            // then adapts this order to the selectivities it observes.
+            trees.sort((a, b) -> Double.compare(sels.get(a), sels.get(b)));
+            if (Database.getCatalog().getDatabaseFile(table.t) instanceof HeapFile) {
+                // heap pages evaluate the predicates before decoding tuples,
+                // and a Filter evaluates the OR expressions.
+                ArrayList<PredicateTree> rest = new ArrayList<PredicateTree>();
+                for (PredicateTree tree : trees) {
+                    if (tree.getKind() == PredicateTree.Kind.LEAF) {
+                        scan.addPredicate(tree.getPredicate());
+                    } else {
+                        rest.add(tree);
+                    }
+                }
+                trees = rest;
+            }
+            if (!trees.isEmpty()) {
+                subplanMap.put(table.alias,
+                        new Filter(PredicateTree.and(trees.toArray(new PredicateTree[0])), scan));
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
-
-            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
-            
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
-
-            //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
+        // the estimated cardinality of every subplan, for choosing the join operators.
+        HashMap<String,Integer> cardMap = new HashMap<String,Integer>();
+        for (String alias : subplanMap.keySet()) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(alias)));
+            cardMap.put(alias, s == null ? JoinOptimizer.DEFAULT_CARDINALITY
+                    : s.estimateTableCardinality(filterSelectivities.get(alias)));
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
@@ -381,9 +716,19 @@ public class LogicalPlan {
             if (plan2 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
+            int card1 = cardMap.get(t1name);
+            int card2 = isSubqueryJoin ? JoinOptimizer.estimatePlanCardinality(plan2) : cardMap.get(t2name);
             DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            j = JoinOptimizer.instantiateJoin(lj,plan1,plan2,card1,card2);
             subplanMap.put(t1name, j);
+            cardMap.put(t1name, jo.estimateJoinCardinality(lj, card1, card2, isPkey(lj.t1Alias, lj.f1PureName),
+                    !isSubqueryJoin && isPkey(lj.t2Alias, lj.f2PureName), statsMap));
+            if (explain) {
+                System.out.println("Join " + lj.f1QuantifiedName + " " + lj.p + " " + lj.f2QuantifiedName
+                        + " (" + card1 + " x " + card2 + " tuples): " + lj.algorithm
+                        + (lj.materialized ? " over a Materialize" : "")
+                        + ", estimated cost " + lj.algorithmCost);
+            }
 
             if (!isSubqueryJoin) {
                 subplanMap.remove(t2name);
@@ -408,13 +753,41 @@ public class LogicalPlan {
         
         DbIterator node =  (DbIterator)(subplanMap.entrySet().iterator().next().getValue());
 
+        // a query over one heap file scans and filters it on several workers,
+        // if asked to.
+        if (joins.isEmpty() && parallelism > 1) {
+            Exchange exchange = Exchange.of(node, parallelism);
+            if (exchange != null) {
+                node = exchange;
+                if (explain) {
+                    System.out.println("Parallel scan on " + exchange.getParallelism() + " workers");
+                }
+            }
+        }
+
+        // the fields fetched late are appended to the tuples of node by the
+        // Fetches under the projection.
+        TupleDesc selectTd = node.getTupleDesc();
+        for (LogicalScanNode table : tables) {
+            if (lateFields.containsKey(table.alias)) {
+                selectTd = TupleDesc.merge(selectTd,
+                        new SeqScan(t, table.t, table.alias, lateFields.get(table.alias)).getTupleDesc());
+            }
+        }
+
         //walk the select list, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
         ArrayList<Type> outTypes = new ArrayList<Type>();
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                // the output of the aggregate holds the GROUP BY fields
+                // first, then the aggregates.
+                int aggId = aggIndex(si.aggOp, si.fname);
+                if (aggId < 0) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") is not computed");
+                }
+                outFields.add(groupByFields.size() + aggId);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -426,16 +799,17 @@ public class LogicalPlan {
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int gId = groupByFields.indexOf(si.fname);
+                    if (gId < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(gId);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -445,7 +819,7 @@ public class LogicalPlan {
                         outTypes.add(td.getFieldType(i));
                     }
             } else  {
-                    TupleDesc td = node.getTupleDesc();
+                    TupleDesc td = selectTd;
                     int id;
                     try {
                         id = td.fieldNameToIndex(si.fname);
@@ -462,10 +836,17 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] gFields = new int[groupByFields.size()];
+                for (int i = 0; i < gFields.length; i++) {
+                    gFields[i] = td.fieldNameToIndex(groupByFields.elementAt(i));
+                }
+                int[] aFields = new int[aggFields.size()];
+                Aggregator.Op[] ops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0; i < aFields.length; i++) {
+                    aFields[i] = td.fieldNameToIndex(aggFields.elementAt(i));
+                    ops[i] = getAggOp(aggOps.elementAt(i));
+                }
+                aggNode = new Aggregate(node, gFields, aFields, ops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -475,10 +856,35 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int[] oByIndexes = new int[oByFields.size()];
+            boolean[] ascs = new boolean[oByFields.size()];
+            for (int i = 0; i < oByIndexes.length; i++) {
+                try {
+                    oByIndexes[i] = node.getTupleDesc().fieldNameToIndex(oByFields.elementAt(i));
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field " + oByFields.elementAt(i) + " in ORDER BY list");
+                }
+                ascs[i] = oByAscs.elementAt(i);
+            }
+            if (limit >= 0 && (long) limit + offset <= Integer.MAX_VALUE) {
+                // only the first offset + limit tuples are needed.
+                node = new TopN(oByIndexes, ascs, limit + offset, node);
+            } else {
+                node = new OrderBy(oByIndexes, ascs, node);
+            }
         }
 
-        return new Project(outFields, outTypes, node);
+        for (LogicalScanNode table : tables) {
+            if (lateFields.containsKey(table.alias)) {
+                int rowId = node.getTupleDesc().fieldNameToIndex(table.alias + "." + SeqScan.ROWID_NAME);
+                node = new Fetch(t, node, rowId, table.t, table.alias, lateFields.get(table.alias));
+            }
+        }
+        node = new Project(outFields, outTypes, node);
+        if (limit >= 0 || offset > 0) {
+            node = new Limit(limit >= 0 ? limit : Integer.MAX_VALUE, offset, node);
+        }
+        return engine == Engine.PUSH ? PushPlan.compile(node) : node;
     }
 
     public static void main(String argv[]) {
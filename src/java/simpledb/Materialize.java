@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Materialize is an operator that caches the output of its child, so that
+ * rewinding it replays the cached tuples instead of running the child again.
+ * The first pass streams the child's tuples while they are cached, in memory
+ * up to a memory budget and in a {@link SpillFile} beyond it. Rewinding
+ * during the first pass caches the rest of the child's output first.
+ * <p>
+ * {@link JoinOptimizer#instantiateJoin} puts a Materialize over the inner
+ * side of a nested loops join when rewinding it would run operators again
+ * and the cost model says that replaying is cheaper. Tuples replayed from a
+ * spill file have no RecordId.
+ */
+public class Materialize extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The default number of bytes of tuples cached in memory (16 MB). */
+    public static final int DEFAULT_MEMORY_BUDGET = 16 * 1024 * 1024;
+
+    private DbIterator child;
+    private final int memoryBudget;
+    // the cached tuples while they fit in the memory budget, null otherwise.
+    private transient ArrayList<Tuple> tuples = null;
+    private transient SpillFile spill = null;
+    // true once the child's output is cached entirely.
+    private transient boolean complete = false;
+    // the iterator over the cache once the child has been rewound, null
+    // during the first pass.
+    private transient DbIterator replay = null;
+
+    /**
+     * Creates a Materialize over a child, using the default memory budget.
+     *
+     * @param child
+     *            the tuples to cache.
+     */
+    public Materialize(DbIterator child) {
+        this(child, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Creates a Materialize over a child.
+     *
+     * @param child
+     *            the tuples to cache.
+     * @param memoryBudget
+     *            the number of bytes of tuples to cache in memory; more
+     *            tuples are spilled to a temporary file.
+     */
+    public Materialize(DbIterator child, int memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("memoryBudget must be positive.");
+        }
+        this.child = child;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return the number of tuples the memory budget holds, for tuples of
+     *         tupleSize bytes.
+     */
+    public static int memoryCapacity(int memoryBudget, int tupleSize) {
+        return Math.max(1, memoryBudget / tupleSize);
+    }
+
+    /**
+     * @return true if the cache of the last open was spilled to a temporary
+     *         file.
+     */
+    public boolean isSpilled() {
+        return this.spill != null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.discard();
+        this.child.open();
+        this.tuples = new ArrayList<Tuple>();
+        this.complete = false;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        this.child.close();
+        this.discard();
+    }
+
+    /**
+     * Drops the cache of the last open.
+     */
+    private void discard() {
+        if (this.replay != null) {
+            this.replay.close();
+            this.replay = null;
+        }
+        if (this.spill != null) {
+            this.spill.delete();
+            this.spill = null;
+        }
+        this.tuples = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (!this.complete) {
+            while (this.child.hasNext()) {
+                this.cache(this.child.next());
+            }
+            this.complete = true;
+        }
+        if (this.replay != null) {
+            this.replay.close();
+        }
+        this.replay = this.spill != null ? this.spill.iterator()
+                : new TupleIterator(this.getTupleDesc(), this.tuples);
+        this.replay.open();
+        // drop a tuple hasNext may have fetched before the rewind.
+        super.close();
+        super.open();
+    }
+
+    /**
+     * Appends a tuple to the cache, spilling the cache once it exceeds the
+     * memory budget.
+     */
+    private void cache(Tuple t) throws DbException {
+        if (this.spill != null) {
+            this.spill.add(t);
+            return;
+        }
+        this.tuples.add(t);
+        if (this.tuples.size() > memoryCapacity(this.memoryBudget, this.getTupleDesc().getSize())) {
+            this.spill = new SpillFile(this.getTupleDesc());
+            for (Tuple cached : this.tuples) {
+                this.spill.add(cached);
+            }
+            this.tuples = null;
+            Debug.log("Materialize: spilled %d bytes", this.spill.numBytes());
+        }
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the next tuple of the child
+     * during the first pass, and of the cache afterwards.
+     *
+     * @return The next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (this.replay != null) {
+            return this.replay.hasNext() ? this.replay.next() : null;
+        }
+        if (this.complete || !this.child.hasNext()) {
+            this.complete = true;
+            return null;
+        }
+        Tuple t = this.child.next();
+        this.cache(t);
+        return t;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -54,6 +54,17 @@ public abstract class Operator implements DbIterator {
         this.open = false;
     }
 
+    /**
+     * Operators that implement {@link BatchDbIterator} call this at the
+     * start of nextBatch(), which bypasses hasNext()/next().
+     *
+     * @throws IllegalStateException if the operator is not open.
+     */
+    protected void checkOpen() {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+    }
+
     private Tuple next = null;
     private boolean open = false;
     private int estimatedCardinality = 0;
@@ -3,21 +3,29 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY on one or
+ * more fields, each ascending or descending. The child tuples are sorted by
+ * an {@link ExternalSorter} on their {@link SortKey}s: if they don't fit in
+ * the memory budget, sorted runs are spilled to temporary files and merged
+ * while the output is streamed.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The default number of bytes of tuples sorted in memory (16 MB). */
+    public static final int DEFAULT_MEMORY_BUDGET = 16 * 1024 * 1024;
+
     private DbIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
-    private String orderByFieldName;
-    private Iterator<Tuple> it;
-    private boolean asc;
+    private final int[] orderByFields;
+    private final boolean[] ascs;
+    private final int memoryBudget;
+    private transient ExternalSorter sorter = null;
 
     /**
-     * Creates a new OrderBy node over the tuples from the iterator.
+     * Creates a new OrderBy node over the tuples from the iterator, using the
+     * default memory budget.
      * 
      * @param orderbyField
      *            the field to which the sort is applied.
@@ -27,50 +35,161 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator.
+     * 
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryBudget
+     *            the number of bytes of tuples to sort in memory; more
+     *            tuples are sorted externally.
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int memoryBudget) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child, memoryBudget);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator, using the
+     * default memory budget.
+     * 
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param ascs
+     *            ascs[i] is true if the sort order of orderbyFields[i] is
+     *            ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] ascs, DbIterator child) {
+        this(orderbyFields, ascs, child, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator.
+     * 
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param ascs
+     *            ascs[i] is true if the sort order of orderbyFields[i] is
+     *            ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryBudget
+     *            the number of bytes of tuples to sort in memory; more
+     *            tuples are sorted externally.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] ascs, DbIterator child, int memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("memoryBudget must be positive.");
+        }
+        if (orderbyFields.length == 0 || orderbyFields.length != ascs.length) {
+            throw new IllegalArgumentException("OrderBy needs one direction per field.");
+        }
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = ascs.clone();
+        this.memoryBudget = memoryBudget;
     }
     
+    /**
+     * @return true if the sort order of the first field is ascending.
+     */
     public boolean isASC()
     {
-	return this.asc;
+	return this.ascs[0];
     }
     
+    /**
+     * @return the first field to which the sort is applied.
+     */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
     
     public String getOrderFieldName()
     {
-	return this.orderByFieldName;
+	return td.getFieldName(this.orderByFields[0]);
+    }
+
+    /**
+     * @return the fields to which the sort is applied, most significant
+     *         first.
+     */
+    public int[] getOrderByFields() {
+        return this.orderByFields.clone();
+    }
+
+    /**
+     * @return for every field of {@link #getOrderByFields}, true if its sort
+     *         order is ascending.
+     */
+    public boolean[] getAscs() {
+        return this.ascs.clone();
     }
     
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /**
+     * @return the number of sorted runs spilled by the last open; 0 if the
+     *         tuples were sorted in memory.
+     */
+    public int getNumRuns() {
+        return this.sorter == null ? 0 : this.sorter.getNumRuns();
+    }
+
+    /**
+     * @return the number of merge passes of the last open.
+     */
+    public int getNumMergePasses() {
+        return this.sorter == null ? 0 : this.sorter.getNumMergePasses();
+    }
+
+    /**
+     * @return the number of bytes spilled by the last open.
+     */
+    public long getSpilledBytes() {
+        return this.sorter == null ? 0 : this.sorter.getSpilledBytes();
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        if (this.sorter != null) {
+            this.sorter.close();
+        }
+        this.sorter = new ExternalSorter(td, new SortKey(td, orderByFields, ascs), memoryBudget);
+        this.sorter.sort(child);
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        if (this.sorter != null) {
+            if (this.sorter.getNumRuns() > 0) {
+                Debug.log("OrderBy: %d runs, %d merge passes, %d bytes spilled", this.sorter.getNumRuns(),
+                        this.sorter.getNumMergePasses(), this.sorter.getSpilledBytes());
+            }
+            // keep the statistics, but not the tuples.
+            this.sorter.close();
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        this.sorter.rewind();
     }
 
     /**
@@ -82,10 +201,7 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
-            return null;
+        return this.sorter == null ? null : this.sorter.next();
     }
 
     @Override
@@ -110,6 +226,10 @@ class TupleComparator implements Comparator<Tuple> {
     }
 
     public int compare(Tuple o1, Tuple o2) {
+        if (o1.getTupleDesc().getFieldType(field) == Type.INT_TYPE) {
+            int cmp = Integer.compare(o1.getInt(field), o2.getInt(field));
+            return asc ? cmp : -cmp;
+        }
         Field t1 = (o1).getField(field);
         Field t2 = (o2).getField(field);
         if (t1.compare(Predicate.Op.EQUALS, t2))
@@ -0,0 +1,435 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ParallelHashJoin is an equi-join that builds and probes its hash table on
+ * several worker threads.
+ * <p>
+ * The build side (child1) is read in morsels by the workers of an
+ * {@link Exchange}, if it can be split into one (see {@link Exchange#of}),
+ * or on the calling thread otherwise. Every worker hashes its tuples into
+ * {@link #NUM_PARTITIONS} lists of its own, by the top bits of the hash of
+ * their key. Then every partition gets a hash table of its own, built by one
+ * worker from the lists of all workers for that partition, so the build
+ * takes no locks. The probe side (child2) must be splittable into an
+ * Exchange: every worker of a second Exchange probes the morsels it takes
+ * against the tables, which are read-only by then, and the joined batches
+ * are gathered by that Exchange. The order of the output tuples is not
+ * defined.
+ * <p>
+ * The tables are kept in memory only. If the build side is larger than the
+ * memory budget, or if the probe side can't be split among workers, the
+ * join is done by a {@link HashEquiJoin}, which spills.
+ */
+public class ParallelHashJoin extends Operator implements BatchDbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    // the number of top bits of the key hash that pick the partition.
+    private static final int PARTITION_BITS = 6;
+
+    /** The number of partitions, each with a hash table of its own. */
+    public static final int NUM_PARTITIONS = 1 << PARTITION_BITS;
+
+    private final JoinPredicate joinPred;
+    private DbIterator child1, child2;
+    private TupleDesc mergedTupleDesc;
+    private Type keyType;
+    private final int memoryBudget;
+    private final int parallelism;
+
+    // tables[p] is the hash table of the build tuples of partition p; its
+    // class matches the key type.
+    private transient TupleHashTable[] tables = null;
+    // the join the output is read from: an Exchange over the probe workers,
+    // or the HashEquiJoin the join fell back to.
+    private transient BatchDbIterator output = null;
+    private transient boolean child1Open = false;
+    private int buildWorkers = 1, probeWorkers = 1;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join, which is the
+     *            side the hash tables are built on
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param memoryBudget
+     *            the number of bytes of child1 tuples to keep in memory
+     * @param parallelism
+     *            the largest number of worker threads of each phase
+     */
+    public ParallelHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int memoryBudget,
+            int parallelism) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("memoryBudget must be positive.");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive.");
+        }
+        this.joinPred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.mergedTupleDesc = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.keyType = child1.getTupleDesc().getFieldType(p.getField1());
+        this.memoryBudget = memoryBudget;
+        this.parallelism = parallelism;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.joinPred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.mergedTupleDesc;
+    }
+
+    /**
+     * @return the number of worker threads that built the hash tables in the
+     *         last open; 1 if the build side was read on the calling thread.
+     */
+    public int getBuildWorkers() {
+        return this.buildWorkers;
+    }
+
+    /**
+     * @return the number of worker threads that probe the hash tables since
+     *         the last open; 1 if the join fell back to a HashEquiJoin.
+     */
+    public int getProbeWorkers() {
+        return this.probeWorkers;
+    }
+
+    /**
+     * @return child as an Exchange, or null if it can't be split among
+     *         workers.
+     */
+    private Exchange exchangeOf(DbIterator child) {
+        if (child instanceof Exchange) {
+            return (Exchange) child;
+        }
+        return Exchange.of(child, this.parallelism);
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        if (this.keyType != Type.INT_TYPE && this.keyType != Type.STRING_TYPE) {
+            throw new DbException("ParallelHashJoin: Invalid Hashjoin Key type.");
+        }
+        this.buildWorkers = 1;
+        this.probeWorkers = 1;
+        final Exchange probe = this.parallelism < 2 ? null : this.exchangeOf(this.child2);
+        if (probe != null) {
+            this.tables = this.build();
+        }
+        if (this.tables == null) {
+            HashEquiJoin join = new HashEquiJoin(this.joinPred, this.child1, this.child2, this.memoryBudget);
+            join.open();
+            this.output = join;
+        } else {
+            final Exchange.Pipeline pipeline = probe.getPipeline();
+            this.probeWorkers = Math.min(this.parallelism, probe.getParallelism());
+            Exchange exchange = new Exchange(probe.getSource(), scan -> new Probe(pipeline.build(scan)),
+                    this.probeWorkers);
+            exchange.open();
+            this.output = exchange;
+        }
+        super.open();
+    }
+
+    /**
+     * Partitions the build side and builds the hash table of every
+     * partition.
+     *
+     * @return the tables, or null if the build side doesn't fit in the
+     *         memory budget.
+     */
+    private TupleHashTable[] build() throws DbException, TransactionAbortedException {
+        final Exchange exchange = this.exchangeOf(this.child1);
+        final int numWorkers = exchange == null ? 1 : Math.min(this.parallelism, exchange.getParallelism());
+        // lists.get(w).get(p) holds the tuples of partition p worker w read.
+        final ArrayList<ArrayList<ArrayList<Tuple>>> lists = new ArrayList<>(numWorkers);
+        for (int w = 0; w < numWorkers; ++w) {
+            ArrayList<ArrayList<Tuple>> parts = new ArrayList<>(NUM_PARTITIONS);
+            for (int part = 0; part < NUM_PARTITIONS; ++part) {
+                parts.add(new ArrayList<Tuple>());
+            }
+            lists.add(parts);
+        }
+        final AtomicLong inMemory = new AtomicLong();
+
+        ExecutorService pool = Executors.newFixedThreadPool(this.parallelism);
+        try {
+            ArrayList<Callable<Boolean>> tasks = new ArrayList<>();
+            if (exchange == null) {
+                this.child1.open();
+                this.child1Open = true;
+                if (!this.partition(BatchAdapter.of(this.child1), lists.get(0), inMemory)) {
+                    return null;
+                }
+            } else {
+                exchange.getSource().reset();
+                for (int w = 0; w < numWorkers; ++w) {
+                    final BatchDbIterator input = BatchAdapter.of(exchange.newPipeline());
+                    final ArrayList<ArrayList<Tuple>> mine = lists.get(w);
+                    tasks.add(() -> {
+                        input.open();
+                        try {
+                            return this.partition(input, mine, inMemory);
+                        } finally {
+                            input.close();
+                        }
+                    });
+                }
+                if (!runAll(pool, tasks)) {
+                    return null;
+                }
+                this.buildWorkers = numWorkers;
+            }
+
+            final TupleHashTable[] tables = new TupleHashTable[NUM_PARTITIONS];
+            final int keyField = this.joinPred.getField1();
+            tasks.clear();
+            for (int p = 0; p < NUM_PARTITIONS; ++p) {
+                final int part = p;
+                tasks.add(() -> {
+                    int rows = 0;
+                    for (int w = 0; w < numWorkers; ++w) {
+                        rows += lists.get(w).get(part).size();
+                    }
+                    IntHashTable intTable = this.keyType == Type.INT_TYPE ? new IntHashTable(rows) : null;
+                    StringHashTable strTable = intTable == null ? new StringHashTable(rows) : null;
+                    for (int w = 0; w < numWorkers; ++w) {
+                        for (Tuple t : lists.get(w).get(part)) {
+                            if (intTable != null) {
+                                intTable.add(t.getInt(keyField), t);
+                            } else {
+                                strTable.add(t.getString(keyField), t);
+                            }
+                        }
+                        lists.get(w).set(part, null);
+                    }
+                    tables[part] = intTable != null ? intTable : strTable;
+                    return true;
+                });
+            }
+            runAll(pool, tasks);
+            return tables;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Hashes the tuples of a part of the build side into the lists of a
+     * worker; runs on a worker thread.
+     *
+     * @return false if the tuples in memory outgrew the memory budget, in
+     *         which case the input hasn't been partitioned completely.
+     */
+    private boolean partition(BatchDbIterator input, ArrayList<ArrayList<Tuple>> lists, AtomicLong inMemory)
+            throws DbException, TransactionAbortedException {
+        int keyField = this.joinPred.getField1();
+        int tupleSize = this.child1.getTupleDesc().getSize();
+        TupleBatch batch;
+        while ((batch = input.nextBatch()) != null) {
+            int n = batch.size();
+            for (int k = 0; k < n; ++k) {
+                int row = batch.selected(k);
+                int hash = this.keyType == Type.INT_TYPE ? batch.getInt(keyField, row)
+                        : batch.getString(keyField, row).hashCode();
+                lists.get(partitionOf(hash)).add(batch.getTuple(row));
+            }
+            if (inMemory.addAndGet((long) n * tupleSize) > this.memoryBudget) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the partition of a key with the given hash code. The top bits
+     *         of the mixed hash are used, as the hash tables of the
+     *         partitions use the low bits.
+     */
+    private static int partitionOf(int hash) {
+        return TupleHashTable.mix(hash) >>> (32 - PARTITION_BITS);
+    }
+
+    /**
+     * Runs the tasks on the pool and waits for all of them.
+     *
+     * @return false if any of the tasks returned false.
+     */
+    private static boolean runAll(ExecutorService pool, List<Callable<Boolean>> tasks)
+            throws DbException, TransactionAbortedException {
+        try {
+            boolean ok = true;
+            for (Future<Boolean> result : pool.invokeAll(tasks)) {
+                ok &= result.get();
+            }
+            return ok;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("ParallelHashJoin: interrupted while waiting for the workers.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException) {
+                throw (DbException) cause;
+            }
+            if (cause instanceof TransactionAbortedException) {
+                throw (TransactionAbortedException) cause;
+            }
+            throw new DbException("ParallelHashJoin: a worker failed: " + cause);
+        }
+    }
+
+    public void close() {
+        if (this.output != null) {
+            this.output.close();
+            this.output = null;
+        }
+        if (this.child1Open) {
+            this.child1.close();
+            this.child1Open = false;
+        }
+        this.tables = null;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.close();
+        this.open();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        return this.output.hasNext() ? this.output.next() : null;
+    }
+
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        this.checkOpen();
+        return this.output.nextBatch();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.mergedTupleDesc = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.keyType = child1.getTupleDesc().getFieldType(this.joinPred.getField1());
+    }
+
+    /**
+     * The probe pipeline of a worker: joins the batches of its part of the
+     * probe side with the hash tables, a batch at a time.
+     */
+    private class Probe extends Operator implements BatchDbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final DbIterator child;
+        private transient BatchDbIterator input = null;
+        private transient TupleBatch outBatch = null, probeBatch = null;
+        private transient int probePos = 0, probeRow = 0;
+        private transient TupleHashTable matchTable = null;
+        private transient int matchRow = TupleHashTable.NONE;
+        private transient boolean probeDone = false;
+        // state of fetchNext(), which reads the batches of nextBatch().
+        private transient TupleBatch current = null;
+        private transient int currentPos = 0;
+
+        Probe(DbIterator child) {
+            this.child = child;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return mergedTupleDesc;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            this.child.open();
+            this.input = BatchAdapter.of(this.child);
+            this.outBatch = new TupleBatch(mergedTupleDesc);
+            this.probeBatch = null;
+            this.matchRow = TupleHashTable.NONE;
+            this.probeDone = false;
+            this.current = null;
+            super.open();
+        }
+
+        public void close() {
+            this.child.close();
+            super.close();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            this.close();
+            this.open();
+        }
+
+        public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+            this.checkOpen();
+            int keyField = joinPred.getField2();
+            this.outBatch.clear();
+            while (!this.outBatch.isFull()) {
+                if (this.matchRow != TupleHashTable.NONE) {
+                    this.outBatch.addJoined(this.matchTable.get(this.matchRow), this.probeBatch, this.probeRow);
+                    this.matchRow = this.matchTable.next(this.matchRow);
+                    continue;
+                }
+                if (this.probeBatch == null || this.probePos == this.probeBatch.size()) {
+                    if (this.probeDone) {
+                        break;
+                    }
+                    this.probeBatch = this.input.nextBatch();
+                    this.probePos = 0;
+                    if (this.probeBatch == null) {
+                        this.probeDone = true;
+                        break;
+                    }
+                }
+                this.probeRow = this.probeBatch.selected(this.probePos++);
+                if (keyType == Type.INT_TYPE) {
+                    int key = this.probeBatch.getInt(keyField, this.probeRow);
+                    this.matchTable = tables[partitionOf(key)];
+                    this.matchRow = ((IntHashTable) this.matchTable).find(key);
+                } else {
+                    String key = this.probeBatch.getString(keyField, this.probeRow);
+                    this.matchTable = tables[partitionOf(key.hashCode())];
+                    this.matchRow = ((StringHashTable) this.matchTable).find(key);
+                }
+            }
+            return this.outBatch.size() > 0 ? this.outBatch : null;
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (this.current == null || this.currentPos == this.current.size()) {
+                this.current = this.nextBatch();
+                this.currentPos = 0;
+                if (this.current == null) {
+                    return null;
+                }
+            }
+            return this.current.getTuple(this.current.selected(this.currentPos++));
+        }
+
+        @Override
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { this.child };
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+        }
+    }
+}
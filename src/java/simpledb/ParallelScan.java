@@ -0,0 +1,247 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelScan splits a scan of a table stored in a {@link HeapFile} among
+ * worker threads. The pages of the table are handed out in morsels of
+ * consecutive pages, on demand: every worker reads its tuples through its
+ * own iterator from {@link #newWorkerScan}, which takes the next unread
+ * morsel whenever it is done with the previous one. A worker that runs
+ * ahead thus takes more morsels, and all workers finish at about the same
+ * time, however the work per page varies.
+ * <p>
+ * {@link #reset} must be called before the workers of a scan start.
+ *
+ * @see Exchange
+ */
+public class ParallelScan implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The default number of pages of a morsel. */
+    public static final int DEFAULT_MORSEL_PAGES = 16;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final String tableAlias;
+    private final int morselPages;
+    // the fields the scans of the morsels return, or null for all of them.
+    private final int[] fields;
+    private final AtomicInteger nextPage = new AtomicInteger();
+    private volatile int numPages = 0;
+    // the predicates pushed down into the scans of the morsels.
+    private final ArrayList<Predicate> predicates = new ArrayList<>();
+
+    /**
+     * Creates a parallel scan with the default morsel size.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must be stored in a HeapFile.
+     * @param tableAlias
+     *            the alias of this table, as in {@link SeqScan}.
+     */
+    public ParallelScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, DEFAULT_MORSEL_PAGES);
+    }
+
+    /**
+     * Creates a parallel scan.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must be stored in a HeapFile.
+     * @param tableAlias
+     *            the alias of this table, as in {@link SeqScan}.
+     * @param morselPages
+     *            the number of pages of a morsel.
+     */
+    public ParallelScan(TransactionId tid, int tableid, String tableAlias, int morselPages) {
+        this(tid, tableid, tableAlias, null, morselPages);
+    }
+
+    /**
+     * Creates a parallel scan of some fields of a table.
+     *
+     * @param fields
+     *            the fields to return, as in
+     *            {@link SeqScan#SeqScan(TransactionId, int, String, int[])}.
+     * @param morselPages
+     *            the number of pages of a morsel.
+     */
+    public ParallelScan(TransactionId tid, int tableid, String tableAlias, int[] fields, int morselPages) {
+        if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile)) {
+            throw new IllegalArgumentException("ParallelScan: only heap files can be scanned in parallel.");
+        }
+        if (morselPages < 1) {
+            throw new IllegalArgumentException("morselPages must be positive.");
+        }
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.morselPages = morselPages;
+        this.fields = fields == null ? null : fields.clone();
+    }
+
+    /**
+     * @return the id of the table this scan reads.
+     */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /**
+     * @return the alias of the table this scan reads.
+     */
+    public String getAlias() {
+        return this.tableAlias;
+    }
+
+    /**
+     * Push a predicate down into the scans of the morsels, as
+     * {@link SeqScan#addPredicate} does. Must be called before the workers
+     * start.
+     */
+    public void addPredicate(Predicate p) {
+        this.predicates.add(p);
+    }
+
+    /**
+     * @return the predicates pushed down into this scan.
+     */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(this.predicates);
+    }
+
+    /**
+     * @return the number of pages of the table, as of the last reset.
+     */
+    public int numPages() {
+        return this.numPages;
+    }
+
+    /**
+     * @return the TupleDesc of the tuples of the workers, with field names
+     *         prefixed with the alias as in {@link SeqScan#getTupleDesc}.
+     */
+    public TupleDesc getTupleDesc() {
+        return new SeqScan(this.tid, this.tableId, this.tableAlias, this.fields).getTupleDesc();
+    }
+
+    /**
+     * Start handing out the pages of the table from the first one again.
+     */
+    public void reset() {
+        this.numPages = ((HeapFile) Database.getCatalog().getDatabaseFile(this.tableId)).numPages();
+        this.nextPage.set(0);
+    }
+
+    /**
+     * @return a new scan of the pages of the next morsel, or null if all
+     *         morsels have been handed out.
+     */
+    private SeqScan nextMorsel() {
+        int start = this.nextPage.getAndAdd(this.morselPages);
+        if (start >= this.numPages) {
+            return null;
+        }
+        SeqScan scan = new SeqScan(this.tid, this.tableId, this.tableAlias, this.fields, start,
+                Math.min(start + this.morselPages, this.numPages));
+        for (Predicate p : this.predicates) {
+            scan.addPredicate(p);
+        }
+        return scan;
+    }
+
+    /**
+     * @return a new iterator that reads morsels of this scan until all of
+     *         them have been handed out. Every worker thread needs its own.
+     */
+    public BatchDbIterator newWorkerScan() {
+        return new WorkerScan();
+    }
+
+    private class WorkerScan implements BatchDbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient SeqScan current = null;
+        private transient boolean open = false;
+        private transient TupleDesc td = null;
+
+        public void open() {
+            this.open = true;
+            this.current = null;
+        }
+
+        /**
+         * @return the scan of the current morsel, which is moved to the next
+         *         morsel if it is exhausted; null if there are no more
+         *         morsels.
+         */
+        private SeqScan current() throws DbException, TransactionAbortedException {
+            if (!this.open) {
+                throw new IllegalStateException("ParallelScan worker not yet open");
+            }
+            while (this.current == null || !this.current.hasNext()) {
+                if (this.current != null) {
+                    this.current.close();
+                }
+                this.current = nextMorsel();
+                if (this.current == null) {
+                    return null;
+                }
+                this.current.open();
+            }
+            return this.current;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return this.current() != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            SeqScan scan = this.current();
+            if (scan == null) {
+                throw new NoSuchElementException();
+            }
+            return scan.next();
+        }
+
+        public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+            SeqScan scan = this.current();
+            return scan == null ? null : scan.nextBatch();
+        }
+
+        /**
+         * Opens the worker scan like {@link #open}, as operators such as
+         * {@link Filter} open their child by rewinding it. The morsels
+         * already taken are not read again: the worker goes on with the
+         * next unread one.
+         */
+        public void rewind() {
+            this.close();
+            this.open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            if (this.td == null) {
+                this.td = ParallelScan.this.getTupleDesc();
+            }
+            return this.td;
+        }
+
+        public void close() {
+            if (this.current != null) {
+                this.current.close();
+                this.current = null;
+            }
+            this.open = false;
+        }
+    }
+}
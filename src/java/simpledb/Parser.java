@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -11,6 +13,44 @@ import jline.SimpleCompletor;
 
 public class Parser {
     static boolean explain = false;
+    static LogicalPlan.Engine engine = LogicalPlan.Engine.PULL;
+    static int parallelism = 1;
+
+    // a trailing "LIMIT n [OFFSET m]" or "OFFSET m" clause, which Zql
+    // doesn't know about.
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "^(.*?)(?:\\s+limit\\s+(\\d+))?(?:\\s+offset\\s+(\\d+))?\\s*(;?)\\s*$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    // the LIMIT (-1 if none) and OFFSET removed from the statement being
+    // parsed; they are applied to the next plan parseQueryLogicalPlan makes.
+    private int limit = -1, offset = 0;
+
+    /**
+     * Removes a trailing LIMIT and OFFSET clause from a statement before it
+     * is handed to Zql, and remembers them for parseQueryLogicalPlan.
+     *
+     * @return the statement without the clause.
+     */
+    String stripLimit(String s) throws simpledb.ParsingException {
+        this.limit = -1;
+        this.offset = 0;
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.matches() || (m.group(2) == null && m.group(3) == null)) {
+            return s;
+        }
+        try {
+            if (m.group(2) != null) {
+                this.limit = Integer.parseInt(m.group(2));
+            }
+            if (m.group(3) != null) {
+                this.offset = Integer.parseInt(m.group(3));
+            }
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT and OFFSET must be integers: " + s);
+        }
+        return m.group(1) + m.group(4);
+    }
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -48,8 +88,7 @@ public class Parser {
 
             }
         } else if (wx.getOperator().equals("OR")) {
-            throw new simpledb.ParsingException(
-                    "OR expressions currently unsupported.");
+            lp.addFilterTree(parseFilterTree(wx, lp));
         } else {
             // this is a binary expression comparing two constants
             @SuppressWarnings("unchecked")
@@ -132,12 +171,55 @@ public class Parser {
 
     }
 
+    /**
+     * Parses an AND/OR expression whose operands are filters of the form
+     * field op constant, or other AND/OR expressions.
+     */
+    LogicalFilterTree parseFilterTree(ZExpression wx, LogicalPlan lp)
+            throws simpledb.ParsingException {
+        LogicalFilterTree tree = new LogicalFilterTree(wx.getOperator().equals("OR"));
+        for (int i = 0; i < wx.nbOperands(); i++) {
+            if (!(wx.getOperand(i) instanceof ZExpression)) {
+                throw new simpledb.ParsingException(
+                        "Nested queries are currently unsupported.");
+            }
+            ZExpression op = (ZExpression) wx.getOperand(i);
+            if (op.getOperator().equals("AND") || op.getOperator().equals("OR")) {
+                tree.subtrees.addElement(parseFilterTree(op, lp));
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            Vector<ZExp> ops = op.getOperands();
+            if (ops.size() != 2 || !(ops.elementAt(0) instanceof ZConstant)
+                    || !(ops.elementAt(1) instanceof ZConstant)) {
+                throw new simpledb.ParsingException(
+                        "Only filters of the form field op constant are supported in OR expressions.");
+            }
+            ZConstant op1 = (ZConstant) ops.elementAt(0);
+            ZConstant op2 = (ZConstant) ops.elementAt(1);
+            if ((op1.getType() == ZConstant.COLUMNNAME) == (op2.getType() == ZConstant.COLUMNNAME)) {
+                throw new simpledb.ParsingException(
+                        "Only filters of the form field op constant are supported in OR expressions.");
+            }
+            if (op1.getType() == ZConstant.COLUMNNAME) {
+                tree.filters.addElement(lp.newFilter(op1.getValue(), getOp(op.getOperator()), op2.getValue()));
+            } else {
+                tree.filters.addElement(lp.newFilter(op2.getValue(), getOp(op.getOperator()), op1.getValue()));
+            }
+        }
+        return tree;
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
         Vector<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(q.toString());
+        // the LIMIT belongs to the outermost query, not to its subqueries.
+        int limit = this.limit, offset = this.offset;
+        this.limit = -1;
+        this.offset = 0;
         // walk through tables in the FROM clause
         for (int i = 0; i < from.size(); i++) {
             ZFromItem fromIt = from.elementAt(i);
@@ -182,23 +264,20 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.addElement(groupByField);
+                lp.addGroupByField(groupByField);
             }
 
         }
@@ -207,8 +286,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAggregate = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +296,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField);
+                hasAggregate = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,32 +317,30 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAggregate) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
-
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
-        }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
+        if (limit >= 0 || offset > 0) {
+            lp.setLimit(limit, offset);
+        }
+        lp.setEngine(engine);
+        lp.setParallelism(parallelism);
         return lp;
     }
 
@@ -465,6 +539,7 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
+        s = stripLimit(s);
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
@@ -503,7 +578,15 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            // read the statement to remove the LIMIT clause before Zql sees it.
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = is.read(buf)) > 0) {
+                bos.write(buf, 0, len);
+            }
+            String statement = stripLimit(bos.toString("UTF-8"));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(statement.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -595,7 +678,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-push] [-parallel] [-f queryFile]";
     static final int SLEEP_TIME = 5000;
 
     protected void shutdown() {
@@ -616,6 +699,12 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-push")) {
+                    engine = LogicalPlan.Engine.PUSH;
+                    System.out.println("Push-based engine enabled.");
+                } else if (argv[i].equals("-parallel")) {
+                    parallelism = Exchange.DEFAULT_PARALLELISM;
+                    System.out.println("Parallel scans on " + parallelism + " workers enabled.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -98,9 +98,44 @@ public class Predicate implements Serializable {
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {
+        if (this.field instanceof IntField && t.getTupleDesc().getFieldType(this.field_num) == Type.INT_TYPE) {
+            return IntField.compare(this.op, t.getInt(this.field_num), ((IntField) this.field).getValue());
+        }
         return t.getField(this.field_num).compare(this.op, this.field);
     }
 
+    /**
+     * Applies the predicate to every selected row of a batch and narrows the
+     * selection of the batch to the rows for which it is true. INT fields are
+     * compared directly on the column vector.
+     *
+     * @param batch
+     *            The batch to filter in place
+     */
+    public void filter(TupleBatch batch) {
+        int n = 0;
+        if (this.field instanceof IntField && batch.getTupleDesc().getFieldType(this.field_num) == Type.INT_TYPE) {
+            int[] col = batch.intColumn(this.field_num);
+            int operand = ((IntField) this.field).getValue();
+            for (int k = 0; k < batch.size(); ++k) {
+                int row = batch.selected(k);
+                if (IntField.compare(this.op, col[row], operand)) {
+                    batch.setSelected(n++, row);
+                }
+            }
+        } else {
+            String[] col = batch.stringColumn(this.field_num);
+            String operand = ((StringField) this.field).getValue();
+            for (int k = 0; k < batch.size(); ++k) {
+                int row = batch.selected(k);
+                if (StringField.compare(this.op, col[row], operand)) {
+                    batch.setSelected(n++, row);
+                }
+            }
+        }
+        batch.truncateSelection(n);
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string
@@ -0,0 +1,366 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * PredicateTree is an AND/OR tree of {@link Predicate}s, evaluated by a
+ * {@link Filter}.
+ * <p>
+ * The children of an AND or OR node are evaluated one after another until
+ * one decides the result, so their order matters: an AND should first
+ * evaluate the cheap children that are often false, an OR the cheap ones
+ * that are often true. The order of the children is therefore not the order
+ * of the query. On a sample of the rows, every node counts how often each
+ * child is evaluated and true and times it, and every
+ * {@link #REORDER_INTERVAL} rows it sorts its children by their expected
+ * cost per decided row: cost / (1 - selectivity) for AND, cost /
+ * selectivity for OR. The counters
+ * are then halved, so that the order follows the data when its distribution
+ * changes during a scan.
+ * <p>
+ * A tree keeps these statistics, so it must not be shared by operators that
+ * run in different threads; give each one a {@link #copy()}.
+ */
+public class PredicateTree implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The kinds of nodes of a tree. */
+    public enum Kind {
+        LEAF, AND, OR
+    }
+
+    /** The number of rows a node evaluates between reorderings. */
+    public static final int REORDER_INTERVAL = 4096;
+
+    // the statistics of a tuple at a time are sampled on one row in
+    // SAMPLE_INTERVAL; those of a batch on all its rows.
+    private static final int SAMPLE_INTERVAL = 16;
+    // the longest time counted for one row, so that a pause of the JVM
+    // during a sample does not make a child look expensive.
+    private static final long MAX_SAMPLE_NANOS = 10000;
+
+    private final Kind kind;
+    private final Predicate predicate;
+    private final PredicateTree[] children;
+
+    // order[k] is the kth child evaluated.
+    private final int[] order;
+    private final long[] evaluated;
+    private final long[] passed;
+    private final long[] sampled;
+    private final long[] nanos;
+    // the rows evaluated since the last reordering.
+    private int calls = 0;
+
+    private PredicateTree(Kind kind, Predicate predicate, PredicateTree[] children) {
+        this.kind = kind;
+        this.predicate = predicate;
+        this.children = children;
+        int n = children.length;
+        this.order = new int[n];
+        for (int i = 0; i < n; ++i) {
+            this.order[i] = i;
+        }
+        this.evaluated = new long[n];
+        this.passed = new long[n];
+        this.sampled = new long[n];
+        this.nanos = new long[n];
+    }
+
+    /**
+     * @return a leaf evaluating p.
+     */
+    public static PredicateTree of(Predicate p) {
+        return new PredicateTree(Kind.LEAF, p, new PredicateTree[0]);
+    }
+
+    /**
+     * @return the conjunction of children, or the only child if there is one.
+     */
+    public static PredicateTree and(PredicateTree... children) {
+        return node(Kind.AND, children);
+    }
+
+    /**
+     * @return the conjunction of the predicates, or a leaf if there is one.
+     */
+    public static PredicateTree and(Predicate... preds) {
+        PredicateTree[] children = new PredicateTree[preds.length];
+        for (int i = 0; i < preds.length; ++i) {
+            children[i] = of(preds[i]);
+        }
+        return and(children);
+    }
+
+    /**
+     * @return the disjunction of children, or the only child if there is one.
+     */
+    public static PredicateTree or(PredicateTree... children) {
+        return node(Kind.OR, children);
+    }
+
+    private static PredicateTree node(Kind kind, PredicateTree[] children) {
+        if (children.length == 0) {
+            throw new IllegalArgumentException("PredicateTree: a node needs children.");
+        }
+        if (children.length == 1) {
+            return children[0];
+        }
+        // nested nodes of the same kind are flattened, so that all their
+        // children are reordered together.
+        ArrayList<PredicateTree> flat = new ArrayList<PredicateTree>();
+        for (PredicateTree child : children) {
+            if (child.kind == kind) {
+                flat.addAll(Arrays.asList(child.children));
+            } else {
+                flat.add(child);
+            }
+        }
+        return new PredicateTree(kind, null, flat.toArray(new PredicateTree[0]));
+    }
+
+    /**
+     * @return a tree with the same predicates and order, and with its own
+     *         statistics.
+     */
+    public PredicateTree copy() {
+        if (this.kind == Kind.LEAF) {
+            return of(this.predicate);
+        }
+        PredicateTree[] copies = new PredicateTree[this.children.length];
+        for (int k = 0; k < copies.length; ++k) {
+            copies[k] = this.children[this.order[k]].copy();
+        }
+        return new PredicateTree(this.kind, null, copies);
+    }
+
+    public Kind getKind() {
+        return this.kind;
+    }
+
+    /**
+     * @return the predicate of a leaf, null otherwise.
+     */
+    public Predicate getPredicate() {
+        return this.predicate;
+    }
+
+    /**
+     * @return the children of a node, in the order they are evaluated.
+     */
+    public PredicateTree[] getChildren() {
+        PredicateTree[] ordered = new PredicateTree[this.children.length];
+        for (int k = 0; k < ordered.length; ++k) {
+            ordered[k] = this.children[this.order[k]];
+        }
+        return ordered;
+    }
+
+    /**
+     * @return true if this tree is a leaf or an AND of leaves.
+     */
+    public boolean isConjunction() {
+        if (this.kind == Kind.OR) {
+            return false;
+        }
+        for (PredicateTree child : this.children) {
+            if (child.kind != Kind.LEAF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the predicates of a conjunction, in the order they are
+     *         evaluated.
+     * @throws IllegalStateException
+     *             if this tree is not a conjunction
+     */
+    public Predicate[] getConjuncts() {
+        if (!this.isConjunction()) {
+            throw new IllegalStateException("PredicateTree: not a conjunction.");
+        }
+        if (this.kind == Kind.LEAF) {
+            return new Predicate[] { this.predicate };
+        }
+        Predicate[] preds = new Predicate[this.children.length];
+        for (int k = 0; k < preds.length; ++k) {
+            preds[k] = this.children[this.order[k]].predicate;
+        }
+        return preds;
+    }
+
+    /**
+     * @return all the predicates of this tree.
+     */
+    public List<Predicate> getPredicates() {
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        this.collect(preds);
+        return preds;
+    }
+
+    private void collect(List<Predicate> preds) {
+        if (this.kind == Kind.LEAF) {
+            preds.add(this.predicate);
+        }
+        for (PredicateTree child : this.getChildren()) {
+            child.collect(preds);
+        }
+    }
+
+    /**
+     * Evaluates the tree on a tuple.
+     *
+     * @return true if t passes the tree.
+     */
+    public boolean filter(Tuple t) {
+        if (this.kind == Kind.LEAF) {
+            return this.predicate.filter(t);
+        }
+        // an AND is decided by a false child, an OR by a true one.
+        boolean decisive = this.kind == Kind.OR;
+        if (++this.calls % SAMPLE_INTERVAL != 0) {
+            for (int k = 0; k < this.order.length; ++k) {
+                if (this.children[this.order[k]].filter(t) == decisive) {
+                    return decisive;
+                }
+            }
+            return !decisive;
+        }
+        // a sampled row: count and time the children it evaluates.
+        boolean result = !decisive;
+        for (int k = 0; k < this.order.length; ++k) {
+            int i = this.order[k];
+            long start = System.nanoTime();
+            boolean pass = this.children[i].filter(t);
+            this.nanos[i] += Math.min(System.nanoTime() - start, MAX_SAMPLE_NANOS);
+            this.sampled[i]++;
+            this.evaluated[i]++;
+            if (pass) {
+                this.passed[i]++;
+            }
+            if (pass == decisive) {
+                result = decisive;
+                break;
+            }
+        }
+        this.called(0);
+        return result;
+    }
+
+    /**
+     * Evaluates the tree on every selected row of a batch and narrows the
+     * selection of the batch to the rows that pass it.
+     */
+    public void filter(TupleBatch batch) {
+        if (this.kind == Kind.LEAF) {
+            this.predicate.filter(batch);
+            return;
+        }
+        int rows = batch.size();
+        int[] pending = null;
+        int numPending = 0;
+        int[] result = null;
+        int numResult = 0;
+        if (this.kind == Kind.OR) {
+            // the rows no child has passed yet, and those some child has.
+            pending = new int[batch.size()];
+            numPending = batch.size();
+            for (int k = 0; k < numPending; ++k) {
+                pending[k] = batch.selected(k);
+            }
+            result = new int[numPending];
+        }
+        for (int k = 0; k < this.order.length; ++k) {
+            int i = this.order[k];
+            int before = batch.size();
+            if (before == 0) {
+                break;
+            }
+            long start = System.nanoTime();
+            this.children[i].filter(batch);
+            this.nanos[i] += Math.min(System.nanoTime() - start, MAX_SAMPLE_NANOS * before);
+            this.sampled[i] += before;
+            this.evaluated[i] += before;
+            this.passed[i] += batch.size();
+            if (this.kind == Kind.OR) {
+                // move the rows that passed from pending to result; both
+                // selections are increasing, so this is a merge.
+                int n = 0, passedRows = batch.size(), p = 0;
+                int[] merged = new int[numResult + passedRows];
+                int r = 0, m = 0;
+                for (int j = 0; j < numPending; ++j) {
+                    int row = pending[j];
+                    if (p < passedRows && batch.selected(p) == row) {
+                        p++;
+                        while (r < numResult && result[r] < row) {
+                            merged[m++] = result[r++];
+                        }
+                        merged[m++] = row;
+                    } else {
+                        pending[n++] = row;
+                    }
+                }
+                while (r < numResult) {
+                    merged[m++] = result[r++];
+                }
+                result = merged;
+                numResult = m;
+                numPending = n;
+                batch.setSelection(pending, numPending);
+            }
+        }
+        if (this.kind == Kind.OR) {
+            batch.setSelection(result, numResult);
+        }
+        this.called(rows);
+    }
+
+    /**
+     * Counts n more rows evaluated, and reorders the children every
+     * REORDER_INTERVAL of them.
+     */
+    private void called(int n) {
+        this.calls += n;
+        if (this.calls < REORDER_INTERVAL) {
+            return;
+        }
+        this.calls = 0;
+        final double[] rank = new double[this.children.length];
+        for (int i = 0; i < rank.length; ++i) {
+            double cost = this.sampled[i] == 0 ? 1.0 : (double) (this.nanos[i] + 1) / this.sampled[i];
+            double selectivity = (this.passed[i] + 1.0) / (this.evaluated[i] + 2.0);
+            rank[i] = cost / (this.kind == Kind.AND ? 1.0 - selectivity : selectivity);
+            this.evaluated[i] /= 2;
+            this.passed[i] /= 2;
+            this.sampled[i] /= 2;
+            this.nanos[i] /= 2;
+        }
+        Integer[] sorted = new Integer[this.order.length];
+        for (int k = 0; k < sorted.length; ++k) {
+            sorted[k] = this.order[k];
+        }
+        Arrays.sort(sorted, (a, b) -> Double.compare(rank[a], rank[b]));
+        for (int k = 0; k < sorted.length; ++k) {
+            this.order[k] = sorted[k];
+        }
+    }
+
+    public String toString() {
+        if (this.kind == Kind.LEAF) {
+            return this.predicate.toString();
+        }
+        StringBuilder sb = new StringBuilder("(");
+        PredicateTree[] ordered = this.getChildren();
+        for (int k = 0; k < ordered.length; ++k) {
+            if (k > 0) {
+                sb.append(" ").append(this.kind).append(" ");
+            }
+            sb.append(ordered[k]);
+        }
+        return sb.append(")").toString();
+    }
+}
@@ -5,12 +5,17 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchDbIterator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    private transient BatchDbIterator childBatches = null;
+    private transient int[] outFieldArr = null;
+    // the projection compiled once COMPILE_THRESHOLD rows were copied.
+    private transient QueryCompiler.Projection compiled = null;
+    private transient int interpreted = 0;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -45,6 +50,13 @@ public class Project extends Operator {
         return td;
     }
 
+    /**
+     * @return the ids of the fields of the child's tupleDesc projected out.
+     */
+    public ArrayList<Integer> getFieldList() {
+        return outFieldIds;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
@@ -71,15 +83,44 @@ public class Project extends Operator {
         while (child.hasNext()) {
             Tuple t = child.next();
             Tuple newTuple = new Tuple(td);
+            if (compiled != null) {
+                compiled.project(t, newTuple);
+                return newTuple;
+            }
+            if (++interpreted == QueryCompiler.COMPILE_THRESHOLD) {
+                compiled = QueryCompiler.compileProjection(child.getTupleDesc(), td, fieldArray());
+            }
             newTuple.setRecordId(t.getRecordId());
             for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
+                newTuple.copyField(i, t, outFieldIds.get(i));
             }
             return newTuple;
         }
         return null;
     }
 
+    private int[] fieldArray() {
+        int[] fields = new int[this.outFieldIds.size()];
+        for (int i = 0; i < fields.length; ++i) {
+            fields[i] = this.outFieldIds.get(i);
+        }
+        return fields;
+    }
+
+    /**
+     * Returns the next batch of the child, projected to the output fields.
+     * The result is a view of the child's batch, so no values are copied.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        this.checkOpen();
+        if (this.childBatches == null) {
+            this.childBatches = BatchAdapter.of(this.child);
+            this.outFieldArr = this.fieldArray();
+        }
+        TupleBatch batch = this.childBatches.nextBatch();
+        return batch == null ? null : batch.project(this.td, this.outFieldArr);
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -90,6 +131,7 @@ public class Project extends Operator {
 	if (this.child!=children[0])
 	{
 	    this.child = children[0];
+	    this.childBatches = null;
 	}
     }
     
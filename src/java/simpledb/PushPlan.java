@@ -0,0 +1,425 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * PushPlan runs a plan built of the usual pull-based operators with a
+ * push-based engine. The plan is cut into pipelines at its pipeline
+ * breakers: the build side of a {@link HashEquiJoin}, which ends in the hash
+ * table, and an {@link Aggregate}, which ends in its aggregator and is the
+ * source of the pipeline above it. A pipeline starts at a source, which is
+ * read a batch at a time, and pushes every batch through a chain of fused
+ * {@link Sink}s: {@link Filter}s narrow the selection of the batch,
+ * {@link Project}s make a view of it, and the probe side of a HashEquiJoin
+ * joins it with the hash table. No operator in a pipeline is asked for its
+ * next tuple.
+ * <p>
+ * On open, the pipelines that feed breakers are run to completion in order,
+ * so that every hash table is built before it is probed. The last pipeline,
+ * whose output is the output of the plan, is run one source batch at a time
+ * as the output is read. Any other operator, such as {@link OrderBy} or a
+ * sort-merge join, is a source pulled by its pipeline; its children are
+ * pushed by PushPlans of their own.
+ *
+ * @see LogicalPlan#setEngine
+ */
+public class PushPlan extends Operator implements BatchDbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * A consumer of the batches of a pipeline: either a stage that passes
+     * its output on to the next sink, or a pipeline breaker.
+     */
+    public interface Sink {
+        /**
+         * Consumes a batch. The batch belongs to the caller, so it must not
+         * be kept after the call returns.
+         */
+        void push(TupleBatch batch) throws DbException, TransactionAbortedException;
+
+        /**
+         * Called once after the last batch.
+         */
+        void finish() throws DbException, TransactionAbortedException;
+    }
+
+    /**
+     * A source with the chain of sinks its batches are pushed into.
+     */
+    private static class Pipeline {
+        final BatchDbIterator source;
+        // false if the source is a breaker, which is opened by its input.
+        final boolean openSource;
+        final Sink sink;
+
+        Pipeline(BatchDbIterator source, boolean openSource, Sink sink) {
+            this.source = source;
+            this.openSource = openSource;
+            this.sink = sink;
+        }
+    }
+
+    private DbIterator plan;
+
+    private transient ArrayList<Pipeline> pipelines = null;
+    // the breakers and sources of the pipelines, closed with this plan.
+    private transient ArrayList<DbIterator> operators = null;
+    private transient ArrayDeque<TupleBatch> output = null;
+    private transient boolean outputDone = false;
+
+    /**
+     * Constructor.
+     *
+     * @param plan
+     *            the root of the plan to run; its root must be one of the
+     *            operators pipelines are made of, see {@link #compile}.
+     */
+    public PushPlan(DbIterator plan) {
+        this.plan = plan;
+    }
+
+    /**
+     * Prepares a plan to run on the push-based engine. The subplans made of
+     * Filters, Projects, HashEquiJoins and Aggregates are run by PushPlans;
+     * the operators above them pull from those PushPlans.
+     *
+     * @return the plan to run instead of plan.
+     */
+    public static DbIterator compile(DbIterator plan) {
+        if (isFused(plan)) {
+            return new PushPlan(plan);
+        }
+        // Exchanges and parallel joins run their children on their own.
+        if (!(plan instanceof Operator) || plan instanceof Exchange || plan instanceof ParallelHashJoin) {
+            return plan;
+        }
+        DbIterator[] children = ((Operator) plan).getChildren();
+        if (children == null) {
+            return plan;
+        }
+        boolean changed = false;
+        DbIterator[] compiled = new DbIterator[children.length];
+        for (int i = 0; i < children.length; ++i) {
+            compiled[i] = compile(children[i]);
+            changed |= compiled[i] != children[i];
+        }
+        if (changed) {
+            ((Operator) plan).setChildren(compiled);
+        }
+        return plan;
+    }
+
+    /**
+     * @return true if op is a stage or a breaker of a pipeline.
+     */
+    private static boolean isFused(DbIterator op) {
+        return op instanceof Filter || op instanceof Project || op instanceof HashEquiJoin
+                || (op instanceof Aggregate && ((Aggregate) op).canPush());
+    }
+
+    /**
+     * Appends the pipelines that compute op to pipelines, in the order they
+     * must run. The last one pushes the output of op into sink.
+     */
+    private void plan(DbIterator op, Sink sink) throws DbException {
+        if (op instanceof Filter) {
+            // consecutive filters are fused into one stage.
+            ArrayList<PredicateTree> trees = new ArrayList<>();
+            while (op instanceof Filter) {
+                trees.add(((Filter) op).getPredicateTree().copy());
+                op = ((Filter) op).getChildren()[0];
+            }
+            this.plan(op, new FilterStage(op.getTupleDesc(),
+                    PredicateTree.and(trees.toArray(new PredicateTree[0])), sink));
+        } else if (op instanceof Project) {
+            Project project = (Project) op;
+            this.plan(project.getChildren()[0], new ProjectStage(project, sink));
+        } else if (op instanceof HashEquiJoin) {
+            HashEquiJoin join = (HashEquiJoin) op;
+            this.operators.add(join);
+            DbIterator[] children = join.getChildren();
+            join.startBuild();
+            this.plan(children[0], new BuildSink(join));
+            this.plan(children[1], new ProbeStage(join, sink));
+        } else if (op instanceof Aggregate && ((Aggregate) op).canPush()) {
+            Aggregate agg = (Aggregate) op;
+            this.operators.add(agg);
+            this.plan(agg.getChildren()[0], new AggregateSink(agg));
+            this.pipelines.add(new Pipeline(agg, false, sink));
+        } else {
+            DbIterator source = compile(op);
+            this.operators.add(source);
+            this.pipelines.add(new Pipeline(BatchAdapter.of(source), true, sink));
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.plan.getTupleDesc();
+    }
+
+    /**
+     * @return the number of pipelines of the plan, as of the last open.
+     */
+    public int numPipelines() {
+        return this.pipelines == null ? 0 : this.pipelines.size();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.pipelines = new ArrayList<>();
+        this.operators = new ArrayList<>();
+        this.output = new ArrayDeque<>();
+        this.outputDone = false;
+        this.plan(this.plan, new OutputSink());
+        for (Pipeline p : this.pipelines) {
+            if (p.openSource) {
+                p.source.open();
+            }
+        }
+        // run the pipelines that feed breakers.
+        for (int i = 0; i < this.pipelines.size() - 1; ++i) {
+            Pipeline p = this.pipelines.get(i);
+            TupleBatch batch;
+            while ((batch = p.source.nextBatch()) != null) {
+                p.sink.push(batch);
+            }
+            p.sink.finish();
+        }
+        super.open();
+    }
+
+    /**
+     * Returns the next batch of the output, running the last pipeline a
+     * source batch at a time until it has some output.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        this.checkOpen();
+        Pipeline last = this.pipelines.get(this.pipelines.size() - 1);
+        while (this.output.isEmpty() && !this.outputDone) {
+            TupleBatch batch = last.source.nextBatch();
+            if (batch == null) {
+                last.sink.finish();
+            } else {
+                last.sink.push(batch);
+            }
+        }
+        return this.output.poll();
+    }
+
+    // state of fetchNext(), which reads the batches of nextBatch().
+    private transient TupleBatch current = null;
+    private transient int currentPos = 0;
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (this.current == null || this.currentPos == this.current.size()) {
+            this.current = this.nextBatch();
+            this.currentPos = 0;
+            if (this.current == null) {
+                return null;
+            }
+        }
+        return this.current.getTuple(this.current.selected(this.currentPos++));
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.close();
+        this.open();
+    }
+
+    public void close() {
+        if (this.operators != null) {
+            for (DbIterator op : this.operators) {
+                op.close();
+            }
+            this.operators = null;
+        }
+        this.pipelines = null;
+        this.output = null;
+        this.current = null;
+        super.close();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.plan };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.plan = children[0];
+    }
+
+    /**
+     * Collects the output of the last pipeline.
+     */
+    private class OutputSink implements Sink {
+        public void push(TupleBatch batch) {
+            output.add(batch.copy());
+        }
+
+        public void finish() {
+            outputDone = true;
+        }
+    }
+
+    /**
+     * Narrows the selection of every batch to the rows passing a tree of
+     * predicates. A conjunction is compiled once
+     * {@link QueryCompiler#COMPILE_THRESHOLD} rows were interpreted.
+     */
+    private static class FilterStage implements Sink {
+        private final TupleDesc td;
+        private final PredicateTree tree;
+        private final Sink next;
+        private QueryCompiler.BatchFilter compiled = null;
+        private int interpreted = 0;
+
+        FilterStage(TupleDesc td, PredicateTree tree, Sink next) {
+            this.td = td;
+            this.tree = tree;
+            this.next = next;
+        }
+
+        public void push(TupleBatch batch) throws DbException, TransactionAbortedException {
+            if (this.compiled != null) {
+                this.compiled.filter(batch);
+            } else {
+                this.interpreted += batch.size();
+                this.tree.filter(batch);
+                if (this.interpreted >= QueryCompiler.COMPILE_THRESHOLD) {
+                    // a conjunction is compiled in the order the tree settled on.
+                    this.interpreted = Integer.MIN_VALUE;
+                    if (this.tree.isConjunction()) {
+                        this.compiled = QueryCompiler.compileFilter(this.td, this.tree.getConjuncts());
+                    }
+                }
+            }
+            if (batch.size() > 0) {
+                this.next.push(batch);
+            }
+        }
+
+        public void finish() throws DbException, TransactionAbortedException {
+            this.next.finish();
+        }
+    }
+
+    /**
+     * Pushes a view of every batch with the projected fields.
+     */
+    private static class ProjectStage implements Sink {
+        private final TupleDesc td;
+        private final int[] fields;
+        private final Sink next;
+
+        ProjectStage(Project project, Sink next) {
+            this.td = project.getTupleDesc();
+            ArrayList<Integer> fieldList = project.getFieldList();
+            this.fields = new int[fieldList.size()];
+            for (int i = 0; i < this.fields.length; ++i) {
+                this.fields[i] = fieldList.get(i);
+            }
+            this.next = next;
+        }
+
+        public void push(TupleBatch batch) throws DbException, TransactionAbortedException {
+            this.next.push(batch.project(this.td, this.fields));
+        }
+
+        public void finish() throws DbException, TransactionAbortedException {
+            this.next.finish();
+        }
+    }
+
+    /**
+     * Joins every batch of the probe side with the hash table of a join,
+     * and finally pushes the joins of its spilled partitions.
+     */
+    private static class ProbeStage implements Sink {
+        private final HashEquiJoin join;
+        private final TupleBatch out;
+        private final Sink next;
+
+        ProbeStage(HashEquiJoin join, Sink next) {
+            this.join = join;
+            this.out = new TupleBatch(join.getTupleDesc());
+            this.next = next;
+        }
+
+        private void flush() throws DbException, TransactionAbortedException {
+            if (this.out.size() > 0) {
+                this.next.push(this.out);
+                this.out.clear();
+            }
+        }
+
+        public void push(TupleBatch batch) throws DbException, TransactionAbortedException {
+            TupleHashTable table = this.join.buildTable();
+            int n = batch.size();
+            for (int k = 0; k < n; ++k) {
+                int row = batch.selected(k);
+                for (int m = this.join.probe(batch, row); m != TupleHashTable.NONE; m = table.next(m)) {
+                    this.out.addJoined(table.get(m), batch, row);
+                    if (this.out.isFull()) {
+                        this.flush();
+                    }
+                }
+            }
+            this.flush();
+        }
+
+        public void finish() throws DbException, TransactionAbortedException {
+            Tuple t;
+            while ((t = this.join.nextSpilledJoin()) != null) {
+                this.out.addTuple(t);
+                if (this.out.isFull()) {
+                    this.flush();
+                }
+            }
+            this.flush();
+            this.next.finish();
+        }
+    }
+
+    /**
+     * The breaker at the end of the build side of a join.
+     */
+    private static class BuildSink implements Sink {
+        private final HashEquiJoin join;
+
+        BuildSink(HashEquiJoin join) {
+            this.join = join;
+        }
+
+        public void push(TupleBatch batch) throws DbException {
+            int n = batch.size();
+            for (int k = 0; k < n; ++k) {
+                this.join.addBuildTuple(batch.getTuple(batch.selected(k)));
+            }
+        }
+
+        public void finish() {
+            this.join.finishBuild();
+        }
+    }
+
+    /**
+     * The breaker at the end of the input of an aggregate.
+     */
+    private static class AggregateSink implements Sink {
+        private final Aggregate agg;
+
+        AggregateSink(Aggregate agg) throws DbException {
+            this.agg = agg;
+            agg.startPush();
+        }
+
+        public void push(TupleBatch batch) throws DbException {
+            this.agg.push(batch);
+        }
+
+        public void finish() throws DbException, TransactionAbortedException {
+            this.agg.finishPush();
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.net.URI;
+import java.security.CodeSource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.tools.*;
+
+/**
+ * QueryCompiler generates Java classes specialized for the predicates and
+ * projections of a query, compiles them with the system Java compiler
+ * ({@link javax.tools}) in memory, and loads them. A generated class reads
+ * the fields it needs with the typed getters or straight from the column
+ * vectors of a {@link TupleBatch}, and has the comparisons inlined, instead
+ * of going through {@link Field#compare} and a switch on the operator for
+ * every row.
+ * <p>
+ * A generated class depends only on the shape of what it computes, i.e. the
+ * types and operators; field numbers and operands are arguments of its
+ * constructor. The compiled classes are cached by shape, so every shape is
+ * compiled once per JVM.
+ * <p>
+ * Compiling takes far longer than interpreting a small input, so operators
+ * interpret their first {@link #COMPILE_THRESHOLD} rows and only then ask
+ * for a compiled class. All methods return null if compilation is disabled,
+ * the compiler is unavailable (e.g. on a JRE), or the shape isn't supported,
+ * in which case the caller goes on interpreting.
+ */
+public class QueryCompiler {
+
+    /** The number of rows an operator interprets before compiling. */
+    public static final int COMPILE_THRESHOLD = 64 * 1024;
+
+    /**
+     * A compiled conjunction of {@link Predicate}s.
+     */
+    public interface BatchFilter {
+        /** @return true if t passes all the predicates. */
+        boolean filter(Tuple t);
+
+        /**
+         * Narrows the selection of batch to the rows passing all the
+         * predicates.
+         */
+        void filter(TupleBatch batch);
+    }
+
+    /**
+     * A compiled {@link Project}.
+     */
+    public interface Projection {
+        /** Copies the projected fields of in into out. */
+        void project(Tuple in, Tuple out);
+    }
+
+    /**
+     * A compiled {@link JoinPredicate}.
+     */
+    public interface JoinFilter {
+        /** @return true if the tuples satisfy the predicate. */
+        boolean filter(Tuple t1, Tuple t2);
+    }
+
+    private static volatile boolean enabled = true;
+    private static final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    // the constructor of the class compiled for every shape; failed shapes
+    // map to FAILED.
+    private static final Map<String, Constructor<?>> classes = new ConcurrentHashMap<>();
+    private static final Constructor<?> FAILED = QueryCompiler.class.getDeclaredConstructors()[0];
+    private static int nextClass = 0;
+
+    private QueryCompiler() {
+    }
+
+    /**
+     * Enable or disable compilation, for instance to compare compiled with
+     * interpreted execution.
+     */
+    public static void setEnabled(boolean enabled) {
+        QueryCompiler.enabled = enabled;
+    }
+
+    /**
+     * @return true if classes are compiled.
+     */
+    public static boolean isEnabled() {
+        return enabled && javac != null;
+    }
+
+    /**
+     * @return the number of shapes compiled so far.
+     */
+    public static int numCompiled() {
+        int n = 0;
+        for (Constructor<?> c : classes.values()) {
+            n += c == FAILED ? 0 : 1;
+        }
+        return n;
+    }
+
+    /**
+     * Compiles the conjunction of predicates over tuples described by td.
+     * INT fields must be compared to IntFields and STRING fields to
+     * StringFields.
+     */
+    public static BatchFilter compileFilter(TupleDesc td, Predicate... preds) {
+        if (!isEnabled()) {
+            return null;
+        }
+        int n = preds.length;
+        int[] fields = new int[n];
+        int[] ints = new int[n];
+        String[] strings = new String[n];
+        StringBuilder shape = new StringBuilder("filter");
+        StringBuilder tupleTest = new StringBuilder();
+        StringBuilder batchTest = new StringBuilder();
+        StringBuilder columns = new StringBuilder();
+        for (int i = 0; i < n; ++i) {
+            Predicate p = preds[i];
+            fields[i] = p.getField();
+            boolean isInt = td.getFieldType(fields[i]) == Type.INT_TYPE;
+            if (isInt != (p.getOperand() instanceof IntField)) {
+                return null;
+            }
+            String sep = i == 0 ? "" : " && ";
+            if (isInt) {
+                ints[i] = ((IntField) p.getOperand()).getValue();
+                tupleTest.append(sep).append(intTest("t.getInt(f" + i + ")", p.getOp(), "v" + i));
+                batchTest.append(sep).append(intTest("c" + i + "[row]", p.getOp(), "v" + i));
+                columns.append("        int[] c" + i + " = batch.intColumn(f" + i + ");\n");
+            } else {
+                strings[i] = ((StringField) p.getOperand()).getValue();
+                tupleTest.append(sep).append(stringTest("t.getString(f" + i + ")", p.getOp(), "s" + i));
+                batchTest.append(sep).append(stringTest("c" + i + "[row]", p.getOp(), "s" + i));
+                columns.append("        String[] c" + i + " = batch.stringColumn(f" + i + ");\n");
+            }
+            shape.append(isInt ? " INT" : " STRING").append(p.getOp());
+        }
+        StringBuilder src = new StringBuilder();
+        src.append("public final class %s implements simpledb.QueryCompiler.BatchFilter {\n");
+        for (int i = 0; i < n; ++i) {
+            src.append("    private final int f" + i + ", v" + i + ";\n");
+            src.append("    private final String s" + i + ";\n");
+        }
+        src.append("    public %s(int[] f, int[] v, String[] s) {\n");
+        for (int i = 0; i < n; ++i) {
+            src.append("        f" + i + " = f[" + i + "]; v" + i + " = v[" + i + "]; s" + i + " = s[" + i + "];\n");
+        }
+        src.append("    }\n");
+        src.append("    public boolean filter(simpledb.Tuple t) {\n");
+        src.append("        return " + tupleTest + ";\n");
+        src.append("    }\n");
+        src.append("    public void filter(simpledb.TupleBatch batch) {\n");
+        src.append(columns);
+        src.append("        int n = 0, size = batch.size();\n");
+        src.append("        for (int k = 0; k < size; ++k) {\n");
+        src.append("            int row = batch.selected(k);\n");
+        src.append("            if (" + batchTest + ") {\n");
+        src.append("                batch.setSelected(n++, row);\n");
+        src.append("            }\n");
+        src.append("        }\n");
+        src.append("        batch.truncateSelection(n);\n");
+        src.append("    }\n");
+        src.append("}\n");
+        return (BatchFilter) newInstance(shape.toString(), src.toString(), fields, ints, strings);
+    }
+
+    /**
+     * Compiles a projection of the fields of tuples described by td into
+     * tuples described by outTd.
+     */
+    public static Projection compileProjection(TupleDesc td, TupleDesc outTd, int[] fields) {
+        if (!isEnabled()) {
+            return null;
+        }
+        StringBuilder shape = new StringBuilder("project");
+        StringBuilder src = new StringBuilder();
+        src.append("public final class %s implements simpledb.QueryCompiler.Projection {\n");
+        src.append("    private final int[] f;\n");
+        src.append("    public %s(int[] f) {\n");
+        src.append("        this.f = f;\n");
+        src.append("    }\n");
+        src.append("    public void project(simpledb.Tuple in, simpledb.Tuple out) {\n");
+        for (int i = 0; i < fields.length; ++i) {
+            if (td.getFieldType(fields[i]) != outTd.getFieldType(i)) {
+                return null;
+            }
+            if (td.getFieldType(fields[i]) == Type.INT_TYPE) {
+                shape.append(" INT");
+                src.append("        out.setInt(" + i + ", in.getInt(f[" + i + "]));\n");
+            } else {
+                shape.append(" STRING");
+                src.append("        out.setString(" + i + ", in.getString(f[" + i + "]));\n");
+            }
+        }
+        src.append("        out.setRecordId(in.getRecordId());\n");
+        src.append("    }\n");
+        src.append("}\n");
+        return (Projection) newInstance(shape.toString(), src.toString(), (Object) fields.clone());
+    }
+
+    /**
+     * Compiles a join predicate over tuples described by td1 and td2.
+     */
+    public static JoinFilter compileJoin(TupleDesc td1, TupleDesc td2, JoinPredicate p) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Type type = td1.getFieldType(p.getField1());
+        if (type != td2.getFieldType(p.getField2())) {
+            return null;
+        }
+        String test = type == Type.INT_TYPE ? intTest("t1.getInt(f1)", p.getOperator(), "t2.getInt(f2)")
+                : stringTest("t1.getString(f1)", p.getOperator(), "t2.getString(f2)");
+        String src = "public final class %s implements simpledb.QueryCompiler.JoinFilter {\n"
+                + "    private final int f1, f2;\n"
+                + "    public %s(int f1, int f2) {\n"
+                + "        this.f1 = f1;\n"
+                + "        this.f2 = f2;\n"
+                + "    }\n"
+                + "    public boolean filter(simpledb.Tuple t1, simpledb.Tuple t2) {\n"
+                + "        return " + test + ";\n"
+                + "    }\n"
+                + "}\n";
+        return (JoinFilter) newInstance("join " + type + p.getOperator(), src, p.getField1(), p.getField2());
+    }
+
+    /**
+     * @return the Java expression comparing two ints as
+     *         {@link IntField#compare} does.
+     */
+    private static String intTest(String a, Predicate.Op op, String b) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return a + " == " + b;
+            case NOT_EQUALS:
+                return a + " != " + b;
+            case GREATER_THAN:
+                return a + " > " + b;
+            case GREATER_THAN_OR_EQ:
+                return a + " >= " + b;
+            case LESS_THAN:
+                return a + " < " + b;
+            default:
+                return a + " <= " + b;
+        }
+    }
+
+    /**
+     * @return the Java expression comparing two strings as
+     *         {@link StringField#compare} does.
+     */
+    private static String stringTest(String a, Predicate.Op op, String b) {
+        switch (op) {
+            case EQUALS:
+                return a + ".equals(" + b + ")";
+            case LIKE:
+                return a + ".indexOf(" + b + ") >= 0";
+            case NOT_EQUALS:
+                return "!" + a + ".equals(" + b + ")";
+            case GREATER_THAN:
+                return a + ".compareTo(" + b + ") > 0";
+            case GREATER_THAN_OR_EQ:
+                return a + ".compareTo(" + b + ") >= 0";
+            case LESS_THAN:
+                return a + ".compareTo(" + b + ") < 0";
+            default:
+                return a + ".compareTo(" + b + ") <= 0";
+        }
+    }
+
+    /**
+     * @return a new instance of the class compiled for shape, which is
+     *         compiled from source (with %s for its name) if needed; null if
+     *         it doesn't compile.
+     */
+    private static Object newInstance(String shape, String source, Object... args) {
+        Constructor<?> ctor = classes.get(shape);
+        if (ctor == null) {
+            synchronized (QueryCompiler.class) {
+                ctor = classes.get(shape);
+                if (ctor == null) {
+                    ctor = compile(source);
+                    classes.put(shape, ctor);
+                }
+            }
+        }
+        if (ctor == FAILED) {
+            return null;
+        }
+        try {
+            return ctor.newInstance(args);
+        } catch (ReflectiveOperationException e) {
+            Debug.log("QueryCompiler: cannot instantiate %s: %s", shape, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the constructor of the class compiled from source, or FAILED.
+     */
+    private static Constructor<?> compile(String source) {
+        String name = "QueryCompiler$Generated" + (nextClass++);
+        final String code = source.replace("%s", name);
+        MemoryFileManager files = new MemoryFileManager(javac.getStandardFileManager(null, null, null));
+        JavaFileObject unit = new SimpleJavaFileObject(URI.create("string:///" + name + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        List<String> options = Arrays.asList("-classpath", classPath(), "-g:none", "-nowarn");
+        Boolean ok = javac.getTask(null, files, diagnostics, options, null, Collections.singletonList(unit)).call();
+        if (ok == null || !ok) {
+            Debug.log("QueryCompiler: cannot compile %s: %s", name, diagnostics.getDiagnostics());
+            return FAILED;
+        }
+        final byte[] bytes = files.classBytes.toByteArray();
+        ClassLoader loader = new ClassLoader(QueryCompiler.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String className) throws ClassNotFoundException {
+                if (!className.equals(name)) {
+                    throw new ClassNotFoundException(className);
+                }
+                return this.defineClass(className, bytes, 0, bytes.length);
+            }
+        };
+        try {
+            return loader.loadClass(name).getConstructors()[0];
+        } catch (ClassNotFoundException e) {
+            return FAILED;
+        }
+    }
+
+    /**
+     * @return the class path the generated classes are compiled with: the
+     *         class path of the JVM and the location of the simpledb classes.
+     */
+    private static String classPath() {
+        String path = System.getProperty("java.class.path");
+        CodeSource code = QueryCompiler.class.getProtectionDomain().getCodeSource();
+        if (code != null) {
+            try {
+                path = new File(code.getLocation().toURI()).getPath() + File.pathSeparator + path;
+            } catch (Exception e) {
+                // the class path of the JVM has to do.
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Keeps the class file of the compiled class in memory.
+     */
+    private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        final ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+
+        MemoryFileManager(StandardJavaFileManager files) {
+            super(files);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("mem:///" + className + ".class"), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    return classBytes;
+                }
+            };
+        }
+    }
+}
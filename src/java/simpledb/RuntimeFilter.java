@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * RuntimeFilter is a filter on a join field built while a query runs. After
+ * its build phase, {@link HashEquiJoin} puts the join keys of its build side
+ * in a {@link BloomFilter} and installs it on the probe-side {@link SeqScan}
+ * (see {@link SeqScan#addRuntimeFilter}), which then drops the tuples that
+ * cannot find a join partner before they reach any other operator.
+ * <p>
+ * The filter counts the tuples it tests and drops, so that the reduction of
+ * the probe side can be reported.
+ */
+public class RuntimeFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int field;
+    private final BloomFilter bloom;
+    private long numTested = 0, numDropped = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param field
+     *            the index of the filtered field in the scanned tuples.
+     * @param bloom
+     *            the filter holding the {@link #keyHash} of every key that
+     *            may join.
+     */
+    public RuntimeFilter(int field, BloomFilter bloom) {
+        this.field = field;
+        this.bloom = bloom;
+    }
+
+    /**
+     * @return the hash of field i of t that is added to and looked up in the
+     *         Bloom filter of a RuntimeFilter.
+     */
+    public static int keyHash(Tuple t, int i) {
+        if (t.getTupleDesc().getFieldType(i) == Type.INT_TYPE) {
+            return t.getInt(i);
+        }
+        return t.getString(i).hashCode();
+    }
+
+    /**
+     * @return the index of the filtered field.
+     */
+    public int getField() {
+        return this.field;
+    }
+
+    /**
+     * @return false if t cannot join, true if it may.
+     */
+    public boolean filter(Tuple t) {
+        ++this.numTested;
+        if (this.bloom.mightContain(keyHash(t, this.field))) {
+            return true;
+        }
+        ++this.numDropped;
+        return false;
+    }
+
+    /**
+     * Drops the selected rows of a batch that cannot join from its
+     * selection, as {@link Predicate#filter(TupleBatch)} does.
+     */
+    public void filter(TupleBatch batch) {
+        int n = 0;
+        if (batch.getTupleDesc().getFieldType(this.field) == Type.INT_TYPE) {
+            int[] col = batch.intColumn(this.field);
+            for (int k = 0; k < batch.size(); ++k) {
+                int row = batch.selected(k);
+                if (this.bloom.mightContain(col[row])) {
+                    batch.setSelected(n++, row);
+                }
+            }
+        } else {
+            String[] col = batch.stringColumn(this.field);
+            for (int k = 0; k < batch.size(); ++k) {
+                int row = batch.selected(k);
+                if (this.bloom.mightContain(col[row].hashCode())) {
+                    batch.setSelected(n++, row);
+                }
+            }
+        }
+        this.numTested += batch.size();
+        this.numDropped += batch.size() - n;
+        batch.truncateSelection(n);
+    }
+
+    /**
+     * @return the number of tuples tested by this filter.
+     */
+    public long getNumTested() {
+        return this.numTested;
+    }
+
+    /**
+     * @return the number of tuples dropped by this filter.
+     */
+    public long getNumDropped() {
+        return this.numDropped;
+    }
+}
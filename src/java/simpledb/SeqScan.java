@@ -7,14 +7,34 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements BatchDbIterator {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * The name of the row id field, after the alias, when a scan returns
+     * it. It can't be the name of a field referred to in SQL.
+     */
+    public static final String ROWID_NAME = "#rowid";
+
     private TransactionId tid;
     private int tableId;
     private String tableAlias;
     private DbFileIterator it;
+    private transient TupleBatch batch = null;
+    // the runtime filters every tuple must pass, if any, and the next tuple
+    // that passed them.
+    private transient ArrayList<RuntimeFilter> runtimeFilters = null;
+    private transient Tuple lookahead = null;
+    // the predicates pushed down into this scan, if any; residual is true if
+    // the file iterator can't evaluate them, so that this scan does.
+    private ArrayList<Predicate> predicates = null;
+    private boolean residual = false;
+    // the fields of the table this scan returns, or null for all of them.
+    private final int[] fields;
+    // the table's TupleDesc with the alias prefixed, built from
+    // aliasedTdSource.
+    private transient TupleDesc aliasedTd = null, aliasedTdSource = null;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -36,11 +56,96 @@ public class SeqScan implements DbIterator {
         this.tid = tid;
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        this.fields = null;
 
         DbFile file = Database.getCatalog().getDatabaseFile(tableid);
         this.it = file.iterator(tid);
     }
 
+    /**
+     * Creates a sequential scan that only returns some fields of the
+     * specified table, which must be stored in a {@link HeapFile} unless
+     * fields is null. Only those fields are decoded from the pages.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table.
+     * @param fields
+     *            the indices of the fields of the table to return, in
+     *            order; {@link HeapFile#ROWID_FIELD} returns the row id of
+     *            every tuple, as an INT field named {@link #ROWID_NAME}.
+     *            null returns all the fields.
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields) {
+        this(tid, tableid, tableAlias, fields, 0, -1);
+    }
+
+    /**
+     * Creates a sequential scan over a range of pages of the specified
+     * table, which must be stored in a {@link HeapFile}. Parallel operators
+     * use it to split a scan among workers.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table.
+     * @param startPage
+     *            the first page to scan.
+     * @param endPage
+     *            the page after the last page to scan.
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int startPage, int endPage) {
+        this(tid, tableid, tableAlias, null, startPage, endPage);
+    }
+
+    /**
+     * Creates a sequential scan over some fields of a range of pages of the
+     * specified table, which must be stored in a {@link HeapFile} unless
+     * all the fields of all its pages are scanned.
+     *
+     * @param fields
+     *            the fields to return, as in
+     *            {@link #SeqScan(TransactionId, int, String, int[])}.
+     * @param endPage
+     *            the page after the last page to scan, or -1 to scan up to
+     *            the last page.
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields, int startPage, int endPage) {
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(file instanceof HeapFile)) {
+            if (fields != null || startPage != 0 || endPage != -1) {
+                throw new IllegalArgumentException("SeqScan: only heap files can be scanned by page range or field.");
+            }
+            this.fields = null;
+            this.it = file.iterator(tid);
+            return;
+        }
+        HeapFileIterator hfIt = (HeapFileIterator) ((HeapFile) file).iterator(tid, startPage, endPage);
+        if (fields != null) {
+            int numFields = file.getTupleDesc().numFields();
+            for (int f : fields) {
+                if (f != HeapFile.ROWID_FIELD && (f < 0 || f >= numFields)) {
+                    throw new IllegalArgumentException("SeqScan: no field " + f + " to scan.");
+                }
+            }
+            fields = fields.clone();
+        }
+        this.fields = fields;
+        if (fields != null) {
+            hfIt.setFields(fields, this.getTupleDesc());
+        }
+        this.it = hfIt;
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -50,6 +155,20 @@ public class SeqScan implements DbIterator {
         return Database.getCatalog().getTableName(this.tableId);
     }
 
+    /**
+     * @return the transaction this scan is running as a part of.
+     * */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
+    /**
+     * @return the id of the table the operator scans.
+     * */
+    public int getTableId() {
+        return this.tableId;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -73,6 +192,7 @@ public class SeqScan implements DbIterator {
     public void reset(int tableid, String tableAlias) {
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        this.aliasedTd = null;
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -80,9 +200,127 @@ public class SeqScan implements DbIterator {
     }
 
     public void open() throws DbException, TransactionAbortedException {
+        this.lookahead = null;
         it.open();
     }
 
+    /**
+     * Push a predicate down into this scan, which then only returns the
+     * tuples that pass it (and the predicates pushed before it). In a heap
+     * file, the predicates are evaluated on the bytes of every page, and a
+     * tuple is only decoded if it passes them.
+     *
+     * @see HeapPage#iterator(Predicate[])
+     */
+    public void addPredicate(Predicate p) {
+        if (p.getField() < 0 || p.getField() >= this.getTupleDesc().numFields()) {
+            throw new IllegalArgumentException("SeqScan: no field " + p.getField() + " to filter on.");
+        }
+        if (this.predicates == null) {
+            this.predicates = new ArrayList<>();
+        }
+        if (this.getTableField(p.getField()) == HeapFile.ROWID_FIELD) {
+            throw new IllegalArgumentException("SeqScan: can't filter on the row id.");
+        }
+        this.predicates.add(p);
+        if (this.it instanceof HeapFileIterator) {
+            // the pages evaluate predicates on the fields of the table.
+            Predicate[] preds = new Predicate[this.predicates.size()];
+            for (int i = 0; i < preds.length; ++i) {
+                Predicate q = this.predicates.get(i);
+                preds[i] = this.fields == null ? q
+                        : new Predicate(this.fields[q.getField()], q.getOp(), q.getOperand());
+            }
+            ((HeapFileIterator) this.it).setPredicates(preds);
+        } else {
+            this.residual = true;
+        }
+    }
+
+    /**
+     * @return the fields of the table this scan returns, or null if it
+     *         returns all of them.
+     */
+    public int[] getFields() {
+        return this.fields == null ? null : this.fields.clone();
+    }
+
+    /**
+     * @return the index in the table of the ith field this scan returns, or
+     *         {@link HeapFile#ROWID_FIELD}.
+     */
+    public int getTableField(int i) {
+        return this.fields == null ? i : this.fields[i];
+    }
+
+    /**
+     * @return the predicates pushed down into this scan, in the order they
+     *         were added; empty if there are none.
+     */
+    public List<Predicate> getPredicates() {
+        return this.predicates == null ? Collections.<Predicate>emptyList()
+                : Collections.unmodifiableList(this.predicates);
+    }
+
+    /**
+     * Install a runtime filter on this scan. From now on, the tuples that
+     * don't pass the filter are dropped as they are read.
+     */
+    public void addRuntimeFilter(RuntimeFilter f) {
+        if (this.runtimeFilters == null) {
+            this.runtimeFilters = new ArrayList<>();
+        }
+        this.runtimeFilters.add(f);
+    }
+
+    /**
+     * Remove a runtime filter installed by {@link #addRuntimeFilter}.
+     */
+    public void removeRuntimeFilter(RuntimeFilter f) {
+        if (this.runtimeFilters != null) {
+            this.runtimeFilters.remove(f);
+            if (this.runtimeFilters.isEmpty()) {
+                this.runtimeFilters = null;
+            }
+        }
+    }
+
+    /**
+     * @return true if runtime filters are installed on this scan.
+     */
+    public boolean hasRuntimeFilters() {
+        return this.runtimeFilters != null;
+    }
+
+    /**
+     * @return true if this scan drops tuples the file iterator returns.
+     */
+    private boolean filtered() {
+        return this.runtimeFilters != null || this.residual;
+    }
+
+    /**
+     * @return true if t passes all runtime filters, and the pushed
+     *         predicates if the file iterator doesn't evaluate them.
+     */
+    private boolean passesFilters(Tuple t) {
+        if (this.runtimeFilters != null) {
+            for (RuntimeFilter f : this.runtimeFilters) {
+                if (!f.filter(t)) {
+                    return false;
+                }
+            }
+        }
+        if (this.residual) {
+            for (Predicate p : this.predicates) {
+                if (!p.filter(t)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
@@ -94,24 +332,112 @@ public class SeqScan implements DbIterator {
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
-        return Database.getCatalog().getTupleDesc(this.tableId);
+        TupleDesc td = Database.getCatalog().getTupleDesc(this.tableId);
+        if (this.aliasedTd == null || this.aliasedTdSource != td) {
+            int n = this.fields == null ? td.numFields() : this.fields.length;
+            Type[] types = new Type[n];
+            String[] names = new String[n];
+            for (int i = 0; i < n; ++i) {
+                int f = this.getTableField(i);
+                types[i] = f == HeapFile.ROWID_FIELD ? Type.INT_TYPE : td.getFieldType(f);
+                names[i] = this.tableAlias + "." + (f == HeapFile.ROWID_FIELD ? ROWID_NAME : td.getFieldName(f));
+            }
+            this.aliasedTd = new TupleDesc(types, names);
+            this.aliasedTdSource = td;
+        }
+        return this.aliasedTd;
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
-        return it.hasNext();
+        if (this.lookahead != null) {
+            return true;
+        }
+        if (!this.filtered()) {
+            return it.hasNext();
+        }
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (this.passesFilters(t)) {
+                this.lookahead = t;
+                return true;
+            }
+        }
+        return false;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        return it.next();
+        if (!this.filtered() && this.lookahead == null) {
+            return it.next();
+        }
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = this.lookahead;
+        this.lookahead = null;
+        return t;
+    }
+
+    /**
+     * Returns the next batch of tuples in a reused batch. In a heap file,
+     * the fields of the tuples that pass the pushed predicates are read
+     * from the pages straight into the column vectors of the batch, without
+     * decoding them into Tuples, and the runtime filters then narrow its
+     * selection. Other files are read a tuple at a time.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (this.batch == null) {
+            this.batch = new TupleBatch(this.getTupleDesc());
+        }
+        if (!(this.it instanceof HeapFileIterator) || this.residual) {
+            return this.nextBatchOfTuples();
+        }
+        HeapFileIterator hfIt = (HeapFileIterator) this.it;
+        do {
+            this.batch.clear();
+            if (this.lookahead != null) {
+                this.batch.addTuple(this.lookahead);
+                this.lookahead = null;
+            }
+            if (!hfIt.nextBatch(this.batch) && this.batch.numRows() == 0) {
+                return null;
+            }
+            if (this.runtimeFilters != null) {
+                for (RuntimeFilter f : this.runtimeFilters) {
+                    f.filter(this.batch);
+                }
+            }
+        } while (this.batch.size() == 0);
+        return this.batch;
+    }
+
+    /**
+     * Returns the next batch of tuples, copied from the file iterator's
+     * tuples into the reused batch.
+     */
+    private TupleBatch nextBatchOfTuples() throws TransactionAbortedException, DbException {
+        this.batch.clear();
+        if (this.lookahead != null) {
+            this.batch.addTuple(this.lookahead);
+            this.lookahead = null;
+        }
+        while (!this.batch.isFull() && it.hasNext()) {
+            Tuple t = it.next();
+            if (!this.filtered() || this.passesFilters(t)) {
+                this.batch.addTuple(t);
+            }
+        }
+        return this.batch.size() > 0 ? this.batch : null;
     }
 
     public void close() {
+        this.lookahead = null;
         it.close();
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        this.lookahead = null;
         it.rewind();
     }
 }
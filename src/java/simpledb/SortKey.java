@@ -0,0 +1,156 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * SortKey encodes the ORDER BY fields of a tuple into a normalized key: a
+ * byte array whose unsigned lexicographic order is the order of the tuples.
+ * Sorting then compares keys with a byte loop instead of calling
+ * {@link Field#compare} for every field of every comparison.
+ * <p>
+ * The fields are encoded one after the other:
+ * <ul>
+ * <li>an INT field as 4 big-endian bytes with the sign bit flipped;</li>
+ * <li>a STRING field as the 2 big-endian bytes of every char, where a 0 byte
+ * is escaped as 0x00 0xFF, followed by the terminator 0x00 0x00, so that a
+ * string sorts before its extensions as in {@link String#compareTo};</li>
+ * <li>the bytes of a DESC field are complemented.</li>
+ * </ul>
+ * The first 8 bytes of a key are also available as a long, see
+ * {@link #prefix}, so that most comparisons are a single
+ * {@link Long#compareUnsigned}; keys made of up to two INT fields are
+ * compared entirely by their prefix.
+ */
+public class SortKey {
+
+    private final int[] fields;
+    private final boolean[] asc;
+    private final boolean[] isInt;
+    private final int maxKeySize;
+    // scratch space of encode().
+    private byte[] buf;
+
+    /**
+     * Constructor.
+     *
+     * @param td
+     *            the schema of the tuples to encode.
+     * @param fields
+     *            the ORDER BY fields, most significant first.
+     * @param asc
+     *            asc[i] is true if fields[i] is sorted in ascending order.
+     */
+    public SortKey(TupleDesc td, int[] fields, boolean[] asc) {
+        if (fields.length == 0 || fields.length != asc.length) {
+            throw new IllegalArgumentException("SortKey needs one direction per field.");
+        }
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+        this.isInt = new boolean[fields.length];
+        int size = 0;
+        for (int i = 0; i < fields.length; ++i) {
+            this.isInt[i] = td.getFieldType(fields[i]) == Type.INT_TYPE;
+            size += this.isInt[i] ? 4 : 4 * Type.STRING_LEN + 2;
+        }
+        this.maxKeySize = size;
+        this.buf = new byte[Math.min(size, 256)];
+    }
+
+    /**
+     * @return the number of bytes of the longest key of tuples whose strings
+     *         fit in their field, as stored on pages.
+     */
+    public int maxKeySize() {
+        return this.maxKeySize;
+    }
+
+    /**
+     * @return the normalized key of t.
+     */
+    public byte[] encode(Tuple t) {
+        int len = 0;
+        for (int i = 0; i < this.fields.length; ++i) {
+            int start = len;
+            if (this.isInt[i]) {
+                len = this.ensure(len, 4);
+                int v = t.getInt(this.fields[i]) ^ Integer.MIN_VALUE;
+                this.buf[len] = (byte) (v >>> 24);
+                this.buf[len + 1] = (byte) (v >>> 16);
+                this.buf[len + 2] = (byte) (v >>> 8);
+                this.buf[len + 3] = (byte) v;
+                len += 4;
+            } else {
+                String s = t.getString(this.fields[i]);
+                len = this.ensure(len, 4 * s.length() + 2);
+                for (int c = 0; c < s.length(); ++c) {
+                    char ch = s.charAt(c);
+                    len = this.putEscaped(len, (byte) (ch >>> 8));
+                    len = this.putEscaped(len, (byte) ch);
+                }
+                this.buf[len] = 0;
+                this.buf[len + 1] = 0;
+                len += 2;
+            }
+            if (!this.asc[i]) {
+                for (int b = start; b < len; ++b) {
+                    this.buf[b] = (byte) ~this.buf[b];
+                }
+            }
+        }
+        return Arrays.copyOf(this.buf, len);
+    }
+
+    private int putEscaped(int len, byte b) {
+        this.buf[len++] = b;
+        if (b == 0) {
+            this.buf[len++] = (byte) 0xFF;
+        }
+        return len;
+    }
+
+    /**
+     * Make room for n more bytes after the first len bytes of buf.
+     *
+     * @return len
+     */
+    private int ensure(int len, int n) {
+        if (len + n > this.buf.length) {
+            this.buf = Arrays.copyOf(this.buf, Math.max(len + n, 2 * this.buf.length));
+        }
+        return len;
+    }
+
+    /**
+     * @return the first 8 bytes of key as a big-endian long, padded with 0
+     *         bytes; compare prefixes with {@link Long#compareUnsigned}.
+     */
+    public static long prefix(byte[] key) {
+        long p = 0;
+        int n = Math.min(8, key.length);
+        for (int i = 0; i < n; ++i) {
+            p = (p << 8) | (key[i] & 0xFF);
+        }
+        return p << (8 * (8 - n));
+    }
+
+    /**
+     * Compares two keys in unsigned lexicographic order, starting at byte
+     * from; the bytes before it must be equal.
+     */
+    public static int compare(byte[] a, byte[] b, int from) {
+        int n = Math.min(a.length, b.length);
+        for (int i = from; i < n; ++i) {
+            if (a[i] != b[i]) {
+                return (a[i] & 0xFF) - (b[i] & 0xFF);
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Compares two keys in unsigned lexicographic order.
+     */
+    public static int compare(byte[] a, byte[] b) {
+        return compare(a, b, 0);
+    }
+}
@@ -0,0 +1,286 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin implements the relational join operation for inputs that are
+ * both sorted in ascending order on their join fields, e.g. scans of
+ * BTreeFiles on their key field or the output of an ascending
+ * {@link OrderBy}. Both inputs are read exactly once.
+ * <p>
+ * For EQUALS, the inputs are merged and only the current run of outer tuples
+ * with the same key is buffered. For the range operators, every tuple of one
+ * input joins with a prefix of the other input that only grows: for
+ * <code>outer &gt; inner</code> (or &gt;=) the inner tuples with smaller keys,
+ * for <code>outer &lt; inner</code> (or &lt;=) the outer tuples with smaller
+ * keys. That prefix is buffered while the other input is streamed.
+ * NOT_EQUALS and LIKE are not supported.
+ * <p>
+ * If an input turns out not to be sorted, a DbException is thrown.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate joinPred;
+    private DbIterator child1, child2;
+    private TupleDesc mergedTD;
+    private final boolean intKeys;
+
+    // the next unread tuple of each child, or null if it is exhausted.
+    private transient Tuple peek1 = null, peek2 = null;
+    // for EQUALS: the run of child1 tuples with the key of curTuple, a child2
+    // tuple. For the range operators: the buffered prefix of one child and
+    // the current tuple of the streamed one.
+    private transient ArrayList<Tuple> buffer = null;
+    private transient int bufferPos = 0;
+    private transient Tuple curTuple = null;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on. Both children must be sorted in ascending order on their join
+     * field.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException
+     *             if the operator of p is NOT_EQUALS or LIKE, or the join
+     *             fields don't have the same type.
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (!isSupported(p.getOperator())) {
+            throw new IllegalArgumentException("SortMergeJoin: unsupported operator " + p.getOperator());
+        }
+        Type type1 = child1.getTupleDesc().getFieldType(p.getField1());
+        if (type1 != child2.getTupleDesc().getFieldType(p.getField2())) {
+            throw new IllegalArgumentException("SortMergeJoin: the join fields have different types.");
+        }
+        this.joinPred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.intKeys = type1 == Type.INT_TYPE;
+        this.mergedTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if SortMergeJoin can evaluate join predicates with the
+     *         given operator.
+     */
+    public static boolean isSupported(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.joinPred;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.joinPred.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.joinPred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.mergedTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.child1.open();
+        this.child2.open();
+        this.peek1 = this.child1.hasNext() ? this.child1.next() : null;
+        this.peek2 = this.child2.hasNext() ? this.child2.next() : null;
+        this.buffer = new ArrayList<>();
+        this.bufferPos = 0;
+        this.curTuple = null;
+        super.open();
+    }
+
+    public void close() {
+        this.child1.close();
+        this.child2.close();
+        this.peek1 = this.peek2 = this.curTuple = null;
+        this.buffer = null;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.close();
+        this.open();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The result tuples are the concatenation of joining tuples
+     * from the left and right relation, as in {@link Join}.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        switch (this.joinPred.getOperator()) {
+            case EQUALS:
+                return this.fetchNextEquals();
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return this.fetchNextGreater();
+            default:
+                return this.fetchNextLess();
+        }
+    }
+
+    private Tuple fetchNextEquals() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (this.curTuple != null) {
+                if (this.bufferPos < this.buffer.size()) {
+                    return Tuple.merge(this.mergedTD, this.buffer.get(this.bufferPos++), this.curTuple);
+                }
+                // the run is done with curTuple, try the next child2 tuple.
+                this.curTuple = null;
+                if (this.peek2 != null && this.compare(this.buffer.get(0), this.peek2) == 0) {
+                    this.curTuple = this.advance2();
+                    this.bufferPos = 0;
+                    continue;
+                }
+            }
+            if (this.peek1 == null || this.peek2 == null) {
+                return null;
+            }
+            int cmp = this.compare(this.peek1, this.peek2);
+            if (cmp < 0) {
+                this.advance1();
+            } else if (cmp > 0) {
+                this.advance2();
+            } else {
+                this.buffer.clear();
+                Tuple first = this.advance1();
+                this.buffer.add(first);
+                while (this.peek1 != null && this.compare(this.peek1, first, this.joinPred.getField1()) == 0) {
+                    this.buffer.add(this.advance1());
+                }
+                this.curTuple = this.advance2();
+                this.bufferPos = 0;
+            }
+        }
+    }
+
+    /**
+     * child1 is streamed; the buffer holds the prefix of child2 whose keys
+     * are smaller than (or equal to) the key of curTuple.
+     */
+    private Tuple fetchNextGreater() throws TransactionAbortedException, DbException {
+        boolean orEq = this.joinPred.getOperator() == Predicate.Op.GREATER_THAN_OR_EQ;
+        while (true) {
+            if (this.curTuple != null && this.bufferPos < this.buffer.size()) {
+                return Tuple.merge(this.mergedTD, this.curTuple, this.buffer.get(this.bufferPos++));
+            }
+            if (this.peek1 == null) {
+                return null;
+            }
+            this.curTuple = this.advance1();
+            while (this.peek2 != null) {
+                int cmp = this.compare(this.curTuple, this.peek2);
+                if (cmp > 0 || (orEq && cmp == 0)) {
+                    this.buffer.add(this.advance2());
+                } else {
+                    break;
+                }
+            }
+            this.bufferPos = 0;
+        }
+    }
+
+    /**
+     * child2 is streamed; the buffer holds the prefix of child1 whose keys
+     * are smaller than (or equal to) the key of curTuple.
+     */
+    private Tuple fetchNextLess() throws TransactionAbortedException, DbException {
+        boolean orEq = this.joinPred.getOperator() == Predicate.Op.LESS_THAN_OR_EQ;
+        while (true) {
+            if (this.curTuple != null && this.bufferPos < this.buffer.size()) {
+                return Tuple.merge(this.mergedTD, this.buffer.get(this.bufferPos++), this.curTuple);
+            }
+            if (this.peek2 == null) {
+                return null;
+            }
+            this.curTuple = this.advance2();
+            while (this.peek1 != null) {
+                int cmp = this.compare(this.peek1, this.curTuple);
+                if (cmp < 0 || (orEq && cmp == 0)) {
+                    this.buffer.add(this.advance1());
+                } else {
+                    break;
+                }
+            }
+            this.bufferPos = 0;
+        }
+    }
+
+    /**
+     * Compares the join key of a child1 tuple with the join key of a child2
+     * tuple.
+     */
+    private int compare(Tuple t1, Tuple t2) {
+        int f1 = this.joinPred.getField1(), f2 = this.joinPred.getField2();
+        if (this.intKeys) {
+            return Integer.compare(t1.getInt(f1), t2.getInt(f2));
+        }
+        return t1.getString(f1).compareTo(t2.getString(f2));
+    }
+
+    /**
+     * Compares field f of two tuples of the same child.
+     */
+    private int compare(Tuple a, Tuple b, int f) {
+        if (this.intKeys) {
+            return Integer.compare(a.getInt(f), b.getInt(f));
+        }
+        return a.getString(f).compareTo(b.getString(f));
+    }
+
+    private Tuple advance1() throws TransactionAbortedException, DbException {
+        Tuple t = this.peek1;
+        this.peek1 = this.child1.hasNext() ? this.child1.next() : null;
+        if (this.peek1 != null && this.compare(t, this.peek1, this.joinPred.getField1()) > 0) {
+            throw new DbException("SortMergeJoin: the left input is not sorted on " + this.getJoinField1Name());
+        }
+        return t;
+    }
+
+    private Tuple advance2() throws TransactionAbortedException, DbException {
+        Tuple t = this.peek2;
+        this.peek2 = this.child2.hasNext() ? this.child2.next() : null;
+        if (this.peek2 != null && this.compare(t, this.peek2, this.joinPred.getField2()) > 0) {
+            throw new DbException("SortMergeJoin: the right input is not sorted on " + this.getJoinField2Name());
+        }
+        return t;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.mergedTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+}
@@ -0,0 +1,171 @@
+package simpledb;
+
+import java.io.*;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file of tuples that operators use to move data
+ * out of memory when it doesn't fit in their memory budget. Tuples are
+ * appended with {@link #add} in the same fixed-size format HeapPage uses,
+ * and read back in order through {@link #iterator}. The file is deleted by
+ * {@link #delete}, or when the JVM exits at the latest.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int numTuples = 0;
+
+    /**
+     * Create an empty spill file.
+     *
+     * @param td
+     *            the schema of the tuples of this file.
+     */
+    public SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            this.file = File.createTempFile("simpledb-spill", ".tmp");
+            this.file.deleteOnExit();
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file)));
+        } catch (IOException e) {
+            throw new DbException("SpillFile: cannot create a temporary file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the schema of the tuples of this file.
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /**
+     * Append a tuple to this file. All the fields of t must be set.
+     */
+    public void add(Tuple t) throws DbException {
+        if (this.out == null) {
+            throw new IllegalStateException("SpillFile: the file has been finished.");
+        }
+        try {
+            for (int i = 0; i < this.td.numFields(); ++i) {
+                this.td.getFieldType(i).serialize(t, i, this.out);
+            }
+        } catch (IOException e) {
+            throw new DbException("SpillFile: cannot write " + this.file + ": " + e.getMessage());
+        }
+        ++this.numTuples;
+    }
+
+    /**
+     * @return the number of tuples in this file.
+     */
+    public int numTuples() {
+        return this.numTuples;
+    }
+
+    /**
+     * @return the number of bytes written to this file.
+     */
+    public long numBytes() {
+        return (long) this.numTuples * this.td.getSize();
+    }
+
+    /**
+     * Flush the tuples to disk. No tuples can be added afterwards.
+     */
+    public void finish() throws DbException {
+        if (this.out == null) {
+            return;
+        }
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            throw new DbException("SpillFile: cannot write " + this.file + ": " + e.getMessage());
+        }
+        this.out = null;
+    }
+
+    /**
+     * @return an iterator over the tuples of this file, in the order in
+     *         which they were added. Calling this method finishes the file.
+     */
+    public DbIterator iterator() throws DbException {
+        this.finish();
+        return new SpillFileIterator();
+    }
+
+    /**
+     * Delete this file. It must not be used afterwards.
+     */
+    public void delete() {
+        if (this.out != null) {
+            try {
+                this.out.close();
+            } catch (IOException e) {
+                // the file is being discarded anyway.
+            }
+            this.out = null;
+        }
+        this.file.delete();
+    }
+
+    private class SpillFileIterator implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient DataInputStream in = null;
+        private int remaining = 0;
+
+        public void open() throws DbException {
+            try {
+                this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            } catch (IOException e) {
+                throw new DbException("SpillFile: cannot read " + file + ": " + e.getMessage());
+            }
+            this.remaining = numTuples;
+        }
+
+        public boolean hasNext() {
+            if (this.in == null)
+                throw new IllegalStateException("SpillFile iterator not yet open");
+            return this.remaining > 0;
+        }
+
+        public Tuple next() throws DbException, NoSuchElementException {
+            if (!this.hasNext())
+                throw new NoSuchElementException();
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); ++i) {
+                    td.getFieldType(i).parseInto(this.in, t, i);
+                }
+            } catch (java.text.ParseException e) {
+                throw new DbException("SpillFile: cannot read " + file + ": " + e.getMessage());
+            }
+            --this.remaining;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            this.close();
+            this.open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (this.in != null) {
+                try {
+                    this.in.close();
+                } catch (IOException e) {
+                    // nothing was written, so nothing is lost.
+                }
+                this.in = null;
+            }
+        }
+    }
+}
@@ -60,13 +60,13 @@ public class StringAggregIterator extends Operator {
             }
             Tuple tuple = new Tuple(this.resultTD);
             if (this.gbType == null)
-                tuple.setField(0, new IntField(retField));
+                tuple.setInt(0, retField);
             else {
                 if (this.gbType == Type.INT_TYPE)
-                    tuple.setField(0, new IntField((Integer)next.getKey()));
+                    tuple.setInt(0, (Integer)next.getKey());
                 else
-                    tuple.setField(0, new StringField((String)next.getKey(), Type.STRING_LEN));
-                tuple.setField(1, new IntField(retField));
+                    tuple.setString(0, (String)next.getKey());
+                tuple.setInt(1, retField);
             }
             return tuple;
         }
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
@@ -55,18 +56,15 @@ public class StringAggregator implements Aggregator {
         if (this.gbfield == NO_GROUPING) {
             this.aggMap.get(0).addKey();
         } else {
-            Field field = tup.getField(this.gbfield);
             StringAggregHelper aggHelper;
             if (this.gbfieldType == Type.INT_TYPE) {
-                IntField intField = (IntField)field;
-                int intKey = intField.getValue();
+                int intKey = tup.getInt(this.gbfield);
                 if (!this.aggMap.containsKey(intKey)) {
                     this.aggMap.put(intKey, new StringAggregHelper());
                 }
                 aggHelper = this.aggMap.get(intKey);
             } else {
-                StringField strField = (StringField)field;
-                String strKey = strField.getValue();
+                String strKey = tup.getString(this.gbfield);
                 if (!this.aggMap.containsKey(strKey)) {
                     this.aggMap.put(strKey, new StringAggregHelper());
                 }
@@ -77,6 +75,63 @@ public class StringAggregator implements Aggregator {
         this.invalidOutput();
     }
 
+    /**
+     * Merge all the selected rows of a batch into the aggregate, reading the
+     * group-by values straight from the column vectors.
+     * @param batch the batch containing an aggregate field and a group-by field
+     */
+    @Override
+    public void mergeBatch(TupleBatch batch) {
+        int n = batch.size();
+        if (this.gbfield == NO_GROUPING) {
+            StringAggregHelper aggHelper = this.aggMap.get(0);
+            for (int k = 0; k < n; ++k) {
+                aggHelper.addKey();
+            }
+        } else if (this.gbfieldType == Type.INT_TYPE) {
+            int[] gbCol = batch.intColumn(this.gbfield);
+            for (int k = 0; k < n; ++k) {
+                this.aggMap.computeIfAbsent(gbCol[batch.selected(k)], key -> new StringAggregHelper()).addKey();
+            }
+        } else {
+            String[] gbCol = batch.stringColumn(this.gbfield);
+            for (int k = 0; k < n; ++k) {
+                this.aggMap.computeIfAbsent(gbCol[batch.selected(k)], key -> new StringAggregHelper()).addKey();
+            }
+        }
+        this.invalidOutput();
+    }
+
+    /**
+     * @return the number of groups aggregated so far.
+     */
+    public int numGroups() {
+        return this.aggMap.size();
+    }
+
+    /**
+     * Merge the groups of another StringAggregator into this one.
+     */
+    public void merge(Aggregator other) {
+        for (Map.Entry<Object, StringAggregHelper> e : ((StringAggregator) other).aggMap.entrySet()) {
+            this.aggMap.computeIfAbsent(e.getKey(), key -> new StringAggregHelper()).merge(e.getValue());
+        }
+        this.invalidOutput();
+    }
+
+    /**
+     * @return true if the group of tup has been aggregated already.
+     */
+    public boolean hasGroup(Tuple tup) {
+        if (this.gbfield == NO_GROUPING) {
+            return true;
+        }
+        if (this.gbfieldType == Type.INT_TYPE) {
+            return this.aggMap.containsKey(tup.getInt(this.gbfield));
+        }
+        return this.aggMap.containsKey(tup.getString(this.gbfield));
+    }
+
     /**
      * Create a DbIterator over group aggregate results.
      *
@@ -75,31 +75,36 @@ public class StringField implements Field {
 	 * @see Field#compare
 	 */
 	public boolean compare(Predicate.Op op, Field val) {
+		return compare(op, value, ((StringField) val).value);
+	}
 
-		StringField iVal = (StringField) val;
-		int cmpVal = value.compareTo(iVal.value);
-
+	/**
+	 * Compares two strings as StringFields do, without building the fields.
+	 * 
+	 * @return the result of value op other.
+	 */
+	public static boolean compare(Predicate.Op op, String value, String other) {
 		switch (op) {
 		case EQUALS:
-			return cmpVal == 0;
+			return value.equals(other);
 
 		case NOT_EQUALS:
-			return cmpVal != 0;
+			return !value.equals(other);
 
 		case GREATER_THAN:
-			return cmpVal > 0;
+			return value.compareTo(other) > 0;
 
 		case GREATER_THAN_OR_EQ:
-			return cmpVal >= 0;
+			return value.compareTo(other) >= 0;
 
 		case LESS_THAN:
-			return cmpVal < 0;
+			return value.compareTo(other) < 0;
 
 		case LESS_THAN_OR_EQ:
-			return cmpVal <= 0;
+			return value.compareTo(other) <= 0;
 
 		case LIKE:
-			return value.indexOf(iVal.value) >= 0;
+			return value.indexOf(other) >= 0;
 		}
 
 		return false;
@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * StringHashTable is a hash table from STRING keys to tuples, using open
+ * addressing with linear probing. Every slot caches the hash of its key, so
+ * probing compares hashes before calling String.equals, and growing the
+ * table never rehashes a key.
+ *
+ * @see TupleHashTable
+ */
+public class StringHashTable extends TupleHashTable {
+
+    private String[] keys;
+    private int[] hashes;
+    private int[] heads;
+    private int mask;
+    private int numKeys = 0;
+
+    public StringHashTable() {
+        this(16);
+    }
+
+    /**
+     * @param expectedRows
+     *            the number of tuples the table is sized for; it grows as
+     *            needed.
+     */
+    public StringHashTable(int expectedRows) {
+        super(expectedRows);
+        this.allocate(slotsFor(expectedRows));
+    }
+
+    /**
+     * Adds a tuple with the given key.
+     */
+    public void add(String key, Tuple t) {
+        int hash = mix(key.hashCode());
+        int slot = this.slotOf(key, hash);
+        if (this.heads[slot] == NONE) {
+            this.keys[slot] = key;
+            this.hashes[slot] = hash;
+            this.heads[slot] = this.appendRow(t, NONE);
+            if (++this.numKeys * 2 > this.heads.length) {
+                this.grow();
+            }
+        } else {
+            this.heads[slot] = this.appendRow(t, this.heads[slot]);
+        }
+    }
+
+    /**
+     * @return the first row with the given key, or NONE.
+     */
+    public int find(String key) {
+        return this.heads[this.slotOf(key, mix(key.hashCode()))];
+    }
+
+    /**
+     * @return the number of distinct keys in this table.
+     */
+    public int numKeys() {
+        return this.numKeys;
+    }
+
+    private int slotOf(String key, int hash) {
+        int slot = hash & this.mask;
+        while (this.heads[slot] != NONE
+                && (this.hashes[slot] != hash || !this.keys[slot].equals(key))) {
+            slot = (slot + 1) & this.mask;
+        }
+        return slot;
+    }
+
+    private void allocate(int slots) {
+        this.keys = new String[slots];
+        this.hashes = new int[slots];
+        this.heads = new int[slots];
+        Arrays.fill(this.heads, NONE);
+        this.mask = slots - 1;
+    }
+
+    private void grow() {
+        String[] oldKeys = this.keys;
+        int[] oldHashes = this.hashes, oldHeads = this.heads;
+        this.allocate(oldHeads.length * 2);
+        for (int i = 0; i < oldHeads.length; ++i) {
+            if (oldHeads[i] != NONE) {
+                int slot = oldHashes[i] & this.mask;
+                while (this.heads[slot] != NONE) {
+                    slot = (slot + 1) & this.mask;
+                }
+                this.keys[slot] = oldKeys[i];
+                this.hashes[slot] = oldHashes[i];
+                this.heads[slot] = oldHeads[i];
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -66,6 +68,14 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    private final int ioCostPerPage;
+    private final int numPages;
+    private int numTuples = 0;
+    // the histogram of field i is in intHists[i] or strHists[i], depending
+    // on its type.
+    private final IntHistogram[] intHists;
+    private final StringHistogram[] strHists;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -77,14 +87,63 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
+        // the first scan finds the range of every INT field, the second one
+        // fills the histograms.
+        this.ioCostPerPage = ioCostPerPage;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        TupleDesc td = file.getTupleDesc();
+        int n = td.numFields();
+        int[] mins = new int[n], maxs = new int[n];
+        Arrays.fill(mins, Integer.MAX_VALUE);
+        Arrays.fill(maxs, Integer.MIN_VALUE);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        try {
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                ++this.numTuples;
+                for (int i = 0; i < n; ++i) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        mins[i] = Math.min(mins[i], t.getInt(i));
+                        maxs[i] = Math.max(maxs[i], t.getInt(i));
+                    }
+                }
+            }
+            this.intHists = new IntHistogram[n];
+            this.strHists = new StringHistogram[n];
+            for (int i = 0; i < n; ++i) {
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    this.intHists[i] = this.numTuples > 0 ? new IntHistogram(NUM_HIST_BINS, mins[i], maxs[i])
+                            : new IntHistogram(NUM_HIST_BINS, 0, 0);
+                } else {
+                    this.strHists[i] = new StringHistogram(NUM_HIST_BINS);
+                }
+            }
+            it.rewind();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int i = 0; i < n; ++i) {
+                    if (this.intHists[i] != null) {
+                        this.intHists[i].addValue(t.getInt(i));
+                    } else {
+                        this.strHists[i].addValue(t.getString(i));
+                    }
+                }
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        } catch (DbException | TransactionAbortedException | IOException e) {
+            throw new RuntimeException("TableStats: cannot scan table " + tableid, e);
+        }
+        if (file instanceof HeapFile) {
+            this.numPages = ((HeapFile) file).numPages();
+        } else if (file instanceof BTreeFile) {
+            this.numPages = ((BTreeFile) file).numPages();
+        } else {
+            this.numPages = (int) (((long) this.numTuples * td.getSize() + BufferPool.getPageSize() - 1)
+                    / BufferPool.getPageSize());
+        }
     }
 
     /**
@@ -100,8 +159,7 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        // some code goes here
-        return 0;
+        return (double) this.numPages * this.ioCostPerPage;
     }
 
     /**
@@ -114,8 +172,7 @@ public class TableStats {
      *         selectivityFactor
      */
     public int estimateTableCardinality(double selectivityFactor) {
-        // some code goes here
-        return 0;
+        return (int) Math.round(this.numTuples * selectivityFactor);
     }
 
     /**
@@ -129,8 +186,18 @@ public class TableStats {
      * expected selectivity. You may estimate this value from the histograms.
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
-        // some code goes here
-        return 1.0;
+        double eq = this.intHists[field] != null ? this.intHists[field].avgSelectivity()
+                : this.strHists[field].avgSelectivity();
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return eq;
+            case NOT_EQUALS:
+                return 1.0 - eq;
+            default:
+                // a random value splits the table in half on average.
+                return 0.5;
+        }
     }
 
     /**
@@ -147,16 +214,24 @@ public class TableStats {
      *         predicate
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-        // some code goes here
-        return 1.0;
+        if (this.intHists[field] != null) {
+            return this.intHists[field].estimateSelectivity(op, ((IntField) constant).getValue());
+        }
+        return this.strHists[field].estimateSelectivity(op, ((StringField) constant).getValue());
     }
 
     /**
      * return the total number of tuples in this table
      * */
     public int totalTuples() {
-        // some code goes here
-        return 0;
+        return this.numTuples;
+    }
+
+    /**
+     * @return the number of pages of this table.
+     */
+    public int numPages() {
+        return this.numPages;
     }
 
 }
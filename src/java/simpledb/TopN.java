@@ -0,0 +1,267 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY combined with LIMIT: it
+ * returns the first n tuples of its child in the order of its ORDER BY
+ * fields, compared by their {@link SortKey}s, like an
+ * {@link OrderBy} followed by a {@link Limit}, but only keeps n tuples in
+ * memory. The tuples are kept in a bounded heap whose root is the worst of
+ * them, so every child tuple costs one comparison with the root unless it
+ * displaces it.
+ * <p>
+ * Tuples with equal keys are returned in the order of the child, as
+ * OrderBy does.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final TupleDesc td;
+    private final int[] orderByFields;
+    private final boolean[] ascs;
+    private final int n;
+
+    // the best n tuples, heap[0] being the worst, their keys and their
+    // positions in the child, which break ties.
+    private transient Tuple[] heap = null;
+    private transient long[] prefixes = null;
+    private transient byte[][] keys = null;
+    private transient int[] seqs = null;
+    private transient int size = 0, pos = 0;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param n
+     *            the number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int n, DbIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, n, child);
+    }
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param ascs
+     *            ascs[i] is true if the sort order of orderbyFields[i] is
+     *            ascending.
+     * @param n
+     *            the number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int[] orderbyFields, boolean[] ascs, int n, DbIterator child) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n must not be negative.");
+        }
+        if (orderbyFields.length == 0 || orderbyFields.length != ascs.length) {
+            throw new IllegalArgumentException("TopN needs one direction per field.");
+        }
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = ascs.clone();
+        this.n = n;
+    }
+
+    /**
+     * @return true if the sort order of the first field is ascending.
+     */
+    public boolean isASC() {
+        return this.ascs[0];
+    }
+
+    /**
+     * @return the first field to which the sort is applied.
+     */
+    public int getOrderByField() {
+        return this.orderByFields[0];
+    }
+
+    public String getOrderFieldName() {
+        return this.td.getFieldName(this.orderByFields[0]);
+    }
+
+    /**
+     * @return the fields to which the sort is applied, most significant
+     *         first.
+     */
+    public int[] getOrderByFields() {
+        return this.orderByFields.clone();
+    }
+
+    /**
+     * @return for every field of {@link #getOrderByFields}, true if its sort
+     *         order is ascending.
+     */
+    public boolean[] getAscs() {
+        return this.ascs.clone();
+    }
+
+    public int getN() {
+        return this.n;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.child.open();
+        SortKey sortKey = new SortKey(this.td, this.orderByFields, this.ascs);
+        int capacity = Math.min(this.n, 1024);
+        this.heap = new Tuple[capacity];
+        this.prefixes = new long[capacity];
+        this.keys = new byte[capacity][];
+        this.seqs = new int[capacity];
+        this.size = 0;
+        int seq = 0;
+        while (this.n > 0 && this.child.hasNext()) {
+            Tuple t = this.child.next();
+            byte[] key = sortKey.encode(t);
+            long prefix = SortKey.prefix(key);
+            if (this.size < this.n) {
+                if (this.size == this.heap.length) {
+                    capacity = (int) Math.min(this.n, 2L * this.heap.length);
+                    this.heap = Arrays.copyOf(this.heap, capacity);
+                    this.prefixes = Arrays.copyOf(this.prefixes, capacity);
+                    this.keys = Arrays.copyOf(this.keys, capacity);
+                    this.seqs = Arrays.copyOf(this.seqs, capacity);
+                }
+                this.set(this.size, t, prefix, key, seq);
+                this.siftUp(this.size++);
+            } else if (compare(prefix, key, this.prefixes[0], this.keys[0]) < 0) {
+                // t is better than the worst tuple kept; equal keys keep the
+                // earlier tuple.
+                this.set(0, t, prefix, key, seq);
+                this.siftDown(0, this.size);
+            }
+            ++seq;
+        }
+        // popping the worst tuple moves it to the end, leaving the tuples
+        // sorted from best to worst.
+        for (int end = this.size - 1; end > 0; --end) {
+            this.swap(0, end);
+            this.siftDown(0, end);
+        }
+        // the keys are only needed to sort.
+        this.prefixes = null;
+        this.keys = null;
+        this.pos = 0;
+        super.open();
+    }
+
+    private void set(int i, Tuple t, long prefix, byte[] key, int seq) {
+        this.heap[i] = t;
+        this.prefixes[i] = prefix;
+        this.keys[i] = key;
+        this.seqs[i] = seq;
+    }
+
+    private static int compare(long prefix1, byte[] key1, long prefix2, byte[] key2) {
+        int c = Long.compareUnsigned(prefix1, prefix2);
+        return c != 0 ? c : SortKey.compare(key1, key2, 8);
+    }
+
+    /**
+     * @return true if the tuple at i is worse than the tuple at j.
+     */
+    private boolean worse(int i, int j) {
+        int c = compare(this.prefixes[i], this.keys[i], this.prefixes[j], this.keys[j]);
+        return c > 0 || (c == 0 && this.seqs[i] > this.seqs[j]);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!this.worse(i, parent)) {
+                break;
+            }
+            this.swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int end) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= end) {
+                break;
+            }
+            if (child + 1 < end && this.worse(child + 1, child)) {
+                ++child;
+            }
+            if (!this.worse(child, i)) {
+                break;
+            }
+            this.swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        Tuple t = this.heap[i];
+        this.heap[i] = this.heap[j];
+        this.heap[j] = t;
+        long p = this.prefixes[i];
+        this.prefixes[i] = this.prefixes[j];
+        this.prefixes[j] = p;
+        byte[] k = this.keys[i];
+        this.keys[i] = this.keys[j];
+        this.keys[j] = k;
+        int s = this.seqs[i];
+        this.seqs[i] = this.seqs[j];
+        this.seqs[j] = s;
+    }
+
+    public void close() {
+        super.close();
+        this.child.close();
+        this.heap = null;
+        this.prefixes = null;
+        this.keys = null;
+        this.seqs = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.pos = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the kept tuples in order.
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (this.heap != null && this.pos < this.size) {
+            return this.heap[this.pos++];
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
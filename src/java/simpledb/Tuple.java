@@ -1,7 +1,6 @@
 package simpledb;
 
 import java.io.Serializable;
-import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -11,12 +10,26 @@ import java.util.StringJoiner;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * Internally the values are kept unboxed: INT fields live in an
+ * <code>int[]</code> and STRING fields in a <code>String[]</code>, both indexed
+ * by field number. {@link #getInt}, {@link #getString}, {@link #setInt} and
+ * {@link #setString} access them without allocating, and {@link #copyField}
+ * / {@link #merge} move values between tuples without going through Field
+ * objects. {@link #getField} and {@link #setField} remain as a compatibility
+ * layer: getField builds an {@link IntField} or {@link StringField} on demand.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private TupleDesc td;
-    private ArrayList<Field> tupFieldList;
+    // ints[i] is the value of field i if it is an INT field.
+    private int[] ints;
+    // strings[i] is the value of field i if it is a STRING field; null if the
+    // TupleDesc has no STRING fields at all.
+    private String[] strings;
+    // assigned[i] is true once field i has been given a value.
+    private boolean[] assigned;
     private RecordId tup_rid = null;
 
     /**
@@ -64,16 +77,18 @@ public class Tuple implements Serializable {
      *            new value for the field.
      */
     public void setField(int i, Field f) {
-        if (i < 0 || i >= this.tupFieldList.size()) {
+        if (i < 0 || i >= this.assigned.length) {
             throw new IllegalArgumentException("invalid i");
         }
         Type the_type = this.td.getFieldType(i);
-        if ((the_type == Type.INT_TYPE && f instanceof IntField) ||
-            (the_type == Type.STRING_TYPE && f instanceof StringField)) {
-            this.tupFieldList.set(i, f);
+        if (the_type == Type.INT_TYPE && f instanceof IntField) {
+            this.ints[i] = ((IntField) f).getValue();
+        } else if (the_type == Type.STRING_TYPE && f instanceof StringField) {
+            this.strings[i] = ((StringField) f).getValue();
         } else {
             throw new IllegalArgumentException("The field type doesn't match that in TupleDesc.");
         }
+        this.assigned[i] = true;
     }
 
     /**
@@ -83,7 +98,113 @@ public class Tuple implements Serializable {
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
-        return this.tupFieldList.get(i);
+        if (!this.assigned[i]) {
+            return null;
+        }
+        if (this.td.getFieldType(i) == Type.INT_TYPE) {
+            return new IntField(this.ints[i]);
+        } else {
+            return new StringField(this.strings[i], Type.STRING_LEN);
+        }
+    }
+
+    /**
+     * @return the value of the ith field, which must be an INT field.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public int getInt(int i) {
+        return this.ints[i];
+    }
+
+    /**
+     * @return the value of the ith field, which must be a STRING field, or
+     *         null if it has not been set.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public String getString(int i) {
+        return this.strings[i];
+    }
+
+    /**
+     * Change the value of the ith field, which must be an INT field.
+     */
+    public void setInt(int i, int value) {
+        if (this.td.getFieldType(i) != Type.INT_TYPE) {
+            throw new IllegalArgumentException("The field type doesn't match that in TupleDesc.");
+        }
+        this.ints[i] = value;
+        this.assigned[i] = true;
+    }
+
+    /**
+     * Change the value of the ith field, which must be a STRING field. Like
+     * {@link StringField}, the value is truncated to {@link Type#STRING_LEN}.
+     */
+    public void setString(int i, String value) {
+        if (this.td.getFieldType(i) != Type.STRING_TYPE) {
+            throw new IllegalArgumentException("The field type doesn't match that in TupleDesc.");
+        }
+        if (value.length() > Type.STRING_LEN) {
+            value = value.substring(0, Type.STRING_LEN);
+        }
+        this.strings[i] = value;
+        this.assigned[i] = true;
+    }
+
+    /**
+     * @return true if the ith field has been given a value.
+     */
+    public boolean isAssigned(int i) {
+        return this.assigned[i];
+    }
+
+    /**
+     * Copy the value of field srcIdx of src into field destIdx of this tuple.
+     * The two fields must have the same type.
+     */
+    public void copyField(int destIdx, Tuple src, int srcIdx) {
+        Type the_type = this.td.getFieldType(destIdx);
+        if (the_type != src.td.getFieldType(srcIdx)) {
+            throw new IllegalArgumentException("The field type doesn't match that in TupleDesc.");
+        }
+        if (the_type == Type.INT_TYPE) {
+            this.ints[destIdx] = src.ints[srcIdx];
+        } else {
+            this.strings[destIdx] = src.strings[srcIdx];
+        }
+        this.assigned[destIdx] = src.assigned[srcIdx];
+    }
+
+    /**
+     * Build the concatenation of two tuples, as produced by the join
+     * operators.
+     *
+     * @param td
+     *            the merged schema, i.e. TupleDesc.merge(t1's, t2's).
+     * @param t1
+     *            the tuple whose fields come first.
+     * @param t2
+     *            the tuple whose fields come last.
+     * @return a new Tuple with td.numFields() fields.
+     */
+    public static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+        Tuple merged = new Tuple(td);
+        int n1 = t1.assigned.length, n2 = t2.assigned.length;
+        System.arraycopy(t1.ints, 0, merged.ints, 0, n1);
+        System.arraycopy(t2.ints, 0, merged.ints, n1, n2);
+        if (merged.strings != null) {
+            if (t1.strings != null)
+                System.arraycopy(t1.strings, 0, merged.strings, 0, n1);
+            if (t2.strings != null)
+                System.arraycopy(t2.strings, 0, merged.strings, n1, n2);
+        }
+        System.arraycopy(t1.assigned, 0, merged.assigned, 0, n1);
+        System.arraycopy(t2.assigned, 0, merged.assigned, n1, n2);
+        return merged;
     }
 
     /**
@@ -96,8 +217,14 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         StringJoiner joiner = new StringJoiner("\t");
-        for (Field field: this.tupFieldList) {
-            joiner.add(field.toString());
+        for (int i = 0; i < this.assigned.length; ++i) {
+            if (!this.assigned[i]) {
+                joiner.add("null");
+            } else if (this.td.getFieldType(i) == Type.INT_TYPE) {
+                joiner.add(Integer.toString(this.ints[i]));
+            } else {
+                joiner.add(this.strings[i]);
+            }
         }
         return joiner.toString();
     }
@@ -110,8 +237,12 @@ public class Tuple implements Serializable {
             if (o instanceof Tuple) {
                 Tuple tO = (Tuple)o;
                 if (tO.getTupleDesc().equals(this.getTupleDesc())) {
-                    for (int i = 0; i < this.getTupleDesc().numFields(); ++i) {
-                        if (!this.getField(i).equals(tO.getField(i))) {
+                    for (int i = 0; i < this.assigned.length; ++i) {
+                        if (this.td.getFieldType(i) == Type.INT_TYPE) {
+                            if (this.ints[i] != tO.ints[i]) {
+                                return false;
+                            }
+                        } else if (!this.strings[i].equals(tO.strings[i])) {
                             return false;
                         }
                     }
@@ -128,7 +259,11 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
-        return this.tupFieldList.iterator();
+        ArrayList<Field> fieldList = new ArrayList<>(this.assigned.length);
+        for (int i = 0; i < this.assigned.length; ++i) {
+            fieldList.add(this.getField(i));
+        }
+        return fieldList.iterator();
     }
 
     /**
@@ -137,9 +272,10 @@ public class Tuple implements Serializable {
     public void resetTupleDesc(TupleDesc td)
     {
         this.td = td;
-        this.tupFieldList = new ArrayList<>(td.numFields());
-        for (int i = 0; i < td.numFields(); ++i) {
-            tupFieldList.add(null);
-        }
+        int n = td.numFields();
+        this.ints = new int[n];
+        this.strings = td.hasStringFields() ? new String[n] : null;
+        this.assigned = new boolean[n];
+        Arrays.fill(this.assigned, false);
     }
 }
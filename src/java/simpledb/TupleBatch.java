@@ -0,0 +1,352 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * TupleBatch holds up to {@link #capacity()} rows of a schema in column
+ * vectors: one <code>int[]</code> per INT field and one <code>String[]</code>
+ * per STRING field, plus the RecordId of every row.
+ * <p>
+ * Rows are appended at positions 0..numRows()-1. Which of them are still part
+ * of the batch is recorded in a selection vector, so an operator like
+ * {@link Filter} can drop rows by narrowing the selection instead of copying
+ * the surviving values. Consumers therefore iterate as
+ * <pre>
+ *     for (int k = 0; k &lt; batch.size(); ++k) {
+ *         int row = batch.selected(k);
+ *         ... batch.getInt(col, row) ...
+ *     }
+ * </pre>
+ *
+ * @see BatchDbIterator
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of rows a batch holds by default. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    // intCols[i] is the vector of field i if it is an INT field, null otherwise.
+    private final int[][] intCols;
+    // strCols[i] is the vector of field i if it is a STRING field, null otherwise.
+    private final String[][] strCols;
+    private final RecordId[] rids;
+    private int numRows = 0;
+    private int[] sel;
+    private int selSize = 0;
+
+    /**
+     * Create an empty batch with the default capacity.
+     *
+     * @param td
+     *            the schema of the rows of this batch.
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty batch.
+     *
+     * @param td
+     *            the schema of the rows of this batch.
+     * @param capacity
+     *            the maximum number of rows of this batch.
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive.");
+        }
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        this.intCols = new int[n][];
+        this.strCols = new String[n][];
+        for (int i = 0; i < n; ++i) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                this.intCols[i] = new int[capacity];
+            } else {
+                this.strCols[i] = new String[capacity];
+            }
+        }
+        this.rids = new RecordId[capacity];
+        this.sel = new int[capacity];
+    }
+
+    /**
+     * Constructor only used by project: the new batch shares the column
+     * vectors and the selection vector of source.
+     */
+    private TupleBatch(TupleDesc td, TupleBatch source, int[] fields) {
+        this.td = td;
+        this.capacity = source.capacity;
+        this.intCols = new int[fields.length][];
+        this.strCols = new String[fields.length][];
+        for (int i = 0; i < fields.length; ++i) {
+            this.intCols[i] = source.intCols[fields[i]];
+            this.strCols[i] = source.strCols[fields[i]];
+        }
+        this.rids = source.rids;
+        this.numRows = source.numRows;
+        this.sel = source.sel;
+        this.selSize = source.selSize;
+    }
+
+    /**
+     * @return The TupleDesc representing the schema of the rows.
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /**
+     * @return the maximum number of rows of this batch.
+     */
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * @return the number of rows appended to this batch, selected or not.
+     */
+    public int numRows() {
+        return this.numRows;
+    }
+
+    /**
+     * @return the number of selected rows.
+     */
+    public int size() {
+        return this.selSize;
+    }
+
+    /**
+     * @return true if no more rows can be appended.
+     */
+    public boolean isFull() {
+        return this.numRows == this.capacity;
+    }
+
+    /**
+     * @return the row index of the kth selected row, 0 &lt;= k &lt; size().
+     */
+    public int selected(int k) {
+        return this.sel[k];
+    }
+
+    /**
+     * Drop all rows of this batch, so that it can be refilled.
+     */
+    public void clear() {
+        this.numRows = 0;
+        this.selSize = 0;
+    }
+
+    /**
+     * Keep only the first n entries of the selection vector. Operators that
+     * filter rows move the selected rows to the front of the selection vector
+     * with {@link #setSelected} and then call this method.
+     */
+    public void truncateSelection(int n) {
+        if (n < 0 || n > this.selSize) {
+            throw new IllegalArgumentException("invalid selection size");
+        }
+        this.selSize = n;
+    }
+
+    /**
+     * Replace the selection vector with the first n rows of rows, which must
+     * be increasing. Operators that evaluate disjunctions use it to restore a
+     * selection that an earlier predicate narrowed.
+     */
+    public void setSelection(int[] rows, int n) {
+        if (n < 0 || n > this.capacity || (n > 0 && rows[n - 1] >= this.numRows)) {
+            throw new IllegalArgumentException("invalid selection");
+        }
+        System.arraycopy(rows, 0, this.sel, 0, n);
+        this.selSize = n;
+    }
+
+    /**
+     * Set the kth entry of the selection vector to row.
+     */
+    public void setSelected(int k, int row) {
+        this.sel[k] = row;
+    }
+
+    /**
+     * @return the value of field i of the given row, which must be an INT
+     *         field.
+     */
+    public int getInt(int i, int row) {
+        return this.intCols[i][row];
+    }
+
+    /**
+     * @return the value of field i of the given row, which must be a STRING
+     *         field.
+     */
+    public String getString(int i, int row) {
+        return this.strCols[i][row];
+    }
+
+    /**
+     * @return the RecordId of the given row. May be null.
+     */
+    public RecordId getRecordId(int row) {
+        return this.rids[row];
+    }
+
+    /**
+     * @return the vector of field i, which must be an INT field. Only the
+     *         entries of selected rows are meaningful.
+     */
+    public int[] intColumn(int i) {
+        return this.intCols[i];
+    }
+
+    /**
+     * @return the vector of field i, which must be a STRING field. Only the
+     *         entries of selected rows are meaningful.
+     */
+    public String[] stringColumn(int i) {
+        return this.strCols[i];
+    }
+
+    /**
+     * Append a tuple as a new selected row.
+     *
+     * @param t
+     *            the tuple to append; its schema must match this batch.
+     * @throws IllegalStateException
+     *             if the batch is full.
+     */
+    public void addTuple(Tuple t) {
+        int row = this.newRow();
+        for (int i = 0; i < this.intCols.length; ++i) {
+            if (this.intCols[i] != null) {
+                this.intCols[i][row] = t.getInt(i);
+            } else {
+                this.strCols[i][row] = t.getString(i);
+            }
+        }
+        this.rids[row] = t.getRecordId();
+    }
+
+    /**
+     * Append a new selected row whose values the caller writes straight
+     * into the column vectors, as {@link HeapPage#fillBatch} does.
+     *
+     * @param rid
+     *            the RecordId of the row; may be null.
+     * @return the index of the new row.
+     * @throws IllegalStateException
+     *             if the batch is full.
+     */
+    int addRow(RecordId rid) {
+        int row = this.newRow();
+        this.rids[row] = rid;
+        return row;
+    }
+
+    /**
+     * Append the concatenation of a tuple and a row of another batch as a new
+     * selected row, as produced by the join operators.
+     *
+     * @param left
+     *            the tuple whose fields come first.
+     * @param right
+     *            the batch holding the fields that come last.
+     * @param rightRow
+     *            the row of right to append.
+     */
+    public void addJoined(Tuple left, TupleBatch right, int rightRow) {
+        int row = this.newRow();
+        int n1 = left.getTupleDesc().numFields();
+        for (int i = 0; i < n1; ++i) {
+            if (this.intCols[i] != null) {
+                this.intCols[i][row] = left.getInt(i);
+            } else {
+                this.strCols[i][row] = left.getString(i);
+            }
+        }
+        for (int i = n1; i < this.intCols.length; ++i) {
+            if (this.intCols[i] != null) {
+                this.intCols[i][row] = right.intCols[i - n1][rightRow];
+            } else {
+                this.strCols[i][row] = right.strCols[i - n1][rightRow];
+            }
+        }
+        this.rids[row] = null;
+    }
+
+    /**
+     * Materialize a row of this batch as a Tuple.
+     *
+     * @param row
+     *            the row to materialize, usually selected(k).
+     * @return a new Tuple holding the values of the row.
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(this.td);
+        for (int i = 0; i < this.intCols.length; ++i) {
+            if (this.intCols[i] != null) {
+                t.setInt(i, this.intCols[i][row]);
+            } else {
+                t.setString(i, this.strCols[i][row]);
+            }
+        }
+        t.setRecordId(this.rids[row]);
+        return t;
+    }
+
+    /**
+     * @return a new batch holding copies of the selected rows of this batch,
+     *         in selection order. Unlike this batch, the copy stays valid
+     *         when its producer reuses this batch, so it can be handed to
+     *         another thread.
+     */
+    public TupleBatch copy() {
+        TupleBatch copy = new TupleBatch(this.td, Math.max(1, this.selSize));
+        for (int k = 0; k < this.selSize; ++k) {
+            int row = this.sel[k];
+            int newRow = copy.newRow();
+            for (int i = 0; i < this.intCols.length; ++i) {
+                if (this.intCols[i] != null) {
+                    copy.intCols[i][newRow] = this.intCols[i][row];
+                } else {
+                    copy.strCols[i][newRow] = this.strCols[i][row];
+                }
+            }
+            copy.rids[newRow] = this.rids[row];
+        }
+        return copy;
+    }
+
+    /**
+     * Create a view of this batch which only has the specified fields. The
+     * view shares the column vectors and the selection vector with this
+     * batch, so no values are copied; it is valid as long as this batch is.
+     *
+     * @param td
+     *            the schema of the view.
+     * @param fields
+     *            fields[i] is the field of this batch that becomes field i of
+     *            the view.
+     */
+    public TupleBatch project(TupleDesc td, int[] fields) {
+        return new TupleBatch(td, this, fields);
+    }
+
+    private int newRow() {
+        if (this.numRows == this.capacity) {
+            throw new IllegalStateException("TupleBatch is full.");
+        }
+        int row = this.numRows++;
+        this.sel[this.selSize++] = row;
+        return row;
+    }
+}
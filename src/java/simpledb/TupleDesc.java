@@ -10,6 +10,11 @@ public class TupleDesc implements Serializable {
     private ArrayList<TDItem> tdItems;
     private boolean has_names = false;
     private int pre_calced_Size = -1;
+    // the field types, cached so that getFieldType doesn't go through tdItems.
+    private Type[] fieldTypes;
+    // the byte offset of every field within a serialized tuple.
+    private int[] fieldOffsets;
+    private boolean has_strings = false;
     /**
      * A help class to facilitate organizing the information of each field
      * */
@@ -112,9 +117,17 @@ public class TupleDesc implements Serializable {
      */
     private void PreInitialize() {
         this.pre_calced_Size = 0;
+        this.fieldTypes = new Type[this.tdItems.size()];
+        this.fieldOffsets = new int[this.tdItems.size()];
+        int idx = 0;
         for (TDItem tdItem: this.tdItems) {
             Type type = tdItem.fieldType;
+            this.fieldOffsets[idx] = this.pre_calced_Size;
             this.pre_calced_Size += type.getLen();
+            this.fieldTypes[idx++] = type;
+            if (type == Type.STRING_TYPE) {
+                this.has_strings = true;
+            }
             if (!this.has_names && tdItem.fieldName != null) {
                 this.has_names = true;
             }
@@ -152,7 +165,14 @@ public class TupleDesc implements Serializable {
      *             if i is not a valid field reference.
      */
     public Type getFieldType(int i) throws NoSuchElementException {
-        return this.tdItems.get(i).fieldType;
+        return this.fieldTypes[i];
+    }
+
+    /**
+     * @return true if at least one field of this TupleDesc is a STRING field.
+     */
+    public boolean hasStringFields() {
+        return this.has_strings;
     }
 
     /**
@@ -178,6 +198,14 @@ public class TupleDesc implements Serializable {
         throw new NoSuchElementException();
     }
 
+    /**
+     * @return the offset (in bytes) of the ith field within a serialized
+     *         tuple of this TupleDesc.
+     */
+    public int getFieldOffset(int i) {
+        return this.fieldOffsets[i];
+    }
+
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
      *         Note that tuples from a given TupleDesc are of a fixed size.
@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * TupleHashTable is the common part of the hash tables that join operators
+ * build on their build side ({@link IntHashTable}, {@link StringHashTable}).
+ * <p>
+ * The tuples are kept in one flat array of rows. All the rows with the same
+ * key are chained through a parallel <code>int[]</code>, so a key costs one
+ * slot in the key table no matter how many rows share it, and no per-key
+ * list is allocated. Lookups return the row index of the head of the chain,
+ * which is walked with {@link #next}:
+ * <pre>
+ *     for (int row = table.find(key); row != -1; row = table.next(row)) {
+ *         ... table.get(row) ...
+ *     }
+ * </pre>
+ */
+public abstract class TupleHashTable {
+
+    /** The row index that ends a chain, and the result of a failed lookup. */
+    public static final int NONE = -1;
+
+    private Tuple[] rows;
+    // chain[row] is the next row with the same key as row, or NONE.
+    private int[] chain;
+    private int numRows = 0;
+
+    protected TupleHashTable(int expectedRows) {
+        int capacity = Math.max(16, expectedRows);
+        this.rows = new Tuple[capacity];
+        this.chain = new int[capacity];
+    }
+
+    /**
+     * @return the tuple stored in the given row.
+     */
+    public Tuple get(int row) {
+        return this.rows[row];
+    }
+
+    /**
+     * @return the next row with the same key as the given row, or NONE.
+     */
+    public int next(int row) {
+        return this.chain[row];
+    }
+
+    /**
+     * @return the number of tuples in this table.
+     */
+    public int size() {
+        return this.numRows;
+    }
+
+    /**
+     * Appends a row in front of a chain.
+     *
+     * @param t
+     *            the tuple to store.
+     * @param head
+     *            the current head of the chain of its key, or NONE.
+     * @return the index of the new row, which is the new head of the chain.
+     */
+    protected int appendRow(Tuple t, int head) {
+        if (this.numRows == this.rows.length) {
+            int capacity = this.rows.length * 2;
+            this.rows = Arrays.copyOf(this.rows, capacity);
+            this.chain = Arrays.copyOf(this.chain, capacity);
+        }
+        this.rows[this.numRows] = t;
+        this.chain[this.numRows] = head;
+        return this.numRows++;
+    }
+
+    /**
+     * @return the number of key slots to allocate for the given number of
+     *         keys: a power of two, at most half full.
+     */
+    protected static int slotsFor(int expectedKeys) {
+        int slots = 16;
+        while (slots < expectedKeys * 2) {
+            slots <<= 1;
+        }
+        return slots;
+    }
+
+    /**
+     * Spreads the bits of a hash code over the whole int (the finalizer of
+     * MurmurHash3), so that the low bits can be used as a slot number.
+     */
+    protected static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -24,6 +24,20 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public void parseInto(DataInputStream dis, Tuple t, int i) throws ParseException {
+            try {
+                t.setInt(i, dis.readInt());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public void serialize(Tuple t, int i, DataOutputStream dos) throws IOException {
+            dos.writeInt(t.getInt(i));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +56,28 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public void parseInto(DataInputStream dis, Tuple t, int i) throws ParseException {
+            try {
+                int strLen = dis.readInt();
+                byte bs[] = new byte[strLen];
+                dis.read(bs);
+                dis.skipBytes(STRING_LEN-strLen);
+                t.setString(i, new String(bs));
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public void serialize(Tuple t, int i, DataOutputStream dos) throws IOException {
+            String s = t.getString(i);
+            dos.writeInt(s.length());
+            dos.writeBytes(s);
+            for (int overflow = STRING_LEN - s.length(); overflow > 0; --overflow)
+                dos.write((byte) 0);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +96,21 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * Reads a value of this type from the specified DataInputStream straight
+   * into field i of t, without creating a Field object.
+   * @param dis The input stream to read from
+   * @param t The tuple to store the value in
+   * @param i The index of the field of t, which must be of this type
+   * @throws ParseException if the data read from the input stream is not
+   *   of the appropriate type.
+   */
+    public abstract void parseInto(DataInputStream dis, Tuple t, int i) throws ParseException;
+
+  /**
+   * Writes field i of t, which must be of this type, to the specified
+   * DataOutputStream in the same format as Field.serialize.
+   */
+    public abstract void serialize(Tuple t, int i, DataOutputStream dos) throws IOException;
+
 }
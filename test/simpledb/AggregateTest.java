@@ -3,12 +3,16 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 
 public class AggregateTest extends SimpleDbTestBase {
 
@@ -176,6 +180,269 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for an Aggregate whose groups don't fit in its memory budget,
+   * with INT and STRING group keys
+   */
+  @Test public void spillingAggregate() throws Exception {
+    int[] ints = new int[2 * 5000];
+    Object[] strs = new Object[2 * 3000];
+    for (int i = 0; i < 5000; ++i) {
+      ints[2 * i] = (i * 7919) % 4000;
+      ints[2 * i + 1] = i;
+    }
+    for (int i = 0; i < 3000; ++i) {
+      strs[2 * i] = "g" + (i % 1500);
+      strs[2 * i + 1] = i;
+    }
+    for (Aggregator.Op aop : new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MIN }) {
+      // 4000 groups, 1000 of which fit in memory.
+      Aggregate expected = new Aggregate(TestUtil.createTupleList(2, ints), 1, 0, aop);
+      Aggregate op = new Aggregate(TestUtil.createTupleList(2, ints), 1, 0, aop,
+          1000 * (96 + Type.INT_TYPE.getLen()));
+      op.open();
+      expected.open();
+      ArrayList<String> groups = TestUtil.sortedStrings(expected);
+      assertEquals(4000, groups.size());
+      assertEquals(groups, TestUtil.sortedStrings(op));
+      assertTrue(op.getSpilledPartitions() > 0);
+      assertEquals(0, expected.getSpilledPartitions());
+      op.rewind();
+      assertEquals(groups, TestUtil.sortedStrings(op));
+      op.close();
+    }
+
+    // 1500 groups, 100 of which fit in memory.
+    Aggregate expected = new Aggregate(TestUtil.createTupleList(2, strs), 1, 0, Aggregator.Op.COUNT);
+    Aggregate op = new Aggregate(TestUtil.createTupleList(2, strs), 1, 0, Aggregator.Op.COUNT,
+        100 * (96 + Type.STRING_TYPE.getLen()));
+    op.open();
+    expected.open();
+    assertEquals(TestUtil.sortedStrings(expected), TestUtil.sortedStrings(op));
+    assertTrue(op.getSpilledBytes() > 0);
+    op.close();
+  }
+
+  /**
+   * Unit test for an Aggregate over a child sorted on the group-by field
+   */
+  @Test public void sortedAggregate() throws Exception {
+    BTreeFile index = BTreeUtility.createRandomBTreeFile(2, 3000, 100, null, null, 0);
+    TransactionId tid = new TransactionId();
+    Aggregate op = new Aggregate(new SeqScan(tid, index.getId(), "t"), 1, 0, Aggregator.Op.AVG);
+    // Project hides the order of the scan.
+    ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(0, 1));
+    Aggregate expected = new Aggregate(new Project(fields, new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+        new SeqScan(tid, index.getId(), "t")), 1, 0, Aggregator.Op.AVG);
+    op.open();
+    expected.open();
+    assertTrue(op.isSortedAggregation());
+    assertTrue(!expected.isSortedAggregation());
+    ArrayList<String> groups = TestUtil.sortedStrings(expected);
+    assertEquals(groups, TestUtil.sortedStrings(op));
+    op.rewind();
+    assertEquals(groups, TestUtil.sortedStrings(op));
+    op.close();
+    expected.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Computes COUNT, SUM and MAX of field 2 grouped by fields 0 and 1 of the
+   * given rows, as the strings of the expected Aggregate tuples.
+   */
+  private static ArrayList<String> expectedGroups(int[][] rows) {
+    TreeMap<String, int[]> groups = new TreeMap<String, int[]>();
+    for (int[] row : rows) {
+      int[] g = groups.get(row[0] + "," + row[1]);
+      if (g == null) {
+        g = new int[] { row[0], row[1], 0, 0, Integer.MIN_VALUE };
+        groups.put(row[0] + "," + row[1], g);
+      }
+      g[2] += 1;
+      g[3] += row[2];
+      g[4] = Math.max(g[4], row[2]);
+    }
+    ArrayList<String> result = new ArrayList<String>();
+    for (int[] g : groups.values()) {
+      result.add(Utility.getHeapTuple(g).toString());
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * Unit test for an Aggregate computing several aggregates grouped by
+   * several fields, in memory and spilled
+   */
+  @Test public void multipleAggregates() throws Exception {
+    int[][] rows = new int[3000][];
+    int[] ints = new int[3 * rows.length];
+    for (int i = 0; i < rows.length; ++i) {
+      // the groups of the first batches fill the memory budget.
+      rows[i] = new int[] { i / 500, (i * 13) % 5, (i * 31) % 101 };
+      System.arraycopy(rows[i], 0, ints, 3 * i, 3);
+    }
+    int[] gfields = new int[] { 0, 1 };
+    int[] afields = new int[] { 2, 2, 2 };
+    Aggregator.Op[] aops = new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM, Aggregator.Op.MAX };
+    ArrayList<String> groups = expectedGroups(rows);
+    assertEquals(30, groups.size());
+
+    Aggregate op = new Aggregate(TestUtil.createTupleList(3, ints), gfields, afields, aops);
+    TupleDesc td = op.getTupleDesc();
+    assertEquals(5, td.numFields());
+    assertEquals("sum(null)", td.getFieldName(3));
+    op.open();
+    assertEquals(groups, TestUtil.sortedStrings(op));
+    op.rewind();
+    assertEquals(groups, TestUtil.sortedStrings(op));
+    op.close();
+
+    // 10 of the 30 groups fit in memory.
+    op = new Aggregate(TestUtil.createTupleList(3, ints), gfields, afields, aops,
+        10 * (96 + 2 * 32 + 2 * Type.INT_TYPE.getLen()));
+    op.open();
+    assertEquals(groups, TestUtil.sortedStrings(op));
+    assertTrue(op.getSpilledPartitions() > 0);
+    op.close();
+
+    op = new Aggregate(TestUtil.createTupleList(3, ints), new int[0], new int[] { 0, 2 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.MIN });
+    op.open();
+    assertEquals(Arrays.asList(Utility.getHeapTuple(new int[] { 3000, 0 }).toString()), TestUtil.sortedStrings(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for several aggregates over a child sorted on the group-by
+   * field
+   */
+  @Test public void sortedMultipleAggregates() throws Exception {
+    BTreeFile index = BTreeUtility.createRandomBTreeFile(2, 3000, 100, null, null, 0);
+    TransactionId tid = new TransactionId();
+    int[] gfields = new int[] { 0 };
+    int[] afields = new int[] { 1, 1, 0 };
+    Aggregator.Op[] aops = new Aggregator.Op[] { Aggregator.Op.AVG, Aggregator.Op.MIN, Aggregator.Op.COUNT };
+    Aggregate op = new Aggregate(new SeqScan(tid, index.getId(), "t"), gfields, afields, aops);
+    ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(0, 1));
+    Aggregate expected = new Aggregate(new Project(fields, new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+        new SeqScan(tid, index.getId(), "t")), gfields, afields, aops);
+    op.open();
+    expected.open();
+    assertTrue(op.isSortedAggregation());
+    assertEquals(TestUtil.sortedStrings(expected), TestUtil.sortedStrings(op));
+    op.close();
+    expected.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for an Aggregate split among worker threads, with and without
+   * a filter, and falling back to one thread when the groups don't fit
+   */
+  @Test public void parallelAggregate() throws Exception {
+    // about 120 pages.
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 40000, 1000, null, null);
+    TransactionId tid = new TransactionId();
+    Predicate pred = new Predicate(2, Predicate.Op.LESS_THAN, new IntField(500));
+    int[][] cases = new int[][] { { 1, 0 }, { 2, 0 }, { 2, 1 } };
+    for (Aggregator.Op aop : new Aggregator.Op[] { Aggregator.Op.AVG, Aggregator.Op.MAX }) {
+      for (int[] c : cases) {
+        Aggregate expected = new Aggregate(new SeqScan(tid, table.getId(), "t"), c[0], c[1], aop);
+        expected.setParallelism(1);
+        Aggregate op = new Aggregate(new SeqScan(tid, table.getId(), "t"), c[0], c[1], aop);
+        op.setParallelism(4);
+        expected.open();
+        op.open();
+        assertEquals(1, expected.getWorkers());
+        assertEquals(4, op.getWorkers());
+        assertEquals(TestUtil.sortedStrings(expected), TestUtil.sortedStrings(op));
+        op.close();
+        expected.close();
+      }
+
+      Aggregate expected = new Aggregate(new Filter(pred, new SeqScan(tid, table.getId(), "t")), 1, 0, aop);
+      expected.setParallelism(1);
+      Aggregate op = new Aggregate(new Filter(pred, new SeqScan(tid, table.getId(), "t")), 1, 0, aop);
+      op.setParallelism(3);
+      expected.open();
+      op.open();
+      assertEquals(3, op.getWorkers());
+      assertEquals(TestUtil.sortedStrings(expected), TestUtil.sortedStrings(op));
+      op.close();
+      expected.close();
+    }
+
+    int[] gfields = new int[] { 0, 1 };
+    int[] afields = new int[] { 2, 2 };
+    Aggregator.Op[] aops = new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT };
+    Aggregate expected = new Aggregate(new SeqScan(tid, table.getId(), "t"), gfields, afields, aops);
+    expected.setParallelism(1);
+    // the 1000 groups of field 0 don't fit in a quarter of the budget.
+    Aggregate op = new Aggregate(new SeqScan(tid, table.getId(), "t"), 0, Aggregator.NO_GROUPING,
+        Aggregator.Op.COUNT);
+    Aggregate small = new Aggregate(new SeqScan(tid, table.getId(), "t"), 2, 0, Aggregator.Op.MIN,
+        2000 * (96 + Type.INT_TYPE.getLen()));
+    Aggregate multi = new Aggregate(new SeqScan(tid, table.getId(), "t"), gfields, afields, aops);
+    op.setParallelism(4);
+    small.setParallelism(4);
+    multi.setParallelism(4);
+    op.open();
+    assertEquals(Arrays.asList(Utility.getHeapTuple(new int[] { 40000 }).toString()), TestUtil.sortedStrings(op));
+    op.close();
+    small.open();
+    assertEquals(1, small.getWorkers());
+    assertEquals(1000, TestUtil.sortedStrings(small).size());
+    small.close();
+    expected.open();
+    multi.open();
+    assertEquals(4, multi.getWorkers());
+    assertEquals(TestUtil.sortedStrings(expected), TestUtil.sortedStrings(multi));
+    multi.close();
+    expected.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for queries with several aggregates and GROUP BY fields
+   */
+  @Test public void parser() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 2000, 6, null, tuples, "c");
+    Database.getCatalog().addTable(table, "at");
+    TransactionId tid = new TransactionId();
+    int[][] rows = new int[tuples.size()][];
+    for (int i = 0; i < rows.length; ++i) {
+      ArrayList<Integer> t = tuples.get(i);
+      rows[i] = new int[] { t.get(0), t.get(1), t.get(2) };
+    }
+
+    Parser p = new Parser();
+    LogicalPlan lp = p.generateLogicalPlan(tid,
+        "SELECT at.c0, at.c1, COUNT(at.c2), SUM(at.c2), MAX(at.c2) FROM at GROUP BY at.c0, at.c1;");
+    DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    plan.open();
+    assertEquals(expectedGroups(rows), TestUtil.sortedStrings(plan));
+    plan.close();
+
+    // the select list may reorder and repeat the aggregates.
+    lp = p.generateLogicalPlan(tid,
+        "SELECT MAX(at.c2), at.c1, SUM(at.c2), at.c0, COUNT(at.c2) FROM at GROUP BY at.c0, at.c1;");
+    plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    plan.open();
+    int groups = 0;
+    while (plan.hasNext()) {
+      Tuple t = plan.next();
+      Tuple g = Utility.getHeapTuple(new int[] { t.getInt(3), t.getInt(1), t.getInt(4), t.getInt(2), t.getInt(0) });
+      assertTrue(expectedGroups(rows).contains(g.toString()));
+      groups++;
+    }
+    plan.close();
+    assertEquals(expectedGroups(rows).size(), groups);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
   /**
    * JUnit suite target
    */
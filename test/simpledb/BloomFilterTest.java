@@ -0,0 +1,64 @@
+package simpledb;
+
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for BloomFilter: no false negatives, few false positives
+     */
+    @Test public void membership() {
+        BloomFilter filter = new BloomFilter(10000);
+        for (int i = 0; i < 10000; ++i) {
+            filter.add(i * 3);
+        }
+        for (int i = 0; i < 10000; ++i) {
+            assertTrue(filter.mightContain(i * 3));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; ++i) {
+            if (filter.mightContain(i * 3 + 1)) {
+                ++falsePositives;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 500);
+    }
+
+    /**
+     * Unit test for RuntimeFilter on INT and STRING fields
+     */
+    @Test public void runtimeFilter() {
+        BloomFilter bloom = new BloomFilter(2);
+        Tuple keep = Utility.getHeapTuple(new int[] { 42, 0 });
+        bloom.add(RuntimeFilter.keyHash(keep, 0));
+        RuntimeFilter filter = new RuntimeFilter(0, bloom);
+        assertTrue(filter.filter(keep));
+        int dropped = 0;
+        for (int i = 0; i < 100; ++i) {
+            if (!filter.filter(Utility.getHeapTuple(new int[] { 1000 + i, 0 }))) {
+                ++dropped;
+            }
+        }
+        assertTrue(dropped > 90);
+        assertTrue(filter.getNumTested() == 101 && filter.getNumDropped() == dropped);
+
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        Tuple s = new Tuple(td);
+        s.setString(0, "key");
+        bloom = new BloomFilter(1);
+        bloom.add(RuntimeFilter.keyHash(s, 0));
+        assertTrue(new RuntimeFilter(0, bloom).filter(s));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BloomFilterTest.class);
+    }
+}
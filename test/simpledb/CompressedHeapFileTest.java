@@ -0,0 +1,103 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private CompressedHeapFile chf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, tuples);
+        File dest = File.createTempFile("compressed", ".cdat");
+        dest.deleteOnExit();
+        new File(dest.getPath() + CompressedHeapFile.INDEX_SUFFIX).deleteOnExit();
+        chf = CompressedHeapFile.compress(hf, dest);
+        Database.getCatalog().addTable(chf, UUID.randomUUID().toString());
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for CompressedHeapFile.numPages() and the on-disk size.
+     */
+    @Test
+    public void numPages() throws Exception {
+        assertEquals(hf.numPages(), chf.numPages());
+        assertTrue(chf.getFile().length() < hf.getFile().length());
+    }
+
+    /**
+     * Unit test for CompressedHeapFile.readPage()
+     */
+    @Test
+    public void readPage() throws Exception {
+        HeapPage expected = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        HeapPage actual = (HeapPage) chf.readPage(new HeapPageId(chf.getId(), 0));
+        assertArrayEquals(expected.getPageData(), actual.getPageData());
+    }
+
+    /**
+     * Unit test for scanning a CompressedHeapFile through the BufferPool
+     */
+    @Test
+    public void testIteratorBasic() throws Exception {
+        SystemTestUtil.matchTuples(chf, tuples);
+    }
+
+    /**
+     * Unit test for writing pages back, both in place and into a new extent
+     */
+    @Test
+    public void writePage() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(tuples);
+        Random rand = new Random(660);
+        for (int i = 0; i < 200; ++i) {
+            // random values compress poorly, so the page grows out of its extent.
+            Tuple t = Utility.getHeapTuple(new int[] { rand.nextInt(), rand.nextInt() });
+            Database.getBufferPool().insertTuple(tid, chf.getId(), t);
+            expected.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().flushAllPages();
+        for (int i = 0; i < chf.numPages(); ++i) {
+            HeapPageId pid = new HeapPageId(chf.getId(), i);
+            Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            chf.writePage(page);
+        }
+
+        // reopen the file from its page index and compare the contents.
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CompressedHeapFile reopened = new CompressedHeapFile(chf.getFile(), chf.getTupleDesc());
+        assertEquals(chf.numPages(), reopened.numPages());
+        Database.getCatalog().addTable(reopened, UUID.randomUUID().toString());
+        SystemTestUtil.matchTuples(reopened, expected);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
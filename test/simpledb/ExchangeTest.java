@@ -0,0 +1,208 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  HeapFile table;
+  TransactionId tid;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTable() throws Exception {
+    // about 90 pages.
+    this.table = SystemTestUtil.createRandomHeapFile(2, 40000, 1000, null, null);
+    this.tid = new TransactionId();
+  }
+
+  /**
+   * Test that the workers of a ParallelScan read every page exactly once
+   */
+  @Test public void parallelScan() throws Exception {
+    SeqScan serial = new SeqScan(tid, table.getId(), "t");
+    serial.open();
+    ArrayList<String> expected = TestUtil.sortedStrings(serial);
+    serial.close();
+
+    for (int workers : new int[] { 1, 3, 8 }) {
+      Exchange exchange = new Exchange(new ParallelScan(tid, table.getId(), "t", 4), workers);
+      assertEquals(serial.getTupleDesc(), exchange.getTupleDesc());
+      exchange.open();
+      assertEquals(expected, TestUtil.sortedStrings(exchange));
+      exchange.rewind();
+      assertEquals(expected, TestUtil.sortedStrings(exchange));
+      exchange.close();
+    }
+  }
+
+  /**
+   * Test an Exchange over a pipeline of a Filter and a Project, read a batch
+   * at a time
+   */
+  @Test public void pipeline() throws Exception {
+    final Predicate pred = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(300));
+    final ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(1));
+    final Type[] types = new Type[] { Type.INT_TYPE };
+    DbIterator serial = new Project(fields, types, new Filter(pred, new SeqScan(tid, table.getId(), "t")));
+    serial.open();
+    ArrayList<String> expected = TestUtil.sortedStrings(serial);
+    serial.close();
+
+    Exchange exchange = new Exchange(new ParallelScan(tid, table.getId(), "t"),
+        scan -> new Project(fields, types, new Filter(pred, scan)), 4);
+    exchange.open();
+    ArrayList<String> actual = new ArrayList<String>();
+    TupleBatch batch;
+    while ((batch = exchange.nextBatch()) != null) {
+      for (int k = 0; k < batch.size(); ++k) {
+        actual.add(batch.getTuple(batch.selected(k)).toString());
+      }
+    }
+    Collections.sort(actual);
+    assertEquals(expected, actual);
+    exchange.close();
+  }
+
+  /**
+   * Test Exchange.of() and an Aggregate over an Exchange
+   */
+  @Test public void of() throws Exception {
+    Predicate pred = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(100));
+    DbIterator serial = new Filter(pred, new SeqScan(tid, table.getId(), "t"));
+    Exchange exchange = Exchange.of(new Filter(pred, new SeqScan(tid, table.getId(), "t")), 4);
+    assertEquals(4, exchange.getParallelism());
+    serial.open();
+    exchange.open();
+    assertEquals(TestUtil.sortedStrings(serial), TestUtil.sortedStrings(exchange));
+    exchange.close();
+    serial.close();
+
+    // too small for a morsel per worker, or not a scan of a heap file.
+    HeapFile small = SystemTestUtil.createRandomHeapFile(2, 100, 1000, null, null);
+    assertNull(Exchange.of(new SeqScan(tid, small.getId(), "s"), 4));
+    assertNull(Exchange.of(new OrderBy(0, true, new SeqScan(tid, table.getId(), "t")), 4));
+
+    Aggregate expected = new Aggregate(new SeqScan(tid, table.getId(), "t"), 1, 0, Aggregator.Op.SUM);
+    expected.setParallelism(1);
+    Aggregate agg = new Aggregate(new Exchange(new ParallelScan(tid, table.getId(), "t"), 3),
+        1, 0, Aggregator.Op.SUM);
+    agg.setParallelism(3);
+    expected.open();
+    agg.open();
+    assertEquals(3, agg.getWorkers());
+    assertEquals(TestUtil.sortedStrings(expected), TestUtil.sortedStrings(agg));
+    agg.close();
+    expected.close();
+  }
+
+  /**
+   * Test that the planner scans a table in parallel only if asked to, and
+   * that both plans return the same tuples
+   */
+  @Test public void logicalPlan() throws Exception {
+    HeapFile named = SystemTestUtil.createRandomHeapFile(2, 40000, 1000, null, null, "c");
+    Database.getCatalog().addTable(named, "par");
+    TableStats.setTableStats("par", new TableStats(named.getId(), TableStats.IOCOSTPERPAGE));
+    String query = "SELECT t.c0 FROM par t WHERE t.c1 > 100;";
+    Parser p = new Parser();
+
+    DbIterator serial = p.generateLogicalPlan(tid, query).physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertNull(findExchange(serial));
+    LogicalPlan lp = p.generateLogicalPlan(tid, query);
+    lp.setParallelism(4);
+    DbIterator parallel = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    Exchange exchange = findExchange(parallel);
+    assertEquals(4, exchange.getParallelism());
+    // the child is the plan of a worker, and reading it builds nothing.
+    DbIterator child = exchange.getChildren()[0];
+    assertTrue(child == exchange.getChildren()[0]);
+    assertEquals(exchange.getTupleDesc(), child.getTupleDesc());
+
+    serial.open();
+    parallel.open();
+    assertEquals(TestUtil.sortedStrings(serial), TestUtil.sortedStrings(parallel));
+    parallel.close();
+    serial.close();
+  }
+
+  private static Exchange findExchange(DbIterator plan) {
+    while (plan instanceof Operator && !(plan instanceof Exchange)) {
+      DbIterator[] children = ((Operator) plan).getChildren();
+      if (children == null || children.length == 0) {
+        return null;
+      }
+      plan = children[0];
+    }
+    return plan instanceof Exchange ? (Exchange) plan : null;
+  }
+
+  /**
+   * Test that an error of a worker is thrown to the consumer, and that an
+   * Exchange can be closed before its workers are done
+   */
+  @Test public void errorsAndClose() throws Exception {
+    Exchange failing = new Exchange(new ParallelScan(tid, table.getId(), "t"), scan -> new Operator() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        throw new DbException("worker failed");
+      }
+
+      @Override
+      public void rewind() {
+      }
+
+      @Override
+      public TupleDesc getTupleDesc() {
+        return scan.getTupleDesc();
+      }
+
+      @Override
+      public DbIterator[] getChildren() {
+        return new DbIterator[] { scan };
+      }
+
+      @Override
+      public void setChildren(DbIterator[] children) {
+      }
+    }, 2);
+    failing.open();
+    try {
+      TestUtil.sortedStrings(failing);
+      throw new Exception("Exchange swallowed the error of a worker");
+    } catch (DbException e) {
+      assertEquals("worker failed", e.getMessage());
+    }
+    failing.close();
+
+    Exchange exchange = new Exchange(new ParallelScan(tid, table.getId(), "t", 1), 4);
+    exchange.open();
+    assertTrue(exchange.hasNext());
+    exchange.next();
+    exchange.close();
+    exchange.open();
+    assertEquals(40000, TestUtil.sortedStrings(exchange).size());
+    exchange.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
@@ -0,0 +1,133 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class FetchTest extends SimpleDbTestBase {
+
+  static final int ROWS = 3000;
+  HeapFile f;
+  TransactionId tid;
+
+  /**
+   * Initialize each unit test: a table of (id, name, x) with name "name"
+   * followed by id and x = id % 10
+   */
+  @Before public void createTable() throws Exception {
+    File csv = File.createTempFile("fetch", ".txt");
+    csv.deleteOnExit();
+    FileWriter out = new FileWriter(csv);
+    for (int i = 0; i < ROWS; ++i) {
+      out.write(i + ",name" + i + "," + (i % 10) + "\n");
+    }
+    out.close();
+    File data = File.createTempFile("fetch", ".dat");
+    data.deleteOnExit();
+    Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+    HeapFileEncoder.convert(csv, data, BufferPool.getPageSize(), 3, types);
+    this.f = new HeapFile(data, new TupleDesc(types, new String[] { "id", "name", "x" }));
+    Database.getCatalog().addTable(f, "ft");
+    TableStats.setTableStats("ft", new TableStats(f.getId(), TableStats.IOCOSTPERPAGE));
+    this.tid = new TransactionId();
+  }
+
+  /**
+   * Test a scan of some fields and the row id, whose tuples keep their
+   * RecordIds
+   */
+  @Test public void projectedScan() throws Exception {
+    SeqScan scan = new SeqScan(tid, f.getId(), "t", new int[] { 2, HeapFile.ROWID_FIELD });
+    assertEquals(2, scan.getTupleDesc().numFields());
+    assertEquals("t.x", scan.getTupleDesc().getFieldName(0));
+    assertEquals("t." + SeqScan.ROWID_NAME, scan.getTupleDesc().getFieldName(1));
+    scan.addPredicate(new Predicate(0, Predicate.Op.EQUALS, new IntField(3)));
+    scan.open();
+    int n = 0;
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      assertEquals(3, t.getInt(0));
+      assertEquals(t.getRecordId(), f.recordId(t.getInt(1)));
+      ++n;
+    }
+    scan.close();
+    assertEquals(ROWS / 10, n);
+  }
+
+  /**
+   * Test that Fetch appends the fields of the tuples by row id
+   */
+  @Test public void fetch() throws Exception {
+    SeqScan scan = new SeqScan(tid, f.getId(), "t", new int[] { 0, HeapFile.ROWID_FIELD });
+    scan.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100)));
+    Fetch fetch = new Fetch(tid, scan, 1, f.getId(), "t", new int[] { 2, 1 });
+    assertEquals("t.name", fetch.getTupleDesc().getFieldName(3));
+    fetch.open();
+    int n = 0;
+    while (fetch.hasNext()) {
+      Tuple t = fetch.next();
+      assertEquals(t.getInt(0) % 10, t.getInt(2));
+      assertEquals("name" + t.getInt(0), t.getString(3));
+      ++n;
+    }
+    assertEquals(100, n);
+    fetch.rewind();
+    assertTrue(fetch.hasNext());
+    fetch.close();
+  }
+
+  /**
+   * Test that the planner scans the fields a query needs and fetches the
+   * selected STRING fields late
+   */
+  @Test public void logicalPlan() throws Exception {
+    Parser p = new Parser();
+    DbIterator plan = p.generateLogicalPlan(tid, "SELECT t.name, t.x FROM ft t WHERE t.id < 50;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    DbIterator it = plan;
+    boolean fetched = false;
+    while (!(it instanceof SeqScan)) {
+      fetched |= it instanceof Fetch;
+      it = ((Operator) it).getChildren()[0];
+    }
+    assertTrue(fetched);
+    assertTrue(Arrays.equals(new int[] { 0, 2, HeapFile.ROWID_FIELD }, ((SeqScan) it).getFields()));
+
+    HashSet<String> names = new HashSet<String>();
+    plan.open();
+    while (plan.hasNext()) {
+      Tuple t = plan.next();
+      assertEquals(2, t.getTupleDesc().numFields());
+      names.add(t.getString(0));
+    }
+    plan.close();
+    assertEquals(50, names.size());
+    assertTrue(names.contains("name49"));
+
+    // SELECT * keeps all the fields in the scan.
+    plan = p.generateLogicalPlan(tid, "SELECT * FROM ft t WHERE t.id < 50;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    while (!(plan instanceof SeqScan)) {
+      assertTrue(!(plan instanceof Fetch));
+      plan = ((Operator) plan).getChildren()[0];
+    }
+    assertEquals(null, ((SeqScan) plan).getFields());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(FetchTest.class);
+  }
+}
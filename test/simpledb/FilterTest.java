@@ -3,12 +3,16 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 
 public class FilterTest extends SimpleDbTestBase {
 
@@ -120,6 +124,77 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * Test that the filters of a query on a heap file are pushed into its
+   * scan
+   */
+  @Test public void pushdown() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, null, "c");
+    String name = "pushdown";
+    Database.getCatalog().addTable(f, name);
+    TableStats.setTableStats(name, new TableStats(f.getId(), TableStats.IOCOSTPERPAGE));
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+        "SELECT t.c0 FROM " + name + " t WHERE t.c0 < 100 AND t.c1 > 500;");
+    DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    while (!(plan instanceof SeqScan)) {
+      assertTrue(!(plan instanceof Filter));
+      plan = ((Operator) plan).getChildren()[0];
+    }
+    assertEquals(2, ((SeqScan) plan).getPredicates().size());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Test that a query with OR evaluates its expression in one Filter over
+   * the scan, and that OR expressions over several tables are rejected
+   */
+  @Test public void disjunction() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, tuples, "c");
+    String name = "disjunction";
+    Database.getCatalog().addTable(f, name);
+    TableStats.setTableStats(name, new TableStats(f.getId(), TableStats.IOCOSTPERPAGE));
+    TransactionId tid = new TransactionId();
+    Parser p = new Parser();
+    DbIterator plan = p.generateLogicalPlan(tid, "SELECT * FROM " + name
+        + " t WHERE t.c0 < 500 AND (t.c0 < 100 OR t.c1 > 900 OR (t.c0 > 400 AND t.c1 < 50));")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    int expected = 0;
+    for (ArrayList<Integer> t : tuples) {
+      int c0 = t.get(0), c1 = t.get(1);
+      if (c0 < 500 && (c0 < 100 || c1 > 900 || (c0 > 400 && c1 < 50))) {
+        expected++;
+      }
+    }
+    assertEquals(expected, TestUtil.sortedStrings(open(plan)).size());
+
+    DbIterator it = plan;
+    while (!(it instanceof Filter)) {
+      it = ((Operator) it).getChildren()[0];
+    }
+    PredicateTree tree = ((Filter) it).getPredicateTree();
+    assertEquals(PredicateTree.Kind.OR, tree.getKind());
+    assertEquals(3, tree.getChildren().length);
+    SeqScan scan = (SeqScan) ((Filter) it).getChildren()[0];
+    assertEquals(1, scan.getPredicates().size());
+    plan.close();
+
+    Database.getCatalog().addTable(SystemTestUtil.createRandomHeapFile(1, 10, null, null, "d"), "other");
+    try {
+      p.generateLogicalPlan(tid, "SELECT * FROM " + name + " t, other o WHERE t.c0 = o.d0 AND (t.c0 < 1 OR o.d0 > 1);");
+      assertTrue(false);
+    } catch (ParsingException e) {
+      // expected
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private static DbIterator open(DbIterator it) throws Exception {
+    it.open();
+    return it;
+  }
+
   /**
    * JUnit suite target
    */
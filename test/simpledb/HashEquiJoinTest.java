@@ -9,6 +9,7 @@ import org.junit.Before;
 import org.junit.Test;
 import java.util.ArrayList;
 import java.io.IOException;
+import java.util.Comparator;
 import java.util.HashMap;
 
 import simpledb.systemtest.SystemTestUtil;
@@ -130,6 +131,110 @@ public class HashEquiJoinTest extends SimpleDbTestBase {
       validateJoin(1,10,1,30001);
   }
 
+  /**
+   * Unit test for a join whose build side doesn't fit in the memory budget
+   */
+  @Test public void spillJoin() throws Exception {
+      HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 2000, 500, null, null);
+      HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 1000, 500, null, null);
+      TransactionId tid = new TransactionId();
+      JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+      int budget = 200 * table1.getTupleDesc().getSize();
+
+      ArrayList<ArrayList<Integer>> expected = TestUtil.drainSortedTuples(new BlockNestedLoopJoin(p,
+              new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), "")));
+      HashEquiJoin joinOp = new HashEquiJoin(p,
+              new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""), budget);
+      assertEquals(expected, TestUtil.drainSortedTuples(joinOp));
+      assertTrue(joinOp.getSpilledPartitions() > 0);
+      assertTrue(joinOp.getSpilledBytes() > 0);
+
+      // the batch path must produce the spilled partitions as well.
+      joinOp.open();
+      ArrayList<ArrayList<Integer>> actual = new ArrayList<ArrayList<Integer>>();
+      TupleBatch batch;
+      while ((batch = joinOp.nextBatch()) != null) {
+          for (int k = 0; k < batch.size(); ++k) {
+              actual.add(SystemTestUtil.tupleToList(batch.getTuple(batch.selected(k))));
+          }
+      }
+      joinOp.close();
+      actual.sort(Comparator.comparing(Object::toString));
+      assertEquals(expected, actual);
+      Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for the runtime filter HashEquiJoin installs on a probe-side
+   * scan under a Filter, on both the tuple and the batch path
+   */
+  @Test public void runtimeFilter() throws Exception {
+      HeapFile build = SystemTestUtil.createRandomHeapFile(COLUMNS, 20, 10000, null, null);
+      HeapFile probe = SystemTestUtil.createRandomHeapFile(COLUMNS, 5000, 10000, null, null);
+      TransactionId tid = new TransactionId();
+      JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+      Predicate all = new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0));
+
+      ArrayList<ArrayList<Integer>> expected = TestUtil.drainSortedTuples(new BlockNestedLoopJoin(p,
+              new SeqScan(tid, build.getId(), ""), new SeqScan(tid, probe.getId(), "")));
+      SeqScan probeScan = new SeqScan(tid, probe.getId(), "");
+      HashEquiJoin joinOp = new HashEquiJoin(p,
+              new SeqScan(tid, build.getId(), ""), new Filter(all, probeScan));
+      assertEquals(expected, TestUtil.drainSortedTuples(joinOp));
+      RuntimeFilter filter = joinOp.getRuntimeFilter();
+      assertNotNull(filter);
+      assertEquals(5000, filter.getNumTested());
+      // at most 20 distinct keys of 10000 can join; a few more pass by chance.
+      assertTrue(filter.getNumDropped() > 4500);
+
+      joinOp.open();
+      ArrayList<ArrayList<Integer>> actual = new ArrayList<ArrayList<Integer>>();
+      TupleBatch batch;
+      while ((batch = joinOp.nextBatch()) != null) {
+          for (int k = 0; k < batch.size(); ++k) {
+              actual.add(SystemTestUtil.tupleToList(batch.getTuple(batch.selected(k))));
+          }
+      }
+      joinOp.close();
+      actual.sort(Comparator.comparing(Object::toString));
+      assertEquals(expected, actual);
+      assertTrue(joinOp.getRuntimeFilter().getNumDropped() > 4500);
+
+      // the filter is removed from the scan when the join is closed.
+      assertEquals(5000, TestUtil.drainSortedTuples(probeScan).size());
+
+      // a filter sized for more keys than the budget allows is capped, and
+      // its bytes make the build side spill.
+      int budget = 20 * build.getTupleDesc().getSize();
+      joinOp = new HashEquiJoin(p, new SeqScan(tid, build.getId(), ""),
+              new Filter(all, new SeqScan(tid, probe.getId(), "")), budget);
+      joinOp.setExpectedBuildTuples(1000000);
+      assertEquals(expected, TestUtil.drainSortedTuples(joinOp));
+      assertTrue(joinOp.getSpilledPartitions() > 0);
+      assertTrue(joinOp.getRuntimeFilter().getNumDropped() > 4000);
+      Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for a spilling join where every key is the same, so that
+   * repartitioning never helps
+   */
+  @Test public void spillSkewedJoin() throws Exception {
+      HashMap<Integer, Integer> columnSpecification = new HashMap<Integer, Integer>();
+      columnSpecification.put(0, 1);
+      HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 500, columnSpecification, null);
+      HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 20, columnSpecification, null);
+      TransactionId tid = new TransactionId();
+      JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+      int budget = 50 * table1.getTupleDesc().getSize();
+
+      HashEquiJoin joinOp = new HashEquiJoin(p,
+              new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""), budget);
+      assertEquals(500 * 20, TestUtil.drainSortedTuples(joinOp).size());
+      assertTrue(joinOp.getSpilledPartitions() >= HashEquiJoin.MAX_RECURSION_DEPTH);
+      Database.getBufferPool().transactionComplete(tid);
+  }
+
   /**
    * JUnit suite target
    */
@@ -99,6 +99,36 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator(Predicate[]), which tests the bytes of
+     * tuples that haven't been decoded, and the decoded tuples otherwise
+     */
+    @Test public void testPredicateIterator() throws Exception {
+        Predicate[] preds = new Predicate[] {
+            new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(20000)),
+            new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(44947)) };
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int[] tuple : EXAMPLE_VALUES) {
+            if (tuple[0] > 20000 && tuple[1] <= 44947) {
+                expected.add(tuple[0]);
+            }
+        }
+
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int pass = 0; pass < 2; ++pass) {
+            ArrayList<Integer> actual = new ArrayList<Integer>();
+            Iterator<Tuple> it = page.iterator(preds);
+            while (it.hasNext()) {
+                actual.add(((IntField) it.next().getField(0)).getValue());
+            }
+            assertEquals(expected, actual);
+            // the second pass reads the decoded tuples.
+            page.iterator();
+        }
+        assertFalse(page.iterator(new Predicate[] {
+            new Predicate(1, Predicate.Op.EQUALS, new IntField(-1)) }).hasNext());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
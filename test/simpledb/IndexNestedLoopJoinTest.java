@@ -0,0 +1,149 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+  private BTreeFile index;
+  private HeapFile heap;
+  private TransactionId tid;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    // 20000 rows over 1000 keys, so that runs of equal keys span leaf pages
+    index = BTreeUtility.createRandomBTreeFile(2, 20000, 1000, null, null, 0);
+    heap = SystemTestUtil.createRandomHeapFile(2, 10, 10, null, null);
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private void checkJoin(int[] outer) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    ArrayList<ArrayList<Integer>> expected = TestUtil.drainSortedTuples(new BlockNestedLoopJoin(pred,
+        TestUtil.createTupleList(1, outer), new SeqScan(tid, index.getId(), "t")));
+    ArrayList<ArrayList<Integer>> actual = TestUtil.drainSortedTuples(new IndexNestedLoopJoin(pred,
+        TestUtil.createTupleList(1, outer), new SeqScan(tid, index.getId(), "t")));
+    assertTrue(expected.size() > 0);
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.getNext() with a sorted outer
+   * relation, including repeated and missing keys
+   */
+  @Test public void sortedOuter() throws Exception {
+    checkJoin(new int[] { -5, 0, 1, 1, 2, 17, 17, 18, 400, 401, 999, 1000, 1001, 5000 });
+
+    int[] outer = new int[1000];
+    for (int i = 0; i < outer.length; ++i) {
+      outer[i] = i;
+    }
+    IndexNestedLoopJoin op = new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        TestUtil.createTupleList(1, outer), new SeqScan(tid, index.getId(), "t"));
+    op.open();
+    while (op.hasNext()) {
+      op.next();
+    }
+    assertEquals(1000, op.getNumProbes());
+    // about 20 keys per leaf page, so most probes start at the previous leaf
+    assertTrue(op.getNumLeafReuses() > 800);
+    op.close();
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.getNext() with an unsorted outer
+   * relation
+   */
+  @Test public void unsortedOuter() throws Exception {
+    checkJoin(new int[] { 500, 3, 999, 3, 0, 250, 251, 2, 700 });
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.indexOn()
+   */
+  @Test public void indexOn() throws Exception {
+    assertEquals(index, IndexNestedLoopJoin.indexOn(new SeqScan(tid, index.getId(), "t"), 0));
+    assertNull(IndexNestedLoopJoin.indexOn(new SeqScan(tid, index.getId(), "t"), 1));
+    assertNull(IndexNestedLoopJoin.indexOn(new SeqScan(tid, heap.getId(), "h"), 0));
+    // the probes would skip the predicates of the scan.
+    SeqScan filtered = new SeqScan(tid, index.getId(), "t");
+    filtered.addPredicate(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500)));
+    assertNull(IndexNestedLoopJoin.indexOn(filtered, 0));
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin with a non-equality predicate
+   */
+  @Test(expected = IllegalArgumentException.class) public void rangePredicate() {
+    new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0),
+        new SeqScan(tid, heap.getId(), "h"), new SeqScan(tid, index.getId(), "t"));
+  }
+
+  private ArrayList<ArrayList<Integer>> query(String sql) throws Exception {
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+    return TestUtil.drainSortedTuples(lp.physicalPlan(tid, TableStats.getStatsMap(), false));
+  }
+
+  /**
+   * Test that the planner scans tables stored in a BTreeFile, and probes
+   * their index in a join
+   */
+  @Test public void logicalPlan() throws Exception {
+    // the same files, with field names the parser can refer to.
+    Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+    index = new BTreeFile(index.getFile(), 0, new TupleDesc(types, new String[] { "k", "v" }));
+    heap = new HeapFile(heap.getFile(), new TupleDesc(types, new String[] { "k", "v" }));
+    Database.getCatalog().addTable(index, "bt");
+    Database.getCatalog().addTable(heap, "ht");
+    TableStats.setTableStats("bt", new TableStats(index.getId(), TableStats.IOCOSTPERPAGE));
+    TableStats.setTableStats("ht", new TableStats(heap.getId(), TableStats.IOCOSTPERPAGE));
+
+    assertEquals(20000, query("SELECT * FROM bt;").size());
+    Predicate five = new Predicate(0, Predicate.Op.EQUALS, new IntField(5));
+    assertEquals(TestUtil.drainSortedTuples(new Filter(five, new SeqScan(tid, index.getId(), "t"))).size(),
+        query("SELECT bt.v FROM bt WHERE bt.k = 5;").size());
+
+    String sql = "SELECT * FROM ht, bt WHERE ht.k = bt.k;";
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+    DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    while (!(plan instanceof IndexNestedLoopJoin)) {
+      plan = ((Operator) plan).getChildren()[0];
+    }
+    ArrayList<ArrayList<Integer>> expected = TestUtil.drainSortedTuples(new BlockNestedLoopJoin(
+        new JoinPredicate(0, Predicate.Op.EQUALS, 0), new SeqScan(tid, heap.getId(), "h"),
+        new SeqScan(tid, index.getId(), "t")));
+    assertEquals(expected.size(), query(sql).size());
+
+    // a filter on the indexed table is kept.
+    Predicate small = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500));
+    expected = TestUtil.drainSortedTuples(new BlockNestedLoopJoin(
+        new JoinPredicate(0, Predicate.Op.EQUALS, 0), new SeqScan(tid, heap.getId(), "h"),
+        new Filter(small, new SeqScan(tid, index.getId(), "t"))));
+    assertEquals(expected, query("SELECT * FROM ht, bt WHERE ht.k = bt.k AND bt.v < 500;"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
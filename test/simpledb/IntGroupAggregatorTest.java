@@ -0,0 +1,214 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntGroupAggregatorTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  DbIterator scan1;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleList() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    1, 4,
+                    1, 6,
+                    3, 2,
+                    3, 4,
+                    3, 6,
+                    5, 7 });
+  }
+
+  /**
+   * Test IntGroupAggregator.mergeTupleIntoGroup() and iterator() against
+   * IntegerAggregator for every operator
+   */
+  @Test public void mergeAll() throws Exception {
+    Aggregator.Op[] ops = new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT };
+    for (Aggregator.Op op : ops) {
+      scan1.open();
+      IntGroupAggregator agg = new IntGroupAggregator(0, 1, op);
+      IntegerAggregator expected = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+      while (scan1.hasNext()) {
+        Tuple t = scan1.next();
+        agg.mergeTupleIntoGroup(t);
+        expected.mergeTupleIntoGroup(t);
+        DbIterator it = agg.iterator();
+        it.open();
+        DbIterator exp = expected.iterator();
+        exp.open();
+        TestUtil.matchAllTuples(exp, it);
+      }
+      assertEquals(3, agg.numGroups());
+      scan1.close();
+    }
+  }
+
+  /**
+   * Test IntGroupAggregator.mergeBatch() with many groups, so that the
+   * table grows
+   */
+  @Test public void mergeBatch() throws Exception {
+    int[] ints = new int[2 * 20000];
+    for (int i = 0; i < 20000; ++i) {
+      ints[2 * i] = (i * 7919) % 5000 - 2500;
+      ints[2 * i + 1] = i;
+    }
+    IntGroupAggregator agg = new IntGroupAggregator(0, 1, Aggregator.Op.SUM);
+    IntegerAggregator expected = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    BatchDbIterator batches = BatchAdapter.of(TestUtil.createTupleList(2, ints));
+    batches.open();
+    TupleBatch batch;
+    while ((batch = batches.nextBatch()) != null) {
+      agg.mergeBatch(batch);
+      expected.mergeBatch(batch);
+    }
+    assertEquals(5000, agg.numGroups());
+    assertTrue(agg.hasGroup(Utility.getHeapTuple(new int[] { -2500, 0 })));
+    assertFalse(agg.hasGroup(Utility.getHeapTuple(new int[] { 2500, 0 })));
+
+    ArrayList<String> actual = new ArrayList<String>();
+    ArrayList<String> exp = new ArrayList<String>();
+    DbIterator it = agg.iterator();
+    it.open();
+    while (it.hasNext()) {
+      actual.add(it.next().toString());
+    }
+    it = expected.iterator();
+    it.open();
+    while (it.hasNext()) {
+      exp.add(it.next().toString());
+    }
+    Collections.sort(actual);
+    Collections.sort(exp);
+    assertEquals(exp, actual);
+  }
+
+  /**
+   * Test IntGroupAggregator.merge() and IntegerAggregator.merge() of partial
+   * aggregators for every operator
+   */
+  @Test public void mergePartials() throws Exception {
+    Aggregator.Op[] ops = new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT };
+    for (Aggregator.Op op : ops) {
+      IntegerAggregator expected = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+      IntGroupAggregator[] partials = new IntGroupAggregator[3];
+      IntegerAggregator[] boxedPartials = new IntegerAggregator[3];
+      for (int p = 0; p < 3; ++p) {
+        partials[p] = new IntGroupAggregator(0, 1, op);
+        boxedPartials[p] = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+      }
+      scan1.open();
+      // the first tuple of every group goes to a different partial.
+      for (int i = 0; scan1.hasNext(); ++i) {
+        Tuple t = scan1.next();
+        expected.mergeTupleIntoGroup(t);
+        partials[i % 3].mergeTupleIntoGroup(t);
+        boxedPartials[i % 3].mergeTupleIntoGroup(t);
+      }
+      scan1.close();
+      for (int p = 1; p < 3; ++p) {
+        partials[0].merge(partials[p]);
+        boxedPartials[0].merge(boxedPartials[p]);
+      }
+      assertEquals(3, partials[0].numGroups());
+      DbIterator exp = expected.iterator();
+      exp.open();
+      DbIterator it = partials[0].iterator();
+      it.open();
+      TestUtil.matchAllTuples(exp, it);
+      it = boxedPartials[0].iterator();
+      it.open();
+      TestUtil.matchAllTuples(exp, it);
+    }
+  }
+
+  /**
+   * Test that sums are computed without overflow, and that a result which
+   * doesn't fit in an INT field is an error
+   */
+  @Test public void overflow() throws Exception {
+    DbIterator big = TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE,
+                    1, Integer.MAX_VALUE,
+                    1, Integer.MAX_VALUE });
+    IntGroupAggregator avg = new IntGroupAggregator(0, 1, Aggregator.Op.AVG);
+    IntGroupAggregator sum = new IntGroupAggregator(0, 1, Aggregator.Op.SUM);
+    big.open();
+    while (big.hasNext()) {
+      Tuple t = big.next();
+      avg.mergeTupleIntoGroup(t);
+      sum.mergeTupleIntoGroup(t);
+    }
+    DbIterator it = avg.iterator();
+    it.open();
+    assertEquals(Integer.MAX_VALUE, it.next().getInt(1));
+
+    it = sum.iterator();
+    it.open();
+    try {
+      it.next();
+      throw new Exception("IntGroupAggregator returned an overflowed SUM");
+    } catch (DbException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Test IntGroupAggregator.iterator() for DbIterator behaviour
+   */
+  @Test public void testIterator() throws Exception {
+    scan1.open();
+    IntGroupAggregator agg = new IntGroupAggregator(0, 1, Aggregator.Op.SUM);
+    while (scan1.hasNext()) {
+      agg.mergeTupleIntoGroup(scan1.next());
+    }
+
+    DbIterator it = agg.iterator();
+    it.open();
+    int count = 0;
+    while (it.hasNext()) {
+      it.next();
+      count++;
+    }
+    assertEquals(3, count);
+
+    it.rewind();
+    count = 0;
+    while (it.hasNext()) {
+      it.next();
+      count++;
+    }
+    assertEquals(3, count);
+
+    it.close();
+    try {
+      it.next();
+      throw new Exception("IntGroupAggregator iterator yielded tuple after close");
+    } catch (Exception e) {
+      // explicitly ignored
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IntGroupAggregatorTest.class);
+  }
+}
@@ -0,0 +1,55 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntHistogramTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for IntHistogram.estimateSelectivity() on uniform values
+     */
+    @Test public void uniform() {
+        IntHistogram h = new IntHistogram(10, 1, 100);
+        for (int v = 1; v <= 100; ++v) {
+            h.addValue(v);
+        }
+        assertEquals(0.01, h.estimateSelectivity(Predicate.Op.EQUALS, 42), 1e-9);
+        assertEquals(0.99, h.estimateSelectivity(Predicate.Op.NOT_EQUALS, 42), 1e-9);
+        assertEquals(0.5, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 50), 1e-9);
+        assertEquals(0.51, h.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, 50), 1e-9);
+        assertEquals(0.49, h.estimateSelectivity(Predicate.Op.LESS_THAN, 50), 1e-9);
+        assertEquals(0.5, h.estimateSelectivity(Predicate.Op.LESS_THAN_OR_EQ, 50), 1e-9);
+        assertEquals(0.0, h.estimateSelectivity(Predicate.Op.EQUALS, 101), 1e-9);
+        assertEquals(1.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN, -5), 1e-9);
+        assertEquals(0.0, h.estimateSelectivity(Predicate.Op.LESS_THAN, 1), 1e-9);
+        assertEquals(0.01, h.avgSelectivity(), 1e-9);
+    }
+
+    /**
+     * Unit test for IntHistogram with more buckets than values and skew
+     */
+    @Test public void skewed() {
+        IntHistogram h = new IntHistogram(100, 0, 9);
+        for (int i = 0; i < 90; ++i) {
+            h.addValue(0);
+        }
+        for (int v = 1; v <= 9; ++v) {
+            h.addValue(v);
+        }
+        assertEquals(90.0 / 99, h.estimateSelectivity(Predicate.Op.EQUALS, 0), 1e-9);
+        assertEquals(9.0 / 99, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 0), 1e-9);
+        assertTrue(h.avgSelectivity() > 0.5);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntHistogramTest.class);
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class JoinOptimizerTest extends SimpleDbTestBase {
+  private HeapFile small, large;
+  private BTreeFile index;
+  private TransactionId tid;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    small = SystemTestUtil.createRandomHeapFile(2, 10, 1000, null, null, "c");
+    large = SystemTestUtil.createRandomHeapFile(2, 20000, 1000, null, null, "c");
+    // reopen the index with named fields, replacing it in the catalog.
+    index = BTreeUtility.createRandomBTreeFile(2, 20000, 1000, null, null, 0);
+    index = BTreeUtility.openBTreeFile(2, "c", index.getFile(), 0);
+    for (DbFile f : new DbFile[] { small, large, index }) {
+      TableStats.setTableStats(Database.getCatalog().getTableName(f.getId()),
+          new TableStats(f.getId(), TableStats.IOCOSTPERPAGE));
+    }
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private LogicalJoinNode join(DbIterator plan1, DbIterator plan2, Predicate.Op op) {
+    LogicalJoinNode lj = new LogicalJoinNode("t1", "t2", "t1.f", "t2.f", op);
+    lj.f1QuantifiedName = plan1.getTupleDesc().getFieldName(0);
+    lj.f2QuantifiedName = plan2.getTupleDesc().getFieldName(0);
+    return lj;
+  }
+
+  private DbIterator scan(DbFile f) {
+    return new SeqScan(tid, f.getId(), "t");
+  }
+
+  /**
+   * Unit test for TableStats-based plan cardinalities
+   */
+  @Test public void estimatePlanCardinality() {
+    assertEquals(20000, JoinOptimizer.estimatePlanCardinality(scan(large)));
+    int half = JoinOptimizer.estimatePlanCardinality(new Filter(
+        new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500)), scan(large)));
+    assertTrue(half > 8000 && half < 12000);
+    assertEquals(JoinOptimizer.DEFAULT_CARDINALITY, JoinOptimizer.estimatePlanCardinality(
+        TestUtil.createTupleList(1, new int[] { 1 })));
+  }
+
+  /**
+   * Unit test for JoinOptimizer.instantiateJoin() choosing the join
+   * operator from the predicate, the cardinalities and the indexes
+   */
+  @Test public void instantiateJoin() throws Exception {
+    LogicalJoinNode lj = join(scan(large), scan(large), Predicate.Op.EQUALS);
+    DbIterator hashJoin = JoinOptimizer.instantiateJoin(lj, scan(large), scan(large));
+    // a heap file probe side is joined in parallel on a multiprocessor.
+    assertTrue(Exchange.DEFAULT_PARALLELISM > 1 ? hashJoin instanceof ParallelHashJoin
+        : hashJoin instanceof HashEquiJoin);
+    assertEquals(JoinOptimizer.JoinAlgorithm.HASH, lj.algorithm);
+
+    lj = join(scan(large), scan(large), Predicate.Op.GREATER_THAN);
+    assertTrue(JoinOptimizer.instantiateJoin(lj, scan(small), scan(large)) instanceof BlockNestedLoopJoin);
+    assertEquals(JoinOptimizer.JoinAlgorithm.BLOCK_NESTED_LOOP, lj.algorithm);
+
+    // a few outer tuples probe the index instead of scanning the inner table.
+    lj = join(scan(small), scan(index), Predicate.Op.EQUALS);
+    assertTrue(JoinOptimizer.instantiateJoin(lj, scan(small), scan(index)) instanceof IndexNestedLoopJoin);
+    // many outer tuples are cheaper to hash.
+    lj = join(scan(large), scan(index), Predicate.Op.EQUALS);
+    assertTrue(JoinOptimizer.instantiateJoin(lj, scan(large), scan(index)) instanceof HashEquiJoin);
+
+    // sorted inputs are merged.
+    lj = join(scan(index), scan(index), Predicate.Op.EQUALS);
+    assertTrue(JoinOptimizer.instantiateJoin(lj, scan(index), new OrderBy(0, true, scan(large)))
+        instanceof SortMergeJoin);
+    assertEquals(JoinOptimizer.JoinAlgorithm.SORT_MERGE, lj.algorithm);
+    assertTrue(lj.algorithmCost > 0);
+  }
+
+  /**
+   * Unit test for JoinOptimizer.estimateJoinCost() for each algorithm
+   */
+  @Test public void estimateJoinCost() {
+    double nl = JoinOptimizer.estimateJoinCost(JoinOptimizer.JoinAlgorithm.NESTED_LOOP,
+        1000, 1000, 100, 100, 8, null);
+    double bnl = JoinOptimizer.estimateJoinCost(JoinOptimizer.JoinAlgorithm.BLOCK_NESTED_LOOP,
+        1000, 1000, 100, 100, 8, null);
+    double hash = JoinOptimizer.estimateJoinCost(JoinOptimizer.JoinAlgorithm.HASH,
+        1000, 1000, 100, 100, 8, null);
+    double merge = JoinOptimizer.estimateJoinCost(JoinOptimizer.JoinAlgorithm.SORT_MERGE,
+        1000, 1000, 100, 100, 8, null);
+    assertTrue(merge < hash && hash < bnl && bnl < nl);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(JoinOptimizerTest.class);
+  }
+}
@@ -0,0 +1,180 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LimitTest extends SimpleDbTestBase {
+    private HeapFile table;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // few distinct values, so that TopN has to break many ties.
+        table = SystemTestUtil.createRandomHeapFile(2, 3000, 50, null, null, "c");
+        Database.getCatalog().addTable(table, "lt");
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private DbIterator scan() {
+        return new SeqScan(tid, table.getId(), "lt");
+    }
+
+    /**
+     * Counts the tuples pulled from a child and whether it is open.
+     */
+    private static class CountingIterator extends Operator {
+        private static final long serialVersionUID = 1L;
+        private final DbIterator child;
+        int pulled = 0;
+        boolean open = false;
+
+        CountingIterator(DbIterator child) {
+            this.child = child;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            open = true;
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+            open = false;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (!child.hasNext()) {
+                return null;
+            }
+            ++pulled;
+            return child.next();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { child };
+        }
+
+        public void setChildren(DbIterator[] children) {
+        }
+    }
+
+    /**
+     * Unit test for Limit with and without an offset
+     */
+    @Test public void limit() throws Exception {
+        ArrayList<ArrayList<Integer>> all = TestUtil.drainTuples(scan());
+        assertEquals(all.subList(0, 20), TestUtil.drainTuples(new Limit(20, 0, scan())));
+        assertEquals(all.subList(100, 120), TestUtil.drainTuples(new Limit(20, 100, scan())));
+        assertEquals(all.subList(2990, 3000), TestUtil.drainTuples(new Limit(20, 2990, scan())));
+        assertEquals(0, TestUtil.drainTuples(new Limit(0, 0, scan())).size());
+        assertEquals(0, TestUtil.drainTuples(new Limit(20, 5000, scan())).size());
+    }
+
+    /**
+     * Unit test for Limit stopping to pull from its child and closing it
+     */
+    @Test public void earlyTermination() throws Exception {
+        CountingIterator child = new CountingIterator(scan());
+        Limit limit = new Limit(5, 10, child);
+        limit.open();
+        int n = 0;
+        while (limit.hasNext()) {
+            limit.next();
+            ++n;
+        }
+        assertEquals(5, n);
+        assertEquals(15, child.pulled);
+        assertFalse(child.open);
+
+        limit.rewind();
+        assertTrue(child.open);
+        assertTrue(limit.hasNext());
+        limit.close();
+        assertFalse(child.open);
+    }
+
+    /**
+     * Unit test for TopN against OrderBy followed by Limit
+     */
+    @Test public void topN() throws Exception {
+        for (boolean asc : new boolean[] { true, false }) {
+            for (int n : new int[] { 0, 1, 20, 2999, 5000 }) {
+                ArrayList<ArrayList<Integer>> expected = TestUtil.drainTuples(new Limit(n, 0, new OrderBy(0, asc, scan())));
+                assertEquals(expected, TestUtil.drainTuples(new TopN(0, asc, n, scan())));
+            }
+        }
+        TopN top = new TopN(1, true, 10, scan());
+        ArrayList<ArrayList<Integer>> first = TestUtil.drainTuples(top);
+        top.open();
+        top.rewind();
+        assertEquals(first, TestUtil.drainTuples(top));
+    }
+
+    /**
+     * Unit test for the LIMIT and OFFSET clauses of the parser
+     */
+    @Test public void parser() throws Exception {
+        Parser p = new Parser();
+        assertEquals("SELECT * FROM lt;", p.stripLimit("SELECT * FROM lt limit 5 OFFSET 7;"));
+        assertEquals("SELECT * FROM lt", p.stripLimit("SELECT * FROM lt OFFSET 7"));
+        assertEquals("SELECT * FROM lt;", p.stripLimit("SELECT * FROM lt;"));
+
+        LogicalPlan lp = p.generateLogicalPlan(tid, "SELECT * FROM lt ORDER BY lt.c0 LIMIT 20 OFFSET 10;");
+        assertEquals(20, lp.getLimit());
+        assertEquals(10, lp.getOffset());
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(plan instanceof Limit);
+        DbIterator sort = ((Operator) plan).getChildren()[0];
+        sort = ((Operator) sort).getChildren()[0];
+        assertTrue(sort instanceof TopN);
+        assertEquals(30, ((TopN) sort).getN());
+        ArrayList<ArrayList<Integer>> expected = TestUtil.drainTuples(new Limit(20, 10, new OrderBy(0, true, scan())));
+        assertEquals(expected, TestUtil.drainTuples(plan));
+
+        lp = p.generateLogicalPlan(tid, "SELECT * FROM lt ORDER BY lt.c1 DESC, lt.c0 LIMIT 50;");
+        plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        sort = ((Operator) ((Operator) plan).getChildren()[0]).getChildren()[0];
+        assertTrue(Arrays.equals(new int[] { 1, 0 }, ((TopN) sort).getOrderByFields()));
+        expected = TestUtil.drainTuples(new Limit(50, 0, new OrderBy(new int[] { 1, 0 }, new boolean[] { false, true }, scan())));
+        assertEquals(expected, TestUtil.drainTuples(plan));
+
+        lp = p.generateLogicalPlan(tid, "SELECT * FROM lt;");
+        assertEquals(-1, lp.getLimit());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LimitTest.class);
+    }
+}
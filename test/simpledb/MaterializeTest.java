@@ -0,0 +1,151 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class MaterializeTest extends SimpleDbTestBase {
+
+  TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "a.x", "a.s" });
+  ArrayList<Tuple> tuples;
+
+  /**
+   * A child that counts the tuples it returns.
+   */
+  static class CountingIterator extends TupleIterator {
+    private static final long serialVersionUID = 1L;
+    int count = 0;
+
+    CountingIterator(TupleDesc td, Iterable<Tuple> tuples) {
+      super(td, tuples);
+    }
+
+    public Tuple next() {
+      count++;
+      return super.next();
+    }
+  }
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTuples() {
+    this.tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 500; ++i) {
+      Tuple t = new Tuple(td);
+      t.setInt(0, i);
+      t.setString(1, "s" + i);
+      this.tuples.add(t);
+    }
+  }
+
+  @After public void resetBudget() {
+    JoinOptimizer.setJoinMemoryBudget(HashEquiJoin.DEFAULT_MEMORY_BUDGET);
+  }
+
+  /** @return an open iterator over the child's tuples, in order. */
+  private DbIterator expected() throws Exception {
+    DbIterator it = new TupleIterator(td, tuples);
+    it.open();
+    return it;
+  }
+
+  /**
+   * Test that rewinds replay the cache without reading the child again,
+   * in memory and spilled
+   */
+  @Test public void replay() throws Exception {
+    for (int budget : new int[] { Materialize.DEFAULT_MEMORY_BUDGET, 1000 }) {
+      CountingIterator child = new CountingIterator(td, tuples);
+      Materialize m = new Materialize(child, budget);
+      m.open();
+      TestUtil.compareDbIterators(expected(), m);
+      for (int i = 0; i < 3; ++i) {
+        m.rewind();
+        TestUtil.compareDbIterators(expected(), m);
+      }
+      assertEquals(tuples.size(), child.count);
+      assertEquals(budget == 1000, m.isSpilled());
+      m.close();
+    }
+  }
+
+  /**
+   * Test a rewind in the middle of the first pass
+   */
+  @Test public void rewindDuringFirstPass() throws Exception {
+    for (int budget : new int[] { Materialize.DEFAULT_MEMORY_BUDGET, 1000 }) {
+      CountingIterator child = new CountingIterator(td, tuples);
+      Materialize m = new Materialize(child, budget);
+      m.open();
+      for (int i = 0; i < 10; ++i) {
+        m.next();
+      }
+      assertTrue(m.hasNext());
+      m.rewind();
+      TestUtil.compareDbIterators(expected(), m);
+      assertEquals(tuples.size(), child.count);
+
+      // a new open reads the child again.
+      m.close();
+      m.open();
+      TestUtil.compareDbIterators(expected(), m);
+      assertEquals(2 * tuples.size(), child.count);
+      m.close();
+    }
+  }
+
+  /**
+   * Test that the optimizer materializes the inner side of a nested loops
+   * join that runs operators, and that the join returns the same tuples
+   */
+  @Test public void optimizer() throws Exception {
+    TupleDesc td2 = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { "b.y" });
+    ArrayList<Tuple> inner = new ArrayList<Tuple>();
+    for (int i = 0; i < 50; ++i) {
+      Tuple t = new Tuple(td2);
+      t.setInt(0, i * 10);
+      inner.add(t);
+    }
+    // a small budget makes the block nested loops join rescan its inner
+    // side many times.
+    JoinOptimizer.setJoinMemoryBudget(td.getSize() * 10);
+    LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.x", "b.y", Predicate.Op.GREATER_THAN);
+    Predicate all = new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(-1));
+    CountingIterator child = new CountingIterator(td2, inner);
+    DbIterator join = JoinOptimizer.instantiateJoin(lj, new TupleIterator(td, tuples),
+        new Filter(all, child), 1000, 1000);
+    assertTrue(lj.materialized);
+    assertTrue(((Operator) join).getChildren()[1] instanceof Materialize);
+
+    DbIterator plain = new Join(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), new TupleIterator(td, tuples),
+        new Filter(all, new TupleIterator(td2, inner)));
+    join.open();
+    plain.open();
+    assertEquals(TestUtil.sortedStrings(plain), TestUtil.sortedStrings(join));
+    assertEquals(inner.size(), child.count);
+    join.close();
+    plain.close();
+
+    // an inner side that runs no operators is not materialized.
+    lj = new LogicalJoinNode("a", "b", "a.x", "b.y", Predicate.Op.GREATER_THAN);
+    JoinOptimizer.instantiateJoin(lj, new TupleIterator(td, tuples), new TupleIterator(td2, inner), 1000, 1000);
+    assertTrue(!lj.materialized);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(MaterializeTest.class);
+  }
+}
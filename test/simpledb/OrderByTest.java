@@ -0,0 +1,200 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OrderByTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, ROWS, 100000, null, tuples);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private ArrayList<Integer> expected(int field, boolean asc) {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            keys.add(t.get(field));
+        }
+        Collections.sort(keys);
+        if (!asc) {
+            Collections.reverse(keys);
+        }
+        return keys;
+    }
+
+    /**
+     * Unit test for an OrderBy whose input fits in memory
+     */
+    @Test public void inMemory() throws Exception {
+        OrderBy ob = new OrderBy(1, true, new SeqScan(tid, table.getId(), ""));
+        ob.open();
+        assertEquals(expected(1, true), TestUtil.drainColumn(ob, 1));
+        assertEquals(0, ob.getNumRuns());
+        assertEquals(0, ob.getSpilledBytes());
+        ob.close();
+    }
+
+    /**
+     * Unit test for an OrderBy that spills runs and merges them in several passes
+     */
+    @Test public void external() throws Exception {
+        // 200 tuples of 8 bytes with their 4 byte keys (and prefixes) in
+        // memory, at most 2 runs merged at once.
+        OrderBy ob = new OrderBy(0, false, new SeqScan(tid, table.getId(), ""), 4000);
+        ob.open();
+        assertEquals(expected(0, false), TestUtil.drainColumn(ob, 0));
+        // replacement selection makes runs about twice as long as the heap.
+        assertTrue(ob.getNumRuns() > 1);
+        assertTrue(ob.getNumRuns() <= ROWS / 200 / 2 + 2);
+        assertTrue(ob.getNumMergePasses() > 1);
+        assertTrue(ob.getSpilledBytes() >= 8L * ROWS);
+
+        ob.rewind();
+        assertEquals(expected(0, false), TestUtil.drainColumn(ob, 0));
+        ob.close();
+    }
+
+    /**
+     * Unit test for an OrderBy over input that is already sorted, which
+     * replacement selection writes as a single run
+     */
+    @Test public void sortedInput() throws Exception {
+        OrderBy inner = new OrderBy(1, true, new SeqScan(tid, table.getId(), ""));
+        OrderBy ob = new OrderBy(1, true, inner, 4000);
+        ob.open();
+        assertEquals(expected(1, true), TestUtil.drainColumn(ob, 1));
+        assertEquals(1, ob.getNumRuns());
+        assertEquals(1, ob.getNumMergePasses());
+        ob.close();
+    }
+
+    /**
+     * Unit test for an OrderBy on two fields with mixed directions, in
+     * memory and external
+     */
+    @Test public void multiKey() throws Exception {
+        HeapFile dups = SystemTestUtil.createRandomHeapFile(3, ROWS, 20, null, null);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        DbIterator scan = new SeqScan(tid, dups.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            ArrayList<Integer> t = SystemTestUtil.tupleToList(scan.next());
+            expected.add(new ArrayList<Integer>(t.subList(1, 3)));
+        }
+        scan.close();
+        expected.sort((a, b) -> a.get(1).equals(b.get(1))
+                ? Integer.compare(a.get(0), b.get(0)) : Integer.compare(b.get(1), a.get(1)));
+
+        for (int budget : new int[] { OrderBy.DEFAULT_MEMORY_BUDGET, 4000 }) {
+            OrderBy ob = new OrderBy(new int[] { 2, 1 }, new boolean[] { false, true },
+                    new SeqScan(tid, dups.getId(), ""), budget);
+            ob.open();
+            ArrayList<ArrayList<Integer>> actual = new ArrayList<ArrayList<Integer>>();
+            while (ob.hasNext()) {
+                ArrayList<Integer> t = SystemTestUtil.tupleToList(ob.next());
+                actual.add(new ArrayList<Integer>(t.subList(1, 3)));
+            }
+            assertEquals(budget != OrderBy.DEFAULT_MEMORY_BUDGET, ob.getNumRuns() > 0);
+            ob.close();
+            assertEquals(expected, actual);
+        }
+    }
+
+    /**
+     * Unit test for ExternalSorter with a large fan-in and a tiny heap
+     */
+    @Test public void sorter() throws Exception {
+        ExternalSorter sorter = new ExternalSorter(table.getTupleDesc(), new TupleComparator(0, true), 16 * 8192);
+        assertEquals(16, sorter.fanIn());
+        DbIterator scan = new SeqScan(tid, table.getId(), "");
+        scan.open();
+        sorter.sort(scan);
+        scan.close();
+        assertFalse(sorter.getNumRuns() > 0);
+
+        sorter = new ExternalSorter(table.getTupleDesc(), new TupleComparator(0, true), 1600);
+        assertEquals(2, sorter.fanIn());
+        scan.open();
+        sorter.sort(scan);
+        scan.close();
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        Tuple t;
+        while ((t = sorter.next()) != null) {
+            keys.add(t.getInt(0));
+        }
+        assertEquals(expected(0, true), keys);
+        assertTrue(sorter.getNumRuns() > 8);
+        int passes = 32 - Integer.numberOfLeadingZeros(sorter.getNumRuns() - 1);
+        assertEquals(passes, sorter.getNumMergePasses());
+        sorter.close();
+    }
+
+    /**
+     * Unit test for ExternalSorter merging at least 4 runs at once, with
+     * even and odd fan-ins
+     */
+    @Test public void wideMerge() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(3);
+        ArrayList<Tuple> input = new ArrayList<Tuple>();
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; ++i) {
+            Tuple t = new Tuple(td);
+            t.setInt(0, random.nextInt());
+            t.setInt(1, i);
+            t.setInt(2, -i);
+            input.add(t);
+            expected.add(t.getInt(0));
+        }
+        Collections.sort(expected);
+        for (int fanIn : new int[] { 4, 5, 7 }) {
+            ExternalSorter sorter = new ExternalSorter(td, new TupleComparator(0, true), fanIn * 8192);
+            assertEquals(fanIn, sorter.fanIn());
+            DbIterator scan = new TupleIterator(td, input);
+            scan.open();
+            sorter.sort(scan);
+            scan.close();
+            assertTrue(sorter.getNumRuns() >= fanIn);
+            ArrayList<Integer> keys = new ArrayList<Integer>();
+            Tuple t;
+            while ((t = sorter.next()) != null) {
+                keys.add(t.getInt(0));
+            }
+            assertEquals(expected, keys);
+            sorter.close();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
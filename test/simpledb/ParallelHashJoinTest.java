@@ -0,0 +1,124 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelHashJoinTest extends SimpleDbTestBase {
+
+  HeapFile build, probe;
+  TransactionId tid;
+  JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTables() throws Exception {
+    // every key has about 4 build tuples; about 65 and 120 pages.
+    this.build = SystemTestUtil.createRandomHeapFile(2, 33000, 8000, null, null);
+    this.probe = SystemTestUtil.createRandomHeapFile(3, 40000, 16000, null, null);
+    this.tid = new TransactionId();
+  }
+
+  private DbIterator scan(HeapFile f) {
+    return new SeqScan(tid, f.getId(), "t" + f.getId());
+  }
+
+  /**
+   * @return the tuples of the join, sorted by their string form.
+   */
+  private ArrayList<String> join(DbIterator op) throws Exception {
+    op.open();
+    ArrayList<String> tuples = TestUtil.sortedStrings(op);
+    op.close();
+    return tuples;
+  }
+
+  /**
+   * Test that the parallel build and probe join the same tuples as
+   * HashEquiJoin, and that the join can be rewound
+   */
+  @Test public void parallelJoin() throws Exception {
+    ArrayList<String> expected = join(new HashEquiJoin(pred, scan(build), scan(probe)));
+    assertEquals(true, expected.size() > 0);
+
+    for (int workers : new int[] { 2, 3, 4 }) {
+      ParallelHashJoin op = new ParallelHashJoin(pred, scan(build), scan(probe),
+          HashEquiJoin.DEFAULT_MEMORY_BUDGET, workers);
+      op.open();
+      assertEquals(workers, op.getBuildWorkers());
+      assertEquals(workers, op.getProbeWorkers());
+      assertEquals(expected, TestUtil.sortedStrings(op));
+      op.rewind();
+      assertEquals(expected, TestUtil.sortedStrings(op));
+      op.close();
+    }
+  }
+
+  /**
+   * Test a filtered probe side, a build side that is read on the calling
+   * thread, and the batch interface
+   */
+  @Test public void filteredAndSerialBuild() throws Exception {
+    Predicate half = new Predicate(2, Predicate.Op.LESS_THAN, new IntField(2000));
+    DbIterator buildSide = new OrderBy(1, true, scan(build));
+    ArrayList<String> expected = join(new HashEquiJoin(pred, new OrderBy(1, true, scan(build)),
+        new Filter(half, scan(probe))));
+
+    ParallelHashJoin op = new ParallelHashJoin(pred, buildSide, new Filter(half, scan(probe)),
+        HashEquiJoin.DEFAULT_MEMORY_BUDGET, 4);
+    op.open();
+    assertEquals(1, op.getBuildWorkers());
+    assertEquals(4, op.getProbeWorkers());
+    ArrayList<String> actual = new ArrayList<String>();
+    TupleBatch batch;
+    while ((batch = op.nextBatch()) != null) {
+      for (int k = 0; k < batch.size(); ++k) {
+        actual.add(batch.getTuple(batch.selected(k)).toString());
+      }
+    }
+    Collections.sort(actual);
+    assertEquals(expected, actual);
+    op.close();
+  }
+
+  /**
+   * Test that the join falls back to HashEquiJoin when the build side
+   * doesn't fit in the memory budget or the probe side can't be split, and
+   * that it doesn't once its children are replaced
+   */
+  @Test public void fallback() throws Exception {
+    ArrayList<String> expected = join(new HashEquiJoin(pred, scan(build), scan(probe)));
+
+    ParallelHashJoin op = new ParallelHashJoin(pred, scan(build), scan(probe), 16 * 1024, 4);
+    op.open();
+    assertEquals(1, op.getProbeWorkers());
+    assertEquals(expected, TestUtil.sortedStrings(op));
+    op.close();
+
+    op = new ParallelHashJoin(pred, scan(build), new OrderBy(1, true, scan(probe)),
+        HashEquiJoin.DEFAULT_MEMORY_BUDGET, 4);
+    assertEquals(expected, join(op));
+    assertEquals(1, op.getProbeWorkers());
+
+    // a probe side that can be split, set by the planner.
+    op.setChildren(new DbIterator[] { scan(build), scan(probe) });
+    assertEquals(expected, join(op));
+    assertEquals(4, op.getProbeWorkers());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ParallelHashJoinTest.class);
+  }
+}
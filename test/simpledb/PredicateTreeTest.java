@@ -0,0 +1,140 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PredicateTreeTest extends SimpleDbTestBase {
+
+  TupleDesc td = Utility.getTupleDesc(3);
+  ArrayList<Tuple> tuples;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTuples() {
+    Random random = new Random(42);
+    this.tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 3000; ++i) {
+      Tuple t = new Tuple(td);
+      for (int f = 0; f < 3; ++f) {
+        t.setInt(f, random.nextInt(100));
+      }
+      this.tuples.add(t);
+    }
+  }
+
+  private static Predicate lt(int field, int value) {
+    return new Predicate(field, Predicate.Op.LESS_THAN, new IntField(value));
+  }
+
+  private static Predicate gt(int field, int value) {
+    return new Predicate(field, Predicate.Op.GREATER_THAN, new IntField(value));
+  }
+
+  /** @return (f0 < 30 OR f1 > 80) AND (f2 < 50 OR (f0 > 10 AND f1 < 20)) */
+  private static PredicateTree tree() {
+    return PredicateTree.and(
+        PredicateTree.or(PredicateTree.of(lt(0, 30)), PredicateTree.of(gt(1, 80))),
+        PredicateTree.or(PredicateTree.of(lt(2, 50)), PredicateTree.and(gt(0, 10), lt(1, 20))));
+  }
+
+  private static boolean expected(Tuple t) {
+    return (t.getInt(0) < 30 || t.getInt(1) > 80) && (t.getInt(2) < 50 || (t.getInt(0) > 10 && t.getInt(1) < 20));
+  }
+
+  /**
+   * Test that a tree selects the tuples its expression does, a tuple and a
+   * batch at a time, while it reorders its children
+   */
+  @Test public void filter() {
+    PredicateTree tree = tree();
+    for (Tuple t : tuples) {
+      assertEquals(expected(t), tree.filter(t));
+    }
+    for (int start = 0; start < tuples.size(); start += TupleBatch.DEFAULT_CAPACITY) {
+      TupleBatch batch = new TupleBatch(td);
+      for (int i = start; i < Math.min(tuples.size(), start + TupleBatch.DEFAULT_CAPACITY); ++i) {
+        batch.addTuple(tuples.get(i));
+      }
+      tree.filter(batch);
+      int k = 0;
+      for (int row = 0; row < batch.numRows(); ++row) {
+        Tuple t = tuples.get(start + row);
+        if (expected(t)) {
+          assertEquals(row, batch.selected(k++));
+        }
+      }
+      assertEquals(k, batch.size());
+    }
+  }
+
+  /**
+   * Test that ANDs evaluate first the children that are often false, and
+   * ORs those that are often true
+   */
+  @Test public void reorder() {
+    PredicateTree rarelyFalse = PredicateTree.of(lt(0, 99));
+    PredicateTree oftenFalse = PredicateTree.of(lt(1, 5));
+    PredicateTree and = PredicateTree.and(rarelyFalse, oftenFalse);
+    PredicateTree or = PredicateTree.or(oftenFalse, rarelyFalse);
+    assertSame(rarelyFalse, and.getChildren()[0]);
+    assertSame(oftenFalse, or.getChildren()[0]);
+    for (int i = 0; i < 2 * PredicateTree.REORDER_INTERVAL; ++i) {
+      and.filter(tuples.get(i % tuples.size()));
+      or.filter(tuples.get(i % tuples.size()));
+    }
+    assertSame(oftenFalse, and.getChildren()[0]);
+    assertSame(rarelyFalse, or.getChildren()[0]);
+    assertEquals(lt(1, 5).toString(), and.getConjuncts()[0].toString());
+    assertEquals(lt(1, 5).toString(), and.copy().getConjuncts()[0].toString());
+  }
+
+  /**
+   * Test that nested nodes of the same kind are flattened
+   */
+  @Test public void flatten() {
+    PredicateTree tree = PredicateTree.and(PredicateTree.and(lt(0, 1), lt(1, 1)), PredicateTree.of(lt(2, 1)));
+    assertEquals(PredicateTree.Kind.AND, tree.getKind());
+    assertEquals(3, tree.getChildren().length);
+    assertTrue(tree.isConjunction());
+    assertTrue(!tree().isConjunction());
+    assertEquals(5, tree().getPredicates().size());
+    assertEquals(PredicateTree.Kind.LEAF, PredicateTree.and(lt(0, 1)).getKind());
+  }
+
+  /**
+   * Test a Filter over a tree
+   */
+  @Test public void filterOperator() throws Exception {
+    Filter op = new Filter(tree(), new TupleIterator(td, tuples));
+    op.open();
+    int n = 0;
+    while (op.hasNext()) {
+      assertTrue(expected(op.next()));
+      ++n;
+    }
+    op.close();
+    int expected = 0;
+    for (Tuple t : tuples) {
+      expected += expected(t) ? 1 : 0;
+    }
+    assertEquals(expected, n);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PredicateTreeTest.class);
+  }
+}
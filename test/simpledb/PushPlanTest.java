@@ -0,0 +1,175 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PushPlanTest extends SimpleDbTestBase {
+
+  HeapFile t1, t2;
+  TransactionId tid;
+  JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+  Predicate lt = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500));
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTables() throws Exception {
+    this.t1 = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, null, "c");
+    this.t2 = SystemTestUtil.createRandomHeapFile(3, 5000, 1000, null, null, "c");
+    Database.getCatalog().addTable(t1, "pt1");
+    Database.getCatalog().addTable(t2, "pt2");
+    for (DbFile f : new DbFile[] { t1, t2 }) {
+      TableStats.setTableStats(Database.getCatalog().getTableName(f.getId()),
+          new TableStats(f.getId(), TableStats.IOCOSTPERPAGE));
+    }
+    this.tid = new TransactionId();
+  }
+
+  private DbIterator scan(HeapFile f) {
+    return new SeqScan(tid, f.getId(), "t" + f.getId());
+  }
+
+  /**
+   * Plans over two tables: a filter and a projection over a join with a
+   * filtered build side
+   */
+  private DbIterator joinPlan(int budget) {
+    DbIterator join = new HashEquiJoin(eq, new Filter(lt, scan(t1)), scan(t2), budget);
+    ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(0, 1, 4));
+    Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
+    Predicate odd = new Predicate(4, Predicate.Op.GREATER_THAN, new IntField(100));
+    return new Project(fields, types, new Filter(odd, join));
+  }
+
+  /**
+   * Test a single pipeline of a scan, a filter and a projection
+   */
+  @Test public void singlePipeline() throws Exception {
+    ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(1));
+    Type[] types = new Type[] { Type.INT_TYPE };
+    ArrayList<ArrayList<Integer>> expected = TestUtil.drainTuples(
+        new Project(fields, types, new Filter(lt, scan(t2))));
+    PushPlan plan = (PushPlan) PushPlan.compile(new Project(fields, types, new Filter(lt, scan(t2))));
+    // the source is read in order.
+    assertEquals(expected, TestUtil.drainTuples(plan));
+
+    plan.open();
+    assertEquals(1, plan.numPipelines());
+    TupleBatch batch = plan.nextBatch();
+    assertTrue(batch.size() > 0);
+    plan.rewind();
+    int n = 0;
+    while ((batch = plan.nextBatch()) != null) {
+      n += batch.size();
+    }
+    assertEquals(expected.size(), n);
+    plan.close();
+  }
+
+  /**
+   * Test that the build side of a join is a pipeline of its own, and that
+   * spilled partitions are joined
+   */
+  @Test public void hashJoin() throws Exception {
+    DbIterator pulled = joinPlan(HashEquiJoin.DEFAULT_MEMORY_BUDGET);
+    pulled.open();
+    ArrayList<String> expected = TestUtil.sortedStrings(pulled);
+    pulled.close();
+    assertTrue(expected.size() > 0);
+    PushPlan plan = (PushPlan) PushPlan.compile(joinPlan(HashEquiJoin.DEFAULT_MEMORY_BUDGET));
+    plan.open();
+    assertEquals(2, plan.numPipelines());
+    assertEquals(expected, TestUtil.sortedStrings(plan));
+    plan.close();
+
+    DbIterator spilling = joinPlan(4096);
+    HashEquiJoin join = (HashEquiJoin) ((Operator) ((Operator) spilling).getChildren()[0]).getChildren()[0];
+    plan = (PushPlan) PushPlan.compile(spilling);
+    plan.open();
+    assertTrue(join.getSpilledPartitions() > 0);
+    assertEquals(expected, TestUtil.sortedStrings(plan));
+    plan.close();
+  }
+
+  /**
+   * Test an aggregate over a join, which is a breaker and the source of
+   * the pipeline above it, and a pulled OrderBy above it
+   */
+  @Test public void aggregate() throws Exception {
+    Aggregate agg = new Aggregate(joinPlan(HashEquiJoin.DEFAULT_MEMORY_BUDGET), 1, 0, Aggregator.Op.SUM);
+    agg.setParallelism(1);
+    ArrayList<ArrayList<Integer>> expected = TestUtil.drainTuples(new OrderBy(0, true, agg));
+
+    agg = new Aggregate(joinPlan(HashEquiJoin.DEFAULT_MEMORY_BUDGET), 1, 0, Aggregator.Op.SUM);
+    agg.setParallelism(1);
+    DbIterator plan = PushPlan.compile(new OrderBy(0, true, agg));
+    assertTrue(plan instanceof OrderBy);
+    PushPlan push = (PushPlan) ((OrderBy) plan).getChildren()[0];
+    assertEquals(expected, TestUtil.drainTuples(plan));
+    push.open();
+    assertEquals(3, push.numPipelines());
+    push.close();
+  }
+
+  /**
+   * Test that an aggregate that is pulled, as its input is sorted on the
+   * group, keeps the compiled plan below it
+   */
+  @Test public void pulledAggregate() throws Exception {
+    BTreeFile index = BTreeUtility.createRandomBTreeFile(2, 3000, 100, null, null, 0);
+    Predicate gt = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(100));
+    Aggregate agg = new Aggregate(new Filter(gt, new SeqScan(tid, index.getId(), "t")), 1, 0, Aggregator.Op.SUM);
+    agg.open();
+    ArrayList<String> expected = TestUtil.sortedStrings(agg);
+    agg.close();
+
+    agg = new Aggregate(new Filter(gt, new SeqScan(tid, index.getId(), "t")), 1, 0, Aggregator.Op.SUM);
+    assertTrue(!agg.canPush());
+    assertTrue(PushPlan.compile(agg) == agg);
+    assertTrue(agg.getChildren()[0] instanceof PushPlan);
+    agg.open();
+    assertEquals(expected, TestUtil.sortedStrings(agg));
+    agg.close();
+  }
+
+  /**
+   * Test that LogicalPlan targets either engine with the same results
+   */
+  @Test public void logicalPlan() throws Exception {
+    Parser p = new Parser();
+    String[] queries = new String[] {
+        "SELECT pt1.c0, pt2.c2 FROM pt1, pt2 WHERE pt1.c0 = pt2.c0 AND pt1.c1 < 300;",
+        "SELECT pt2.c1, COUNT(pt2.c0) FROM pt1, pt2 WHERE pt1.c0 = pt2.c0 GROUP BY pt2.c1;",
+        "SELECT pt2.c0 FROM pt2 WHERE pt2.c1 > 900 ORDER BY pt2.c0 LIMIT 20;" };
+    for (String query : queries) {
+      LogicalPlan lp = p.generateLogicalPlan(tid, query);
+      DbIterator pulled = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+      pulled.open();
+      ArrayList<String> expected = TestUtil.sortedStrings(pulled);
+      pulled.close();
+      lp = p.generateLogicalPlan(tid, query);
+      lp.setEngine(LogicalPlan.Engine.PUSH);
+      DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+      plan.open();
+      assertEquals(expected, TestUtil.sortedStrings(plan));
+      plan.close();
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PushPlanTest.class);
+  }
+}
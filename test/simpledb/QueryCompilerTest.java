@@ -0,0 +1,178 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class QueryCompilerTest extends SimpleDbTestBase {
+
+  TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+  String[] words = new String[] { "", "a", "ab", "abc", "b", "ba", "bca", "c" };
+  ArrayList<Tuple> tuples;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTuples() {
+    Assume.assumeTrue(QueryCompiler.isEnabled());
+    this.tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 64; ++i) {
+      Tuple t = new Tuple(td);
+      t.setInt(0, i % 7 - 3);
+      t.setString(1, words[i % words.length]);
+      t.setInt(2, i / 3);
+      t.setRecordId(new RecordId(new HeapPageId(1, 0), i));
+      this.tuples.add(t);
+    }
+  }
+
+  @After public void enable() {
+    QueryCompiler.setEnabled(true);
+  }
+
+  private TupleBatch batch() {
+    TupleBatch batch = new TupleBatch(td);
+    for (Tuple t : tuples) {
+      batch.addTuple(t);
+    }
+    return batch;
+  }
+
+  private static ArrayList<String> selection(TupleBatch batch) {
+    ArrayList<String> rows = new ArrayList<String>();
+    for (int k = 0; k < batch.size(); ++k) {
+      rows.add(batch.getTuple(batch.selected(k)).toString());
+    }
+    return rows;
+  }
+
+  /**
+   * Test that compiled filters select the tuples the predicates do, for
+   * every operator on INT and STRING fields
+   */
+  @Test public void filter() {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      Predicate onInt = new Predicate(0, op, new IntField(1));
+      Predicate onString = new Predicate(1, op, new StringField("b", Type.STRING_LEN));
+      Predicate[][] conjunctions = new Predicate[][] { { onInt }, { onString }, { onInt, onString } };
+      for (Predicate[] preds : conjunctions) {
+        QueryCompiler.BatchFilter compiled = QueryCompiler.compileFilter(td, preds);
+        assertNotNull(compiled);
+        TupleBatch expected = batch();
+        for (Predicate p : preds) {
+          p.filter(expected);
+        }
+        TupleBatch actual = batch();
+        compiled.filter(actual);
+        assertEquals(op.toString(), selection(expected), selection(actual));
+        for (Tuple t : tuples) {
+          boolean pass = true;
+          for (Predicate p : preds) {
+            pass &= p.filter(t);
+          }
+          assertEquals(pass, compiled.filter(t));
+        }
+      }
+    }
+    // mismatched operands are left to the interpreter.
+    assertNull(QueryCompiler.compileFilter(td, new Predicate(1, Predicate.Op.EQUALS, new IntField(1))));
+  }
+
+  /**
+   * Test that classes are cached by shape, not by field or operand
+   */
+  @Test public void cache() {
+    Predicate p = new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(5));
+    QueryCompiler.compileFilter(td, p);
+    int compiled = QueryCompiler.numCompiled();
+    QueryCompiler.BatchFilter f = QueryCompiler.compileFilter(td,
+        new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(-1)));
+    assertEquals(compiled, QueryCompiler.numCompiled());
+    assertEquals(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(-1)).filter(tuples.get(3)),
+        f.filter(tuples.get(3)));
+
+    QueryCompiler.setEnabled(false);
+    assertNull(QueryCompiler.compileFilter(td, p));
+  }
+
+  /**
+   * Test compiled projections and join predicates
+   */
+  @Test public void projectionAndJoin() {
+    TupleDesc outTd = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+    QueryCompiler.Projection projection = QueryCompiler.compileProjection(td, outTd, new int[] { 1, 0 });
+    assertNotNull(projection);
+    for (Tuple t : tuples) {
+      Tuple out = new Tuple(outTd);
+      projection.project(t, out);
+      assertEquals(t.getField(1), out.getField(0));
+      assertEquals(t.getField(0), out.getField(1));
+      assertEquals(t.getRecordId(), out.getRecordId());
+    }
+
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int field : new int[] { 0, 1 }) {
+        JoinPredicate p = new JoinPredicate(field, op, field);
+        QueryCompiler.JoinFilter compiled = QueryCompiler.compileJoin(td, td, p);
+        assertNotNull(compiled);
+        for (Tuple t1 : tuples) {
+          for (Tuple t2 : tuples) {
+            assertEquals(p.filter(t1, t2), compiled.filter(t1, t2));
+          }
+        }
+      }
+    }
+    assertNull(QueryCompiler.compileJoin(td, td, new JoinPredicate(0, Predicate.Op.EQUALS, 1)));
+  }
+
+  private static List<String> run(DbIterator it) throws Exception {
+    it.open();
+    List<String> tuples = TestUtil.sortedStrings(it);
+    it.close();
+    return tuples;
+  }
+
+  /**
+   * Test that operators switch to compiled code past the threshold without
+   * changing their output
+   */
+  @Test public void operators() throws Exception {
+    int rows = QueryCompiler.COMPILE_THRESHOLD * 2;
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, 1000, null, null);
+    TransactionId tid = new TransactionId();
+    Predicate lt = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500));
+    ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(1));
+    Type[] types = new Type[] { Type.INT_TYPE };
+
+    QueryCompiler.setEnabled(false);
+    List<String> expected = run(
+        new Project(fields, types, new Filter(lt, new SeqScan(tid, f.getId(), "t"))));
+    List<String> batches = run(
+        PushPlan.compile(new Filter(lt, new Filter(lt, new SeqScan(tid, f.getId(), "t")))));
+    QueryCompiler.setEnabled(true);
+    assertEquals(expected, run(
+        new Project(fields, types, new Filter(lt, new SeqScan(tid, f.getId(), "t")))));
+    assertEquals(batches, run(
+        PushPlan.compile(new Filter(lt, new Filter(lt, new SeqScan(tid, f.getId(), "t"))))));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(QueryCompilerTest.class);
+  }
+}
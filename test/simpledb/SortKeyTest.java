@@ -0,0 +1,86 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortKeyTest extends SimpleDbTestBase {
+
+    private static Tuple tuple(TupleDesc td, Object... values) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < values.length; ++i) {
+            if (values[i] instanceof Integer) {
+                t.setInt(i, (Integer) values[i]);
+            } else {
+                t.setString(i, (String) values[i]);
+            }
+        }
+        return t;
+    }
+
+    private static int keyCompare(byte[] a, byte[] b) {
+        int cmp = Long.compareUnsigned(SortKey.prefix(a), SortKey.prefix(b));
+        return cmp != 0 ? cmp : SortKey.compare(a, b, 8);
+    }
+
+    /**
+     * Unit test for the order of INT keys, including the extreme values
+     */
+    @Test public void intKeys() {
+        TupleDesc td = Utility.getTupleDesc(2);
+        SortKey asc = new SortKey(td, new int[] { 0, 1 }, new boolean[] { true, false });
+        int[] values = { Integer.MIN_VALUE, -5, -1, 0, 1, 7, Integer.MAX_VALUE };
+        for (int a : values) {
+            for (int b : values) {
+                for (int c : values) {
+                    byte[] k1 = asc.encode(tuple(td, a, c));
+                    byte[] k2 = asc.encode(tuple(td, b, 0));
+                    assertEquals(8, k1.length);
+                    int expected = a != b ? Integer.compare(a, b) : -Integer.compare(c, 0);
+                    assertEquals(Integer.signum(expected), Integer.signum(keyCompare(k1, k2)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Unit test for the order of STRING keys, including prefixes, 0 chars
+     * and chars above 0xFF
+     */
+    @Test public void stringKeys() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        String[] values = { "", "a", "ab", "abc", "a\u0000", "a\u0000b", "b", "Ā", "ÿ", "A" };
+        for (boolean asc : new boolean[] { true, false }) {
+            SortKey key = new SortKey(td, new int[] { 0, 1 }, new boolean[] { asc, true });
+            for (String a : values) {
+                for (String b : values) {
+                    for (int x = 0; x < 2; ++x) {
+                        int expected = a.compareTo(b);
+                        if (!asc) {
+                            expected = -expected;
+                        }
+                        if (expected == 0) {
+                            expected = Integer.compare(x, 1);
+                        }
+                        byte[] k1 = key.encode(tuple(td, a, x));
+                        byte[] k2 = key.encode(tuple(td, b, 1));
+                        assertEquals(a + " " + b, Integer.signum(expected), Integer.signum(keyCompare(k1, k2)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortKeyTest.class);
+    }
+}
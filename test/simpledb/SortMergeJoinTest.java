@@ -0,0 +1,170 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+  DbIterator gtJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+    this.gtJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] {
+                    3, 4, 1, 2, 3, // 1, 2 < 3
+                    3, 4, 2, 3, 4,
+                    5, 6, 1, 2, 3, // 1, 2, 3, 4 < 5
+                    5, 6, 2, 3, 4,
+                    5, 6, 3, 4, 5,
+                    5, 6, 4, 5, 6,
+                    7, 8, 1, 2, 3, // 1, 2, 3, 4, 5 < 7
+                    7, 8, 2, 3, 4,
+                    7, 8, 3, 4, 5,
+                    7, 8, 4, 5, 6,
+                    7, 8, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    Tuple expected = eqJoin.next();
+    Tuple actual = op.next();
+    assertTrue(TestUtil.compareTuples(expected, actual));
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using a &gt; predicate
+   */
+  @Test public void gtJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using an = predicate
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() with runs of duplicate keys on
+   * both sides, for every supported operator, against BlockNestedLoopJoin
+   */
+  @Test public void duplicateKeys() throws Exception {
+    int[] left = new int[] { 1, 10, 2, 20, 2, 21, 2, 22, 4, 40, 5, 50, 5, 51 };
+    int[] right = new int[] { 0, 0, 2, 1, 2, 2, 3, 3, 5, 4, 5, 5, 5, 6, 6, 7 };
+    Predicate.Op[] ops = new Predicate.Op[] { Predicate.Op.EQUALS,
+        Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ,
+        Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ };
+    for (Predicate.Op o : ops) {
+      JoinPredicate pred = new JoinPredicate(0, o, 0);
+      ArrayList<ArrayList<Integer>> expected = TestUtil.drainSortedTuples(new BlockNestedLoopJoin(pred,
+          TestUtil.createTupleList(2, left), TestUtil.createTupleList(2, right)));
+      ArrayList<ArrayList<Integer>> actual = TestUtil.drainSortedTuples(new SortMergeJoin(pred,
+          TestUtil.createTupleList(2, left), TestUtil.createTupleList(2, right)));
+      assertTrue(expected.size() > 0);
+      assertEquals(o.toString(), expected, actual);
+    }
+  }
+
+  /**
+   * Unit test for SortMergeJoin with an input that is not sorted
+   */
+  @Test(expected = DbException.class) public void unsortedInput() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    DbIterator unsorted = TestUtil.createTupleList(width1,
+        new int[] { 3, 4,
+                    1, 2 });
+    TestUtil.drainSortedTuples(new SortMergeJoin(pred, unsorted, scan2));
+  }
+
+  /**
+   * Unit test for SortMergeJoin with an unsupported operator
+   */
+  @Test(expected = IllegalArgumentException.class) public void notEquals() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0);
+    new SortMergeJoin(pred, scan1, scan2);
+  }
+
+  /**
+   * Unit test for JoinOptimizer.isSortedOn()
+   */
+  @Test public void isSortedOn() {
+    assertTrue(JoinOptimizer.isSortedOn(new OrderBy(0, true, scan1), 0));
+    assertFalse(JoinOptimizer.isSortedOn(new OrderBy(0, false, scan1), 0));
+    assertFalse(JoinOptimizer.isSortedOn(new OrderBy(1, true, scan1), 0));
+    assertTrue(JoinOptimizer.isSortedOn(new Filter(new Predicate(1, Predicate.Op.GREATER_THAN,
+        new IntField(2)), new OrderBy(0, true, scan1)), 0));
+    assertFalse(JoinOptimizer.isSortedOn(scan1, 0));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
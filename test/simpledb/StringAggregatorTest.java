@@ -53,6 +53,26 @@ public class StringAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test StringAggregator.merge() of two partial aggregators
+   */
+  @Test public void mergePartial() throws Exception {
+    scan1.open();
+    StringAggregator agg = new StringAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    StringAggregator partial = new StringAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    for (int i = 0; i < 4; ++i) {
+      agg.mergeTupleIntoGroup(scan1.next());
+    }
+    while (scan1.hasNext()) {
+      partial.mergeTupleIntoGroup(scan1.next());
+    }
+    agg.merge(partial);
+    assertEquals(3, agg.numGroups());
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, new int[] { 1, 3, 3, 3, 5, 1 }), it);
+  }
+
   /**
    * Test StringAggregator.iterator() for DbIterator behaviour
    */
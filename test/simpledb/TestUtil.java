@@ -5,6 +5,8 @@ import java.util.*;
 
 import static org.junit.Assert.*;
 
+import simpledb.systemtest.SystemTestUtil;
+
 public class TestUtil {
     /**
      * @return an IntField with value n
@@ -149,6 +151,65 @@ public class TestUtil {
         }
     }
 
+    /**
+     * Opens it, reads all its tuples, which must only have INT fields, and
+     * closes it.
+     * @return the tuples of it as lists of their values, in the order it
+     *   returned them.
+     */
+    public static ArrayList<ArrayList<Integer>> drainTuples(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return result;
+    }
+
+    /**
+     * @return the tuples of {@link #drainTuples}, sorted, so that the output
+     *   of operators that return the same tuples in different orders can be
+     *   compared.
+     */
+    public static ArrayList<ArrayList<Integer>> drainSortedTuples(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> result = drainTuples(it);
+        result.sort(Comparator.comparing(Object::toString));
+        return result;
+    }
+
+    /**
+     * Reads the rest of the tuples of it, which must be open, so that
+     * operators returning tuples of any type in different orders can be
+     * compared.
+     * @return the string forms of the tuples, sorted.
+     */
+    public static ArrayList<String> sortedStrings(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        ArrayList<String> tuples = new ArrayList<String>();
+        while (it.hasNext()) {
+            tuples.add(it.next().toString());
+        }
+        Collections.sort(tuples);
+        return tuples;
+    }
+
+    /**
+     * Reads the rest of the tuples of it, which must be open.
+     * @return the values of the INT field field of the tuples, in the order
+     *   it returned them.
+     */
+    public static ArrayList<Integer> drainColumn(DbIterator it, int field)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        while (it.hasNext()) {
+            values.add(it.next().getInt(field));
+        }
+        return values;
+    }
+
     /**
      * Verifies that the DbIterator has been exhausted of all elements.
      */
@@ -0,0 +1,183 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+    private HeapFile table1, table2;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table1 = SystemTestUtil.createRandomHeapFile(3, 3000, 100, null, null);
+        table2 = SystemTestUtil.createRandomHeapFile(2, 500, 100, null, null);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static ArrayList<ArrayList<Integer>> drainBatches(BatchDbIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        TupleBatch batch;
+        while ((batch = it.nextBatch()) != null) {
+            assertTrue(batch.size() > 0);
+            assertTrue(batch.size() <= TupleBatch.DEFAULT_CAPACITY);
+            for (int k = 0; k < batch.size(); ++k) {
+                result.add(SystemTestUtil.tupleToList(batch.getTuple(batch.selected(k))));
+            }
+        }
+        it.close();
+        result.sort(Comparator.comparing(Object::toString));
+        return result;
+    }
+
+    /**
+     * Unit test for TupleBatch row storage and the selection vector
+     */
+    @Test public void selection() {
+        TupleBatch batch = new TupleBatch(Utility.getTupleDesc(2), 4);
+        for (int i = 0; i < 4; ++i) {
+            batch.addTuple(Utility.getHeapTuple(new int[] { i, 10 * i }));
+        }
+        assertTrue(batch.isFull());
+        assertEquals(4, batch.size());
+
+        Predicate pred = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(1));
+        pred.filter(batch);
+        assertEquals(2, batch.size());
+        assertEquals(2, batch.selected(0));
+        assertEquals(30, batch.getInt(1, batch.selected(1)));
+
+        TupleBatch view = batch.project(Utility.getTupleDesc(1), new int[] { 1 });
+        assertEquals(2, view.size());
+        assertEquals(20, view.getInt(0, view.selected(0)));
+    }
+
+    /**
+     * Unit test for SeqScan, Filter and Project batches
+     */
+    @Test public void scanFilterProject() throws Exception {
+        Predicate pred = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30));
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(2, 0));
+
+        ArrayList<ArrayList<Integer>> expected = TestUtil.drainSortedTuples(new Project(fields, types,
+                new Filter(pred, new SeqScan(tid, table1.getId(), "t1"))));
+        ArrayList<ArrayList<Integer>> actual = drainBatches(new Project(fields, types,
+                new Filter(pred, new SeqScan(tid, table1.getId(), "t1"))));
+        assertTrue(expected.size() > 0);
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Unit test for SeqScan batches read from the pages of a heap file, with
+     * projected fields, pushed predicates, runtime filters and calls to
+     * next in between
+     */
+    @Test public void scanPages() throws Exception {
+        int[] fields = new int[] { 2, HeapFile.ROWID_FIELD, 0 };
+        Predicate pred = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(60));
+        BloomFilter bloom = new BloomFilter(10);
+        for (int key = 0; key < 10; ++key) {
+            bloom.add(key);
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : TestUtil.drainSortedTuples(new SeqScan(tid, table1.getId(), "t1", fields))) {
+            if (t.get(0) < 60 && bloom.mightContain(t.get(2))) {
+                expected.add(t);
+            }
+        }
+        assertTrue(expected.size() > 0);
+
+        SeqScan scan = new SeqScan(tid, table1.getId(), "t1", fields);
+        scan.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(60)));
+        scan.addRuntimeFilter(new RuntimeFilter(2, bloom));
+        assertEquals(expected, drainBatches(scan));
+
+        // next and nextBatch return every tuple once, with its RecordId.
+        scan = new SeqScan(tid, table1.getId(), "t1");
+        scan.open();
+        ArrayList<ArrayList<Integer>> actual = new ArrayList<ArrayList<Integer>>();
+        HashSet<RecordId> rids = new HashSet<RecordId>();
+        TupleBatch batch;
+        do {
+            for (int i = 0; i < 100 && scan.hasNext(); ++i) {
+                Tuple t = scan.next();
+                actual.add(SystemTestUtil.tupleToList(t));
+                assertTrue(rids.add(t.getRecordId()));
+            }
+            batch = scan.nextBatch();
+            for (int k = 0; batch != null && k < batch.size(); ++k) {
+                actual.add(SystemTestUtil.tupleToList(batch.getTuple(batch.selected(k))));
+                assertTrue(rids.add(batch.getRecordId(batch.selected(k))));
+            }
+        } while (batch != null);
+        scan.close();
+        actual.sort(Comparator.comparing(Object::toString));
+        assertEquals(TestUtil.drainSortedTuples(new SeqScan(tid, table1.getId(), "t1")), actual);
+    }
+
+    /**
+     * Unit test for HashEquiJoin batches, with a tuple-at-a-time child
+     */
+    @Test public void hashEquiJoin() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        TupleIterator probe = TestUtil.createTupleList(2, new int[] { 1, 2, 5, 6, 7, 8, 1, 9 });
+
+        ArrayList<ArrayList<Integer>> expected = TestUtil.drainSortedTuples(new HashEquiJoin(pred,
+                new SeqScan(tid, table1.getId(), "t1"), new SeqScan(tid, table2.getId(), "t2")));
+        ArrayList<ArrayList<Integer>> actual = drainBatches(new HashEquiJoin(pred,
+                new SeqScan(tid, table1.getId(), "t1"), new SeqScan(tid, table2.getId(), "t2")));
+        assertTrue(expected.size() > TupleBatch.DEFAULT_CAPACITY);
+        assertEquals(expected, actual);
+
+        expected = TestUtil.drainSortedTuples(new HashEquiJoin(pred, new SeqScan(tid, table1.getId(), "t1"), probe));
+        actual = drainBatches(new HashEquiJoin(pred, new SeqScan(tid, table1.getId(), "t1"), probe));
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Unit test for Aggregate batches
+     */
+    @Test public void aggregate() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = TestUtil.drainSortedTuples(new Aggregate(
+                new SeqScan(tid, table1.getId(), "t1"), 2, 0, Aggregator.Op.SUM));
+        Aggregate agg = new Aggregate(new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ,
+                new IntField(0)), new SeqScan(tid, table1.getId(), "t1")), 2, 0, Aggregator.Op.SUM);
+        assertEquals(expected, drainBatches(agg));
+
+        agg = new Aggregate(new SeqScan(tid, table1.getId(), "t1"), 1, Aggregator.NO_GROUPING,
+                Aggregator.Op.COUNT);
+        agg.open();
+        TupleBatch batch = agg.nextBatch();
+        assertEquals(1, batch.size());
+        assertEquals(3000, batch.getInt(0, batch.selected(0)));
+        assertNull(agg.nextBatch());
+        agg.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
@@ -0,0 +1,71 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TupleHashTableTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for IntHashTable with duplicated keys, growth and misses
+     */
+    @Test public void intTable() {
+        IntHashTable table = new IntHashTable();
+        HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 5000; ++i) {
+            int key = (i % 1000) * 7919 - 3000000;
+            table.add(key, Utility.getHeapTuple(new int[] { key, i }));
+            expected.merge(key, 1, Integer::sum);
+        }
+        assertEquals(5000, table.size());
+        assertEquals(1000, table.numKeys());
+        for (int key : expected.keySet()) {
+            int count = 0;
+            for (int row = table.find(key); row != TupleHashTable.NONE; row = table.next(row)) {
+                assertEquals(key, table.get(row).getInt(0));
+                ++count;
+            }
+            assertEquals((int) expected.get(key), count);
+        }
+        assertEquals(TupleHashTable.NONE, table.find(1));
+    }
+
+    /**
+     * Unit test for StringHashTable with duplicated keys, growth and misses
+     */
+    @Test public void stringTable() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        StringHashTable table = new StringHashTable(4);
+        for (int i = 0; i < 3000; ++i) {
+            Tuple t = new Tuple(td);
+            t.setString(0, "key" + (i % 300));
+            t.setInt(1, i);
+            table.add(t.getString(0), t);
+        }
+        assertEquals(300, table.numKeys());
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        for (int row = table.find("key42"); row != TupleHashTable.NONE; row = table.next(row)) {
+            assertEquals("key42", table.get(row).getString(0));
+            values.add(table.get(row).getInt(1));
+        }
+        assertEquals(10, values.size());
+        for (int v : values) {
+            assertTrue(v % 300 == 42);
+        }
+        assertEquals(TupleHashTable.NONE, table.find("key300"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleHashTableTest.class);
+    }
+}
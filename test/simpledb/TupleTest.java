@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -29,6 +30,52 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for the primitive accessors and their interplay with
+     * Tuple.getField() / Tuple.setField()
+     */
+    @Test public void primitiveFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Tuple tup = new Tuple(td);
+        assertNull(tup.getField(0));
+        assertNull(tup.getField(1));
+
+        tup.setInt(0, 42);
+        tup.setString(1, "hello");
+        assertEquals(42, tup.getInt(0));
+        assertEquals("hello", tup.getString(1));
+        assertEquals(new IntField(42), tup.getField(0));
+        assertEquals(new StringField("hello", Type.STRING_LEN), tup.getField(1));
+
+        tup.setField(0, new IntField(-7));
+        assertEquals(-7, tup.getInt(0));
+    }
+
+    /**
+     * Unit test for Tuple.merge() and Tuple.copyField()
+     */
+    @Test public void mergeAndCopy() {
+        TupleDesc td1 = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        TupleDesc td2 = Utility.getTupleDesc(2);
+        Tuple t1 = new Tuple(td1);
+        t1.setInt(0, 1);
+        t1.setString(1, "a");
+        Tuple t2 = Utility.getHeapTuple(new int[] { 2, 3 });
+
+        TupleDesc merged = TupleDesc.merge(td1, td2);
+        Tuple m = Tuple.merge(merged, t1, t2);
+        assertEquals(1, m.getInt(0));
+        assertEquals("a", m.getString(1));
+        assertEquals(2, m.getInt(2));
+        assertEquals(3, m.getInt(3));
+
+        Tuple c = new Tuple(td2);
+        c.copyField(0, m, 3);
+        c.copyField(1, m, 0);
+        assertEquals(3, c.getInt(0));
+        assertEquals(1, c.getInt(1));
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
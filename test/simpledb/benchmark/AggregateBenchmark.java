@@ -0,0 +1,52 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+/**
+ * Group-by throughput of IntGroupAggregator compared with IntegerAggregator,
+ * which boxes every group key into a HashMap, for SUM over an INT field
+ * grouped by an INT field.
+ * <p>
+ * Arguments: the numbers of distinct groups (default 10K and 10M). Every
+ * run merges max(10M, groups) tuples; the keys visit the groups in a
+ * scattered order.
+ */
+public class AggregateBenchmark {
+
+    private static final int MIN_ROWS = 10000000;
+
+    private static int[] keys;
+
+    /**
+     * Merges all the rows into agg, reusing one tuple.
+     */
+    private static long merge(Aggregator agg, int rows) {
+        Tuple t = new Tuple(Utility.getTupleDesc(2));
+        for (int i = 0; i < rows; ++i) {
+            t.setInt(0, keys[i]);
+            t.setInt(1, i);
+            agg.mergeTupleIntoGroup(t);
+        }
+        return rows;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = BenchmarkUtil.intArgs(args, 10000, 10000000);
+
+        for (final int groups : sizes) {
+            final int rows = Math.max(MIN_ROWS, groups);
+            keys = new int[rows];
+            for (int i = 0; i < rows; ++i) {
+                // a multiplicative permutation of the groups, repeated.
+                keys[i] = (int) ((i * 2654435761L) % groups);
+            }
+
+            BenchmarkUtil.measure("IntGroupAggregator " + groups + " groups", rows, 1, 3, null,
+                    () -> merge(new IntGroupAggregator(0, 1, Aggregator.Op.SUM), rows));
+            BenchmarkUtil.measure("IntegerAggregator " + groups + " groups", rows, 1, 3, null,
+                    () -> merge(new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM), rows));
+            keys = null;
+        }
+        System.out.println("checksum " + BenchmarkUtil.sink());
+    }
+}
@@ -0,0 +1,92 @@
+package simpledb.benchmark;
+
+/**
+ * Minimal harness for the micro-benchmarks in this package. Each benchmark
+ * body is run a few times to warm up the JIT, then timed over several
+ * iterations; the median time is reported as throughput.
+ * <p>
+ * Run a benchmark with <code>ant runbenchmark -Dbenchmark=Name</code>,
+ * optionally passing <code>-Dargs="..."</code>.
+ */
+public class BenchmarkUtil {
+
+    /** The body of a benchmark. */
+    public interface Body {
+        /**
+         * Runs the benchmark once.
+         *
+         * @return a checksum of the work done, so that the JIT can't remove
+         *         the work as dead code.
+         */
+        long run() throws Exception;
+    }
+
+    /** Work that runs before every iteration and isn't timed. */
+    public interface Setup {
+        void run() throws Exception;
+    }
+
+    private static long sink = 0;
+
+    /**
+     * Times a benchmark and prints its median throughput.
+     *
+     * @param name
+     *            the name printed with the result.
+     * @param ops
+     *            the number of operations (e.g. rows) one run processes.
+     * @param warmups
+     *            the number of untimed runs.
+     * @param iterations
+     *            the number of timed runs.
+     * @param setup
+     *            untimed work run before every run, or null.
+     * @param body
+     *            the benchmark.
+     * @return the median time of one run, in nanoseconds.
+     */
+    public static long measure(String name, long ops, int warmups, int iterations,
+            Setup setup, Body body) throws Exception {
+        for (int i = 0; i < warmups; ++i) {
+            if (setup != null)
+                setup.run();
+            sink += body.run();
+        }
+        long[] times = new long[iterations];
+        for (int i = 0; i < iterations; ++i) {
+            if (setup != null)
+                setup.run();
+            long start = System.nanoTime();
+            sink += body.run();
+            times[i] = System.nanoTime() - start;
+        }
+        java.util.Arrays.sort(times);
+        long median = times[iterations / 2];
+        System.out.printf("%-40s %12d ops %10.1f ms %10.2f Mops/s%n", name, ops,
+                median / 1e6, ops * 1e3 / median);
+        return median;
+    }
+
+    /**
+     * @return the integers given on the command line, or defaults if there
+     *         are none.
+     */
+    public static int[] intArgs(String[] args, int... defaults) {
+        if (args.length == 0) {
+            return defaults;
+        }
+        int[] result = new int[args.length];
+        for (int i = 0; i < args.length; ++i) {
+            result[i] = Integer.parseInt(args[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @return the accumulated checksums, to be printed at the end of a
+     *         benchmark.
+     */
+    public static long sink() {
+        return sink;
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Throughput of interpreted and compiled ({@link QueryCompiler}) predicates
+ * and projections, over a heap file cached in the buffer pool:
+ * <ul>
+ * <li>a conjunction of three filters on INT fields, pulled a tuple at a time
+ * and pushed a batch at a time;</li>
+ * <li>a projection of three fields, pulled a tuple at a time;</li>
+ * <li>a block nested loop join on a STRING field (pairs compared per
+ * second).</li>
+ * </ul>
+ * Also prints the time to compile a new shape. Arguments: the number of rows
+ * (default 4M).
+ */
+public class CompiledPredicateBenchmark {
+
+    private interface PlanFactory {
+        DbIterator create();
+    }
+
+    private static long pullTuples(DbIterator plan) throws Exception {
+        plan.open();
+        long rows = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            rows++;
+        }
+        plan.close();
+        return rows;
+    }
+
+    private static long pullBatches(DbIterator plan) throws Exception {
+        BatchDbIterator batches = BatchAdapter.of(plan);
+        batches.open();
+        long rows = 0;
+        TupleBatch batch;
+        while ((batch = batches.nextBatch()) != null) {
+            rows += batch.size();
+        }
+        batches.close();
+        return rows;
+    }
+
+    private static void compare(String name, long ops, boolean batches, final PlanFactory plans)
+            throws Exception {
+        for (boolean compiled : new boolean[] { false, true }) {
+            QueryCompiler.setEnabled(compiled);
+            BenchmarkUtil.measure(name + (compiled ? " compiled" : " interpreted"), ops, 1, 3, null,
+                    () -> batches ? pullBatches(plans.create()) : pullTuples(plans.create()));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArgs(args, 4000000)[0];
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(4, rows, 100000, null, null);
+        Database.resetBufferPool(f.numPages() + 16);
+        final TransactionId tid = new TransactionId();
+        final Predicate[] preds = new Predicate[] {
+                new Predicate(1, Predicate.Op.LESS_THAN, new IntField(90000)),
+                new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(10000)),
+                new Predicate(3, Predicate.Op.NOT_EQUALS, new IntField(0)) };
+        final PlanFactory filters = () -> {
+            DbIterator plan = new SeqScan(tid, f.getId(), "t");
+            for (Predicate p : preds) {
+                plan = new Filter(p, plan);
+            }
+            return plan;
+        };
+
+        long start = System.nanoTime();
+        QueryCompiler.compileFilter(f.getTupleDesc(), new Predicate(0, Predicate.Op.LIKE, new IntField(0)));
+        System.out.printf("compiling one shape: %.1f ms%n", (System.nanoTime() - start) / 1e6);
+
+        compare("filters tuple", rows, false, filters);
+        compare("filters push", rows, true, () -> PushPlan.compile(filters.create()));
+        final ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(3, 1, 0));
+        final Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
+        compare("project tuple", rows, false, () -> new Project(fields, types, new SeqScan(tid, f.getId(), "t")));
+
+        // 2K x 2K string keys
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        final ArrayList<Tuple> strings = new ArrayList<Tuple>();
+        for (int i = 0; i < 2000; ++i) {
+            Tuple t = new Tuple(td);
+            t.setString(0, "key" + (i * 7919 % 2000));
+            strings.add(t);
+        }
+        final JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        compare("string join", 2000L * 2000, false, () -> new BlockNestedLoopJoin(eq,
+                new TupleIterator(td, strings), new TupleIterator(td, strings), 1 << 30));
+
+        QueryCompiler.setEnabled(true);
+        Database.getBufferPool().transactionComplete(tid);
+        System.out.println("checksum " + BenchmarkUtil.sink());
+    }
+}
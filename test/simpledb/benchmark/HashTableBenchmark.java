@@ -0,0 +1,115 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Build and probe throughput of the hash tables HashEquiJoin builds on its
+ * build side, compared with the HashMap&lt;Integer, ArrayList&lt;Tuple&gt;&gt;
+ * the join used before.
+ * <p>
+ * Arguments: the numbers of build rows (default 1M, 10M and 50M). Every
+ * build is probed with as many random keys. The HashMap baseline is only run
+ * up to 10M rows, beyond which it needs several GB of heap.
+ */
+public class HashTableBenchmark {
+
+    private static final int BASELINE_MAX_ROWS = 10000000;
+
+    private static int[] buildKeys, probeKeys;
+    private static IntHashTable intTable;
+    private static StringHashTable strTable;
+    private static HashMap<Integer, ArrayList<Tuple>> map;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = BenchmarkUtil.intArgs(args, 1000000, 10000000, 50000000);
+        // the tables only store references, so every row shares one tuple.
+        final Tuple tuple = Utility.getHeapTuple(new int[] { 1, 2 });
+
+        for (final int n : sizes) {
+            Random rand = new Random(660);
+            buildKeys = new int[n];
+            probeKeys = new int[n];
+            for (int i = 0; i < n; ++i) {
+                // about 2 rows per distinct key, and half the probes miss.
+                buildKeys[i] = rand.nextInt(n / 2 + 1);
+                probeKeys[i] = rand.nextInt(n + 1);
+            }
+
+            BenchmarkUtil.measure("IntHashTable build " + n, n, 1, 3, () -> {
+                intTable = null;
+            }, () -> {
+                intTable = new IntHashTable(n);
+                for (int i = 0; i < n; ++i) {
+                    intTable.add(buildKeys[i], tuple);
+                }
+                return intTable.size();
+            });
+            BenchmarkUtil.measure("IntHashTable probe " + n, n, 1, 3, null, () -> {
+                long matches = 0;
+                for (int i = 0; i < n; ++i) {
+                    for (int row = intTable.find(probeKeys[i]); row != TupleHashTable.NONE;
+                            row = intTable.next(row)) {
+                        ++matches;
+                    }
+                }
+                return matches;
+            });
+            intTable = null;
+
+            if (n <= BASELINE_MAX_ROWS) {
+                BenchmarkUtil.measure("HashMap build " + n, n, 1, 3, () -> {
+                    map = null;
+                }, () -> {
+                    map = new HashMap<>();
+                    for (int i = 0; i < n; ++i) {
+                        map.computeIfAbsent(buildKeys[i], k -> new ArrayList<>()).add(tuple);
+                    }
+                    return map.size();
+                });
+                BenchmarkUtil.measure("HashMap probe " + n, n, 1, 3, null, () -> {
+                    long matches = 0;
+                    for (int i = 0; i < n; ++i) {
+                        ArrayList<Tuple> list = map.get(probeKeys[i]);
+                        if (list != null) {
+                            matches += list.size();
+                        }
+                    }
+                    return matches;
+                });
+                map = null;
+
+                final String[] strBuildKeys = new String[n];
+                final String[] strProbeKeys = new String[n];
+                for (int i = 0; i < n; ++i) {
+                    strBuildKeys[i] = "key" + buildKeys[i];
+                    strProbeKeys[i] = "key" + probeKeys[i];
+                }
+                BenchmarkUtil.measure("StringHashTable build " + n, n, 1, 3, () -> {
+                    strTable = null;
+                }, () -> {
+                    strTable = new StringHashTable(n);
+                    for (int i = 0; i < n; ++i) {
+                        strTable.add(strBuildKeys[i], tuple);
+                    }
+                    return strTable.size();
+                });
+                BenchmarkUtil.measure("StringHashTable probe " + n, n, 1, 3, null, () -> {
+                    long matches = 0;
+                    for (int i = 0; i < n; ++i) {
+                        for (int row = strTable.find(strProbeKeys[i]); row != TupleHashTable.NONE;
+                                row = strTable.next(row)) {
+                            ++matches;
+                        }
+                    }
+                    return matches;
+                });
+                strTable = null;
+            }
+        }
+        System.out.println("checksum " + BenchmarkUtil.sink());
+    }
+}
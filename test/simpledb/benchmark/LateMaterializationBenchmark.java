@@ -0,0 +1,82 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import simpledb.*;
+
+/**
+ * Throughput of SELECT t.s0 FROM t WHERE t.key < x over a table of two INT
+ * and four STRING fields, at selectivities of 1%, 10% and 50%, planned three
+ * ways:
+ * <ul>
+ * <li>Project over Filter over a full SeqScan;</li>
+ * <li>Project over a SeqScan of the whole tuples with the predicate pushed
+ * down;</li>
+ * <li>Project over Fetch of s0 over a SeqScan of the key and the row id with
+ * the predicate pushed down (late materialization).</li>
+ * </ul>
+ * The buffer pool is emptied before every run. Arguments: the number of rows
+ * (default 1M).
+ */
+public class LateMaterializationBenchmark {
+
+    private static long drain(DbIterator plan) throws Exception {
+        plan.open();
+        long rows = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            rows++;
+        }
+        plan.close();
+        return rows;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArgs(args, 1000000)[0];
+        File csv = File.createTempFile("late", ".txt");
+        csv.deleteOnExit();
+        FileWriter out = new FileWriter(csv);
+        for (int i = 0; i < rows; ++i) {
+            int key = (int) ((i * 2654435761L) % 100000);
+            out.write(i + "," + key + ",first" + i + ",second" + i + ",third" + i + ",fourth" + i + "\n");
+        }
+        out.close();
+        File data = File.createTempFile("late", ".dat");
+        data.deleteOnExit();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE,
+                Type.STRING_TYPE, Type.STRING_TYPE };
+        HeapFileEncoder.convert(csv, data, BufferPool.getPageSize(), types.length, types);
+        final HeapFile f = new HeapFile(data, new TupleDesc(types));
+        Database.getCatalog().addTable(f, "late");
+
+        final int pages = f.numPages() + 16;
+        final TransactionId tid = new TransactionId();
+        final Type[] projected = new Type[] { Type.STRING_TYPE };
+        for (final int percent : new int[] { 1, 10, 50 }) {
+            final Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(percent * 1000));
+            BenchmarkUtil.measure("Filter " + percent + "%", rows, 1, 3,
+                    () -> Database.resetBufferPool(pages),
+                    () -> drain(new Project(new ArrayList<Integer>(Arrays.asList(2)), projected,
+                            new Filter(p, new SeqScan(tid, f.getId(), "t")))));
+            BenchmarkUtil.measure("pushed down " + percent + "%", rows, 1, 3,
+                    () -> Database.resetBufferPool(pages), () -> {
+                        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+                        scan.addPredicate(p);
+                        return drain(new Project(new ArrayList<Integer>(Arrays.asList(2)), projected, scan));
+                    });
+            BenchmarkUtil.measure("late materialized " + percent + "%", rows, 1, 3,
+                    () -> Database.resetBufferPool(pages), () -> {
+                        SeqScan scan = new SeqScan(tid, f.getId(), "t",
+                                new int[] { 1, HeapFile.ROWID_FIELD });
+                        scan.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(percent * 1000)));
+                        Fetch fetch = new Fetch(tid, scan, 1, f.getId(), "t", new int[] { 2 });
+                        return drain(new Project(new ArrayList<Integer>(Arrays.asList(2)), projected, fetch));
+                    });
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        System.out.println("checksum " + BenchmarkUtil.sink());
+    }
+}
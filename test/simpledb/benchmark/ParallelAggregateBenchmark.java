@@ -0,0 +1,41 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Scaling of Aggregate with partial aggregation on 1, 2, 4, 8 and 16 worker
+ * threads, for SUM over an INT field grouped by an INT field with 10K
+ * distinct values, scanning a heap file that is cached in the buffer pool.
+ * <p>
+ * Arguments: the number of rows (default 4M).
+ */
+public class ParallelAggregateBenchmark {
+
+    private static final int[] THREADS = new int[] { 1, 2, 4, 8, 16 };
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArgs(args, 4000000)[0];
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(2, rows, 10000, null, null);
+        Database.resetBufferPool(table.numPages() + 16);
+        final TransactionId tid = new TransactionId();
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors, "
+                + table.numPages() + " pages");
+
+        for (final int threads : THREADS) {
+            BenchmarkUtil.measure("Aggregate " + threads + " threads", rows, 2, 5, null, () -> {
+                Aggregate agg = new Aggregate(new SeqScan(tid, table.getId(), "t"), 1, 0, Aggregator.Op.SUM);
+                agg.setParallelism(threads);
+                agg.open();
+                long groups = 0;
+                while (agg.hasNext()) {
+                    groups += agg.next().getInt(1) == 0 ? 0 : 1;
+                }
+                agg.close();
+                return groups;
+            });
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        System.out.println("checksum " + BenchmarkUtil.sink());
+    }
+}
@@ -0,0 +1,52 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Scaling of ParallelHashJoin on 2, 4, 8 and 16 worker threads compared
+ * with HashEquiJoin, for an equi-join on INT fields where every probe tuple
+ * has about one join partner, over heap files cached in the buffer pool.
+ * <p>
+ * Arguments: the number of build rows and of probe rows (default 1M and
+ * 4M).
+ */
+public class ParallelJoinBenchmark {
+
+    private static final int[] THREADS = new int[] { 2, 4, 8, 16 };
+
+    private static long drain(DbIterator join) throws Exception {
+        join.open();
+        long rows = 0;
+        while (join.hasNext()) {
+            join.next();
+            rows++;
+        }
+        join.close();
+        return rows;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = BenchmarkUtil.intArgs(args, 1000000, 4000000);
+        final int buildRows = sizes[0];
+        final int probeRows = sizes[1];
+        final HeapFile build = SystemTestUtil.createRandomHeapFile(2, buildRows, buildRows, null, null);
+        final HeapFile probe = SystemTestUtil.createRandomHeapFile(2, probeRows, buildRows, null, null);
+        Database.resetBufferPool(build.numPages() + probe.numPages() + 16);
+        final TransactionId tid = new TransactionId();
+        final JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        final int budget = 256 * 1024 * 1024;
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors, "
+                + build.numPages() + " + " + probe.numPages() + " pages");
+
+        BenchmarkUtil.measure("HashEquiJoin", probeRows, 1, 3, null, () -> drain(new HashEquiJoin(pred,
+                new SeqScan(tid, build.getId(), "b"), new SeqScan(tid, probe.getId(), "p"), budget)));
+        for (final int threads : THREADS) {
+            BenchmarkUtil.measure("ParallelHashJoin " + threads + " threads", probeRows, 1, 3, null,
+                    () -> drain(new ParallelHashJoin(pred, new SeqScan(tid, build.getId(), "b"),
+                            new SeqScan(tid, probe.getId(), "p"), budget, threads)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        System.out.println("checksum " + BenchmarkUtil.sink());
+    }
+}
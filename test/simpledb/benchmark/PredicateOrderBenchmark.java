@@ -0,0 +1,71 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+
+import simpledb.*;
+
+/**
+ * Throughput of a conjunction and of a disjunction whose expensive, rarely
+ * deciding predicate (a LIKE on a STRING field) comes first in the query,
+ * evaluated by one Filter per predicate in query order and by one Filter
+ * over a {@link PredicateTree}, which moves the cheap, deciding predicate on
+ * an INT field first. The disjunction is also evaluated in a loop that keeps
+ * the query order. Tuples are read from memory.
+ * <p>
+ * Arguments: the number of rows (default 1M).
+ */
+public class PredicateOrderBenchmark {
+
+    private static long drain(DbIterator plan) throws Exception {
+        plan.open();
+        long rows = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            rows++;
+        }
+        plan.close();
+        return rows;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArgs(args, 1000000)[0];
+        final TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; ++i) {
+            Tuple t = new Tuple(td);
+            t.setInt(0, (int) ((i * 2654435761L) % 1000));
+            t.setString(1, "a rather long description of row number " + i);
+            tuples.add(t);
+        }
+        // true for 99% and for 1% of the rows.
+        final Predicate like = new Predicate(1, Predicate.Op.LIKE, new StringField("description", Type.STRING_LEN));
+        final Predicate unlike = new Predicate(1, Predicate.Op.LIKE, new StringField("row number 7", Type.STRING_LEN));
+        final Predicate lt = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10));
+        final Predicate ge = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(10));
+
+        // the adaptive filters run first: the type profiles the JIT collects
+        // on the other plans slow down the Filters that run after them.
+        BenchmarkUtil.measure("AND adaptive", rows, 3, 5, null,
+                () -> drain(new Filter(PredicateTree.and(like, lt), new TupleIterator(td, tuples))));
+        BenchmarkUtil.measure("AND query order", rows, 3, 5, null,
+                () -> drain(new Filter(lt, new Filter(like, new TupleIterator(td, tuples)))));
+        // Filters cannot evaluate a disjunction one predicate at a time;
+        // compare the query order with the order the tree settles on.
+        BenchmarkUtil.measure("OR query order", rows, 3, 5, null,
+                () -> drain(new Filter(PredicateTree.or(PredicateTree.of(unlike), PredicateTree.of(ge)),
+                        new TupleIterator(td, tuples))));
+        BenchmarkUtil.measure("OR best order", rows, 3, 5, null,
+                () -> drain(new Filter(PredicateTree.or(PredicateTree.of(ge), PredicateTree.of(unlike)),
+                        new TupleIterator(td, tuples))));
+        BenchmarkUtil.measure("OR never reordered", rows, 3, 5, null, () -> {
+            long n = 0;
+            for (Tuple t : tuples) {
+                if (unlike.filter(t) || ge.filter(t)) {
+                    n++;
+                }
+            }
+            return n;
+        });
+        System.out.println("checksum " + BenchmarkUtil.sink());
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Throughput of the same plans pulled tuple at a time, pulled a batch at a
+ * time, and run by PushPlan, over heap files cached in the buffer pool:
+ * <ul>
+ * <li>scan, filter and project;</li>
+ * <li>scan, filter, hash join probe and project, with a 100K row build
+ * side;</li>
+ * <li>scan, filter and SUM grouped by an INT field.</li>
+ * </ul>
+ * Arguments: the number of rows of the probed table (default 4M).
+ */
+public class PushPlanBenchmark {
+
+    private interface PlanFactory {
+        DbIterator create();
+    }
+
+    private static long pullTuples(DbIterator plan) throws Exception {
+        plan.open();
+        long rows = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            rows++;
+        }
+        plan.close();
+        return rows;
+    }
+
+    private static long pullBatches(DbIterator plan) throws Exception {
+        BatchDbIterator batches = BatchAdapter.of(plan);
+        batches.open();
+        long rows = 0;
+        TupleBatch batch;
+        while ((batch = batches.nextBatch()) != null) {
+            rows += batch.size();
+        }
+        batches.close();
+        return rows;
+    }
+
+    private static void compare(String name, int rows, final PlanFactory plans) throws Exception {
+        BenchmarkUtil.measure(name + " pull tuples", rows, 1, 3, null, () -> pullTuples(plans.create()));
+        BenchmarkUtil.measure(name + " pull batches", rows, 1, 3, null, () -> pullBatches(plans.create()));
+        BenchmarkUtil.measure(name + " push", rows, 1, 3, null,
+                () -> pullBatches(PushPlan.compile(plans.create())));
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArgs(args, 4000000)[0];
+        final HeapFile build = SystemTestUtil.createRandomHeapFile(2, 100000, 100000, null, null);
+        final HeapFile probe = SystemTestUtil.createRandomHeapFile(3, rows, 100000, null, null);
+        Database.resetBufferPool(build.numPages() + probe.numPages() + 16);
+        final TransactionId tid = new TransactionId();
+        final Predicate half = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50000));
+        final ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(0, 2));
+        final Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+
+        compare("scan-filter-project", rows, () -> new Project(fields, types,
+                new Filter(half, new SeqScan(tid, probe.getId(), "p"))));
+        compare("scan-filter-probe-project", rows, () -> new Project(fields, types,
+                new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), new SeqScan(tid, build.getId(), "b"),
+                        new Filter(half, new SeqScan(tid, probe.getId(), "p")))));
+        compare("scan-filter-aggregate", rows, () -> {
+            Aggregate agg = new Aggregate(new Filter(half, new SeqScan(tid, probe.getId(), "p")), 2, 0,
+                    Aggregator.Op.SUM);
+            agg.setParallelism(1);
+            return agg;
+        });
+        Database.getBufferPool().transactionComplete(tid);
+        System.out.println("checksum " + BenchmarkUtil.sink());
+    }
+}
@@ -0,0 +1,46 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Throughput of a Filter over a SeqScan compared with the same predicate
+ * pushed down into the SeqScan, at selectivities of 1%, 10% and 50%. The
+ * buffer pool is emptied before every run, so that every page is read
+ * (from the OS cache) and its tuples are decoded again.
+ * <p>
+ * Arguments: the number of rows (default 4M).
+ */
+public class ScanPushdownBenchmark {
+
+    private static long drain(DbIterator plan) throws Exception {
+        plan.open();
+        long rows = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            rows++;
+        }
+        plan.close();
+        return rows;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArgs(args, 4000000)[0];
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(4, rows, 100000, null, null);
+        final int pages = f.numPages() + 16;
+        final TransactionId tid = new TransactionId();
+        for (final int percent : new int[] { 1, 10, 50 }) {
+            final Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(percent * 1000));
+            BenchmarkUtil.measure("Filter over SeqScan " + percent + "%", rows, 1, 3,
+                    () -> Database.resetBufferPool(pages),
+                    () -> drain(new Filter(p, new SeqScan(tid, f.getId(), "t"))));
+            BenchmarkUtil.measure("pushed into SeqScan " + percent + "%", rows, 1, 3,
+                    () -> Database.resetBufferPool(pages), () -> {
+                        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+                        scan.addPredicate(p);
+                        return drain(scan);
+                    });
+        }
+        System.out.println("checksum " + BenchmarkUtil.sink());
+    }
+}
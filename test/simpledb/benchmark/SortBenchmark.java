@@ -0,0 +1,76 @@
+package simpledb.benchmark;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * In-memory sort throughput of ExternalSorter on normalized SortKeys,
+ * compared with sorting through Field.compare as OrderBy did before.
+ * <p>
+ * Arguments: the numbers of rows (default 1M and 4M). The rows are sorted on
+ * an INT field alone, and on an INT field (DESC) followed by a STRING field.
+ */
+public class SortBenchmark {
+
+    private static Tuple[] rows, copy;
+
+    /**
+     * Compares the fields one by one through Field.compare.
+     */
+    private static Comparator<Tuple> fieldComparator(final int[] fields, final boolean[] ascs) {
+        return (t1, t2) -> {
+            for (int i = 0; i < fields.length; ++i) {
+                Field f1 = t1.getField(fields[i]);
+                Field f2 = t2.getField(fields[i]);
+                if (f1.compare(Predicate.Op.EQUALS, f2)) {
+                    continue;
+                }
+                boolean gt = f1.compare(Predicate.Op.GREATER_THAN, f2);
+                return gt == ascs[i] ? 1 : -1;
+            }
+            return 0;
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = BenchmarkUtil.intArgs(args, 1000000, 4000000);
+        final TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        final int[][] keys = { { 0 }, { 0, 1 } };
+        final boolean[][] ascs = { { true }, { false, true } };
+
+        for (final int n : sizes) {
+            Random rand = new Random(660);
+            rows = new Tuple[n];
+            for (int i = 0; i < n; ++i) {
+                Tuple t = new Tuple(td);
+                t.setInt(0, rand.nextInt(n / 100 + 1));
+                t.setString(1, "customer#" + rand.nextInt(n));
+                rows[i] = t;
+            }
+            for (int k = 0; k < keys.length; ++k) {
+                final int[] fields = keys[k];
+                final boolean[] asc = ascs[k];
+                String label = fields.length == 1 ? "INT" : "INT DESC, STRING";
+
+                BenchmarkUtil.measure("Field.compare sort " + label + " " + n, n, 1, 3, () -> {
+                    copy = rows.clone();
+                }, () -> {
+                    Arrays.sort(copy, fieldComparator(fields, asc));
+                    return copy[0].getInt(0);
+                });
+                BenchmarkUtil.measure("SortKey sort " + label + " " + n, n, 1, 3, null, () -> {
+                    ExternalSorter sorter = new ExternalSorter(td, new SortKey(td, fields, asc), Long.MAX_VALUE);
+                    TupleIterator input = new TupleIterator(td, Arrays.asList(rows));
+                    input.open();
+                    sorter.sort(input);
+                    long sum = sorter.next().getInt(0);
+                    sorter.close();
+                    return sum;
+                });
+            }
+        }
+    }
+}
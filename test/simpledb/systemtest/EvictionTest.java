@@ -40,6 +40,48 @@ public class EvictionTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Several workers scan the same table through a small pool at once, as
+     * the parallel operators do; every worker must still see every tuple.
+     */
+    @Test public void testConcurrentScansWithSmallPool() throws Exception {
+        final int rows = 1024*50;
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, null, null);
+        Database.resetBufferPool(BUFFER_PAGES);
+        final int workers = 4;
+        final int[] counts = new int[workers];
+        final Exception[] errors = new Exception[workers];
+        Thread[] threads = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            final int w = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        SeqScan scan = new SeqScan(new TransactionId(), f.getId(), "");
+                        scan.open();
+                        while (scan.hasNext()) {
+                            scan.next();
+                            counts[w]++;
+                        }
+                        scan.close();
+                    } catch (Exception e) {
+                        errors[w] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (int i = 0; i < workers; i++) {
+            if (errors[i] != null) {
+                throw errors[i];
+            }
+            assertEquals(rows, counts[i]);
+        }
+    }
+
 //    public static void insertRow(HeapFile f, Transaction t) throws DbException,
 //            TransactionAbortedException {
 //        // Create a row to insert
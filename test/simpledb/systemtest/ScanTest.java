@@ -67,6 +67,45 @@ public class ScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /** Test that a SeqScan only returns the tuples that pass the predicates
+     * pushed into it, in batches too, including pages where none does. */
+    @Test public void testPushedPredicates() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, 1000, null, tuples);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 20 && t.get(2) >= 500) {
+                expected.add(t);
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "table");
+        scan.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(20)));
+        scan.addPredicate(new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(500)));
+        assertEquals(2, scan.getPredicates().size());
+        scan.open();
+        ArrayList<ArrayList<Integer>> actual = new ArrayList<ArrayList<Integer>>();
+        while (scan.hasNext()) {
+            actual.add(SystemTestUtil.tupleToList(scan.next()));
+        }
+        assertEquals(expected, actual);
+
+        scan.rewind();
+        int rows = 0;
+        TupleBatch batch;
+        while ((batch = scan.nextBatch()) != null) {
+            rows += batch.size();
+        }
+        assertEquals(expected.size(), rows);
+
+        scan.addPredicate(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(1000)));
+        scan.rewind();
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Verifies that the buffer pool is actually caching data.
      * @throws TransactionAbortedException
      * @throws DbException */